@@ -0,0 +1,65 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p> Runs the benchmarks with the GC profiler, so that every run reports
+ * the allocated bytes per operation ({@code gc.alloc.rate.norm}) next to throughput and latency.
+ * </p>
+ * <p> Accepts the usual JMH command line options, for example:
+ * </p>
+ * <pre>
+ *   java -jar target/benchmarks.jar IdListBenchmark -p size=1000 -rf json
+ * </pre>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+public final class Benchmarks {
+    
+    private Benchmarks() {
+        
+    }
+    
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException, IOException {
+        final CommandLineOptions commandLine = new CommandLineOptions(args);
+        final Runner runner = new Runner(new OptionsBuilder().
+            parent(commandLine).
+            addProfiler(GCProfiler.class).
+            build()
+        );
+        
+        if (commandLine.shouldHelp()) {
+            commandLine.showHelp();
+        } else if (commandLine.shouldList()) {
+            runner.list();
+        } else {
+            runner.run();
+        }
+    }
+    
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p> Compares the escape methods of {@link LuceneHelper} for every {@link EscapeCorpus}:
+ * the String variants, the appending variants (with a String and a StringBuilder as input)
+ * and the regular expressions that were used before 1.3.
+ * </p>
+ * <p> Each invocation escapes the next value of the corpus.
+ * The results of a reference run are checked in as {@code baseline/escaping.csv},
+ * with the time and the allocated bytes per operation (the gc count and time rows are left out).
+ * Update it with:
+ * </p>
+ * <pre>
+ *   java -jar target/benchmarks.jar EscapeBenchmark -rf csv -rff escaping.csv
+ *   grep -v 'gc\.\(count\|time\|alloc.rate"\)' escaping.csv &gt; baseline/escaping.csv
+ * </pre>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EscapeBenchmark {
+    
+    private static final int CORPUS_SIZE = 1024;
+    
+    @Param({"IDS", "PRODUCT_NAMES", "USER_INPUT", "NON_LATIN"})
+    private EscapeCorpus corpus;
+    
+    private String[] values;
+    
+    private StringBuilder[] builders;
+    
+    private final StringBuilder target = new StringBuilder(1024);
+    
+    private int index;
+    
+    @Setup
+    public void setup() {
+        values = corpus.generate(CORPUS_SIZE);
+        builders = new StringBuilder[CORPUS_SIZE];
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            builders[i] = new StringBuilder(values[i]);
+        }
+    }
+    
+    private int next() {
+        index = (index + 1) & (CORPUS_SIZE - 1);
+        return index;
+    }
+    
+    private StringBuilder target() {
+        target.setLength(0);
+        return target;
+    }
+    
+    /* escapeAll */
+    
+    @Benchmark
+    public String escapeAllRegex() {
+        return LuceneHelper.ESCAPE_WITH_QUOTES_PATTERN.matcher(values[next()]).replaceAll("\\\\$0");
+    }
+    
+    @Benchmark
+    public String escapeAllString() {
+        return LuceneHelper.escapeAll(values[next()]);
+    }
+    
+    @Benchmark
+    public StringBuilder escapeAllAppending() {
+        return LuceneHelper.escapeAll(values[next()], target());
+    }
+    
+    @Benchmark
+    public StringBuilder escapeAllCharSequence() {
+        return LuceneHelper.escapeAll(builders[next()], target());
+    }
+    
+    /* escapeInput */
+    
+    @Benchmark
+    public String escapeInputRegex() {
+        return LuceneHelper.ESCAPE_PATTERN.matcher(values[next()]).replaceAll("\\\\$0");
+    }
+    
+    @Benchmark
+    public String escapeInputString() {
+        return LuceneHelper.escapeInput(values[next()]);
+    }
+    
+    @Benchmark
+    public StringBuilder escapeInputAppending() {
+        return LuceneHelper.escapeInput(values[next()], target());
+    }
+    
+    @Benchmark
+    public StringBuilder escapeInputCharSequence() {
+        return LuceneHelper.escapeInput(builders[next()], target());
+    }
+    
+    /* escapeQuotes */
+    
+    @Benchmark
+    public String escapeQuotesRegex() {
+        return LuceneHelper.QUOTES_PATTERN.matcher(values[next()]).replaceAll("\\\\$0");
+    }
+    
+    @Benchmark
+    public String escapeQuotesString() {
+        return LuceneHelper.escapeQuotes(values[next()]);
+    }
+    
+    @Benchmark
+    public StringBuilder escapeQuotesAppending() {
+        return LuceneHelper.escapeQuotes(values[next()], target());
+    }
+    
+    @Benchmark
+    public StringBuilder escapeQuotesCharSequence() {
+        return LuceneHelper.escapeQuotes(builders[next()], target());
+    }
+    
+    /* removeSpecialCharacters */
+    
+    @Benchmark
+    public String removeSpecialCharactersRegex() {
+        return LuceneHelper.ESCAPE_WITH_QUOTES_PATTERN.matcher(values[next()]).replaceAll("");
+    }
+    
+    @Benchmark
+    public String removeSpecialCharactersString() {
+        return LuceneHelper.removeSpecialCharacters(values[next()]);
+    }
+    
+    @Benchmark
+    public StringBuilder removeSpecialCharactersAppending() {
+        return LuceneHelper.removeSpecialCharacters(values[next()], target());
+    }
+    
+    @Benchmark
+    public StringBuilder removeSpecialCharactersCharSequence() {
+        return LuceneHelper.removeSpecialCharacters(builders[next()], target());
+    }
+    
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import java.util.Random;
+
+/**
+ * <p> Generated input for the escaping benchmarks, one corpus per typical kind of value.
+ * Every corpus is generated with a fixed seed, so all runs see the same input.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+public enum EscapeCorpus {
+    
+    /**
+     * Pure ascii IDs, nothing to escape.
+     */
+    IDS {
+        
+        @Override
+        String next(Random random) {
+            return Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+        }
+        
+    },
+    
+    /**
+     * Product names with a few blanks, dashes and slashes.
+     */
+    PRODUCT_NAMES {
+        
+        private final String[] words = {
+            "Running", "Shoe", "T-Shirt", "red/blue", "XL", "Cotton", "2-pack", "Men", "Women", "Outdoor"
+        };
+        
+        @Override
+        String next(Random random) {
+            final StringBuilder name = new StringBuilder();
+            for (int i = 2 + random.nextInt(4); i > 0; i--) {
+                name.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            return name.toString().trim();
+        }
+        
+    },
+    
+    /**
+     * User input full of quotes, colons, brackets and operators.
+     */
+    USER_INPUT {
+        
+        private final String chars = "abcdefghij \"\":()+-*?!~^[]{}&|\\;";
+        
+        @Override
+        String next(Random random) {
+            final StringBuilder input = new StringBuilder();
+            for (int i = 10 + random.nextInt(30); i > 0; i--) {
+                input.append(chars.charAt(random.nextInt(chars.length())));
+            }
+            return input.toString();
+        }
+        
+    },
+    
+    /**
+     * Long cyrillic and chinese text, with a blank every few chars.
+     */
+    NON_LATIN {
+        
+        @Override
+        String next(Random random) {
+            final StringBuilder text = new StringBuilder();
+            for (int i = 100 + random.nextInt(100); i > 0; i--) {
+                if (random.nextInt(8) == 0) {
+                    text.append(' ');
+                } else if (random.nextBoolean()) {
+                    text.append((char) ('\u0410' + random.nextInt(32)));
+                } else {
+                    text.append((char) ('\u4e00' + random.nextInt(2000)));
+                }
+            }
+            return text.toString();
+        }
+        
+    };
+    
+    abstract String next(Random random);
+    
+    /**
+     * Generates the given number of values of this corpus.
+     * @param size the number of values
+     * @return the generated values
+     */
+    String[] generate(int size) {
+        final Random random = new Random(ordinal() + 1);
+        final String[] values = new String[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = next(random);
+        }
+        return values;
+    }
+    
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.search.BooleanQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p> Benchmarks ID lists, the most common large query:
+ * {@code addField("id", ids, LuceneQuery.MOD_ID)} with 10, 1000 and 50000 IDs.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdListBenchmark {
+    
+    @Param({"10", "1000", "50000"})
+    private int size;
+    
+    @Param({"DEFAULT", "DIRECT_API"})
+    private QueryImplementation implementation;
+    
+    private List<String> ids;
+    
+    private String[] idArray;
+    
+    @Setup
+    public void setup() {
+        final Random random = new Random(42L);
+        ids = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            ids.add(Long.toString(random.nextLong() & Long.MAX_VALUE, 36));
+        }
+        idArray = ids.toArray(new String[size]);
+        
+        // lucene allows 1024 clauses by default, which is not enough for the DirectApiLuceneQuery
+        BooleanQuery.setMaxClauseCount(Math.max(BooleanQuery.getMaxClauseCount(), size));
+    }
+    
+    @Benchmark
+    public Object collection() {
+        final LuceneQuery query = implementation.create();
+        query.addField("id", ids, LuceneQuery.MOD_ID);
+        return implementation.result(query);
+    }
+    
+    @Benchmark
+    public Object array() {
+        final LuceneQuery query = implementation.create();
+        query.addField("id", idArray, LuceneQuery.MOD_ID);
+        return implementation.result(query);
+    }
+    
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.queryParser.QueryParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p> Compares lucene's QueryParser with the {@link FastQueryParser}
+ * on queries that a {@link DefaultLuceneQuery} renders.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+    
+    private static final String TEXT = "red running shoes size 42 \"limited\" edition";
+    
+    private static final String[] CATEGORIES = {"shoes", "sports", "running", "outdoor", "sale"};
+    
+    @Param({"TEXT", "AUTOCOMPLETE", "NESTED"})
+    private String shape;
+    
+    private String query;
+    
+    private FastQueryParser fastParser;
+    
+    @Setup
+    public void setup() {
+        final LuceneQuery rendered = new DefaultLuceneQuery();
+        if ("TEXT".equals(shape)) {
+            rendered.addField("name", TEXT, LuceneQuery.MOD_TEXT);
+        } else if ("AUTOCOMPLETE".equals(shape)) {
+            rendered.addField("name", "runn", LuceneQuery.MOD_AUTOCOMPLETE);
+        } else {
+            rendered.addField("category", CATEGORIES, LuceneQuery.MOD_ID);
+            rendered.addRangeField("price", 10, 100);
+            rendered.addField("name", TEXT, LuceneQuery.MOD_TEXT);
+            rendered.addBoost(2.0);
+        }
+        query = rendered.getQuery();
+        fastParser = new FastQueryParser(QueryImplementation.DEFAULT_FIELD, new WhitespaceAnalyzer());
+    }
+    
+    @Benchmark
+    public Object queryParser() throws ParseException {
+        return new QueryParser(QueryImplementation.DEFAULT_FIELD, new WhitespaceAnalyzer()).parse(query);
+    }
+    
+    @Benchmark
+    public Object fastQueryParser() throws ParseException {
+        return fastParser.parse(query);
+    }
+    
+}
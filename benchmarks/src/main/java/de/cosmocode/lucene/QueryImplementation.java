@@ -0,0 +1,72 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import org.apache.lucene.analysis.KeywordAnalyzer;
+
+/**
+ * <p> The LuceneQuery implementations that are compared in the benchmarks.
+ * </p>
+ * <p> The result of a query is what a caller would pass on to lucene:
+ * the rendered String of a {@link DefaultLuceneQuery} (which is parsed later)
+ * and the Query object of a {@link DirectApiLuceneQuery}.
+ * </p>
+ * <p> Note that the DirectApiLuceneQuery does not support all QueryModifiers yet
+ * (splitting is ignored), so it does less work for text queries.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+public enum QueryImplementation {
+    
+    DEFAULT {
+        
+        @Override
+        LuceneQuery create() {
+            return new DefaultLuceneQuery();
+        }
+        
+        @Override
+        Object result(LuceneQuery query) {
+            return query.getQuery();
+        }
+        
+    },
+    
+    DIRECT_API {
+        
+        @Override
+        LuceneQuery create() {
+            return new DirectApiLuceneQuery(DEFAULT_FIELD, new KeywordAnalyzer());
+        }
+        
+        @Override
+        Object result(LuceneQuery query) {
+            return DirectApiLuceneQuery.class.cast(query).toQuery();
+        }
+        
+    };
+    
+    static final String DEFAULT_FIELD = "text";
+    
+    abstract LuceneQuery create();
+    
+    abstract Object result(LuceneQuery query);
+    
+}
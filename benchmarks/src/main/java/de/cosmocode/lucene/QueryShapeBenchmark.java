@@ -0,0 +1,116 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.cosmocode.patterns.Factory;
+
+/**
+ * <p> Benchmarks typical query shapes of a shop search:
+ * multi-word text input, autocompletion, nested fields and queries built from a template.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryShapeBenchmark {
+    
+    private static final String TEXT = "red running shoes size 42 \"limited\" edition";
+    
+    private static final String PREFIX = "runn";
+    
+    private static final String[] CATEGORIES = {"shoes", "sports", "running", "outdoor", "sale"};
+    
+    @Param({"DEFAULT", "DIRECT_API"})
+    private QueryImplementation implementation;
+    
+    private LuceneQueryBuilder builder;
+    
+    @Setup
+    public void setup() {
+        builder = new LuceneQueryBuilder(new Factory<LuceneQuery>() {
+            
+            @Override
+            public LuceneQuery create() {
+                return implementation.create();
+            }
+            
+        });
+        builder.addField("type", "product", true);
+        builder.addField("visible", "true", true);
+        builder.addField("shop", "eu", true);
+        builder.lock();
+    }
+    
+    @Benchmark
+    public Object text() {
+        final LuceneQuery query = implementation.create();
+        query.addField("name", TEXT, LuceneQuery.MOD_TEXT);
+        return implementation.result(query);
+    }
+    
+    @Benchmark
+    public Object autocomplete() {
+        final LuceneQuery query = implementation.create();
+        query.addField("name", PREFIX, LuceneQuery.MOD_AUTOCOMPLETE);
+        return implementation.result(query);
+    }
+    
+    @Benchmark
+    public Object nestedFields() {
+        final LuceneQuery query = implementation.create();
+        query.startField("category", true);
+        query.addArgument(CATEGORIES, LuceneQuery.MOD_ID);
+        query.endField();
+        query.startField("price", true);
+        query.addRange(10, 100);
+        query.endField();
+        query.startField("name", false);
+        query.addArgument(TEXT, LuceneQuery.MOD_TEXT);
+        query.addBoost(2.0);
+        query.endField();
+        return implementation.result(query);
+    }
+    
+    @Benchmark
+    public Object builderBuild() {
+        final LuceneQuery query = builder.build();
+        query.addField("name", TEXT, LuceneQuery.MOD_TEXT);
+        return implementation.result(query);
+    }
+    
+}
@@ -0,0 +1,309 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+
+/**
+ * <p> An end-to-end search benchmark over a large {@link SyntheticIndex} on local disk.
+ * </p>
+ * <p> For every {@link SearchWorkload}, approach and thread count it runs the same seeded queries
+ * and reports latency percentiles of the three phases of a search:
+ * </p>
+ * <ul>
+ *   <li>build: the LuceneQuery calls, plus rendering the String of a {@link DefaultLuceneQuery}</li>
+ *   <li>parse: the QueryParser for a DefaultLuceneQuery, nothing for a {@link DirectApiLuceneQuery}</li>
+ *   <li>execute: the search for the top 10 documents</li>
+ * </ul>
+ * <p> Settings are given as {@code key=value} arguments, for example:
+ * </p>
+ * <pre>
+ *   java -Xmx2g -cp target/benchmarks.jar de.cosmocode.lucene.SearchBenchmark \
+ *       dir=/tmp/index docs=10000000 threads=1,8 workloads=RANGE,ID_LIST
+ * </pre>
+ * <p> The index is generated on the first run and reused as long as the index settings don't change.
+ * Note that the DirectApiLuceneQuery ignores splitting and the modifiers of fields so far,
+ * so it runs different queries in some workloads; the average hits show the difference.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+public final class SearchBenchmark {
+    
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+    
+    private final Map<String, String> settings;
+    private final SyntheticIndex index;
+    private final long seed;
+    
+    private IndexSearcher searcher;
+    
+    /**
+     * The two ways to get from the LuceneQuery calls to a lucene Query.
+     */
+    enum Approach {
+        
+        DEFAULT_PARSER {
+            
+            @Override
+            LuceneQuery create(Analyzer analyzer) {
+                return new DefaultLuceneQuery();
+            }
+            
+            @Override
+            Object render(LuceneQuery query) {
+                return query.getQuery();
+            }
+            
+            @Override
+            Query parse(Object rendered, Analyzer analyzer) throws ParseException {
+                return new QueryParser(SyntheticIndex.NAME, analyzer).parse(rendered.toString());
+            }
+            
+        },
+        
+        DIRECT_API {
+            
+            @Override
+            LuceneQuery create(Analyzer analyzer) {
+                return new DirectApiLuceneQuery(SyntheticIndex.NAME, analyzer);
+            }
+            
+            @Override
+            Object render(LuceneQuery query) {
+                return DirectApiLuceneQuery.class.cast(query).toQuery();
+            }
+            
+            @Override
+            Query parse(Object rendered, Analyzer analyzer) {
+                return Query.class.cast(rendered);
+            }
+            
+        };
+        
+        abstract LuceneQuery create(Analyzer analyzer);
+        
+        abstract Object render(LuceneQuery query);
+        
+        abstract Query parse(Object rendered, Analyzer analyzer) throws ParseException;
+        
+    }
+    
+    /**
+     * The measured nanoseconds of all queries of one thread.
+     */
+    private static final class Timings {
+        
+        private final long[] build;
+        private final long[] parse;
+        private final long[] execute;
+        private long hits;
+        private long started;
+        private long finished;
+        
+        Timings(int queries) {
+            build = new long[queries];
+            parse = new long[queries];
+            execute = new long[queries];
+        }
+        
+    }
+    
+    private SearchBenchmark(Map<String, String> settings) {
+        this.settings = settings;
+        this.seed = Long.parseLong(setting("seed", "42"));
+        this.index = new SyntheticIndex(
+            new File(setting("dir", "target/search-index")),
+            seed,
+            Integer.parseInt(setting("docs", "1000000")),
+            Integer.parseInt(setting("categories", "1000")),
+            Integer.parseInt(setting("brands", "10000")),
+            Integer.parseInt(setting("vocabulary", "100000")),
+            Integer.parseInt(setting("words", "8"))
+        );
+    }
+    
+    private String setting(String key, String defaultValue) {
+        final String value = settings.get(key);
+        return value == null ? defaultValue : value;
+    }
+    
+    private List<String> list(String key, String defaultValue) {
+        return Arrays.asList(setting(key, defaultValue).split(","));
+    }
+    
+    private void run() throws IOException, InterruptedException, ExecutionException {
+        // range queries of the DirectApiLuceneQuery expand to a clause per price (up to 1% of all prices),
+        // but the FuzzyQuery allocates an array of this size, so it must not be too large
+        BooleanQuery.setMaxClauseCount(16384);
+        searcher = new IndexSearcher(index.open());
+        
+        final int warmup = Integer.parseInt(setting("warmup", "200"));
+        final int queries = Integer.parseInt(setting("queries", "2000"));
+        
+        try {
+            for (String workload : list("workloads", "WILDCARD,FUZZY,RANGE,ID_LIST")) {
+                for (String threads : list("threads", "1,4")) {
+                    for (String approach : list("approaches", "DEFAULT_PARSER,DIRECT_API")) {
+                        run(SearchWorkload.valueOf(workload), Approach.valueOf(approach), 
+                            Integer.parseInt(threads), warmup, queries);
+                    }
+                }
+            }
+        } finally {
+            searcher.close();
+        }
+    }
+    
+    private void run(final SearchWorkload workload, final Approach approach, final int threads, 
+        final int warmup, final int queries) throws InterruptedException, ExecutionException {
+        
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<Future<Timings>> futures = new ArrayList<Future<Timings>>(threads);
+        
+        for (int i = 0; i < threads; i++) {
+            // every approach gets the same queries
+            final Random random = new Random(seed + 31 * workload.ordinal() + i);
+            futures.add(executor.submit(new Callable<Timings>() {
+                
+                @Override
+                public Timings call() throws IOException, ParseException {
+                    measure(workload, approach, random, new Timings(warmup));
+                    return measure(workload, approach, random, new Timings(queries));
+                }
+                
+            }));
+        }
+        
+        final List<Timings> results = new ArrayList<Timings>(threads);
+        try {
+            for (Future<Timings> future : futures) {
+                results.add(future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        report(workload, approach, threads, results);
+    }
+    
+    private Timings measure(SearchWorkload workload, Approach approach, Random random, Timings timings) 
+        throws IOException, ParseException {
+        
+        final Analyzer analyzer = index.getAnalyzer();
+        
+        timings.started = System.nanoTime();
+        for (int i = 0; i < timings.build.length; i++) {
+            final long start = System.nanoTime();
+            final LuceneQuery query = approach.create(analyzer);
+            workload.build(query, index, random);
+            final Object rendered = approach.render(query);
+            final long built = System.nanoTime();
+            final Query parsed = approach.parse(rendered, analyzer);
+            final long parsedTime = System.nanoTime();
+            timings.hits += searcher.search(parsed, null, 10).totalHits;
+            final long executed = System.nanoTime();
+            
+            timings.build[i] = built - start;
+            timings.parse[i] = parsedTime - built;
+            timings.execute[i] = executed - parsedTime;
+        }
+        timings.finished = System.nanoTime();
+        
+        return timings;
+    }
+    
+    private void report(SearchWorkload workload, Approach approach, int threads, List<Timings> results) {
+        
+        final int queries = results.get(0).build.length;
+        final long[] build = new long[queries * results.size()];
+        final long[] parse = new long[build.length];
+        final long[] execute = new long[build.length];
+        final long[] total = new long[build.length];
+        long hits = 0;
+        long started = Long.MAX_VALUE;
+        long finished = Long.MIN_VALUE;
+        
+        for (int i = 0; i < results.size(); i++) {
+            final Timings timings = results.get(i);
+            System.arraycopy(timings.build, 0, build, i * queries, queries);
+            System.arraycopy(timings.parse, 0, parse, i * queries, queries);
+            System.arraycopy(timings.execute, 0, execute, i * queries, queries);
+            hits += timings.hits;
+            started = Math.min(started, timings.started);
+            finished = Math.max(finished, timings.finished);
+        }
+        for (int i = 0; i < total.length; i++) {
+            total[i] = build[i] + parse[i] + execute[i];
+        }
+        
+        System.out.printf("%n%s %s threads=%d queries=%d avg.hits=%.1f throughput=%.0f/s%n", 
+            workload, approach, threads, total.length, (double) hits / total.length, 
+            total.length * 1e9 / (finished - started));
+        System.out.printf("  %-8s %10s %10s %10s %10s %10s  (microseconds)%n", 
+            "phase", "p50", "p90", "p99", "p99.9", "max");
+        print("build", build);
+        print("parse", parse);
+        print("execute", execute);
+        print("total", total);
+    }
+    
+    private static void print(String phase, long[] nanos) {
+        Arrays.sort(nanos);
+        final StringBuilder line = new StringBuilder(String.format("  %-8s", phase));
+        for (double percentile : PERCENTILES) {
+            final int index = Math.max((int) Math.ceil(percentile * nanos.length) - 1, 0);
+            line.append(String.format(" %10.1f", nanos[index] / 1000.0));
+        }
+        line.append(String.format(" %10.1f", nanos[nanos.length - 1] / 1000.0));
+        System.out.println(line);
+    }
+    
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        final Map<String, String> settings = new HashMap<String, String>();
+        for (String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator < 1) {
+                throw new IllegalArgumentException("Arguments must be given as key=value: " + arg);
+            }
+            settings.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        new SearchBenchmark(settings).run();
+    }
+    
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p> The kinds of queries that are run against the {@link SyntheticIndex}.
+ * Every workload picks its values from the index with the given random,
+ * so that most queries have hits.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+enum SearchWorkload {
+    
+    /**
+     * The first three chars of a word, wildcarded.
+     */
+    WILDCARD {
+        
+        private final QueryModifier modifier = QueryModifier.start().required().wildcarded().end();
+        
+        @Override
+        void build(LuceneQuery query, SyntheticIndex index, Random random) {
+            query.addField(SyntheticIndex.NAME, index.randomWord(random).substring(0, 3), modifier);
+        }
+        
+    },
+    
+    /**
+     * A word with one changed char, fuzzy.
+     */
+    FUZZY {
+        
+        private final QueryModifier modifier = QueryModifier.start().required().setFuzzyness(0.7).end();
+        
+        @Override
+        void build(LuceneQuery query, SyntheticIndex index, Random random) {
+            final char[] word = index.randomWord(random).toCharArray();
+            word[random.nextInt(word.length)] = (char) ('a' + random.nextInt(26));
+            query.addField(SyntheticIndex.NAME, new String(word), modifier);
+        }
+        
+    },
+    
+    /**
+     * A price range of about 1% of all prices, in one category.
+     */
+    RANGE {
+        
+        @Override
+        void build(LuceneQuery query, SyntheticIndex index, Random random) {
+            final int from = random.nextInt(SyntheticIndex.MAX_PRICE - SyntheticIndex.MAX_PRICE / 100);
+            final int to = from + random.nextInt(SyntheticIndex.MAX_PRICE / 100);
+            query.addField(SyntheticIndex.CATEGORY, "c" + random.nextInt(Math.min(index.getCategories(), 10)), 
+                LuceneQuery.MOD_ID);
+            query.addRangeField(SyntheticIndex.PRICE, SyntheticIndex.price(from), SyntheticIndex.price(to), 
+                LuceneQuery.MOD_ID);
+        }
+        
+    },
+    
+    /**
+     * A list of random ids.
+     */
+    ID_LIST {
+        
+        @Override
+        void build(LuceneQuery query, SyntheticIndex index, Random random) {
+            final List<String> ids = new ArrayList<String>(ID_LIST_SIZE);
+            for (int i = 0; i < ID_LIST_SIZE; i++) {
+                ids.add(SyntheticIndex.id(random.nextInt(index.getDocuments())));
+            }
+            query.addField(SyntheticIndex.ID, ids, LuceneQuery.MOD_ID);
+        }
+        
+    };
+    
+    static final int ID_LIST_SIZE = 1000;
+    
+    abstract void build(LuceneQuery query, SyntheticIndex index, Random random);
+    
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Field.Index;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriter.MaxFieldLength;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+/**
+ * <p> A large, reproducible index of products on local disk.
+ * </p>
+ * <p> Every document has these fields:
+ * </p>
+ * <ul>
+ *   <li>{@value #ID}: a unique id</li>
+ *   <li>{@value #CATEGORY}: one of {@code categories} values, zipf distributed</li>
+ *   <li>{@value #BRAND}: one of {@code brands} values, uniformly distributed</li>
+ *   <li>{@value #PRICE}: a zero padded number between 0 and 999999</li>
+ *   <li>{@value #NAME}: {@code wordsPerDocument} lowercase words, zipf distributed over the vocabulary</li>
+ * </ul>
+ * <p> The same seed and settings always produce the same documents and the same words,
+ * so workloads can pick terms that exist in the index. An index that already exists
+ * in the directory with the same settings is reused instead of being generated again.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+final class SyntheticIndex {
+    
+    static final String ID = "id";
+    static final String CATEGORY = "category";
+    static final String BRAND = "brand";
+    static final String PRICE = "price";
+    static final String NAME = "name";
+    
+    static final int MAX_PRICE = 1000000;
+    
+    private static final String SETTINGS_FILE = "synthetic-index.properties";
+    
+    private final File directory;
+    private final long seed;
+    private final int documents;
+    private final int categories;
+    private final int brands;
+    private final int wordsPerDocument;
+    
+    private final String[] vocabulary;
+    private final double[] cumulativeFrequencies;
+    
+    SyntheticIndex(File directory, long seed, int documents, int categories, int brands, 
+        int vocabularySize, int wordsPerDocument) {
+        
+        this.directory = directory;
+        this.seed = seed;
+        this.documents = documents;
+        this.categories = categories;
+        this.brands = brands;
+        this.wordsPerDocument = wordsPerDocument;
+        this.vocabulary = createVocabulary(new Random(seed), vocabularySize);
+        this.cumulativeFrequencies = zipf(vocabularySize);
+    }
+    
+    private static String[] createVocabulary(Random random, int size) {
+        final Set<String> words = new HashSet<String>(size * 2);
+        final String[] vocabulary = new String[size];
+        int count = 0;
+        while (count < size) {
+            final char[] word = new char[4 + random.nextInt(6)];
+            for (int i = 0; i < word.length; i++) {
+                word[i] = (char) ('a' + random.nextInt(26));
+            }
+            final String value = new String(word);
+            if (words.add(value)) {
+                vocabulary[count++] = value;
+            }
+        }
+        return vocabulary;
+    }
+    
+    private static double[] zipf(int size) {
+        // cumulative frequencies of a zipf distribution with exponent 1: the n-th word has weight 1/n
+        final double[] cumulative = new double[size];
+        double sum = 0.0;
+        for (int i = 0; i < size; i++) {
+            sum += 1.0 / (i + 1);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < size; i++) {
+            cumulative[i] /= sum;
+        }
+        return cumulative;
+    }
+    
+    private static int zipfIndex(double[] cumulative, Random random) {
+        final int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(index < 0 ? -index - 1 : index, cumulative.length - 1);
+    }
+    
+    static String id(int document) {
+        return "d" + Integer.toString(document, 36);
+    }
+    
+    static String price(int price) {
+        final String value = Integer.toString(price);
+        return "000000".substring(value.length()) + value;
+    }
+    
+    Analyzer getAnalyzer() {
+        return new WhitespaceAnalyzer();
+    }
+    
+    int getDocuments() {
+        return documents;
+    }
+    
+    int getCategories() {
+        return categories;
+    }
+    
+    /**
+     * Returns a word of the vocabulary, frequent words more often than rare ones.
+     * @param random the random to use
+     * @return a word that occurs in the index
+     */
+    String randomWord(Random random) {
+        return vocabulary[zipfIndex(cumulativeFrequencies, random)];
+    }
+    
+    private Properties settings() {
+        final Properties settings = new Properties();
+        settings.setProperty("seed", Long.toString(seed));
+        settings.setProperty("documents", Integer.toString(documents));
+        settings.setProperty("categories", Integer.toString(categories));
+        settings.setProperty("brands", Integer.toString(brands));
+        settings.setProperty("vocabulary", Integer.toString(vocabulary.length));
+        settings.setProperty("wordsPerDocument", Integer.toString(wordsPerDocument));
+        return settings;
+    }
+    
+    private boolean exists() throws IOException {
+        final File file = new File(directory, SETTINGS_FILE);
+        if (!file.isFile()) return false;
+        
+        final Properties existing = new Properties();
+        final InputStream in = new FileInputStream(file);
+        try {
+            existing.load(in);
+        } finally {
+            in.close();
+        }
+        return existing.equals(settings());
+    }
+    
+    /**
+     * Opens the index, and generates it first if it does not exist yet.
+     * @return the directory of the index
+     * @throws IOException if the index could not be written or read
+     */
+    Directory open() throws IOException {
+        if (!exists()) {
+            generate();
+        }
+        return FSDirectory.getDirectory(directory);
+    }
+    
+    private void generate() throws IOException {
+        final long start = System.nanoTime();
+        final Directory target = FSDirectory.getDirectory(directory);
+        final IndexWriter writer = new IndexWriter(target, getAnalyzer(), true, MaxFieldLength.UNLIMITED);
+        writer.setRAMBufferSizeMB(64);
+        
+        // the documents have their own random, so that the vocabulary does not depend on them
+        final Random random = new Random(seed + 1);
+        final double[] categoryFrequencies = zipf(categories);
+        final StringBuilder name = new StringBuilder();
+        
+        try {
+            for (int i = 0; i < documents; i++) {
+                final Document document = new Document();
+                document.add(new Field(ID, id(i), Store.YES, Index.NOT_ANALYZED));
+                document.add(new Field(CATEGORY, "c" + zipfIndex(categoryFrequencies, random), 
+                    Store.NO, Index.NOT_ANALYZED));
+                document.add(new Field(BRAND, "b" + random.nextInt(brands), Store.NO, Index.NOT_ANALYZED));
+                document.add(new Field(PRICE, price(random.nextInt(MAX_PRICE)), Store.NO, Index.NOT_ANALYZED));
+                
+                name.setLength(0);
+                for (int j = 0; j < wordsPerDocument; j++) {
+                    name.append(randomWord(random)).append(' ');
+                }
+                document.add(new Field(NAME, name.toString(), Store.NO, Index.ANALYZED));
+                writer.addDocument(document);
+                
+                if ((i + 1) % 1000000 == 0) {
+                    System.out.printf("  %,d documents indexed%n", i + 1);
+                }
+            }
+            writer.optimize();
+        } finally {
+            writer.close();
+        }
+        
+        final OutputStream out = new FileOutputStream(new File(directory, SETTINGS_FILE));
+        try {
+            settings().store(out, "settings of the synthetic index, do not edit");
+        } finally {
+            out.close();
+        }
+        System.out.printf("Generated %,d documents in %,d ms%n", documents, (System.nanoTime() - start) / 1000000);
+    }
+    
+}
@@ -17,8 +17,10 @@
 package de.cosmocode.lucene;
 
 import java.util.Collection;
+import java.util.Iterator;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 
 
 /**
@@ -213,6 +215,10 @@ public abstract class AbstractLuceneQuery implements LuceneQuery {
             return this.addArgumentAsArray(value, modifiers);
         } else if (value instanceof LuceneQuery) {
             return this.addSubquery(LuceneQuery.class.cast(value), modifiers);
+        } else if (value instanceof Iterable<?>) {
+            return this.addArgumentAsIterable(Iterable.class.cast(value), modifiers);
+        } else if (value instanceof Iterator<?>) {
+            return this.addArgumentAsIterator(Iterator.class.cast(value), modifiers);
         } else {
             return this.addArgument(value.toString(), modifiers);
         }
@@ -243,6 +249,43 @@ public abstract class AbstractLuceneQuery implements LuceneQuery {
     @Override
     public abstract LuceneQuery addArgumentAsCollection(Collection<?> values, QueryModifier modifier);
     
+    @Override
+    public final LuceneQuery addArgumentAsIterator(Iterator<?> values) {
+        return addArgumentAsIterator(values, defaultModifier);
+    }
+    
+    /**
+     * <p> Collects the values of the given iterator and adds them with
+     * {@link #addArgumentAsCollection(Collection, QueryModifier)}.
+     * </p>
+     * <p> Implementations that can append the values one by one should override this method,
+     * so that the values are not copied first.
+     * </p>
+     */
+    @Override
+    public LuceneQuery addArgumentAsIterator(Iterator<?> values, QueryModifier modifier) {
+        if (values == null) {
+            return addArgumentAsCollection(null, modifier);
+        } else {
+            return addArgumentAsCollection(Lists.newArrayList(values), modifier);
+        }
+    }
+    
+    @Override
+    public final LuceneQuery addArgumentAsIterable(Iterable<?> values) {
+        return addArgumentAsIterable(values, defaultModifier);
+    }
+    
+    @Override
+    public final LuceneQuery addArgumentAsIterable(Iterable<?> values, QueryModifier modifier) {
+        if (values instanceof Collection<?>) {
+            // the size of a collection is known, which allows to reserve space up front
+            return addArgumentAsCollection(Collection.class.cast(values), modifier);
+        } else {
+            return addArgumentAsIterator(values == null ? null : values.iterator(), modifier);
+        }
+    }
+    
     @Override
     public final LuceneQuery addRange(double from, double to) {
         return addRange(from, to, defaultModifier);
@@ -457,6 +500,38 @@ public abstract class AbstractLuceneQuery implements LuceneQuery {
         return this;
     }
 
+    @Override
+    public LuceneQuery addFieldAsIterator(
+        final String key, final Iterator<?> value, final QueryModifier modifier) {
+
+        this.startField(key, modifier);
+        if (lastSuccessful()) {
+            try {
+                this.addArgumentAsIterator(value, modifier.getArgumentModifier());
+            } finally {
+                // the values may fail midway, the field is ended anyway
+                this.endField();
+            }
+        }
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery addFieldAsIterable(
+        final String key, final Iterable<?> value, final QueryModifier modifier) {
+
+        this.startField(key, modifier);
+        if (lastSuccessful()) {
+            try {
+                this.addArgumentAsIterable(value, modifier.getArgumentModifier());
+            } finally {
+                // the values may fail midway, the field is ended anyway
+                this.endField();
+            }
+        }
+        return this;
+    }
+
     @Override
     public final <K> LuceneQuery addFieldAsArray(String key, K[] value) {
         return addFieldAsArray(key, value, defaultModifier);
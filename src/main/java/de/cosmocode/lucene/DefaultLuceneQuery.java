@@ -18,10 +18,14 @@ package de.cosmocode.lucene;
 
 import java.lang.reflect.Array;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.lucene.document.DateTools.Resolution;
 
 import com.google.common.base.Preconditions;
 
@@ -30,25 +34,265 @@ import com.google.common.base.Preconditions;
  * A default implementation of a LuceneQuery.
  * This implementation is not threadsafe.
  * </p>
+ * <p> Clauses that change independently of the rest of the query, like the clauses of facets,
+ * can be added with {@link #addClause(LuceneQuery)}. Each of them is kept as a separate segment,
+ * so that it can be removed or replaced later without rendering the other clauses again.
+ * </p>
  * 
  * @since 1.0
  * @author Oliver Lorenz
  */
 public final class DefaultLuceneQuery extends AbstractLuceneQuery {
     
+    public static final String ERR_CLAUSE_NULL = 
+        "the given clause must not be null";
+    
+    public static final String ERR_CLAUSE_EMPTY = 
+        "the given clause must not be empty";
+    
+    public static final String ERR_CLAUSE_IN_FIELD = 
+        "a clause can not be added within a field or an iteration";
+    
+    public static final String ERR_HANDLE_NULL = 
+        "the given handle must not be null";
+    
+    public static final String ERR_HANDLE_INVALID = 
+        "the given handle does not belong to a clause of this query";
     
-    private final StringBuilder queryArguments;
+    /**
+     * The assumed length of a single rendered value, before any value was added.
+     */
+    private static final int DEFAULT_VALUE_LENGTH = 16;
+    
+    // the open segment, all add...-methods append to it
+    private final QueryBuffer queryArguments;
+    
+    // the closed segments in front of queryArguments, null until the first clause was added
+    private List<ClauseHandle> segments;
     
     private final Deque<Integer> positionStack = new ArrayDeque<Integer>(8);
     
+    // the started fields, the innermost first
+    private final Deque<String> fieldStack = new ArrayDeque<String>(4);
+    
+    // may be null, gets the length of the rendered query
+    private final QuerySizeEstimator sizeEstimator;
+    
+    private boolean sizeRecorded;
+    
+    // statistics about single values, to reserve space for collections and arrays
+    private int renderedValues;
+    private long renderedValueLength;
+    
     public DefaultLuceneQuery() {
-        this.queryArguments = new StringBuilder();
+        this.queryArguments = new QueryBuffer();
+        this.sizeEstimator = null;
+    }
+    
+    /**
+     * Creates a DefaultLuceneQuery whose buffer has the given initial capacity.
+     * @param initialCapacity the expected length of the query
+     */
+    DefaultLuceneQuery(final int initialCapacity) {
+        this.queryArguments = new QueryBuffer(initialCapacity);
+        this.sizeEstimator = null;
+    }
+    
+    /**
+     * Creates a DefaultLuceneQuery whose buffer is presized with the estimate of the given estimator.
+     * The length of the rendered query is recorded in the estimator.
+     * @param sizeEstimator the estimator of the factory that creates this query
+     */
+    DefaultLuceneQuery(final QuerySizeEstimator sizeEstimator) {
+        final int estimate = sizeEstimator.estimate();
+        this.queryArguments = estimate > 0 ? new QueryBuffer(estimate) : new QueryBuffer();
+        this.sizeEstimator = sizeEstimator;
     }
 
     @Override
     public String getQuery() {
-        Preconditions.checkState(this.queryArguments.length() > 0, ERR_EMPTY_QUERY);
-        return this.queryArguments.toString();
+        Preconditions.checkState(length() > 0, ERR_EMPTY_QUERY);
+        recordSize();
+        if (segments == null) {
+            return this.queryArguments.toString();
+        } else {
+            final StringBuilder target = new StringBuilder(length());
+            writeTo(target);
+            return target.toString();
+        }
+    }
+    
+    /**
+     * <p> Resets this query, so that it can be reused for a new query.
+     * Afterwards the query is empty (just like a newly created DefaultLuceneQuery)
+     * and {@link #lastSuccessful()} returns false.
+     * The default QueryModifier ({@link #getModifier()}) is not changed.
+     * </p>
+     * <p> The buffer is kept, so that the next query can be built without growing it again.
+     * All handles of added clauses become invalid.
+     * </p>
+     */
+    public void reset() {
+        if (segments != null) {
+            for (final ClauseHandle segment : segments) {
+                segment.content = null;
+            }
+            segments = null;
+        }
+        this.queryArguments.clear();
+        this.positionStack.clear();
+        this.fieldStack.clear();
+        this.sizeRecorded = false;
+        setLastSuccessful(false);
+    }
+    
+    private void recordSize() {
+        // every query is recorded once, even if it is rendered more than once
+        if (sizeEstimator != null && !sizeRecorded) {
+            sizeEstimator.record(length());
+            sizeRecorded = true;
+        }
+    }
+    
+    private void writeTo(final StringBuilder target) {
+        if (segments != null) {
+            for (final ClauseHandle segment : segments) {
+                segment.content.writeTo(target);
+            }
+        }
+        queryArguments.writeTo(target);
+    }
+    
+    /**
+     * Returns the whole query as a single buffer, which references the segments instead of copying them.
+     * @return the buffer of the whole query
+     */
+    private QueryBuffer content() {
+        if (segments == null) return queryArguments;
+        final QueryBuffer content = new QueryBuffer();
+        for (final ClauseHandle segment : segments) {
+            content.append(segment.content);
+        }
+        return content.append(queryArguments);
+    }
+    
+    /**
+     * <p> Writes the query which was built with the add...-methods into the given StringBuilder.
+     * Subqueries are written directly from their own buffers, without an intermediate String.
+     * </p>
+     * 
+     * @param target the StringBuilder to append the query to
+     * @return the given StringBuilder
+     * @throws IllegalStateException if the resulting query is empty
+     * @see #getQuery()
+     */
+    public StringBuilder appendQueryTo(final StringBuilder target) {
+        Preconditions.checkState(length() > 0, ERR_EMPTY_QUERY);
+        recordSize();
+        writeTo(target);
+        return target;
+    }
+    
+    
+    /* ---------------------------
+     *     clause-methods
+     */
+    
+    /**
+     * <p> Adds the clauses of the given query as a separate segment of this query and returns its handle.
+     * The clauses are added as they are, without parenthesis, so their term modifiers are kept.
+     * The rendered clauses of a DefaultLuceneQuery are referenced instead of copied.
+     * </p>
+     * <p> The segment can be removed or replaced with the returned handle,
+     * without rendering any other part of this query again. 
+     * Boosts ({@link #addBoost(double)}) do not apply to a clause that was added with this method,
+     * they have to be added to the given query instead.
+     * </p>
+     * 
+     * @param clause the query whose clauses are added
+     * @return the handle of the added clauses
+     * @throws NullPointerException if clause is null
+     * @throws IllegalArgumentException if clause is empty
+     * @throws IllegalStateException if a field or an iteration was started, but not ended
+     * @since 1.3
+     */
+    public ClauseHandle addClause(final LuceneQuery clause) {
+        Preconditions.checkState(positionStack.isEmpty(), ERR_CLAUSE_IN_FIELD);
+        final QueryBuffer content = render(clause);
+        
+        if (segments == null) {
+            segments = new ArrayList<ClauseHandle>(4);
+        }
+        if (queryArguments.length() > 0) {
+            // close the open segment, so that later calls of the add...-methods append behind the clause
+            final QueryBuffer closed = new QueryBuffer().append(queryArguments);
+            queryArguments.clear();
+            segments.add(new ClauseHandle(this, closed));
+        }
+        
+        final ClauseHandle handle = new ClauseHandle(this, content);
+        segments.add(handle);
+        sizeRecorded = false;
+        setLastSuccessful(true);
+        return handle;
+    }
+    
+    /**
+     * Removes the clauses of the given handle from this query.
+     * The handle is invalid afterwards.
+     * 
+     * @param handle the handle of the clauses to remove, as returned by {@link #addClause(LuceneQuery)}
+     * @throws NullPointerException if handle is null
+     * @throws IllegalArgumentException if handle does not belong to a clause of this query
+     * @since 1.3
+     */
+    public void remove(final ClauseHandle handle) {
+        checkHandle(handle);
+        segments.remove(handle);
+        handle.content = null;
+        sizeRecorded = false;
+    }
+    
+    /**
+     * Replaces the clauses of the given handle with the clauses of the given query.
+     * The clauses keep their position in this query and the handle stays valid.
+     * 
+     * @param handle the handle of the clauses to replace, as returned by {@link #addClause(LuceneQuery)}
+     * @param clause the query whose clauses replace the clauses of the handle
+     * @return the given handle
+     * @throws NullPointerException if handle or clause is null
+     * @throws IllegalArgumentException if handle does not belong to a clause of this query or clause is empty
+     * @since 1.3
+     */
+    public ClauseHandle replace(final ClauseHandle handle, final LuceneQuery clause) {
+        checkHandle(handle);
+        handle.content = render(clause);
+        sizeRecorded = false;
+        return handle;
+    }
+    
+    private void checkHandle(final ClauseHandle handle) {
+        Preconditions.checkNotNull(handle, ERR_HANDLE_NULL);
+        Preconditions.checkArgument(handle.owner == this && handle.content != null, ERR_HANDLE_INVALID);
+    }
+    
+    private QueryBuffer render(final LuceneQuery clause) {
+        Preconditions.checkNotNull(clause, ERR_CLAUSE_NULL);
+        
+        final QueryBuffer content;
+        if (clause instanceof DefaultLuceneQuery) {
+            final DefaultLuceneQuery other = DefaultLuceneQuery.class.cast(clause);
+            Preconditions.checkArgument(other.length() > 0, ERR_CLAUSE_EMPTY);
+            content = new QueryBuffer().append(other.content());
+        } else {
+            final String query = clause.getQuery();
+            Preconditions.checkArgument(query.length() > 0, ERR_CLAUSE_EMPTY);
+            content = new QueryBuffer(query.length() + 1).append(query);
+        }
+        
+        // the clauses must be separated from the following segment
+        if (content.charAt(content.length() - 1) != ' ') content.append(' ');
+        return content;
     }
     
 
@@ -64,23 +308,47 @@ public final class DefaultLuceneQuery extends AbstractLuceneQuery {
     private void addWildcarded(final String value) {
         queryArguments.
             append("(").
-            append("\"").append(LuceneHelper.escapeQuotes(value)).append("\"").
-            append(" ").append(LuceneHelper.escapeAll(value)).append("*").
+            append("\"").appendQuotesEscaped(value).append("\"").
+            append(" ").appendEscaped(value).append("*").
             append(")");
     }
     
+    /**
+     * search for input as a single term of the edge n-gram field of the current field.
+     * the n-gram field contains every prefix of the indexed values, including the full values.
+     * @param value the String value to look up
+     */
+    private void addEdgeNGram(final String value) {
+        queryArguments.
+            append(EdgeNGrams.fieldName(fieldStack.peek())).append(":").
+            appendEscaped(EdgeNGrams.normalize(value));
+    }
+    
+    private void addEdgeNGramFuzzy(final String value, final double fuzzyness) {
+        queryArguments.append("(");
+        addEdgeNGram(value);
+        queryArguments.
+            append(" ").appendEscaped(value).
+            append("~").append(fuzzyness).
+            append(")");
+    }
+    
+    private boolean isEdgeNGramLookup(final String value, final QueryModifier modifier) {
+        return modifier.isEdgeNGrams() && !fieldStack.isEmpty() && EdgeNGrams.isLookup(value);
+    }
+    
     private void addFuzzy(final String value, final double fuzzyness) {
         queryArguments.
-            append(LuceneHelper.escapeAll(value)).
+            appendEscaped(value).
             append("~").append(fuzzyness);
     }
     
     private void addWildcardedFuzzy(final String value, final double fuzzyness) {
         queryArguments.
             append("(").
-            append("\"").append(LuceneHelper.escapeQuotes(value)).append("\"").
-            append(" ").append(LuceneHelper.escapeAll(value)).append("*").
-            append(" ").append(LuceneHelper.escapeAll(value)).
+            append("\"").appendQuotesEscaped(value).append("\"").
+            append(" ").appendEscaped(value).append("*").
+            append(" ").appendEscaped(value).
             append("~").append(fuzzyness).
             append(")");
     }
@@ -102,17 +370,24 @@ public final class DefaultLuceneQuery extends AbstractLuceneQuery {
             return this;
         }
         
+        final int start = queryArguments.length();
         queryArguments.append(modifier.getTermPrefix());
         queryArguments.append("(");
         
-        if (modifier.isWildcarded() && modifier.isFuzzyEnabled()) {
+        if (modifier.isWildcarded() && isEdgeNGramLookup(value, modifier)) {
+            if (modifier.isFuzzyEnabled()) {
+                addEdgeNGramFuzzy(value, modifier.getFuzzyness());
+            } else {
+                addEdgeNGram(value);
+            }
+        } else if (modifier.isWildcarded() && modifier.isFuzzyEnabled()) {
             addWildcardedFuzzy(value, modifier.getFuzzyness());
         } else if (modifier.isWildcarded()) {
             addWildcarded(value);
         } else if (modifier.isFuzzyEnabled()) {
             addFuzzy(value, modifier.getFuzzyness());
         } else {
-            queryArguments.append(LuceneHelper.escapeAll(value));
+            queryArguments.appendEscaped(value);
         }
         
         if (modifier.isSplit() && (value.contains(" "))) {
@@ -121,6 +396,8 @@ public final class DefaultLuceneQuery extends AbstractLuceneQuery {
         
         queryArguments.append(") ");
         
+        renderedValues++;
+        renderedValueLength += queryArguments.length() - start;
         setLastSuccessful(true);
         
         return this;
@@ -131,6 +408,13 @@ public final class DefaultLuceneQuery extends AbstractLuceneQuery {
      *     addArgumentAs...-methods
      */
     
+    private void reserve(final int valueCount) {
+        // reserve space for all values up front, based on the values that were rendered so far
+        final long averageLength = renderedValues == 0 ? DEFAULT_VALUE_LENGTH : renderedValueLength / renderedValues;
+        final long expectedLength = queryArguments.length() + valueCount * averageLength + 4;
+        queryArguments.ensureCapacity((int) Math.min(expectedLength, Integer.MAX_VALUE - 8));
+    }
+    
     private void beforeIteration(final QueryModifier modifier) {
         positionStack.push(queryArguments.length());
         queryArguments.append(modifier.getTermPrefix());
@@ -151,6 +435,12 @@ public final class DefaultLuceneQuery extends AbstractLuceneQuery {
         }
     }
     
+    private void abortIteration() {
+        // revert everything that was appended since beforeIteration(), including the opened bracket
+        queryArguments.setLength(positionStack.poll());
+        setLastSuccessful(false);
+    }
+    
     @Override
     public DefaultLuceneQuery addArgumentAsCollection(final Collection<?> values, final QueryModifier modifier) {
         
@@ -159,6 +449,7 @@ public final class DefaultLuceneQuery extends AbstractLuceneQuery {
             return this;
         }
         
+        reserve(values.size());
         beforeIteration(modifier);
 
         // add items
@@ -172,6 +463,34 @@ public final class DefaultLuceneQuery extends AbstractLuceneQuery {
         return this;
     }
     
+    @Override
+    public DefaultLuceneQuery addArgumentAsIterator(final Iterator<?> values, final QueryModifier modifier) {
+        
+        if (values == null || !values.hasNext()) {
+            setLastSuccessful(false);
+            return this;
+        }
+        
+        // the number of values is unknown, so no space is reserved and every value is appended as it comes
+        beforeIteration(modifier);
+        
+        // add items
+        final QueryModifier valueModifier = modifier.getMultiValueModifier();
+        try {
+            while (values.hasNext()) {
+                addArgument(values.next(), valueModifier);
+            }
+        } catch (RuntimeException e) {
+            // iterators like database cursors may fail midway, which must not leave an open bracket behind
+            abortIteration();
+            throw e;
+        }
+        
+        afterIteration();
+        
+        return this;
+    }
+    
     @Override
     public <K> DefaultLuceneQuery addArgumentAsArray(final K[] values, final QueryModifier modifier) {
         
@@ -181,6 +500,7 @@ public final class DefaultLuceneQuery extends AbstractLuceneQuery {
             return this;
         }
 
+        reserve(values.length);
         beforeIteration(modifier);
         
         // add items
@@ -204,6 +524,7 @@ public final class DefaultLuceneQuery extends AbstractLuceneQuery {
         
         final int arrayLength = Array.getLength(values);
         
+        reserve(arrayLength);
         beforeIteration(modifier);
         
         // add all items
@@ -224,17 +545,30 @@ public final class DefaultLuceneQuery extends AbstractLuceneQuery {
     
     private void addRangePlain(final String from, final String to) {
         queryArguments.append("[").
-            append(LuceneHelper.escapeAll(from)).
+            appendEscaped(from).
             append(" TO ").
-            append(LuceneHelper.escapeAll(to)).
+            appendEscaped(to).
             append("] ");
     }
     
+    private void addRangeBucketed(final String from, final String to, final Resolution resolution) {
+        final List<QueryClause> ranges = RangeBuckets.split(from, to, resolution);
+        if (ranges.size() == 1) {
+            addRangePlain(from, to);
+            return;
+        }
+        queryArguments.append("(");
+        for (final QueryClause range : ranges) {
+            addRangePlain(range.getText(), range.getUpper());
+        }
+        queryArguments.append(") ");
+    }
+    
     private void addRangeWildcarded(final String from, final String to) {
         queryArguments.append("[").
-            append(LuceneHelper.escapeAll(from)).append("*").
+            appendEscaped(from).append("*").
             append(" TO ").
-            append(LuceneHelper.escapeAll(to)).append("*").
+            appendEscaped(to).append("*").
             append("] ");
     }
     
@@ -267,7 +601,9 @@ public final class DefaultLuceneQuery extends AbstractLuceneQuery {
         }
         
         queryArguments.append(mod.getTermPrefix());
-        if (mod.isWildcarded()) {
+        if (mod.isRangeBucketsEnabled()) {
+            addRangeBucketed(from, to, mod.getRangeBuckets());
+        } else if (mod.isWildcarded()) {
             addRangeWildcarded(from, to);
         } else {
             addRangePlain(from, to);
@@ -287,6 +623,16 @@ public final class DefaultLuceneQuery extends AbstractLuceneQuery {
     public DefaultLuceneQuery addSubquery(final LuceneQuery value, final QueryModifier modifier) {
         if (value == null) {
             setLastSuccessful(false);
+            return this;
+        } else if (value instanceof DefaultLuceneQuery) {
+            // reference the buffer of the subquery instead of rendering and copying it
+            final QueryBuffer subQuery = DefaultLuceneQuery.class.cast(value).content();
+            Preconditions.checkState(subQuery.length() > 0, ERR_EMPTY_QUERY);
+            
+            queryArguments.append(modifier.getTermPrefix());
+            queryArguments.append("(").append(subQuery).append(") ");
+            setLastSuccessful(true);
+            
             return this;
         }
 
@@ -339,6 +685,42 @@ public final class DefaultLuceneQuery extends AbstractLuceneQuery {
     }
     
 
+    /**
+     * Returns the length of the query that was built so far.
+     * @return the length of the query, 0 if it is empty
+     */
+    int length() {
+        int length = queryArguments.length();
+        if (segments != null) {
+            for (final ClauseHandle segment : segments) {
+                length += segment.content.length();
+            }
+        }
+        return length;
+    }
+    
+    /**
+     * Returns the number of chars the buffer of this query can hold without growing.
+     * @return the capacity of the buffer
+     */
+    int capacity() {
+        return queryArguments.capacity();
+    }
+    
+    /**
+     * Appends an already rendered part of a query, as it is, without any separator.
+     * @param value the rendered part of a query
+     * @return this
+     */
+    DefaultLuceneQuery appendVerbatim(final CharSequence value) {
+        if (value.length() > 0) {
+            queryArguments.append(value);
+            setLastSuccessful(true);
+        }
+        return this;
+    }
+    
+
     /*---------------------------
      *  helper methods
      */
@@ -350,9 +732,10 @@ public final class DefaultLuceneQuery extends AbstractLuceneQuery {
             return this;
         }
 
-        positionStack.push(queryArguments.length() - 1);
+        positionStack.push(queryArguments.length());
         if (mandatory) queryArguments.append("+");
         queryArguments.append(fieldName).append(":(");
+        fieldStack.push(fieldName);
         setLastSuccessful(true);
         
         return this;
@@ -368,6 +751,7 @@ public final class DefaultLuceneQuery extends AbstractLuceneQuery {
         positionStack.push(queryArguments.length());
         queryArguments.append(modifier.getTermPrefix());
         queryArguments.append(fieldName).append(":(");
+        fieldStack.push(fieldName);
         setLastSuccessful(true);
         
         return this;
@@ -377,6 +761,7 @@ public final class DefaultLuceneQuery extends AbstractLuceneQuery {
     public DefaultLuceneQuery endField() {
         // get previous position here to ensure that positionStack.poll() is executed
         final int previousPosition = positionStack.poll();
+        fieldStack.poll();
         
         if (queryArguments.charAt(queryArguments.length() - 1) == '(') {
             // revert to position before startField(), if the field was ended right after it was started
@@ -395,8 +780,9 @@ public final class DefaultLuceneQuery extends AbstractLuceneQuery {
         if (boostFactor <= 0.0 || boostFactor >= 10000000.0)
             throw new IllegalArgumentException(ERR_BOOST_OUT_OF_BOUNDS);
         
-        // only add boost factor if != 1 (optimization) and last action was successful
-        if (boostFactor != 1.0 && lastSuccessful()) {
+        // only add boost factor if != 1 (optimization) and last action was successful,
+        // an empty open segment means that the last action was addClause, whose clauses can't be boosted
+        if (boostFactor != 1.0 && lastSuccessful() && queryArguments.length() > 0) {
             final double rounded = ((int) (boostFactor * 100.0)) / 100.0;
             this.queryArguments.append("^").append(rounded).append(" ");
         }
@@ -404,4 +790,43 @@ public final class DefaultLuceneQuery extends AbstractLuceneQuery {
         return this;
     }
 
+    
+    /**
+     * <p> The handle of clauses that were added with {@link DefaultLuceneQuery#addClause(LuceneQuery)}.
+     * It can be passed to {@link DefaultLuceneQuery#remove(ClauseHandle)}
+     * and {@link DefaultLuceneQuery#replace(ClauseHandle, LuceneQuery)} of the query that returned it.
+     * </p>
+     * <p> A handle is invalid after its clauses were removed or its query was reset.
+     * </p>
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    public static final class ClauseHandle {
+        
+        private final DefaultLuceneQuery owner;
+        
+        // the rendered clauses, null once the handle is invalid
+        private QueryBuffer content;
+        
+        private ClauseHandle(DefaultLuceneQuery owner, QueryBuffer content) {
+            this.owner = owner;
+            this.content = content;
+        }
+        
+        /**
+         * Returns whether this handle still refers to clauses of its query.
+         * @return true if the clauses were neither removed nor reset
+         */
+        public boolean isValid() {
+            return content != null;
+        }
+        
+        @Override
+        public String toString() {
+            return "ClauseHandle [" + (content == null ? "removed" : content.toString()) + "]";
+        }
+        
+    }
+
 }
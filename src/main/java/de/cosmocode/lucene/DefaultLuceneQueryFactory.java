@@ -23,6 +23,9 @@ import de.cosmocode.patterns.Factory;
  * A Factory that creates default {@link LuceneQuery}s.
  * The created LuceneQuerys are not threadsafe.
  * </p>
+ * <p> The factory tracks the lengths of the queries it created (a percentile of the last queries),
+ * and presizes the buffer of new queries accordingly, so that they rarely have to grow.
+ * </p>
  * <p> A reusable instance can be found at {@link LuceneHelper#DEFAULT_FACTORY}.
  * </p>
  * 
@@ -33,15 +36,26 @@ public final class DefaultLuceneQueryFactory implements Factory<LuceneQuery> {
     
     private final QueryModifier defaultQueryModifier;
     
+    private final QuerySizeEstimator sizeEstimator = new QuerySizeEstimator();
+    
     public DefaultLuceneQueryFactory(final QueryModifier mod) {
         this.defaultQueryModifier = mod;
     }
     
     @Override
     public LuceneQuery create() {
-        final LuceneQuery newQuery = new DefaultLuceneQuery();
+        final LuceneQuery newQuery = new DefaultLuceneQuery(sizeEstimator);
         newQuery.setModifier(defaultQueryModifier);
         return newQuery;
     }
+    
+    /**
+     * Returns the length with which new queries are presized, 0 if not enough queries were rendered yet.
+     * @return the expected length of the next query
+     * @since 1.3
+     */
+    public int getExpectedLength() {
+        return sizeEstimator.estimate();
+    }
 
 }
@@ -0,0 +1,119 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+/**
+ * <p> A {@link QueryMetricsRegistry} that keeps all metrics in memory,
+ * using {@link StripedCounter}s for the counters and {@link Histogram}s for the recorders.
+ * </p>
+ * <p> Example:
+ * </p>
+ * <pre>
+ *   final DefaultQueryMetricsRegistry registry = new DefaultQueryMetricsRegistry();
+ *   final Factory&lt;LuceneQuery&gt; factory = new InstrumentedLuceneQueryFactory(delegate, registry);
+ *   ...
+ *   System.out.println(registry.getCounters());
+ *   System.out.println(registry.getHistogram(InstrumentedLuceneQuery.BUILD_NANOS).getPercentile(0.99));
+ * </pre>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+@ThreadSafe
+public final class DefaultQueryMetricsRegistry implements QueryMetricsRegistry {
+    
+    public static final String ERR_NAME_NULL = "the name must not be null";
+    
+    private final ConcurrentMap<String, StripedCounter> counters = new ConcurrentHashMap<String, StripedCounter>();
+    
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+    
+    @Override
+    public StripedCounter counter(final String name) {
+        Preconditions.checkNotNull(name, ERR_NAME_NULL);
+        final StripedCounter existing = counters.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        final StripedCounter created = new StripedCounter();
+        final StripedCounter raced = counters.putIfAbsent(name, created);
+        return raced == null ? created : raced;
+    }
+    
+    @Override
+    public Histogram recorder(final String name) {
+        Preconditions.checkNotNull(name, ERR_NAME_NULL);
+        final Histogram existing = histograms.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        final Histogram created = new Histogram();
+        final Histogram raced = histograms.putIfAbsent(name, created);
+        return raced == null ? created : raced;
+    }
+    
+    /**
+     * Returns the current value of the counter with the given name, or 0 if there is no such counter.
+     * @param name the name of the counter
+     * @return the current value of the counter
+     */
+    public long getCount(final String name) {
+        final StripedCounter counter = counters.get(name);
+        return counter == null ? 0L : counter.get();
+    }
+    
+    /**
+     * Returns the histogram with the given name, or null if there is no such histogram.
+     * @param name the name of the histogram
+     * @return the histogram with the given name or null
+     */
+    public Histogram getHistogram(final String name) {
+        return histograms.get(name);
+    }
+    
+    /**
+     * Returns a snapshot of all counters, sorted by name.
+     * @return an immutable snapshot of all counter values
+     */
+    public SortedMap<String, Long> getCounters() {
+        final SortedMap<String, Long> snapshot = Maps.newTreeMap();
+        for (Map.Entry<String, StripedCounter> entry : counters.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        return Collections.unmodifiableSortedMap(snapshot);
+    }
+    
+    /**
+     * Returns a view of all histograms.
+     * @return an unmodifiable view of all histograms, by name
+     */
+    public Map<String, Histogram> getHistograms() {
+        return Collections.unmodifiableMap(histograms);
+    }
+    
+}
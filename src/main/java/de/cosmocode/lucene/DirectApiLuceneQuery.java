@@ -16,15 +16,23 @@
 
 package de.cosmocode.lucene;
 
+import java.io.IOException;
 import java.lang.reflect.Array;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryParser.ParseException;
-import org.apache.lucene.queryParser.QueryParser;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.PrefixQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.RangeQuery;
 import org.apache.lucene.search.TermQuery;
@@ -46,17 +54,44 @@ final class DirectApiLuceneQuery extends AbstractLuceneQuery {
     private static final Logger LOG = LoggerFactory.getLogger(DirectApiLuceneQuery.class);
     
     private final String defaultField;
-    private final Analyzer analyzer;
     private final BooleanQuery topQuery;
+    private final FastQueryParser parser;
+    
+    // may be null, expand fuzzy and wildcarded values with the terms of the reader
+    private final IndexReader reader;
+    private final FuzzyExpander fuzzyExpander;
+    private final TermExpansionCache expansionCache;
     
     private Query lastQuery;
     private String currentField;
     
+    // the started fields, the innermost first
+    private final Deque<String> fieldStack = new ArrayDeque<String>(4);
+    
     public DirectApiLuceneQuery(String defaultField, Analyzer analyzer) {
+        this(defaultField, analyzer, null, null, null);
+    }
+    
+    /**
+     * Creates a DirectApiLuceneQuery that expands fuzzy values with the given expander,
+     * into a bounded BooleanQuery of the most similar terms of the given reader,
+     * and wildcarded values and the buckets of split ranges with the cached expansions of the given cache.
+     * @param defaultField the field of values that are added outside of a field
+     * @param analyzer the analyzer for subqueries and unescaped values
+     * @param reader the reader whose terms are used for fuzzy and wildcarded values, may be null
+     * @param fuzzyExpander the expander for fuzzy values, null to use a FuzzyQuery
+     * @param expansionCache the cache for wildcarded values and range buckets, null to use a PrefixQuery
+     *        and RangeQuerys
+     */
+    DirectApiLuceneQuery(String defaultField, Analyzer analyzer, IndexReader reader,
+        FuzzyExpander fuzzyExpander, TermExpansionCache expansionCache) {
         this.defaultField = defaultField;
-        this.analyzer = analyzer;
         this.topQuery = new BooleanQuery();
+        this.parser = new FastQueryParser(defaultField, analyzer);
         this.currentField = defaultField;
+        this.reader = reader;
+        this.fuzzyExpander = fuzzyExpander;
+        this.expansionCache = expansionCache;
     }
     
     /* private methods that do the query conversion */
@@ -67,16 +102,76 @@ final class DirectApiLuceneQuery extends AbstractLuceneQuery {
         lastQuery = query;
     }
     
-    private Query createSingleQuery(String value) {
+    private Query createSingleQuery(String value, QueryModifier modifier) {
+        if (modifier.isWildcarded() && modifier.isEdgeNGrams() && !fieldStack.isEmpty() && EdgeNGrams.isLookup(value)) {
+            return createEdgeNGramQuery(value, modifier);
+        } else if (modifier.isWildcarded() && value.length() > 0) {
+            return createWildcardedQuery(value, modifier);
+        } else if (modifier.isFuzzyEnabled() && value.length() > 0) {
+            return createFuzzyQuery(value, modifier.getFuzzyness());
+        }
         return new TermQuery(new Term(currentField, value));
     }
     
-    private Query createMultiQuery(Iterable<?> values, QueryModifier modifier) {
+    /**
+     * search for the value and everything that starts with the value, like ("value" value*)
+     * of the {@link DefaultLuceneQuery}, and for similar values if fuzzyness is enabled.
+     */
+    private Query createWildcardedQuery(String value, QueryModifier modifier) {
+        final Term term = new Term(currentField, value);
+        final BooleanQuery query = new BooleanQuery();
+        query.add(new TermQuery(term), Occur.SHOULD);
+        query.add(createPrefixQuery(term), Occur.SHOULD);
+        if (modifier.isFuzzyEnabled()) {
+            query.add(createFuzzyQuery(value, modifier.getFuzzyness()), Occur.SHOULD);
+        }
+        return query;
+    }
+    
+    /**
+     * search for the value as a single term of the edge n-gram field of the current field,
+     * like the {@link DefaultLuceneQuery}, and for similar values if fuzzyness is enabled.
+     */
+    private Query createEdgeNGramQuery(String value, QueryModifier modifier) {
+        final Query lookup = new TermQuery(new Term(EdgeNGrams.fieldName(currentField), EdgeNGrams.normalize(value)));
+        if (!modifier.isFuzzyEnabled()) return lookup;
+        
+        final BooleanQuery query = new BooleanQuery();
+        query.add(lookup, Occur.SHOULD);
+        query.add(createFuzzyQuery(value, modifier.getFuzzyness()), Occur.SHOULD);
+        return query;
+    }
+    
+    private Query createPrefixQuery(Term prefix) {
+        final PrefixQuery query = new PrefixQuery(prefix);
+        if (reader != null && expansionCache != null) {
+            try {
+                return expansionCache.rewrite(reader, query);
+            } catch (IOException e) {
+                LOG.warn("Could not expand prefix " + prefix + ", using a PrefixQuery", e);
+            }
+        }
+        return query;
+    }
+    
+    private Query createFuzzyQuery(String value, double fuzzyness) {
+        if (reader != null && fuzzyExpander != null) {
+            try {
+                return fuzzyExpander.expand(reader, currentField, value, fuzzyness);
+            } catch (IOException e) {
+                LOG.warn("Could not expand fuzzy value " + value + ", using a FuzzyQuery", e);
+            }
+        }
+        return new FuzzyQuery(new Term(currentField, value), (float) fuzzyness);
+    }
+    
+    private Query createMultiQuery(Iterator<?> values, QueryModifier modifier) {
         final BooleanQuery multiQuery = new BooleanQuery();
         final QueryModifier valueModifier = modifier.getMultiValueModifier();
         final Occur occur = TermModifierToOccur.INSTANCE.apply(valueModifier.getTermModifier());
         
-        for (Object value : values) {
+        while (values.hasNext()) {
+            final Object value = values.next();
             if (value != null) {
                 multiQuery.add(createQuery(value, valueModifier), occur);
             }
@@ -105,13 +200,15 @@ final class DirectApiLuceneQuery extends AbstractLuceneQuery {
     private Query createQuery(Object value, QueryModifier modifier) {
         Preconditions.checkNotNull(value, "Value");
         if (value instanceof String) {
-            return createSingleQuery(value.toString());
+            return createSingleQuery(value.toString(), modifier);
         } else if (value instanceof Iterable<?>) {
-            return createMultiQuery(Iterable.class.cast(value), modifier);
+            return createMultiQuery(Iterable.class.cast(value).iterator(), modifier);
+        } else if (value instanceof Iterator<?>) {
+            return createMultiQuery(Iterator.class.cast(value), modifier);
         } else if (value.getClass().isArray()) { 
             return createMultiQueryFromArray(value, modifier);
         } else {
-            return createSingleQuery(value.toString());
+            return createSingleQuery(value.toString(), modifier);
         }
     }
 
@@ -120,7 +217,7 @@ final class DirectApiLuceneQuery extends AbstractLuceneQuery {
         Preconditions.checkState(value != null, "Value must not be null");
         
         final Occur occur = TermModifierToOccur.INSTANCE.apply(modifier.getTermModifier());
-        final Query query = createSingleQuery(value);
+        final Query query = createSingleQuery(value, modifier);
         addQueryToTopQuery(query, occur);
         
         return this;
@@ -152,6 +249,17 @@ final class DirectApiLuceneQuery extends AbstractLuceneQuery {
     public LuceneQuery addArgumentAsCollection(Collection<?> values, QueryModifier modifier) {
         Preconditions.checkState(values != null, "Values must not be null");
         
+        final Occur occur = TermModifierToOccur.INSTANCE.apply(modifier.getTermModifier());
+        final Query query = createMultiQuery(values.iterator(), modifier);
+        addQueryToTopQuery(query, occur);
+        
+        return this;
+    }
+
+    @Override
+    public LuceneQuery addArgumentAsIterator(Iterator<?> values, QueryModifier modifier) {
+        Preconditions.checkState(values != null, "Values must not be null");
+        
         final Occur occur = TermModifierToOccur.INSTANCE.apply(modifier.getTermModifier());
         final Query query = createMultiQuery(values, modifier);
         addQueryToTopQuery(query, occur);
@@ -185,19 +293,40 @@ final class DirectApiLuceneQuery extends AbstractLuceneQuery {
     @Override
     public LuceneQuery addRange(String from, String to, QueryModifier modifier) {
         final Occur occur = TermModifierToOccur.INSTANCE.apply(modifier.getTermModifier());
-        final Term lowerTerm = new Term(currentField, from);
-        final Term upperTerm = new Term(currentField, to);
-        final RangeQuery query = new RangeQuery(lowerTerm, upperTerm, true);
-        addQueryToTopQuery(query, occur);
+        if (modifier.isRangeBucketsEnabled()) {
+            final List<QueryClause> ranges = RangeBuckets.split(from, to, modifier.getRangeBuckets());
+            if (ranges.size() > 1) {
+                final BooleanQuery query = new BooleanQuery(true);
+                for (final QueryClause range : ranges) {
+                    query.add(createRangeQuery(range.getText(), range.getUpper()), Occur.SHOULD);
+                }
+                addQueryToTopQuery(query, occur);
+                return this;
+            }
+        }
+        addQueryToTopQuery(createRangeQuery(from, to), occur);
         
         return this;
     }
+    
+    /**
+     * Creates a RangeQuery, whose documents are cached if it is a bucket of a split range.
+     */
+    private Query createRangeQuery(String from, String to) {
+        final RangeQuery query = new RangeQuery(new Term(currentField, from), new Term(currentField, to), true);
+        if (reader != null && expansionCache != null && RangeBuckets.isBucket(from, to)) {
+            try {
+                return expansionCache.rewrite(reader, query);
+            } catch (IOException e) {
+                LOG.warn("Could not cache range " + query + ", using a RangeQuery", e);
+            }
+        }
+        return query;
+    }
 
     @Override
     public LuceneQuery addSubquery(LuceneQuery value, QueryModifier modifiers) {
         final Occur occurance = TermModifierToOccur.INSTANCE.apply(modifiers.getTermModifier());
-        final QueryParser parser = new QueryParser(defaultField, analyzer);
-        
         try {
             this.topQuery.add(parser.parse(value.getQuery()), occurance);
         } catch (ParseException e) {
@@ -218,8 +347,6 @@ final class DirectApiLuceneQuery extends AbstractLuceneQuery {
         }
         
         final Occur occurance = mandatory ? Occur.MUST : Occur.SHOULD;
-        final QueryParser parser = new QueryParser(defaultField, analyzer);
-        
         try {
             this.topQuery.add(parser.parse(value.toString()), occurance);
         } catch (ParseException e) {
@@ -237,16 +364,47 @@ final class DirectApiLuceneQuery extends AbstractLuceneQuery {
         Preconditions.checkState(this.topQuery.getClauses().length > 0, ERR_EMPTY_QUERY);
         return this.topQuery.toString();
     }
+    
+    /**
+     * Returns the query that was built so far, without rendering it to a String.
+     * This is not a copy, so it changes with every further call on this LuceneQuery.
+     * @return the query that was built so far
+     */
+    Query toQuery() {
+        return this.topQuery;
+    }
+    
+    /**
+     * Resets this query, so that it can be reused for a new query.
+     * The default QueryModifier is not changed.
+     */
+    public void reset() {
+        this.topQuery.clauses().clear();
+        this.topQuery.setBoost(1.0f);
+        this.lastQuery = null;
+        this.currentField = defaultField;
+        this.fieldStack.clear();
+        setLastSuccessful(false);
+    }
 
     @Override
     public LuceneQuery startField(String fieldName, QueryModifier modifier) {
+        if (StringUtils.isBlank(fieldName)) {
+            setLastSuccessful(false);
+            return this;
+        }
+        
+        this.fieldStack.push(fieldName);
         this.currentField = fieldName;
+        setLastSuccessful(true);
         return this;
     }
 
     @Override
     public LuceneQuery endField() {
-        this.currentField = defaultField;
+        this.fieldStack.poll();
+        this.currentField = fieldStack.isEmpty() ? defaultField : fieldStack.peek();
+        setLastSuccessful(true);
         return this;
     }
 
@@ -0,0 +1,294 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.Token;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Field.Index;
+import org.apache.lucene.document.Field.Store;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p> Writes the edge n-grams (the prefixes) of field values into a companion field,
+ * so that a prefix search becomes a single term lookup.
+ * </p>
+ * <p> A wildcarded argument is rendered as {@code value*}, which makes lucene enumerate every term
+ * of the field that starts with the value and combine them in one query. This is expensive for short prefixes
+ * on fields with many distinct terms. If the documents were indexed with the prefixes of every token
+ * in a field named {@code field + }{@link #FIELD_SUFFIX}, then a {@link QueryModifier} with edge n-grams enabled
+ * ({@link ModifierBuilder#edgeNGrams()}) renders a wildcarded argument of a field as an exact term
+ * of the n-gram field instead, and the cost of the search no longer depends on
+ * how many terms share the prefix.
+ * </p>
+ * <p> The values are split into tokens by the analyzer of the field, or at whitespace if no analyzer is given,
+ * and every token is lowercased (as lucene's QueryParser does with prefix queries),
+ * then all prefixes of a token with {@link #MIN_GRAM} to {@link #MAX_GRAM} chars are indexed untokenized.
+ * A prefix query matches the terms that the analyzer of the field produced, so the n-grams should be built
+ * with the same analyzer; e.g. a StandardAnalyzer splits "foo-bar" into "foo" and "bar",
+ * but without the analyzer only the prefixes of "foo-bar" are indexed and {@code bar*} finds nothing.
+ * Values that can't be looked up ({@link #isLookup(String)}), because they are longer
+ * than {@link #MAX_GRAM} or contain whitespace, are still rendered as prefix queries.
+ * The analyzer that is used to parse the queries must keep the n-gram terms as they are,
+ * e.g. with a PerFieldAnalyzerWrapper that uses a KeywordAnalyzer for the n-gram fields.
+ * </p>
+ * <p> Example:
+ * </p>
+ * <pre>
+ *   final Document doc = new Document();
+ *   doc.add(new Field("name", name, Store.YES, Index.ANALYZED));
+ *   EdgeNGrams.addTo(doc, "name", name, analyzer);
+ *   writer.addDocument(doc);
+ *   
+ *   // renders name_edge:sam instead of ("sam" sam*)
+ *   query.addField("name", "sam", LuceneQuery.MOD_TEXT.copy().required().wildcarded().edgeNGrams().end());
+ * </pre>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+@ThreadSafe
+public final class EdgeNGrams {
+    
+    public static final String ERR_FIELD_NULL = "the given field must not be null";
+    
+    public static final String ERR_DOCUMENT_NULL = "the given document must not be null";
+    
+    public static final String ERR_ANALYZER_NULL = "the given analyzer must not be null";
+    
+    /**
+     * The suffix of the field name that holds the edge n-grams of a field.
+     */
+    public static final String FIELD_SUFFIX = "_edge";
+    
+    /**
+     * The length of the shortest indexed prefix.
+     */
+    public static final int MIN_GRAM = 1;
+    
+    /**
+     * The length of the longest indexed prefix. Longer values are searched with a prefix query.
+     */
+    public static final int MAX_GRAM = 20;
+    
+    private EdgeNGrams() {
+        // private constructor to prevent instantiation
+    }
+    
+    /**
+     * Returns the name of the field that holds the edge n-grams of the given field.
+     * @param field the name of the original field
+     * @return the name of the n-gram field
+     * @throws NullPointerException if field is null
+     */
+    public static String fieldName(final String field) {
+        Preconditions.checkNotNull(field, ERR_FIELD_NULL);
+        return field + FIELD_SUFFIX;
+    }
+    
+    /**
+     * Returns the term that a prefix is indexed as.
+     * @param value the prefix
+     * @return the lowercased value
+     */
+    public static String normalize(final String value) {
+        return value.toLowerCase(Locale.ENGLISH);
+    }
+    
+    /**
+     * Checks whether the given prefix can be searched as a single term of an n-gram field.
+     * @param value the prefix to search
+     * @return true if the value is a single token with {@link #MIN_GRAM} to {@link #MAX_GRAM} chars
+     */
+    public static boolean isLookup(final String value) {
+        if (value == null || value.length() < MIN_GRAM || value.length() > MAX_GRAM) return false;
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.isWhitespace(value.charAt(i))) return false;
+        }
+        return true;
+    }
+    
+    private static void addGrams(final Set<String> grams, final String token) {
+        final String normalized = normalize(token);
+        final int max = Math.min(normalized.length(), MAX_GRAM);
+        for (int length = MIN_GRAM; length <= max; length++) {
+            grams.add(normalized.substring(0, length));
+        }
+    }
+    
+    /**
+     * Returns the edge n-grams of all whitespace separated tokens of the given value, without duplicates.
+     * @param value the value to split, may be null
+     * @return the prefixes of all tokens, in order of their first occurrence
+     */
+    public static Set<String> grams(final String value) {
+        final Set<String> grams = new LinkedHashSet<String>();
+        if (value == null) return grams;
+        
+        for (final String token : StringUtils.split(value)) {
+            addGrams(grams, token);
+        }
+        return grams;
+    }
+    
+    /**
+     * Returns the edge n-grams of all tokens that the given analyzer produces for the given value,
+     * without duplicates.
+     * 
+     * @param analyzer the analyzer of the field
+     * @param field the name of the field
+     * @param value the value to analyze, may be null
+     * @return the prefixes of all tokens, in order of their first occurrence
+     * @throws NullPointerException if analyzer is null
+     * @throws IOException if the value could not be analyzed
+     */
+    public static Set<String> grams(final Analyzer analyzer, final String field, final String value) 
+        throws IOException {
+        
+        Preconditions.checkNotNull(analyzer, ERR_ANALYZER_NULL);
+        final Set<String> grams = new LinkedHashSet<String>();
+        if (value == null) return grams;
+        
+        final TokenStream tokens = analyzer.tokenStream(field, new StringReader(value));
+        try {
+            final Token reusable = new Token();
+            for (Token token = tokens.next(reusable); token != null; token = tokens.next(reusable)) {
+                addGrams(grams, token.term());
+            }
+        } finally {
+            tokens.close();
+        }
+        return grams;
+    }
+    
+    /**
+     * <p> Adds the edge n-grams of the given value to the given document,
+     * in the n-gram field of the given field ({@link #fieldName(String)}).
+     * </p>
+     * <p> The n-grams are neither stored nor normed and without term frequencies,
+     * because they are only used to find documents.
+     * </p>
+     * 
+     * <p> The value is split at whitespace, see {@link #addTo(Document, String, String, Analyzer)}
+     * for fields that are indexed with another analyzer.
+     * </p>
+     * 
+     * @param doc the document to add the n-grams to
+     * @param field the name of the original field
+     * @param value the value of the original field, may be null
+     * @return the given document
+     * @throws NullPointerException if doc or field is null
+     */
+    public static Document addTo(final Document doc, final String field, final String value) {
+        Preconditions.checkNotNull(doc, ERR_DOCUMENT_NULL);
+        return add(doc, fieldName(field), grams(value));
+    }
+    
+    /**
+     * <p> Adds the edge n-grams of the tokens that the given analyzer produces for the given value
+     * to the given document, in the n-gram field of the given field ({@link #fieldName(String)}).
+     * The analyzer should be the one that the original field is indexed with,
+     * so that the n-grams match the same terms as a prefix query on the original field.
+     * </p>
+     * 
+     * @param doc the document to add the n-grams to
+     * @param field the name of the original field
+     * @param value the value of the original field, may be null
+     * @param analyzer the analyzer of the original field
+     * @return the given document
+     * @throws NullPointerException if doc, field or analyzer is null
+     * @throws IOException if the value could not be analyzed
+     */
+    public static Document addTo(final Document doc, final String field, final String value, 
+        final Analyzer analyzer) throws IOException {
+        
+        Preconditions.checkNotNull(doc, ERR_DOCUMENT_NULL);
+        return add(doc, fieldName(field), grams(analyzer, field, value));
+    }
+    
+    private static Document add(final Document doc, final String gramField, final Set<String> grams) {
+        for (final String gram : grams) {
+            final Field gramValue = new Field(gramField, gram, Store.NO, Index.NOT_ANALYZED_NO_NORMS);
+            gramValue.setOmitTf(true);
+            doc.add(gramValue);
+        }
+        return doc;
+    }
+    
+    /**
+     * <p> Creates a lucene document with the given fields, which are stored and analyzed,
+     * and with the edge n-grams of every field.
+     * </p>
+     * 
+     * @param keyValues name and value of the fields, alternating (key, value, key, value, ...)
+     * @return a new document with the given fields and their n-grams
+     * @throws IllegalArgumentException if keyValues has an odd length
+     */
+    public static Document createDocument(final String... keyValues) {
+        Preconditions.checkArgument(keyValues.length % 2 == 0, "keyValues must be pairs of name and value");
+        final Document doc = new Document();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            final String key = keyValues[i];
+            final String value = keyValues[i + 1];
+            if (key == null || value == null) continue;
+            
+            doc.add(new Field(key, value, Store.YES, Index.ANALYZED));
+            addTo(doc, key, value);
+        }
+        return doc;
+    }
+    
+    /**
+     * <p> Creates a lucene document with the given fields, which are stored and analyzed,
+     * and with the edge n-grams that the given analyzer produces for every field.
+     * </p>
+     * 
+     * @param analyzer the analyzer that the document is indexed with
+     * @param keyValues name and value of the fields, alternating (key, value, key, value, ...)
+     * @return a new document with the given fields and their n-grams
+     * @throws NullPointerException if analyzer is null
+     * @throws IllegalArgumentException if keyValues has an odd length
+     * @throws IOException if a value could not be analyzed
+     */
+    public static Document createDocument(final Analyzer analyzer, final String... keyValues) throws IOException {
+        Preconditions.checkNotNull(analyzer, ERR_ANALYZER_NULL);
+        Preconditions.checkArgument(keyValues.length % 2 == 0, "keyValues must be pairs of name and value");
+        final Document doc = new Document();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            final String key = keyValues[i];
+            final String value = keyValues[i + 1];
+            if (key == null || value == null) continue;
+            
+            doc.add(new Field(key, value, Store.YES, Index.ANALYZED));
+            addTo(doc, key, value, analyzer);
+        }
+        return doc;
+    }
+    
+}
@@ -0,0 +1,707 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.DateFormat;
+import java.text.ParsePosition;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.Token;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreRangeQuery;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.WildcardQuery;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import de.cosmocode.lucene.QueryClause.Kind;
+
+/**
+ * <p> A parser for the query syntax that this library renders, which is much faster than lucene's QueryParser.
+ * </p>
+ * <p> The parser reads the query in a single pass, without a token stream and without
+ * backtracking. It understands the subset of lucene's syntax that the {@link LuceneQuery}s of this library
+ * produce: {@code +} and {@code -} prefixes, {@code field:(...)} and {@code field:value}, groups, quoted phrases,
+ * prefix and wildcard terms, {@code ~f} for fuzzy terms and phrase slops, {@code ^b} boosts,
+ * {@code [a TO b]} and <code>{a TO b}</code> ranges and backslash escapes.
+ * The queries it creates are equal to the queries that a QueryParser with default settings creates
+ * with the same field and analyzer.
+ * </p>
+ * <p> All other syntax, like AND, OR and NOT, leading wildcards, dates in ranges or syntax errors,
+ * is handed to a new QueryParser, so the result and the exceptions are the same as with a QueryParser.
+ * Unlike the QueryParser, this class is threadsafe.
+ * </p>
+ * <p> The parser can also return the {@link QueryClause}s of a query instead of a lucene query,
+ * see {@link #parseClauses(CharSequence)}, which can be inspected, changed and converted later.
+ * </p>
+ * <p> Example:
+ * </p>
+ * <pre>
+ *   final FastQueryParser parser = new FastQueryParser("text", analyzer);
+ *   searcher.search(parser.parse(query.getQuery()), 10);
+ * </pre>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+@ThreadSafe
+public final class FastQueryParser {
+    
+    public static final String ERR_FIELD_NULL = "the given default field must not be null";
+    
+    public static final String ERR_ANALYZER_NULL = "the given analyzer must not be null";
+    
+    private final String defaultField;
+    
+    private final Analyzer analyzer;
+    
+    private final AtomicLong parsed = new AtomicLong();
+    
+    private final AtomicLong fallbacks = new AtomicLong();
+    
+    /**
+     * Creates a new FastQueryParser.
+     * @param defaultField the field of terms without a field
+     * @param analyzer the analyzer for terms and phrases
+     * @throws NullPointerException if defaultField or analyzer is null
+     */
+    public FastQueryParser(final String defaultField, final Analyzer analyzer) {
+        this.defaultField = Preconditions.checkNotNull(defaultField, ERR_FIELD_NULL);
+        this.analyzer = Preconditions.checkNotNull(analyzer, ERR_ANALYZER_NULL);
+    }
+    
+    /**
+     * Parses the given query.
+     * @param query the query to parse
+     * @return the parsed query
+     * @throws ParseException if the query can't be parsed by lucene's QueryParser
+     * @throws NullPointerException if query is null
+     */
+    public Query parse(final CharSequence query) throws ParseException {
+        Preconditions.checkNotNull(query, "Query");
+        final Query fast = parseFast(query);
+        if (fast != null) {
+            parsed.incrementAndGet();
+            return fast;
+        }
+        
+        fallbacks.incrementAndGet();
+        return new QueryParser(defaultField, analyzer).parse(query.toString());
+    }
+    
+    /**
+     * Parses the given query, without a fallback to lucene's QueryParser.
+     * @param query the query to parse
+     * @return the parsed query, or null if the query uses syntax that is not supported
+     */
+    Query parseFast(final CharSequence query) {
+        try {
+            return convertTopLevel(new Cursor(query).parseTopLevel());
+        } catch (UnsupportedSyntaxException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * <p> Parses the given query into its clauses, without creating a lucene query.
+     * The returned clause is a group without modifier, field and boost, which contains the clauses of the query.
+     * </p>
+     * <p> Only the syntax that {@link #parse(CharSequence)} reads without a QueryParser is supported,
+     * except for dates in ranges, which are kept as they are.
+     * </p>
+     * @param query the query to parse
+     * @return the clauses of the query, as a group
+     * @throws ParseException if the query is invalid or uses syntax that is not supported
+     * @throws NullPointerException if query is null
+     */
+    public QueryClause parseClauses(final CharSequence query) throws ParseException {
+        Preconditions.checkNotNull(query, "Query");
+        try {
+            return new Cursor(query).parseTopLevel();
+        } catch (UnsupportedSyntaxException e) {
+            throw new ParseException("Cannot parse '" + query + "': invalid or unsupported syntax");
+        }
+    }
+    
+    /**
+     * Converts the given clause to a lucene query, which is equal to the query that
+     * {@link #parse(CharSequence)} returns for the rendered clause.
+     * Clauses that can't be converted directly, like ranges of dates, are rendered and handed to a QueryParser.
+     * @param clause the clause to convert
+     * @return the lucene query
+     * @throws ParseException if the QueryParser can't parse the rendered clause
+     * @throws NullPointerException if clause is null
+     */
+    public Query toQuery(final QueryClause clause) throws ParseException {
+        Preconditions.checkNotNull(clause, "Clause");
+        try {
+            final Query query = convertTopLevel(clause);
+            parsed.incrementAndGet();
+            return query;
+        } catch (UnsupportedSyntaxException e) {
+            fallbacks.incrementAndGet();
+            return new QueryParser(defaultField, analyzer).parse(clause.toString());
+        }
+    }
+    
+    /**
+     * Returns the number of queries that were parsed or converted without a QueryParser.
+     * @return the number of parsed queries
+     */
+    public long getParsed() {
+        return parsed.get();
+    }
+    
+    /**
+     * Returns the number of queries that were handed to a QueryParser.
+     * @return the number of fallbacks
+     */
+    public long getFallbacks() {
+        return fallbacks.get();
+    }
+    
+    private Query convertTopLevel(final QueryClause clause) throws UnsupportedSyntaxException {
+        // the rendered modifier of a single clause makes a boolean query
+        final QueryClause group = clause.getTermModifier() == TermModifier.NONE ? clause : QueryClause.group(clause);
+        final Query query = convert(group, defaultField);
+        return query == null ? new BooleanQuery() : query;
+    }
+    
+    private Query convert(final QueryClause clause, final String parentField) throws UnsupportedSyntaxException {
+        final String field = clause.getField() == null ? parentField : clause.getField();
+        final Query query;
+        switch (clause.getKind()) {
+            case TERM: {
+                query = analyze(field, clause.getText(), 0);
+                break;
+            }
+            case PREFIX: {
+                // the QueryParser rejects leading wildcards, even escaped ones
+                if (clause.getText().charAt(0) == '*') throw UnsupportedSyntaxException.INSTANCE;
+                query = new PrefixQuery(new Term(field, clause.getText().toLowerCase()));
+                break;
+            }
+            case WILDCARD: {
+                final char first = clause.getText().charAt(0);
+                if (first == '*' || first == '?') throw UnsupportedSyntaxException.INSTANCE;
+                query = new WildcardQuery(new Term(field, clause.getText().toLowerCase()));
+                break;
+            }
+            case FUZZY: {
+                query = new FuzzyQuery(new Term(field, clause.getText().toLowerCase()), clause.getSimilarity(), 0);
+                break;
+            }
+            case PHRASE: {
+                query = analyze(field, clause.getText(), clause.getSlop());
+                break;
+            }
+            case RANGE: {
+                final String lower = clause.getText().toLowerCase();
+                final String upper = clause.getUpper().toLowerCase();
+                // the QueryParser converts dates to their indexed form
+                if (isDate(lower) && isDate(upper)) throw UnsupportedSyntaxException.INSTANCE;
+                query = new ConstantScoreRangeQuery(field, lower, upper, clause.isInclusive(), clause.isInclusive());
+                break;
+            }
+            case GROUP: {
+                query = convertGroup(clause.getClauses(), field);
+                break;
+            }
+            default: {
+                throw new IllegalStateException("Unknown kind " + clause.getKind());
+            }
+        }
+        if (query != null && clause.isBoosted()) {
+            query.setBoost(clause.getBoost());
+        }
+        return query;
+    }
+    
+    private Query convertGroup(final List<QueryClause> children, final String field)
+        throws UnsupportedSyntaxException {
+        
+        final List<BooleanClause> clauses = Lists.newArrayListWithCapacity(children.size());
+        Query first = null;
+        for (int i = 0; i < children.size(); i++) {
+            final QueryClause child = children.get(i);
+            final Query query = convert(child, field);
+            if (i == 0 && child.getTermModifier() == TermModifier.NONE) {
+                first = query;
+            }
+            if (query != null) {
+                clauses.add(new BooleanClause(query, TermModifierToOccur.INSTANCE.apply(child.getTermModifier())));
+            }
+        }
+        
+        // like the QueryParser, a group of a single optional clause is replaced by that clause
+        if (clauses.size() == 1 && first != null) {
+            return first;
+        } else if (clauses.isEmpty()) {
+            return null;
+        } else {
+            final BooleanQuery query = new BooleanQuery();
+            for (final BooleanClause clause : clauses) {
+                query.add(clause);
+            }
+            return query;
+        }
+    }
+    
+    private static boolean isDate(final String text) {
+        final DateFormat format = DateFormat.getDateInstance(DateFormat.SHORT, Locale.getDefault());
+        format.setLenient(true);
+        return format.parse(text, new ParsePosition(0)) != null;
+    }
+    
+    /**
+     * Analyzes the text of a term or phrase, like QueryParser.getFieldQuery does.
+     */
+    private Query analyze(final String field, final String text, final int slop) throws UnsupportedSyntaxException {
+        final List<String> terms = Lists.newArrayListWithCapacity(2);
+        final TokenStream source;
+        try {
+            // the analyzer may reuse its token streams per thread, which the QueryParser doesn't
+            source = analyzer.reusableTokenStream(field, new StringReader(text));
+        } catch (IOException e) {
+            throw UnsupportedSyntaxException.INSTANCE;
+        }
+        try {
+            final Token reusableToken = new Token();
+            while (true) {
+                final Token token;
+                try {
+                    token = source.next(reusableToken);
+                } catch (IOException e) {
+                    break;
+                }
+                if (token == null) break;
+                // tokens at the same position become a BooleanQuery or MultiPhraseQuery
+                if (token.getPositionIncrement() != 1) throw UnsupportedSyntaxException.INSTANCE;
+                terms.add(token.term());
+            }
+        } finally {
+            try {
+                source.close();
+            } catch (IOException e) {
+                // ignored, like the QueryParser does
+            }
+        }
+        
+        if (terms.isEmpty()) {
+            return null;
+        } else if (terms.size() == 1) {
+            return new TermQuery(new Term(field, terms.get(0)));
+        } else {
+            final PhraseQuery query = new PhraseQuery();
+            query.setSlop(slop);
+            for (final String term : terms) {
+                query.add(new Term(field, term));
+            }
+            return query;
+        }
+    }
+    
+    /**
+     * The position and state of one parse, which creates the clauses of a query.
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    private static final class Cursor {
+        
+        private static final float NO_BOOST = Float.NaN;
+        
+        private final CharSequence input;
+        
+        private final int length;
+        
+        private final StringBuilder buffer = new StringBuilder(32);
+        
+        private int position;
+        
+        // set by readWord
+        private boolean wildcard;
+        private boolean prefix;
+        
+        Cursor(final CharSequence input) {
+            this.input = input;
+            this.length = input.length();
+        }
+        
+        QueryClause parseTopLevel() throws UnsupportedSyntaxException {
+            final ImmutableList<QueryClause> clauses = parseQuery();
+            skipWhitespace();
+            // a closing bracket without an opening one
+            if (position < length) throw UnsupportedSyntaxException.INSTANCE;
+            return group(TermModifier.NONE, null, clauses, NO_BOOST);
+        }
+        
+        private ImmutableList<QueryClause> parseQuery() throws UnsupportedSyntaxException {
+            final ImmutableList.Builder<QueryClause> clauses = ImmutableList.builder();
+            boolean empty = true;
+            
+            while (true) {
+                skipWhitespace();
+                if (position == length || input.charAt(position) == ')') break;
+                
+                final char c = input.charAt(position);
+                final TermModifier modifier;
+                if (c == '+') {
+                    modifier = TermModifier.REQUIRED;
+                    position++;
+                } else if (c == '-') {
+                    modifier = TermModifier.PROHIBITED;
+                    position++;
+                } else {
+                    modifier = TermModifier.NONE;
+                }
+                
+                clauses.add(parseClause(modifier));
+                empty = false;
+            }
+            
+            // an empty query or group
+            if (empty) throw UnsupportedSyntaxException.INSTANCE;
+            return clauses.build();
+        }
+        
+        private QueryClause parseClause(final TermModifier modifier) throws UnsupportedSyntaxException {
+            skipWhitespace();
+            if (position == length) throw UnsupportedSyntaxException.INSTANCE;
+            
+            if (isWordStart(input.charAt(position))) {
+                final int start = position;
+                final String word = readWord();
+                skipWhitespace();
+                if (position < length && input.charAt(position) == ':') {
+                    if (wildcard || prefix) throw UnsupportedSyntaxException.INSTANCE;
+                    position++;
+                    return parseFieldValue(modifier, word);
+                }
+                position = start;
+            }
+            return parseFieldValue(modifier, null);
+        }
+        
+        private QueryClause parseFieldValue(final TermModifier modifier, final String field)
+            throws UnsupportedSyntaxException {
+            
+            skipWhitespace();
+            if (position == length) throw UnsupportedSyntaxException.INSTANCE;
+            
+            final char c = input.charAt(position);
+            if (c == '(') {
+                position++;
+                final ImmutableList<QueryClause> clauses = parseQuery();
+                skipWhitespace();
+                if (position == length || input.charAt(position) != ')') throw UnsupportedSyntaxException.INSTANCE;
+                position++;
+                return group(modifier, field, clauses, readBoost());
+            } else if (c == '"') {
+                return parsePhrase(modifier, field);
+            } else if (c == '[' || c == '{') {
+                return parseRange(modifier, field);
+            } else if (isWordStart(c)) {
+                return parseTerm(modifier, field);
+            } else {
+                throw UnsupportedSyntaxException.INSTANCE;
+            }
+        }
+        
+        private QueryClause parseTerm(final TermModifier modifier, final String field)
+            throws UnsupportedSyntaxException {
+            
+            final String word = readWord();
+            final boolean isWildcard = wildcard;
+            final boolean isPrefix = prefix;
+            
+            String slop = readSlop();
+            final float boost = readBoost();
+            if (slop == null && !Float.isNaN(boost)) {
+                slop = readSlop();
+            }
+            
+            final Kind kind;
+            float similarity = 0.0f;
+            if (isWildcard) {
+                kind = Kind.WILDCARD;
+            } else if (isPrefix) {
+                kind = Kind.PREFIX;
+            } else if (slop != null) {
+                kind = Kind.FUZZY;
+                similarity = slop.length() == 0 ? FuzzyQuery.defaultMinSimilarity : parseFloat(slop);
+                // the QueryParser rejects these, with different exceptions
+                if (similarity < 0.0f || similarity >= 1.0f) throw UnsupportedSyntaxException.INSTANCE;
+            } else {
+                kind = Kind.TERM;
+            }
+            return new QueryClause(kind, modifier, field, word, null, false, similarity, 0, boost, null);
+        }
+        
+        private QueryClause parsePhrase(final TermModifier modifier, final String field)
+            throws UnsupportedSyntaxException {
+            
+            // skip the opening quote
+            position++;
+            buffer.setLength(0);
+            while (true) {
+                if (position == length) throw UnsupportedSyntaxException.INSTANCE;
+                final char c = input.charAt(position++);
+                if (c == '"') {
+                    break;
+                } else if (c == '\\') {
+                    appendEscaped();
+                } else {
+                    buffer.append(c);
+                }
+            }
+            final String text = buffer.toString();
+            
+            final String slop = readSlop();
+            final int phraseSlop = slop == null || slop.length() == 0 ? 0 : (int) parseFloat(slop);
+            return new QueryClause(Kind.PHRASE, modifier, field, text, null, false, 0.0f, phraseSlop, 
+                readBoost(), null);
+        }
+        
+        private QueryClause parseRange(final TermModifier modifier, final String field)
+            throws UnsupportedSyntaxException {
+            
+            final boolean inclusive = input.charAt(position) == '[';
+            final char end = inclusive ? ']' : '}';
+            position++;
+            
+            final String lower = readRangeBound(end);
+            skipWhitespace();
+            if (position + 2 <= length && input.charAt(position) == 'T' && input.charAt(position + 1) == 'O'
+                && (position + 2 == length || input.charAt(position + 2) == ' ' || input.charAt(position + 2) == end)) {
+                position += 2;
+            }
+            final String upper = readRangeBound(end);
+            skipWhitespace();
+            if (position == length || input.charAt(position) != end) throw UnsupportedSyntaxException.INSTANCE;
+            position++;
+            
+            return new QueryClause(Kind.RANGE, modifier, field, lower, upper, inclusive, 0.0f, 0, readBoost(), null);
+        }
+        
+        private QueryClause group(final TermModifier modifier, final String field,
+            final ImmutableList<QueryClause> clauses, final float boost) {
+            return new QueryClause(Kind.GROUP, modifier, field, null, null, false, 0.0f, 0, boost, clauses);
+        }
+        
+        private String readRangeBound(final char end) throws UnsupportedSyntaxException {
+            skipWhitespace();
+            final int start = position;
+            while (position < length) {
+                final char c = input.charAt(position);
+                if (c == ' ' || c == end) break;
+                // quoted bounds and other whitespace are tokenized differently
+                if (c == '"' || c == '\t' || c == '\n' || c == '\r') throw UnsupportedSyntaxException.INSTANCE;
+                position++;
+            }
+            if (position == start) throw UnsupportedSyntaxException.INSTANCE;
+            if (position - start == 2 && input.charAt(start) == 'T' && input.charAt(start + 1) == 'O') {
+                throw UnsupportedSyntaxException.INSTANCE;
+            }
+            
+            buffer.setLength(0);
+            final int boundEnd = position;
+            position = start;
+            while (position < boundEnd) {
+                final char c = input.charAt(position++);
+                if (c == '\\') {
+                    if (position == boundEnd) throw UnsupportedSyntaxException.INSTANCE;
+                    appendEscaped();
+                } else {
+                    buffer.append(c);
+                }
+            }
+            return buffer.toString();
+        }
+        
+        /**
+         * Reads a term, sets wildcard and prefix and returns the unescaped term,
+         * without the trailing * of a prefix.
+         */
+        private String readWord() throws UnsupportedSyntaxException {
+            buffer.setLength(0);
+            wildcard = false;
+            prefix = false;
+            final int start = position;
+            boolean star = false;
+            boolean escaped = false;
+            
+            while (position < length) {
+                final char c = input.charAt(position);
+                if (c == '\\') {
+                    position++;
+                    appendEscaped();
+                    escaped = true;
+                    wildcard |= star;
+                    star = false;
+                    continue;
+                } else if (c == '*' || c == '?') {
+                    if (position == start) throw UnsupportedSyntaxException.INSTANCE;
+                    wildcard |= star || c == '?';
+                    star = c == '*';
+                } else if (isWordPart(c)) {
+                    wildcard |= star;
+                    star = false;
+                } else {
+                    break;
+                }
+                buffer.append(c);
+                position++;
+            }
+            
+            final String word = buffer.toString();
+            // an escaped operator is a term
+            if (!escaped && ("AND".equals(word) || "OR".equals(word) || "NOT".equals(word)
+                || "&&".equals(word) || "||".equals(word))) {
+                throw UnsupportedSyntaxException.INSTANCE;
+            }
+            
+            if (star && !wildcard) {
+                prefix = true;
+                return word.substring(0, word.length() - 1);
+            }
+            return word;
+        }
+        
+        private void appendEscaped() throws UnsupportedSyntaxException {
+            // a trailing backslash and unicode escapes are left to the QueryParser
+            if (position == length || input.charAt(position) == 'u') throw UnsupportedSyntaxException.INSTANCE;
+            buffer.append(input.charAt(position++));
+        }
+        
+        /**
+         * Reads a ~ and the number after it.
+         * @return null if there is no ~, the number after the ~ otherwise, which may be empty
+         */
+        private String readSlop() {
+            skipWhitespace();
+            if (position == length || input.charAt(position) != '~') return null;
+            position++;
+            return readNumber();
+        }
+        
+        /**
+         * Reads a ^ and the boost after it.
+         * @return the boost, or NaN if there is no ^
+         */
+        private float readBoost() throws UnsupportedSyntaxException {
+            skipWhitespace();
+            if (position == length || input.charAt(position) != '^') return Float.NaN;
+            position++;
+            // the boost follows the caret directly, QueryParser has no whitespace in its boost state
+            final String number = readNumber();
+            if (number.length() == 0) throw UnsupportedSyntaxException.INSTANCE;
+            return parseFloat(number);
+        }
+        
+        private String readNumber() {
+            final int start = position;
+            while (position < length && isDigit(input.charAt(position))) {
+                position++;
+            }
+            if (position > start && position + 1 < length && input.charAt(position) == '.'
+                && isDigit(input.charAt(position + 1))) {
+                position++;
+                while (position < length && isDigit(input.charAt(position))) {
+                    position++;
+                }
+            }
+            return input.subSequence(start, position).toString();
+        }
+        
+        private float parseFloat(final String number) {
+            return Float.valueOf(number).floatValue();
+        }
+        
+        private void skipWhitespace() {
+            while (position < length && isWhitespace(input.charAt(position))) {
+                position++;
+            }
+        }
+        
+    }
+    
+    private static boolean isDigit(final char c) {
+        return c >= '0' && c <= '9';
+    }
+    
+    private static boolean isWhitespace(final char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+    
+    /**
+     * Checks whether the given char can start a term, the wildcards * and ? are handled separately.
+     */
+    private static boolean isWordStart(final char c) {
+        switch (c) {
+            case '+': case '-': case '!': case '(': case ')': case ':': case '^':
+            case '[': case ']': case '"': case '{': case '}': case '~': case '*': case '?':
+                return false;
+            default:
+                return !isWhitespace(c);
+        }
+    }
+    
+    private static boolean isWordPart(final char c) {
+        return c == '+' || c == '-' || isWordStart(c);
+    }
+    
+    /**
+     * Signals that a query contains syntax which is left to lucene's QueryParser.
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    private static final class UnsupportedSyntaxException extends Exception {
+        
+        private static final long serialVersionUID = 4581829417626046011L;
+        
+        private static final UnsupportedSyntaxException INSTANCE = new UnsupportedSyntaxException();
+        
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            // thrown very often, as a singleton, so a stack trace is neither useful nor affordable
+            return this;
+        }
+        
+    }
+    
+}
@@ -17,6 +17,7 @@
 package de.cosmocode.lucene;
 
 import java.util.Collection;
+import java.util.Iterator;
 
 import com.google.common.collect.ForwardingObject;
 
@@ -141,6 +142,32 @@ public abstract class ForwardingLuceneQuery extends ForwardingObject implements
         return this;
     }
 
+    @Override
+    public LuceneQuery addArgumentAsIterator(Iterator<?> values,
+            QueryModifier modifier) {
+        delegate().addArgumentAsIterator(values, modifier);
+        return this;
+    }
+
+    @Override
+    public LuceneQuery addArgumentAsIterator(Iterator<?> values) {
+        delegate().addArgumentAsIterator(values);
+        return this;
+    }
+
+    @Override
+    public LuceneQuery addArgumentAsIterable(Iterable<?> values,
+            QueryModifier modifier) {
+        delegate().addArgumentAsIterable(values, modifier);
+        return this;
+    }
+
+    @Override
+    public LuceneQuery addArgumentAsIterable(Iterable<?> values) {
+        delegate().addArgumentAsIterable(values);
+        return this;
+    }
+
     @Override
     public LuceneQuery addBoost(double boostFactor) {
         delegate().addBoost(boostFactor);
@@ -243,6 +270,20 @@ public abstract class ForwardingLuceneQuery extends ForwardingObject implements
         return this;
     }
 
+    @Override
+    public LuceneQuery addFieldAsIterator(String key, Iterator<?> value,
+            QueryModifier modifier) {
+        delegate().addFieldAsIterator(key, value, modifier);
+        return this;
+    }
+
+    @Override
+    public LuceneQuery addFieldAsIterable(String key, Iterable<?> value,
+            QueryModifier modifier) {
+        delegate().addFieldAsIterable(key, value, modifier);
+        return this;
+    }
+
     @Override
     public LuceneQuery addFuzzyArgument(String value, boolean mandatory, double fuzzyness) {
         delegate().addFuzzyArgument(value, mandatory, fuzzyness);
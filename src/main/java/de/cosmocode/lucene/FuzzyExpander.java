@@ -0,0 +1,458 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.TermQuery;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p> Expands a fuzzy search into a bounded {@link BooleanQuery} of the best matching terms of a field.
+ * </p>
+ * <p> Lucene's {@link FuzzyQuery} computes the edit distance between the searched value and every term
+ * of the field, which takes very long on fields with a large vocabulary. The expander instead runs
+ * a Levenshtein automaton of the value along the sorted term dictionary: the states of the automaton
+ * are the rows of the edit distance matrix, which are computed once per prefix and shared by all terms
+ * with that prefix. As soon as the automaton can't accept any continuation of a prefix, the expander
+ * seeks to the first term after all terms with that prefix, so most of the term dictionary is skipped.
+ * </p>
+ * <p> The candidates are scored like lucene's FuzzyQuery does: a term is accepted if its similarity
+ * {@code 1 - distance / min(value length, term length)} is greater than the fuzzyness,
+ * and it is boosted by how much the similarity exceeds the fuzzyness. Only the
+ * best {@link #getMaxCandidates() maxCandidates} terms are kept. The expansions are cached per
+ * generation of the reader, like {@link TermStatisticsCache} caches document frequencies;
+ * the number of cached expansions is bounded.
+ * </p>
+ * <p> Example:
+ * </p>
+ * <pre>
+ *   final FuzzyExpander expander = new FuzzyExpander();
+ *   final Query query = expander.expand(reader, "name", "samsnug", 0.7);
+ * </pre>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ * 
+ * @see DirectApiLuceneQuery
+ */
+@ThreadSafe
+public final class FuzzyExpander {
+    
+    public static final int DEFAULT_MAX_CANDIDATES = 64;
+    
+    public static final int DEFAULT_MAX_EXPANSIONS = 1000;
+    
+    public static final String ERR_MAX_CANDIDATES_INVALID = "maxCandidates must be greater than 0";
+    
+    public static final String ERR_MAX_EXPANSIONS_INVALID = "maxExpansions must be greater than 0";
+    
+    public static final String ERR_VALUE_BLANK = "the given value must not be empty";
+    
+    /**
+     * The worst candidate first: lower score, or the greater term if the scores are equal.
+     */
+    private static final Comparator<Candidate> WORST_FIRST = new Comparator<Candidate>() {
+        
+        @Override
+        public int compare(Candidate left, Candidate right) {
+            if (left.score < right.score) {
+                return -1;
+            } else if (left.score > right.score) {
+                return 1;
+            } else {
+                return right.text.compareTo(left.text);
+            }
+        }
+        
+    };
+    
+    private final int maxCandidates;
+    
+    private final int maxExpansions;
+    
+    private final AtomicLong hits = new AtomicLong();
+    
+    private final AtomicLong misses = new AtomicLong();
+    
+    private volatile Generation generation;
+    
+    /**
+     * Creates a new FuzzyExpander that keeps {@link #DEFAULT_MAX_CANDIDATES} terms per expansion
+     * and caches {@link #DEFAULT_MAX_EXPANSIONS} expansions per reader generation.
+     */
+    public FuzzyExpander() {
+        this(DEFAULT_MAX_CANDIDATES, DEFAULT_MAX_EXPANSIONS);
+    }
+    
+    /**
+     * Creates a new FuzzyExpander.
+     * @param maxCandidates the maximum number of terms of an expansion
+     * @param maxExpansions the maximum number of cached expansions per reader generation
+     * @throws IllegalArgumentException if maxCandidates or maxExpansions is less than 1
+     */
+    public FuzzyExpander(final int maxCandidates, final int maxExpansions) {
+        Preconditions.checkArgument(maxCandidates > 0, ERR_MAX_CANDIDATES_INVALID);
+        Preconditions.checkArgument(maxExpansions > 0, ERR_MAX_EXPANSIONS_INVALID);
+        this.maxCandidates = maxCandidates;
+        this.maxExpansions = maxExpansions;
+    }
+    
+    private Generation generationOf(final IndexReader reader) {
+        final long version = versionOf(reader);
+        final Generation current = generation;
+        if (current != null && current.reader.get() == reader && current.version == version) {
+            return current;
+        }
+        final Generation created = new Generation(reader, version);
+        generation = created;
+        return created;
+    }
+    
+    private static long versionOf(final IndexReader reader) {
+        try {
+            return reader.getVersion();
+        } catch (UnsupportedOperationException e) {
+            // some readers, like MultiReader, have no version; they are only cached by identity
+            return -1L;
+        }
+    }
+    
+    /**
+     * <p> Returns a query that matches the documents that contain one of the best terms of the given field
+     * which are similar to the given value.
+     * </p>
+     * <p> The query is a new BooleanQuery without coord, with one boosted TermQuery per term,
+     * so the caller may change its boost. It is empty if no term is similar enough.
+     * </p>
+     * 
+     * @param reader the reader of the index
+     * @param field the field to search
+     * @param value the value to search
+     * @param fuzzyness the minimum similarity of the terms, as for {@link LuceneQuery#addFuzzyArgument}
+     * @return a BooleanQuery of the best similar terms
+     * @throws IOException if the terms could not be read
+     * @throws NullPointerException if reader, field or value is null
+     * @throws IllegalArgumentException if value is empty or fuzzyness is not between 0 and 1
+     */
+    public BooleanQuery expand(final IndexReader reader, final String field, final String value,
+        final double fuzzyness) throws IOException {
+        
+        final Expansion expansion = expansionOf(reader, field, value, fuzzyness);
+        final BooleanQuery query = new BooleanQuery(true);
+        for (int i = 0; i < expansion.terms.length; i++) {
+            final TermQuery termQuery = new TermQuery(expansion.terms[i]);
+            termQuery.setBoost(expansion.boosts[i]);
+            query.add(termQuery, Occur.SHOULD);
+        }
+        return query;
+    }
+    
+    /**
+     * Returns the expansion of the given value, from the cache if possible.
+     * @param reader the reader of the index
+     * @param field the field to search
+     * @param value the value to search
+     * @param fuzzyness the minimum similarity of the terms
+     * @return the expansion, best term first
+     * @throws IOException if the terms could not be read
+     */
+    Expansion expansionOf(final IndexReader reader, final String field, final String value,
+        final double fuzzyness) throws IOException {
+        
+        Preconditions.checkNotNull(reader, "Reader");
+        Preconditions.checkNotNull(field, "Field");
+        Preconditions.checkNotNull(value, "Value");
+        Preconditions.checkArgument(value.length() > 0, ERR_VALUE_BLANK);
+        Preconditions.checkArgument(fuzzyness >= 0 && fuzzyness < 1, QueryModifier.ERR_FUZZYNESS_INVALID);
+        
+        final Generation current = generationOf(reader);
+        final Term key = new Term(field, value + '~' + (float) fuzzyness);
+        final Expansion cached = current.expansions.get(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        
+        misses.incrementAndGet();
+        final Expansion expansion = expand(reader, field.intern(), value, (float) fuzzyness);
+        if (current.expansions.size() < maxExpansions) {
+            current.expansions.put(key, expansion);
+        }
+        return expansion;
+    }
+    
+    private Expansion expand(final IndexReader reader, final String field, final String value,
+        final float minimumSimilarity) throws IOException {
+        
+        final int maxEdits = (int) ((1.0f - minimumSimilarity) * value.length());
+        final LevenshteinAutomaton automaton = new LevenshteinAutomaton(value, maxEdits);
+        final PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>(maxCandidates + 1, WORST_FIRST);
+        
+        // rows[d] is the state of the automaton after the first d chars of the previous term
+        int[][] rows = new int[16][];
+        rows[0] = automaton.start();
+        String previous = "";
+        
+        TermEnum terms = reader.terms(new Term(field, ""));
+        try {
+            while (true) {
+                final Term term = terms.term();
+                // field names of terms are interned
+                if (term == null || term.field() != field) break;
+                
+                final String text = term.text();
+                if (rows.length <= text.length()) {
+                    final int[][] grown = new int[Math.max(rows.length * 2, text.length() + 1)][];
+                    System.arraycopy(rows, 0, grown, 0, rows.length);
+                    rows = grown;
+                }
+                
+                // the rows of the common prefix with the previous term are still valid
+                int depth = commonPrefix(previous, text);
+                int dead = -1;
+                while (depth < text.length()) {
+                    rows[depth + 1] = automaton.step(rows[depth], text.charAt(depth));
+                    depth++;
+                    if (automaton.isDead(rows[depth])) {
+                        dead = depth;
+                        break;
+                    }
+                }
+                previous = text;
+                
+                if (dead == -1) {
+                    final int distance = automaton.distance(rows[text.length()]);
+                    if (distance <= maxEdits) {
+                        offer(queue, text, distance, value.length(), minimumSimilarity);
+                    }
+                    if (!terms.next()) break;
+                } else {
+                    // no term with this prefix can be accepted, continue after all of them
+                    final String successor = successor(text, dead);
+                    if (successor == null) break;
+                    terms.close();
+                    terms = reader.terms(new Term(field, successor));
+                    previous = text.substring(0, dead);
+                }
+            }
+        } finally {
+            terms.close();
+        }
+        
+        final int size = queue.size();
+        final Term[] expandedTerms = new Term[size];
+        final float[] boosts = new float[size];
+        for (int i = size - 1; i >= 0; i--) {
+            final Candidate candidate = queue.poll();
+            expandedTerms[i] = new Term(field, candidate.text);
+            boosts[i] = candidate.score;
+        }
+        return new Expansion(expandedTerms, boosts);
+    }
+    
+    private void offer(final PriorityQueue<Candidate> queue, final String text, final int distance,
+        final int length, final float minimumSimilarity) {
+        
+        if (text.length() == 0) return;
+        
+        // the similarity and score of lucene's FuzzyTermEnum, without a prefix
+        final float similarity = 1.0f - ((float) distance / (float) Math.min(length, text.length()));
+        if (similarity <= minimumSimilarity) return;
+        final float score = (similarity - minimumSimilarity) * (1.0f / (1.0f - minimumSimilarity));
+        
+        final Candidate candidate = new Candidate(text, score);
+        if (queue.size() < maxCandidates) {
+            queue.add(candidate);
+        } else if (WORST_FIRST.compare(candidate, queue.peek()) > 0) {
+            queue.poll();
+            queue.add(candidate);
+        }
+    }
+    
+    private static int commonPrefix(final String left, final String right) {
+        final int max = Math.min(left.length(), right.length());
+        int i = 0;
+        while (i < max && left.charAt(i) == right.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+    
+    /**
+     * Returns the smallest String that is greater than all Strings that start with
+     * the first length chars of the given text.
+     * @param text the text
+     * @param length the length of the prefix
+     * @return the successor of the prefix, null if there is none
+     */
+    static String successor(final String text, final int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            final char c = text.charAt(i);
+            if (c != Character.MAX_VALUE) {
+                return text.substring(0, i) + (char) (c + 1);
+            }
+        }
+        return null;
+    }
+    
+    public int getMaxCandidates() {
+        return maxCandidates;
+    }
+    
+    public long getHits() {
+        return hits.get();
+    }
+    
+    public long getMisses() {
+        return misses.get();
+    }
+    
+    /**
+     * <p> A Levenshtein automaton for a value and a maximum number of edits.
+     * </p>
+     * <p> A state is the row of the edit distance matrix for the chars that were read so far:
+     * the entry i is the distance between the read chars and the first i chars of the value.
+     * The states are computed lazily, one step per char.
+     * </p>
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    private static final class LevenshteinAutomaton {
+        
+        private final String value;
+        
+        private final int maxEdits;
+        
+        LevenshteinAutomaton(final String value, final int maxEdits) {
+            this.value = value;
+            this.maxEdits = maxEdits;
+        }
+        
+        int[] start() {
+            final int[] row = new int[value.length() + 1];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = i;
+            }
+            return row;
+        }
+        
+        int[] step(final int[] row, final char c) {
+            final int[] next = new int[row.length];
+            next[0] = row[0] + 1;
+            for (int i = 1; i < row.length; i++) {
+                final int substitution = row[i - 1] + (value.charAt(i - 1) == c ? 0 : 1);
+                next[i] = Math.min(substitution, Math.min(row[i], next[i - 1]) + 1);
+            }
+            return next;
+        }
+        
+        boolean isDead(final int[] row) {
+            for (final int distance : row) {
+                if (distance <= maxEdits) return false;
+            }
+            return true;
+        }
+        
+        int distance(final int[] row) {
+            return row[row.length - 1];
+        }
+        
+    }
+    
+    /**
+     * A similar term and its score.
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    private static final class Candidate {
+        
+        private final String text;
+        
+        private final float score;
+        
+        Candidate(final String text, final float score) {
+            this.text = text;
+            this.score = score;
+        }
+        
+    }
+    
+    /**
+     * The expanded terms of a value and their boosts, best term first.
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    @Immutable
+    static final class Expansion {
+        
+        private final Term[] terms;
+        
+        private final float[] boosts;
+        
+        Expansion(final Term[] terms, final float[] boosts) {
+            this.terms = terms;
+            this.boosts = boosts;
+        }
+        
+        int size() {
+            return terms.length;
+        }
+        
+    }
+    
+    /**
+     * The cached expansions of one reader generation.
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    private static final class Generation {
+        
+        private final WeakReference<IndexReader> reader;
+        
+        private final long version;
+        
+        private final ConcurrentMap<Term, Expansion> expansions = new ConcurrentHashMap<Term, Expansion>();
+        
+        Generation(final IndexReader reader, final long version) {
+            this.reader = new WeakReference<IndexReader>(reader);
+            this.version = version;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p> A lock-free histogram for non-negative long values, like nanoseconds or query lengths.
+ * </p>
+ * <p> Values are counted in buckets of powers of two, so percentiles are
+ * approximations (the upper bound of the bucket that contains the percentile).
+ * The buckets are striped by thread, so that concurrent updates from many threads
+ * rarely write to the same memory location.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+@ThreadSafe
+public final class Histogram implements QueryMetricsRegistry.Recorder {
+    
+    public static final String ERR_PERCENTILE_INVALID = 
+        "the given percentile must be between 0 (exclusive) and 1 (inclusive)";
+    
+    private static final int BUCKETS = 64;
+    
+    private static final int STRIPES = StripedCounter.stripes();
+    
+    private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKETS);
+    
+    // one sum per cache line, like the cells of StripedCounter
+    private final AtomicLongArray sums = new AtomicLongArray(STRIPES * StripedCounter.PADDING);
+    
+    private final AtomicLong max = new AtomicLong();
+    
+    private static int bucketOf(final long value) {
+        // bucket 0: value 0, bucket n: 2^(n-1) <= value < 2^n
+        return BUCKETS - Long.numberOfLeadingZeros(value);
+    }
+    
+    private static long upperBoundOf(final int bucket) {
+        return bucket == 0 ? 0 : (bucket == BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1);
+    }
+    
+    /**
+     * Records the given value. Negative values are recorded as 0.
+     * @param value the value to record
+     */
+    @Override
+    public void update(final long value) {
+        final long positive = Math.max(value, 0L);
+        final int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        
+        counts.incrementAndGet(stripe * BUCKETS + bucketOf(positive));
+        sums.addAndGet(stripe * StripedCounter.PADDING, positive);
+        
+        long currentMax = max.get();
+        while (positive > currentMax && !max.compareAndSet(currentMax, positive)) {
+            currentMax = max.get();
+        }
+    }
+    
+    private long[] snapshot() {
+        final long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < counts.length(); i++) {
+            snapshot[i % BUCKETS] += counts.get(i);
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Returns the number of recorded values.
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+    
+    /**
+     * Returns the sum of all recorded values.
+     * @return the sum of all recorded values
+     */
+    public long getSum() {
+        long sum = 0;
+        for (int i = 0; i < sums.length(); i += StripedCounter.PADDING) {
+            sum += sums.get(i);
+        }
+        return sum;
+    }
+    
+    /**
+     * Returns the greatest recorded value, or 0 if no value was recorded yet.
+     * @return the greatest recorded value
+     */
+    public long getMax() {
+        return max.get();
+    }
+    
+    /**
+     * Returns the arithmetic mean of all recorded values, or 0 if no value was recorded yet.
+     * @return the mean of all recorded values
+     */
+    public double getMean() {
+        final long count = getCount();
+        return count == 0 ? 0.0 : (double) getSum() / count;
+    }
+    
+    /**
+     * <p> Returns an approximation of the given percentile.
+     * The result is the upper bound of the bucket that contains the percentile,
+     * but never more than {@link #getMax()}.
+     * </p>
+     * 
+     * @param percentile the percentile, between 0 (exclusive) and 1 (inclusive), e.g. 0.99
+     * @return the approximated percentile, or 0 if no value was recorded yet
+     * @throws IllegalArgumentException if percentile is not between 0 and 1
+     */
+    public long getPercentile(final double percentile) {
+        Preconditions.checkArgument(percentile > 0.0 && percentile <= 1.0, ERR_PERCENTILE_INVALID);
+        
+        final long[] snapshot = snapshot();
+        long count = 0;
+        for (long bucketCount : snapshot) {
+            count += bucketCount;
+        }
+        if (count == 0) return 0;
+        
+        final long rank = (long) Math.ceil(percentile * count);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += snapshot[bucket];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(bucket), getMax());
+            }
+        }
+        return getMax();
+    }
+    
+    @Override
+    public String toString() {
+        return "Histogram [count=" + getCount() + ", mean=" + getMean() + ", p50=" + getPercentile(0.5)
+            + ", p99=" + getPercentile(0.99) + ", max=" + getMax() + "]";
+    }
+    
+}
@@ -0,0 +1,504 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Iterator;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ForwardingIterator;
+
+/**
+ * <p> A LuceneQuery that forwards all calls to a delegate and records metrics
+ * about the built query in a {@link QueryMetricsRegistry}.
+ * </p>
+ * <p> While the query is built, the metrics are only counted in plain fields of this query.
+ * They are published to the registry once, when {@link #getQuery()} is called for the first time,
+ * so the registry is not touched for every single call.
+ * {@link #reset()} discards the counted metrics and allows the query to be published again.
+ * An InstrumentedLuceneQuery that is added as a subquery is not published on its own,
+ * its metrics are added to the metrics of the enclosing query instead.
+ * </p>
+ * <p> The following metrics are published:
+ * </p>
+ * <ul>
+ *   <li>{@link #CALLS}{@code <method>}: the number of calls of every primitive method, like
+ *     {@code lucene.query.calls.addArgument}</li>
+ *   <li>{@link #FAILURES}: the number of calls after which {@link #lastSuccessful()} returned false</li>
+ *   <li>{@link #BUILT}: the number of built queries</li>
+ *   <li>{@link #BUILD_NANOS}: the time that the delegate spent to build a query</li>
+ *   <li>{@link #LENGTH}: the length of the rendered queries</li>
+ *   <li>{@link #CLAUSES}, {@link #WILDCARD_CLAUSES} and {@link #FUZZY_CLAUSES}:
+ *     the number of (wildcarded, fuzzy) values per query</li>
+ * </ul>
+ * <p> When it is rendered for the first time, the query also fires a {@link QueryEvent}
+ * if {@link QueryEvents} are enabled. Wrap a {@link ShapeLuceneQuery} to include the shape.
+ * </p>
+ * <p> Example:
+ * </p>
+ * <pre>
+ *   final DefaultQueryMetricsRegistry registry = new DefaultQueryMetricsRegistry();
+ *   final LuceneQuery query = new InstrumentedLuceneQuery(LuceneHelper.newQuery(), registry);
+ *   query.addField("category", categories, LuceneQuery.MOD_ID);
+ *   searcher.search(parser.parse(query.getQuery()), 10);
+ * </pre>
+ * <p> This implementation is not threadsafe.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ * 
+ * @see InstrumentedLuceneQueryFactory
+ */
+public final class InstrumentedLuceneQuery extends InterceptingLuceneQuery {
+    
+    public static final String ERR_REGISTRY_NULL = "the registry must not be null";
+    
+    /**
+     * Prefix of the call counters, followed by the name of the method.
+     */
+    public static final String CALLS = "lucene.query.calls.";
+    
+    public static final String FAILURES = "lucene.query.failures";
+    
+    public static final String BUILT = "lucene.query.built";
+    
+    public static final String BUILD_NANOS = "lucene.query.buildNanos";
+    
+    public static final String LENGTH = "lucene.query.length";
+    
+    public static final String CLAUSES = "lucene.query.clauses";
+    
+    public static final String WILDCARD_CLAUSES = "lucene.query.wildcardClauses";
+    
+    public static final String FUZZY_CLAUSES = "lucene.query.fuzzyClauses";
+    
+    /**
+     * The primitive methods whose calls are counted.
+     */
+    enum Call {
+        
+        ADD_ARGUMENT("addArgument"),
+        ADD_ARGUMENT_AS_COLLECTION("addArgumentAsCollection"),
+        ADD_ARGUMENT_AS_ITERATOR("addArgumentAsIterator"),
+        ADD_ARGUMENT_AS_ARRAY("addArgumentAsArray"),
+        ADD_RANGE("addRange"),
+        ADD_SUBQUERY("addSubquery"),
+        ADD_UNESCAPED("addUnescaped"),
+        ADD_UNESCAPED_FIELD("addUnescapedField"),
+        START_FIELD("startField"),
+        END_FIELD("endField"),
+        ADD_BOOST("addBoost");
+        
+        private final String metricName;
+        
+        private Call(final String methodName) {
+            this.metricName = CALLS + methodName;
+        }
+        
+    }
+    
+    private final Metrics metrics;
+    
+    private final long[] calls = new long[Call.values().length];
+    
+    private long failures;
+    
+    private long clauses;
+    
+    private long wildcardClauses;
+    
+    private long fuzzyClauses;
+    
+    private long buildNanos;
+    
+    private boolean published;
+    
+    /**
+     * Creates a new InstrumentedLuceneQuery that forwards all calls to the given LuceneQuery.
+     * @param delegate the LuceneQuery that builds the actual query
+     * @param registry the registry that receives the metrics
+     * @throws NullPointerException if delegate or registry is null
+     */
+    public InstrumentedLuceneQuery(final LuceneQuery delegate, final QueryMetricsRegistry registry) {
+        this(delegate, new Metrics(registry));
+    }
+    
+    InstrumentedLuceneQuery(final LuceneQuery delegate, final Metrics metrics) {
+        super(delegate);
+        this.metrics = metrics;
+    }
+    
+    /**
+     * Returns the shape of the query if the delegate is a {@link ShapeLuceneQuery}, null otherwise.
+     * @return the shape of the query or null
+     */
+    public String getShape() {
+        final LuceneQuery delegate = delegate();
+        return delegate instanceof ShapeLuceneQuery ? ShapeLuceneQuery.class.cast(delegate).getShape() : null;
+    }
+    
+    /**
+     * Returns the number of values that were added so far.
+     * A subquery counts as one value, unless it is an InstrumentedLuceneQuery itself.
+     * @return the number of values in this query
+     */
+    public long getClauses() {
+        return clauses;
+    }
+    
+    /**
+     * Returns the number of wildcarded values that were added so far.
+     * @return the number of wildcarded values in this query
+     */
+    public long getWildcardClauses() {
+        return wildcardClauses;
+    }
+    
+    /**
+     * Returns the number of fuzzy values that were added so far.
+     * @return the number of fuzzy values in this query
+     */
+    public long getFuzzyClauses() {
+        return fuzzyClauses;
+    }
+    
+    /**
+     * Returns the number of calls after which {@link #lastSuccessful()} returned false.
+     * @return the number of failed calls
+     */
+    public long getFailures() {
+        return failures;
+    }
+    
+    /**
+     * Returns the time in nanoseconds that the delegate spent to build the query.
+     * The time between the calls is not included.
+     * @return the build time in nanoseconds
+     */
+    public long getBuildNanos() {
+        return buildNanos;
+    }
+    
+    @Override
+    public String getQuery() {
+        final long start = System.nanoTime();
+        final String query = super.getQuery();
+        buildNanos += System.nanoTime() - start;
+        
+        if (!published) {
+            published = true;
+            metrics.publish(this, query.length());
+            QueryEvents.fireBuilt(this, query);
+        }
+        return query;
+    }
+    
+    @Override
+    public void reset() {
+        super.reset();
+        for (int i = 0; i < calls.length; i++) {
+            calls[i] = 0;
+        }
+        failures = 0;
+        clauses = 0;
+        wildcardClauses = 0;
+        fuzzyClauses = 0;
+        buildNanos = 0;
+        published = false;
+    }
+    
+    private void count(final Call call, final long start) {
+        buildNanos += System.nanoTime() - start;
+        calls[call.ordinal()]++;
+        if (!lastSuccessful()) {
+            failures++;
+        }
+    }
+    
+    private void countValues(final long count, final QueryModifier modifier) {
+        if (lastSuccessful()) {
+            clauses += count;
+            if (modifier.isWildcarded()) {
+                wildcardClauses += count;
+            }
+            if (modifier.isFuzzyEnabled()) {
+                fuzzyClauses += count;
+            }
+        }
+    }
+    
+    @Override
+    public LuceneQuery addArgument(final String value, final QueryModifier modifier) {
+        final long start = System.nanoTime();
+        super.addArgument(value, modifier);
+        count(Call.ADD_ARGUMENT, start);
+        countValues(1, modifier);
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery addArgumentAsCollection(final Collection<?> values, final QueryModifier modifier) {
+        final long start = System.nanoTime();
+        super.addArgumentAsCollection(values, modifier);
+        count(Call.ADD_ARGUMENT_AS_COLLECTION, start);
+        if (values != null) {
+            countValues(values.size(), modifier.getMultiValueModifier());
+        }
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery addArgumentAsIterator(final Iterator<?> values, final QueryModifier modifier) {
+        final long start = System.nanoTime();
+        // the number of values is only known after the iterator was consumed
+        final CountingIterator<?> counting = values == null ? null : CountingIterator.of(values);
+        super.addArgumentAsIterator(counting, modifier);
+        count(Call.ADD_ARGUMENT_AS_ITERATOR, start);
+        if (counting != null) {
+            countValues(counting.count, modifier.getMultiValueModifier());
+        }
+        return this;
+    }
+    
+    @Override
+    public <K> LuceneQuery addArgumentAsArray(final K[] values, final QueryModifier modifier) {
+        final long start = System.nanoTime();
+        super.addArgumentAsArray(values, modifier);
+        count(Call.ADD_ARGUMENT_AS_ARRAY, start);
+        if (values != null) {
+            countValues(values.length, modifier.getMultiValueModifier());
+        }
+        return this;
+    }
+    
+    @Override
+    protected LuceneQuery addArgumentAsArray(final Object values, final QueryModifier modifier) {
+        final long start = System.nanoTime();
+        super.addArgumentAsArray(values, modifier);
+        count(Call.ADD_ARGUMENT_AS_ARRAY, start);
+        if (values != null && values.getClass().isArray()) {
+            countValues(Array.getLength(values), modifier.getMultiValueModifier());
+        }
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery addRange(final String from, final String to, final QueryModifier mod) {
+        final long start = System.nanoTime();
+        super.addRange(from, to, mod);
+        count(Call.ADD_RANGE, start);
+        countValues(1, mod);
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery addRange(final int from, final int to, final QueryModifier mod) {
+        final long start = System.nanoTime();
+        super.addRange(from, to, mod);
+        count(Call.ADD_RANGE, start);
+        countValues(1, mod);
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery addRange(final double from, final double to, final QueryModifier mod) {
+        final long start = System.nanoTime();
+        super.addRange(from, to, mod);
+        count(Call.ADD_RANGE, start);
+        countValues(1, mod);
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery addSubquery(final LuceneQuery value, final QueryModifier modifiers) {
+        final InstrumentedLuceneQuery subquery;
+        if (value instanceof InstrumentedLuceneQuery) {
+            subquery = InstrumentedLuceneQuery.class.cast(value);
+            // the subquery is part of this query, it must not be published on its own
+            subquery.published = true;
+        } else {
+            subquery = null;
+        }
+        
+        // the subquery is rendered within this call, so only the time it spent before is merged below
+        final long subqueryNanos = subquery == null ? 0L : subquery.buildNanos;
+        final long start = System.nanoTime();
+        super.addSubquery(value, modifiers);
+        count(Call.ADD_SUBQUERY, start);
+        
+        if (subquery == null) {
+            if (lastSuccessful()) {
+                clauses++;
+            }
+        } else {
+            for (int i = 0; i < calls.length; i++) {
+                calls[i] += subquery.calls[i];
+            }
+            failures += subquery.failures;
+            buildNanos += subqueryNanos;
+            if (lastSuccessful()) {
+                clauses += subquery.clauses;
+                wildcardClauses += subquery.wildcardClauses;
+                fuzzyClauses += subquery.fuzzyClauses;
+            }
+        }
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery addUnescaped(final CharSequence value, final boolean mandatory) {
+        final long start = System.nanoTime();
+        super.addUnescaped(value, mandatory);
+        count(Call.ADD_UNESCAPED, start);
+        if (lastSuccessful()) {
+            clauses++;
+        }
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery addUnescapedField(final String key, final CharSequence value, final boolean mandatory) {
+        final long start = System.nanoTime();
+        super.addUnescapedField(key, value, mandatory);
+        count(Call.ADD_UNESCAPED_FIELD, start);
+        if (lastSuccessful()) {
+            clauses++;
+        }
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery startField(final String fieldName, final QueryModifier modifier) {
+        final long start = System.nanoTime();
+        super.startField(fieldName, modifier);
+        count(Call.START_FIELD, start);
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery endField() {
+        final long start = System.nanoTime();
+        super.endField();
+        count(Call.END_FIELD, start);
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery addBoost(final double boostFactor) {
+        final long start = System.nanoTime();
+        super.addBoost(boostFactor);
+        count(Call.ADD_BOOST, start);
+        return this;
+    }
+    
+    /**
+     * The handles of all metrics, looked up once per registry.
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    @ThreadSafe
+    static final class Metrics {
+        
+        private final QueryMetricsRegistry.Counter[] calls = new QueryMetricsRegistry.Counter[Call.values().length];
+        
+        private final QueryMetricsRegistry.Counter failures;
+        
+        private final QueryMetricsRegistry.Counter built;
+        
+        private final QueryMetricsRegistry.Recorder buildNanos;
+        
+        private final QueryMetricsRegistry.Recorder length;
+        
+        private final QueryMetricsRegistry.Recorder clauses;
+        
+        private final QueryMetricsRegistry.Recorder wildcardClauses;
+        
+        private final QueryMetricsRegistry.Recorder fuzzyClauses;
+        
+        Metrics(final QueryMetricsRegistry registry) {
+            Preconditions.checkNotNull(registry, ERR_REGISTRY_NULL);
+            for (Call call : Call.values()) {
+                calls[call.ordinal()] = registry.counter(call.metricName);
+            }
+            this.failures = registry.counter(FAILURES);
+            this.built = registry.counter(BUILT);
+            this.buildNanos = registry.recorder(BUILD_NANOS);
+            this.length = registry.recorder(LENGTH);
+            this.clauses = registry.recorder(CLAUSES);
+            this.wildcardClauses = registry.recorder(WILDCARD_CLAUSES);
+            this.fuzzyClauses = registry.recorder(FUZZY_CLAUSES);
+        }
+        
+        void publish(final InstrumentedLuceneQuery query, final int queryLength) {
+            for (int i = 0; i < calls.length; i++) {
+                if (query.calls[i] > 0) {
+                    calls[i].add(query.calls[i]);
+                }
+            }
+            if (query.failures > 0) {
+                failures.add(query.failures);
+            }
+            built.add(1L);
+            buildNanos.update(query.buildNanos);
+            length.update(queryLength);
+            clauses.update(query.clauses);
+            wildcardClauses.update(query.wildcardClauses);
+            fuzzyClauses.update(query.fuzzyClauses);
+        }
+        
+    }
+    
+    /**
+     * An iterator that counts the values that were returned by its delegate.
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    private static final class CountingIterator<E> extends ForwardingIterator<E> {
+        
+        private final Iterator<E> delegate;
+        
+        private long count;
+        
+        private CountingIterator(Iterator<E> delegate) {
+            this.delegate = delegate;
+        }
+        
+        static <E> CountingIterator<E> of(Iterator<E> delegate) {
+            return new CountingIterator<E>(delegate);
+        }
+        
+        @Override
+        protected Iterator<E> delegate() {
+            return delegate;
+        }
+        
+        @Override
+        public E next() {
+            final E next = delegate.next();
+            count++;
+            return next;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Preconditions;
+
+import de.cosmocode.patterns.Factory;
+
+/**
+ * <p> A Factory that wraps the LuceneQuerys of another factory in {@link InstrumentedLuceneQuery}s.
+ * </p>
+ * <p> The metric handles are looked up in the registry only once, when the factory is created,
+ * so creating a query does not touch the registry.
+ * The created LuceneQuerys are not threadsafe.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+@ThreadSafe
+public final class InstrumentedLuceneQueryFactory implements Factory<LuceneQuery> {
+    
+    public static final String ERR_FACTORY_NULL = "the factory must not be null";
+    
+    private final Factory<LuceneQuery> delegate;
+    
+    private final InstrumentedLuceneQuery.Metrics metrics;
+    
+    /**
+     * Creates a new InstrumentedLuceneQueryFactory.
+     * @param delegate the factory that creates the actual queries
+     * @param registry the registry that receives the metrics
+     * @throws NullPointerException if delegate or registry is null
+     */
+    public InstrumentedLuceneQueryFactory(final Factory<LuceneQuery> delegate, final QueryMetricsRegistry registry) {
+        this.delegate = Preconditions.checkNotNull(delegate, ERR_FACTORY_NULL);
+        this.metrics = new InstrumentedLuceneQuery.Metrics(registry);
+    }
+    
+    @Override
+    public LuceneQuery create() {
+        return new InstrumentedLuceneQuery(delegate.create(), metrics);
+    }
+    
+}
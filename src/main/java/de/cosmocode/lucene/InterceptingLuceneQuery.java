@@ -0,0 +1,187 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Iterator;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p> An abstract LuceneQuery that forwards only the primitive operations
+ * of {@link AbstractLuceneQuery} to a delegate.
+ * </p>
+ * <p> Unlike {@link ForwardingLuceneQuery}, which forwards every public method as a whole,
+ * compound calls like {@link #addField(String, String, QueryModifier)} are resolved
+ * by {@link AbstractLuceneQuery} first. Subclasses therefore see every single
+ * {@link #startField(String, QueryModifier)}, {@link #addArgument(String, QueryModifier)}
+ * and {@link #endField()} call that makes up the query, and can override them to
+ * record information about the query while it is built.
+ * </p>
+ * <p> Overriding methods should call the super implementation and return {@code this}.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+abstract class InterceptingLuceneQuery extends AbstractLuceneQuery {
+    
+    public static final String ERR_RESET_UNSUPPORTED = "the delegate of this query can't be reset";
+    
+    private final LuceneQuery delegate;
+    
+    protected InterceptingLuceneQuery(final LuceneQuery delegate) {
+        super(Preconditions.checkNotNull(delegate, "Delegate").getModifier());
+        this.delegate = delegate;
+    }
+    
+    /**
+     * Returns the LuceneQuery that all primitive operations are forwarded to.
+     * @return the delegate
+     */
+    protected LuceneQuery delegate() {
+        return delegate;
+    }
+    
+    @Override
+    public boolean lastSuccessful() {
+        return delegate.lastSuccessful();
+    }
+    
+    @Override
+    public String getQuery() {
+        return delegate.getQuery();
+    }
+    
+    /**
+     * Resets this query and its delegate, so that it can be reused for a new query.
+     * @throws UnsupportedOperationException if the delegate can't be reset
+     */
+    public void reset() {
+        if (delegate instanceof DefaultLuceneQuery) {
+            DefaultLuceneQuery.class.cast(delegate).reset();
+        } else if (delegate instanceof DirectApiLuceneQuery) {
+            DirectApiLuceneQuery.class.cast(delegate).reset();
+        } else if (delegate instanceof InterceptingLuceneQuery) {
+            InterceptingLuceneQuery.class.cast(delegate).reset();
+        } else {
+            throw new UnsupportedOperationException(ERR_RESET_UNSUPPORTED);
+        }
+    }
+    
+    @Override
+    public LuceneQuery addArgument(String value, QueryModifier modifier) {
+        delegate.addArgument(value, modifier);
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery addArgumentAsCollection(Collection<?> values, QueryModifier modifier) {
+        delegate.addArgumentAsCollection(values, modifier);
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery addArgumentAsIterator(Iterator<?> values, QueryModifier modifier) {
+        delegate.addArgumentAsIterator(values, modifier);
+        return this;
+    }
+    
+    @Override
+    public <K> LuceneQuery addArgumentAsArray(K[] values, QueryModifier modifier) {
+        delegate.addArgumentAsArray(values, modifier);
+        return this;
+    }
+    
+    @Override
+    protected LuceneQuery addArgumentAsArray(Object values, QueryModifier modifier) {
+        if (values instanceof Object[]) {
+            delegate.addArgumentAsArray((Object[]) values, modifier);
+        } else if (values instanceof int[]) {
+            delegate.addArgument((int[]) values, modifier);
+        } else if (values instanceof double[]) {
+            delegate.addArgument((double[]) values, modifier);
+        } else if (values != null && values.getClass().isArray()) {
+            // other primitive arrays are boxed, the LuceneQuery interface has no method for them
+            final Object[] boxed = new Object[Array.getLength(values)];
+            for (int i = 0; i < boxed.length; i++) {
+                boxed[i] = Array.get(values, i);
+            }
+            delegate.addArgumentAsArray(boxed, modifier);
+        } else {
+            delegate.addArgumentAsArray((Object[]) null, modifier);
+        }
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery addRange(String from, String to, QueryModifier mod) {
+        delegate.addRange(from, to, mod);
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery addRange(int from, int to, QueryModifier mod) {
+        delegate.addRange(from, to, mod);
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery addRange(double from, double to, QueryModifier mod) {
+        delegate.addRange(from, to, mod);
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery addSubquery(LuceneQuery value, QueryModifier modifiers) {
+        delegate.addSubquery(value, modifiers);
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery addUnescaped(CharSequence value, boolean mandatory) {
+        delegate.addUnescaped(value, mandatory);
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery addUnescapedField(String key, CharSequence value, boolean mandatory) {
+        delegate.addUnescapedField(key, value, mandatory);
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery startField(String fieldName, QueryModifier modifier) {
+        delegate.startField(fieldName, modifier);
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery endField() {
+        delegate.endField();
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery addBoost(double boostFactor) {
+        delegate.addBoost(boostFactor);
+        return this;
+    }
+    
+}
@@ -18,6 +18,12 @@ package de.cosmocode.lucene;
 
 import java.util.regex.Pattern;
 
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.Query;
+
+import com.google.common.base.Preconditions;
+
 import de.cosmocode.patterns.Factory;
 
 /**
@@ -77,11 +83,83 @@ public final class LuceneHelper {
     
     public static final Pattern QUOTES_PATTERN             = Pattern.compile("\"");
     
+    // character classes of the ascii chars, the same chars as in the patterns above
+    private static final int SPECIAL = 1;
+    private static final int QUOTE = 2;
+    private static final byte[] CHAR_CLASSES = new byte[128];
+    
+    static {
+        for (final char c : "+-\\&|!(){}[]^~?*:; ".toCharArray()) {
+            CHAR_CLASSES[c] = SPECIAL;
+        }
+        CHAR_CLASSES['"'] = QUOTE;
+    }
+    
     
     private LuceneHelper() {
     }
     
     
+    //---------------------------
+    //   escaping
+    //---------------------------
+    
+    private static boolean matches(final char c, final int charClasses) {
+        return c < CHAR_CLASSES.length && (CHAR_CLASSES[c] & charClasses) != 0;
+    }
+    
+    private static int indexOf(final CharSequence input, final int from, final int charClasses) {
+        if (charClasses == QUOTE && input instanceof String) {
+            // String.indexOf is much faster for a single char
+            return String.class.cast(input).indexOf('"', from);
+        }
+        for (int i = from; i < input.length(); i++) {
+            if (matches(input.charAt(i), charClasses)) return i;
+        }
+        return -1;
+    }
+    
+    /**
+     * Appends the input to the target, starting at the given index.
+     * Every char of the given classes is escaped with a backslash or removed.
+     */
+    private static void append(final StringBuilder target, final CharSequence input, final int start,
+        final int charClasses, final boolean remove) {
+        
+        int unchanged = start;
+        int next = indexOf(input, start, charClasses);
+        while (next >= 0) {
+            // copy the unchanged chars in one go
+            target.append(input, unchanged, next);
+            if (!remove) target.append('\\').append(input.charAt(next));
+            unchanged = next + 1;
+            next = indexOf(input, unchanged, charClasses);
+        }
+        target.append(input, unchanged, input.length());
+    }
+    
+    private static String replace(final String input, final int charClasses, final boolean remove) {
+        if (input == null) return "";
+        final int first = indexOf(input, 0, charClasses);
+        if (first < 0) {
+            // nothing to escape, which is the common case
+            return input;
+        }
+        final StringBuilder target = new StringBuilder(input.length() + (remove ? 0 : 16));
+        target.append(input, 0, first);
+        append(target, input, first, charClasses, remove);
+        return target.toString();
+    }
+    
+    private static StringBuilder append(final CharSequence input, final StringBuilder target, 
+        final int charClasses, final boolean remove) {
+        
+        Preconditions.checkNotNull(target, "Target");
+        if (input != null) append(target, input, 0, charClasses, remove);
+        return target;
+    }
+    
+    
     //---------------------------
     //   public helper methods
     //---------------------------
@@ -97,8 +175,20 @@ public final class LuceneHelper {
      * @return the input with quotes escaped ("\"" => "\\\"")
      */
     public static String escapeQuotes(final String input) {
-        if (input == null) return "";
-        return QUOTES_PATTERN.matcher(input).replaceAll("\\\\$0");
+        return replace(input, QUOTE, false);
+    }
+    
+    /**
+     * Appends the given input to the given StringBuilder, with quotes (") escaped.
+     * This is the same as {@code target.append(escapeQuotes(input))}, without the intermediate String.
+     * @param input the input to escape, may be null
+     * @param target the StringBuilder to append to
+     * @return the given StringBuilder
+     * @throws NullPointerException if target is null
+     * @since 1.3
+     */
+    public static StringBuilder escapeQuotes(final CharSequence input, final StringBuilder target) {
+        return append(input, target, QUOTE, false);
     }
     
     
@@ -113,8 +203,7 @@ public final class LuceneHelper {
      * @return the input with quotes removed
      */
     public static String removeQuotes(final String input) {
-        if (input == null) return "";
-        return QUOTES_PATTERN.matcher(input).replaceAll("");
+        return replace(input, QUOTE, true);
     }
     
     
@@ -126,8 +215,21 @@ public final class LuceneHelper {
      * @return input without special characters 
      */
     public static String removeSpecialCharacters(final String input) {
-        if (input == null) return "";
-        return ESCAPE_WITH_QUOTES_PATTERN.matcher(input).replaceAll("");
+        return replace(input, SPECIAL | QUOTE, true);
+    }
+    
+    /**
+     * Appends the given input to the given StringBuilder, without the special characters for the Lucene API.
+     * This is the same as {@code target.append(removeSpecialCharacters(input))}, 
+     * without the intermediate String.
+     * @param input the input to filter, may be null
+     * @param target the StringBuilder to append to
+     * @return the given StringBuilder
+     * @throws NullPointerException if target is null
+     * @since 1.3
+     */
+    public static StringBuilder removeSpecialCharacters(final CharSequence input, final StringBuilder target) {
+        return append(input, target, SPECIAL | QUOTE, true);
     }
     
     
@@ -143,8 +245,20 @@ public final class LuceneHelper {
      * @return the input, escaped for solr
      */
     public static String escapeInput(final String input) {
-        if (input == null) return "";
-        return ESCAPE_PATTERN.matcher(input).replaceAll("\\\\$0");
+        return replace(input, SPECIAL, false);
+    }
+    
+    /**
+     * Appends the given input to the given StringBuilder, escaped like {@link #escapeInput(String)}.
+     * This is the same as {@code target.append(escapeInput(input))}, without the intermediate String.
+     * @param input the input to escape, may be null
+     * @param target the StringBuilder to append to
+     * @return the given StringBuilder
+     * @throws NullPointerException if target is null
+     * @since 1.3
+     */
+    public static StringBuilder escapeInput(final CharSequence input, final StringBuilder target) {
+        return append(input, target, SPECIAL, false);
     }
     
     
@@ -155,8 +269,20 @@ public final class LuceneHelper {
      * @return the input with escaped special chars
      */
     public static String escapeAll(final String input) {
-        if (input == null) return "";
-        return ESCAPE_WITH_QUOTES_PATTERN.matcher(input).replaceAll("\\\\$0");
+        return replace(input, SPECIAL | QUOTE, false);
+    }
+    
+    /**
+     * Appends the given input to the given StringBuilder, escaped like {@link #escapeAll(String)}.
+     * This is the same as {@code target.append(escapeAll(input))}, without the intermediate String.
+     * @param input the input to escape, may be null
+     * @param target the StringBuilder to append to
+     * @return the given StringBuilder
+     * @throws NullPointerException if target is null
+     * @since 1.3
+     */
+    public static StringBuilder escapeAll(final CharSequence input, final StringBuilder target) {
+        return append(input, target, SPECIAL | QUOTE, false);
     }
     
     
@@ -177,5 +303,24 @@ public final class LuceneHelper {
     public static LuceneQueryBuilder newQueryBuilder() {
         return new LuceneQueryBuilder();
     }
+    
+    /**
+     * Converts the given LuceneQuery into a lucene {@link Query}.
+     * A {@link DirectApiLuceneQuery} is converted directly, all other queries are
+     * rendered and parsed with the given parser.
+     * 
+     * @param query the query to convert
+     * @param parser the parser for the rendered query
+     * @return the lucene query
+     * @throws ParseException if the rendered query could not be parsed
+     * @since 1.3
+     */
+    public static Query toLuceneQuery(final LuceneQuery query, final QueryParser parser) throws ParseException {
+        if (query instanceof DirectApiLuceneQuery) {
+            return DirectApiLuceneQuery.class.cast(query).toQuery();
+        } else {
+            return parser.parse(query.getQuery());
+        }
+    }
 
 }
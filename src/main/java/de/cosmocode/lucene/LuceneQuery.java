@@ -17,6 +17,7 @@
 package de.cosmocode.lucene;
 
 import java.util.Collection;
+import java.util.Iterator;
 
 
 /**
@@ -544,6 +545,81 @@ public interface LuceneQuery {
     LuceneQuery addArgumentAsCollection(Collection<?> values, QueryModifier modifier);
     
     
+    /**
+     * <p> Add the Terms of an iterator to this LuceneQuery.
+     * </p>
+     * <p> This method uses {@link #getModifier()} and
+     * redirects to {@link #addArgumentAsIterator(Iterator, QueryModifier)}.
+     * </p>
+     * 
+     * @param values an iterator of search terms
+     * @return this
+     * @since 1.3
+     */
+    LuceneQuery addArgumentAsIterator(Iterator<?> values);
+    
+    
+    /**
+     * <p> Add the Terms of an iterator to this LuceneQuery.
+     * </p>
+     * <p> The values are consumed lazily: each value is added to the query as soon as it is returned,
+     * so they never have to be copied into a collection.
+     * The iterator is exhausted afterwards.
+     * </p>
+     * <p> The first parameter contains the values which are added to the final query.
+     * It can be null or empty or contain only blank or empty Strings,
+     * but then this method call has no effect on the final query.
+     * No Exception will be thrown on this invocation.
+     * If all other method calls don't change this LuceneQuery,
+     * then {@link #getQuery()} will throw an IllegalStateException.
+     * </p>
+     * 
+     * @param values an iterator of search terms
+     * @param modifier the {@link QueryModifier} that is applied to the values
+     * @return this
+     * @throws NullPointerException if the second parameter `modifier` is null
+     * @since 1.3
+     */
+    LuceneQuery addArgumentAsIterator(Iterator<?> values, QueryModifier modifier);
+    
+    
+    /**
+     * <p> Add the Terms of an iterable, e.g. a database cursor, to this LuceneQuery.
+     * </p>
+     * <p> This method uses {@link #getModifier()} and
+     * redirects to {@link #addArgumentAsIterable(Iterable, QueryModifier)}.
+     * </p>
+     * 
+     * @param values an iterable of search terms
+     * @return this
+     * @since 1.3
+     */
+    LuceneQuery addArgumentAsIterable(Iterable<?> values);
+    
+    
+    /**
+     * <p> Add the Terms of an iterable, e.g. a database cursor, to this LuceneQuery.
+     * </p>
+     * <p> Collections are added with {@link #addArgumentAsCollection(Collection, QueryModifier)},
+     * all other iterables with {@link #addArgumentAsIterator(Iterator, QueryModifier)}.
+     * </p>
+     * <p> The first parameter contains the values which are added to the final query.
+     * It can be null or empty or contain only blank or empty Strings,
+     * but then this method call has no effect on the final query.
+     * No Exception will be thrown on this invocation.
+     * If all other method calls don't change this LuceneQuery,
+     * then {@link #getQuery()} will throw an IllegalStateException.
+     * </p>
+     * 
+     * @param values an iterable of search terms
+     * @param modifier the {@link QueryModifier} that is applied to the values
+     * @return this
+     * @throws NullPointerException if the second parameter `modifier` is null
+     * @since 1.3
+     */
+    LuceneQuery addArgumentAsIterable(Iterable<?> values, QueryModifier modifier);
+    
+    
     /**
      * <p> Add an array of Terms to this LuceneQuery.
      * </p>
@@ -1300,6 +1376,58 @@ public interface LuceneQuery {
     LuceneQuery addFieldAsCollection(String key, Collection<?> values, QueryModifier modifier, double boost);
     
     
+    /**
+     * <p> Add a field with the name `key` to the query.
+     * The values to search for are given in an iterator, which is consumed lazily.
+     * </p>
+     * <p> The second parameter `values` contains the values which are added to the final query.
+     * It can be null or empty or contain only blank or empty Strings,
+     * but then this method call has no effect on the final query.
+     * No Exception will be thrown on this invocation.
+     * If all other method calls don't change this LuceneQuery,
+     * then {@link #getQuery()} will throw an IllegalStateException.
+     * </p>
+     * <p> The third parameter, the {@link QueryModifier} `modifier`, must not be null.
+     * A NullPointerException is thrown otherwise.
+     * </p> 
+     * 
+     * @param key the name of the field
+     * @param values the values (as an iterator) for the field
+     * @param modifier the {@link QueryModifier} to apply to the field
+     * @return this
+     * @throws NullPointerException if the third parameter, modifier, is null
+     * @since 1.3
+     * @see #addArgumentAsIterator(Iterator, QueryModifier)
+     */
+    LuceneQuery addFieldAsIterator(String key, Iterator<?> values, QueryModifier modifier);
+    
+    
+    /**
+     * <p> Add a field with the name `key` to the query.
+     * The values to search for are given in an iterable, e.g. a database cursor.
+     * </p>
+     * <p> The second parameter `values` contains the values which are added to the final query.
+     * It can be null or empty or contain only blank or empty Strings,
+     * but then this method call has no effect on the final query.
+     * No Exception will be thrown on this invocation.
+     * If all other method calls don't change this LuceneQuery,
+     * then {@link #getQuery()} will throw an IllegalStateException.
+     * </p>
+     * <p> The third parameter, the {@link QueryModifier} `modifier`, must not be null.
+     * A NullPointerException is thrown otherwise.
+     * </p> 
+     * 
+     * @param key the name of the field
+     * @param values the values (as an iterable) for the field
+     * @param modifier the {@link QueryModifier} to apply to the field
+     * @return this
+     * @throws NullPointerException if the third parameter, modifier, is null
+     * @since 1.3
+     * @see #addArgumentAsIterable(Iterable, QueryModifier)
+     */
+    LuceneQuery addFieldAsIterable(String key, Iterable<?> values, QueryModifier modifier);
+    
+    
     /**
      * <p> Add a field with the name `key` to the query.
      * The values to search for are given in an array.
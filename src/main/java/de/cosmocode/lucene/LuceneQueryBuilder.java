@@ -33,10 +33,13 @@ public final class LuceneQueryBuilder extends ForwardingLuceneQuery implements B
     
     public static final String ERR_LOCKED = "LuceneQueryBuilder has been locked, no changes possible";
     
-    private final LuceneQuery delegate;
+    private LuceneQuery delegate;
     
     private final Factory<LuceneQuery> template;
     
+    // lengths of the queries built from this builder, used if the template is a DefaultLuceneQueryFactory
+    private final QuerySizeEstimator sizeEstimator = new QuerySizeEstimator();
+    
     private boolean locked;
     
     private boolean hasQuery;
@@ -108,6 +111,24 @@ public final class LuceneQueryBuilder extends ForwardingLuceneQuery implements B
         return delegate.lastSuccessful();
     }
     
+    /**
+     * Resets the query of this builder, so that it can be used for a new template.
+     * A {@link DefaultLuceneQuery} is reset and keeps its buffer, any other query
+     * is replaced by a new one from the template.
+     * @throws IllegalStateException if this builder is {@link #lock()}ed
+     */
+    public void reset() {
+        final LuceneQuery current = delegate();
+        if (current instanceof DefaultLuceneQuery) {
+            DefaultLuceneQuery.class.cast(current).reset();
+        } else {
+            final QueryModifier modifier = current.getModifier();
+            delegate = template.create();
+            delegate.setModifier(modifier);
+        }
+        hasQuery = false;
+    }
+    
     /**
      * <p> Instantly locks this LuceneQueryBuilder so that all methods that would alter this instance
      * will fail with an IllegalStateException.
@@ -139,6 +160,9 @@ public final class LuceneQueryBuilder extends ForwardingLuceneQuery implements B
      * The {@link LuceneQuery#getQuery()} method returns an equivalent
      * query as this Builder.
      * </p>
+     * <p> If the template is a {@link DefaultLuceneQueryFactory}, the built queries are presized
+     * with the typical length of the queries that were built from this builder so far.
+     * </p>
      * <p> 
      * @return a LuceneQuery that has the query and QueryModifier from this builder
      */
@@ -147,7 +171,13 @@ public final class LuceneQueryBuilder extends ForwardingLuceneQuery implements B
         // check hasQuery again, because last addArgument/addField call went unnoticed
         if (!hasQuery) hasQuery = lastSuccessful();
         
-        final LuceneQuery newQuery = this.template.create();
+        final LuceneQuery newQuery;
+        if (this.template instanceof DefaultLuceneQueryFactory) {
+            // same as template.create(), but presized from the queries that were built from this builder
+            newQuery = new DefaultLuceneQuery(sizeEstimator);
+        } else {
+            newQuery = this.template.create();
+        }
         newQuery.setModifier(this.getModifier());
         if (hasQuery) newQuery.addUnescaped(this.getQuery(), false);
         return newQuery;
@@ -16,6 +16,8 @@
 
 package de.cosmocode.lucene;
 
+import org.apache.lucene.document.DateTools.Resolution;
+
 import com.google.common.base.Preconditions;
 
 import de.cosmocode.patterns.Builder;
@@ -34,6 +36,8 @@ public final class ModifierBuilder implements Builder<QueryModifier> {
     private boolean d;
     private boolean wc;
     private Double fuzzy;
+    private boolean edge;
+    private Resolution buckets;
     
     
     public ModifierBuilder() {
@@ -93,6 +97,42 @@ public final class ModifierBuilder implements Builder<QueryModifier> {
         return this;
     }
     
+    /**
+     * Set edgeNGrams.
+     * <br> If true then wildcarded values of a field are searched as a single term
+     * in the edge n-gram field of that field, instead of as a prefix query.
+     * This requires that the documents were indexed with {@link EdgeNGrams},
+     * with the n-grams built by the analyzer of the field, otherwise they don't match the terms
+     * that a prefix query on the field finds.
+     * <br> In Lucene's Query Language this is: field_edge:abc instead of abc*
+     * <br> Values outside of a field and values that can't be looked up are still searched as prefix.
+     * @param edgeNGrams whether wildcarded values are searched in the edge n-gram field or not
+     * @return this
+     * @since 1.3
+     * @see EdgeNGrams
+     */
+    public ModifierBuilder setEdgeNGrams(final boolean edgeNGrams) {
+        this.edge = edgeNGrams;
+        return this;
+    }
+    
+    /**
+     * Set the resolution of range buckets.
+     * <br> If not null then ranges of dates are split into aligned buckets of the given resolution
+     * and edge pieces, so that the buckets can be cached, see {@link RangeBuckets}.
+     * Bucketed ranges are not wildcarded.
+     * <br> In Lucene's Query Language this is, for days:
+     * ([20100301083015 TO 20100301235959] [20100302000000 TO 20100302999999] [20100303000000 TO 20100303120000])
+     * @param resolution the resolution of the buckets, null to disable range buckets
+     * @return this
+     * @since 1.3
+     * @see RangeBuckets
+     */
+    public ModifierBuilder setRangeBuckets(final Resolution resolution) {
+        this.buckets = resolution;
+        return this;
+    }
+    
     /**
      * Set fuzzyness to given value.
      * @param fuzzyness the fuzzyness to set
@@ -172,6 +212,41 @@ public final class ModifierBuilder implements Builder<QueryModifier> {
         return this;
     }
     
+    /**
+     * Set edgeNGrams to true.
+     * <br> Wildcarded values of a field are searched as a single term in the edge n-gram field of that field,
+     * whose n-grams must be built by the analyzer of the field.
+     * @return this
+     * @since 1.3
+     * @see #setEdgeNGrams(boolean)
+     */
+    public ModifierBuilder edgeNGrams() {
+        this.edge = true;
+        return this;
+    }
+    
+    /**
+     * Set edgeNGrams to false.
+     * <br> Wildcarded values are searched as prefix queries.
+     * @return this
+     * @since 1.3
+     */
+    public ModifierBuilder noEdgeNGrams() {
+        this.edge = false;
+        return this;
+    }
+    
+    /**
+     * Disables range buckets (the default state of a freshly initialized {@link ModifierBuilder}).
+     * @return this
+     * @since 1.3
+     * @see #setRangeBuckets(Resolution)
+     */
+    public ModifierBuilder noRangeBuckets() {
+        this.buckets = null;
+        return this;
+    }
+    
     /**
      * Set split to true. 
      * <br> That means that all added fields and arguments to the {@link LuceneQuery} are 
@@ -234,6 +309,6 @@ public final class ModifierBuilder implements Builder<QueryModifier> {
     
     @Override
     public QueryModifier build() {
-        return new QueryModifier(tm, s, d, wc, fuzzy);
+        return new QueryModifier(tm, s, d, wc, fuzzy, edge, buckets);
     }
 }
@@ -0,0 +1,161 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Preconditions;
+
+import de.cosmocode.patterns.Factory;
+
+/**
+ * <p> A Factory that reuses {@link DefaultLuceneQuery}s from a bounded pool.
+ * </p>
+ * <p> A query that is no longer needed can be given back with {@link #release(LuceneQuery)}.
+ * It is {@link DefaultLuceneQuery#reset()} and keeps its buffer, so the next query
+ * starts with the capacity of the largest query built so far (its high-water mark).
+ * Queries whose buffer grew beyond the configured maximum capacity are not pooled,
+ * so that a single huge query does not pin its memory forever.
+ * </p>
+ * <p> The pool is a lock-free array of slots that is shared by all threads.
+ * It uses no ThreadLocals, so it works with any number of short-lived threads.
+ * The factory is threadsafe, but the created LuceneQuerys are not.
+ * </p>
+ * <p> Example:
+ * </p>
+ * <pre>
+ *   final LuceneQuery query = factory.create();
+ *   try {
+ *       query.addField("category", categories, LuceneQuery.MOD_ID);
+ *       search(query.getQuery());
+ *   } finally {
+ *       factory.release(query);
+ *   }
+ * </pre>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+@ThreadSafe
+public final class PooledLuceneQueryFactory implements Factory<LuceneQuery> {
+    
+    public static final int DEFAULT_MAX_POOLED = 64;
+    
+    /**
+     * Buffers larger than 1 million chars (2 MB) are not pooled by default.
+     */
+    public static final int DEFAULT_MAX_RETAINED_CAPACITY = 1 << 20;
+    
+    public static final String ERR_MAX_POOLED_INVALID = "maxPooled must be greater than 0";
+    
+    public static final String ERR_MAX_RETAINED_CAPACITY_INVALID = "maxRetainedCapacity must be greater than 0";
+    
+    public static final String ERR_RELEASED_TWICE = "the query has already been released";
+    
+    private final QueryModifier defaultQueryModifier;
+    
+    private final AtomicReferenceArray<DefaultLuceneQuery> pool;
+    
+    private final int maxRetainedCapacity;
+    
+    /**
+     * Creates a PooledLuceneQueryFactory with {@link #DEFAULT_MAX_POOLED} and
+     * {@link #DEFAULT_MAX_RETAINED_CAPACITY}.
+     * @param mod the default QueryModifier of the created queries
+     */
+    public PooledLuceneQueryFactory(final QueryModifier mod) {
+        this(mod, DEFAULT_MAX_POOLED, DEFAULT_MAX_RETAINED_CAPACITY);
+    }
+    
+    /**
+     * Creates a PooledLuceneQueryFactory.
+     * @param mod the default QueryModifier of the created queries
+     * @param maxPooled the maximum number of queries that are kept in the pool
+     * @param maxRetainedCapacity queries with a larger buffer capacity (in chars) are not pooled
+     * @throws IllegalArgumentException if maxPooled or maxRetainedCapacity are less than 1
+     */
+    public PooledLuceneQueryFactory(final QueryModifier mod, final int maxPooled, final int maxRetainedCapacity) {
+        Preconditions.checkArgument(maxPooled > 0, ERR_MAX_POOLED_INVALID);
+        Preconditions.checkArgument(maxRetainedCapacity > 0, ERR_MAX_RETAINED_CAPACITY_INVALID);
+        this.defaultQueryModifier = Preconditions.checkNotNull(mod, LuceneQuery.ERR_MODIFIER_NULL);
+        this.pool = new AtomicReferenceArray<DefaultLuceneQuery>(maxPooled);
+        this.maxRetainedCapacity = maxRetainedCapacity;
+    }
+    
+    private int startIndex() {
+        // threads start at different slots, so that they rarely compete for the same slot
+        return (int) (Thread.currentThread().getId() % pool.length());
+    }
+    
+    @Override
+    public LuceneQuery create() {
+        final int start = startIndex();
+        for (int i = 0; i < pool.length(); i++) {
+            final int index = (start + i) % pool.length();
+            final DefaultLuceneQuery pooled = pool.get(index);
+            if (pooled != null && pool.compareAndSet(index, pooled, null)) {
+                pooled.setModifier(defaultQueryModifier);
+                return pooled;
+            }
+        }
+        
+        final LuceneQuery newQuery = new DefaultLuceneQuery();
+        newQuery.setModifier(defaultQueryModifier);
+        return newQuery;
+    }
+    
+    /**
+     * <p> Gives the given query back to the pool.
+     * The query must not be used by the caller afterwards.
+     * </p>
+     * <p> Queries that are no {@link DefaultLuceneQuery}, queries with a buffer larger than
+     * the maximum retained capacity and queries that don't fit into the full pool are discarded.
+     * </p>
+     * 
+     * @param query the query to release, may be null
+     * @return true if the query was pooled, false if it was discarded
+     * @throws IllegalStateException if the query is already in the pool
+     */
+    public boolean release(final LuceneQuery query) {
+        if (!(query instanceof DefaultLuceneQuery)) {
+            return false;
+        }
+        final DefaultLuceneQuery released = DefaultLuceneQuery.class.cast(query);
+        if (released.capacity() > maxRetainedCapacity) {
+            return false;
+        }
+        
+        for (int i = 0; i < pool.length(); i++) {
+            Preconditions.checkState(pool.get(i) != released, ERR_RELEASED_TWICE);
+        }
+        
+        released.reset();
+        
+        final int start = startIndex();
+        for (int i = 0; i < pool.length(); i++) {
+            final int index = (start + i) % pool.length();
+            if (pool.get(index) == null && pool.compareAndSet(index, null, released)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+}
@@ -0,0 +1,449 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.FieldCache;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * <p> An in-memory autocompletion for the terms of an index field.
+ * </p>
+ * <p> The suggester loads all terms of a field into a compact sorted array
+ * (one char array for all terms and an array of offsets) together with a weight per term,
+ * which is either the document frequency of the term or the greatest value of an integer weight field
+ * of the documents that contain the term. The top k completions of a prefix are found with two binary searches
+ * and a segment tree over the weights, in O(k log n), without touching the index.
+ * This is much cheaper than {@link LuceneQuery#MOD_AUTOCOMPLETE}, which makes the searcher enumerate
+ * the term dictionary for a wildcard and a fuzzy query on every keystroke.
+ * </p>
+ * <p> The terms are read from a reader with {@link #refresh(IndexReader)}, which replaces the loaded terms
+ * atomically once the new terms are loaded, so suggestions can be made while the suggester is refreshed.
+ * The terms are only loaded again for another reader or if the version of the reader changed.
+ * </p>
+ * <p> Example:
+ * </p>
+ * <pre>
+ *   final PrefixSuggester suggester = new PrefixSuggester("name");
+ *   suggester.refresh(reader);
+ *   final List&lt;String&gt; completions = suggester.suggest("sam", 10);
+ *   // or, as a replacement for query.addField("name", input, LuceneQuery.MOD_AUTOCOMPLETE):
+ *   suggester.addCompletions(query, input, 10);
+ * </pre>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+@ThreadSafe
+public final class PrefixSuggester {
+    
+    public static final String ERR_LIMIT_INVALID = "the limit must be greater than 0";
+    
+    // the clause for a token with more completions than the limit, like MOD_AUTOCOMPLETE without the fuzzy part
+    private static final QueryModifier MOD_PREFIX = LuceneQuery.MOD_ID.copy().wildcarded().end();
+    
+    private final String field;
+    
+    private final String weightField;
+    
+    private volatile Dictionary dictionary = Dictionary.EMPTY;
+    
+    /**
+     * Creates a new PrefixSuggester for the terms of the given field, weighted by their document frequency.
+     * @param field the field whose terms are suggested
+     * @throws NullPointerException if field is null
+     */
+    public PrefixSuggester(final String field) {
+        this.field = Preconditions.checkNotNull(field, "Field");
+        this.weightField = null;
+    }
+    
+    /**
+     * Creates a new PrefixSuggester for the terms of the given field.
+     * Every term is weighted by the greatest value of the weight field of all documents that contain the term.
+     * The weight field must be indexed with a single integer term per document, see {@link FieldCache#getInts}.
+     * 
+     * @param field the field whose terms are suggested
+     * @param weightField the field with the weights of the documents
+     * @throws NullPointerException if field or weightField is null
+     */
+    public PrefixSuggester(final String field, final String weightField) {
+        this.field = Preconditions.checkNotNull(field, "Field");
+        this.weightField = Preconditions.checkNotNull(weightField, "WeightField");
+    }
+    
+    public String getField() {
+        return field;
+    }
+    
+    /**
+     * Returns the number of loaded terms.
+     * @return the number of terms that can be suggested
+     */
+    public int size() {
+        return dictionary.size;
+    }
+    
+    /**
+     * Loads the terms of the given reader, unless they were already loaded from the same reader and version.
+     * 
+     * @param reader the reader to load the terms from
+     * @return true if the terms were loaded, false if they were up to date
+     * @throws IOException if the terms could not be read
+     */
+    public boolean refresh(final IndexReader reader) throws IOException {
+        long version;
+        try {
+            version = reader.getVersion();
+        } catch (UnsupportedOperationException e) {
+            // some readers, like MultiReader, have no version; they are only compared by identity
+            version = Dictionary.UNVERSIONED;
+        }
+        final Dictionary current = dictionary;
+        if (current.reader.get() == reader && current.version == version) return false;
+        dictionary = load(reader, version);
+        return true;
+    }
+    
+    private Dictionary load(final IndexReader reader, final long version) throws IOException {
+        final int[] weightValues = weightField == null ? null : FieldCache.DEFAULT.getInts(reader, weightField);
+        final TermDocs termDocs = weightValues == null ? null : reader.termDocs();
+        
+        char[] chars = new char[1024];
+        int length = 0;
+        int[] offsets = new int[257];
+        int[] weights = new int[256];
+        int size = 0;
+        
+        final TermEnum terms = reader.terms(new Term(field, ""));
+        try {
+            do {
+                final Term term = terms.term();
+                if (term == null || !field.equals(term.field())) break;
+                
+                final String text = term.text();
+                if (length + text.length() > chars.length) {
+                    chars = grow(chars, length + text.length());
+                }
+                text.getChars(0, text.length(), chars, length);
+                length += text.length();
+                
+                if (size == weights.length) {
+                    weights = grow(weights, size + 1);
+                    offsets = grow(offsets, size + 2);
+                }
+                weights[size] = termDocs == null ? terms.docFreq() : maxWeight(termDocs, term, weightValues);
+                offsets[++size] = length;
+            } while (terms.next());
+        } finally {
+            terms.close();
+            if (termDocs != null) {
+                termDocs.close();
+            }
+        }
+        return new Dictionary(reader, version, 
+            trim(chars, length), trim(offsets, size + 1), trim(weights, size), size);
+    }
+    
+    private static int maxWeight(final TermDocs termDocs, final Term term, final int[] weightValues) 
+        throws IOException {
+        
+        termDocs.seek(term);
+        int max = Integer.MIN_VALUE;
+        while (termDocs.next()) {
+            max = Math.max(max, weightValues[termDocs.doc()]);
+        }
+        return max;
+    }
+    
+    private static char[] grow(final char[] array, final int minLength) {
+        final char[] grown = new char[Math.max(minLength, array.length * 2)];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+    
+    private static int[] grow(final int[] array, final int minLength) {
+        final int[] grown = new int[Math.max(minLength, array.length * 2)];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+    
+    private static char[] trim(final char[] array, final int length) {
+        final char[] trimmed = new char[length];
+        System.arraycopy(array, 0, trimmed, 0, length);
+        return trimmed;
+    }
+    
+    private static int[] trim(final int[] array, final int length) {
+        final int[] trimmed = new int[length];
+        System.arraycopy(array, 0, trimmed, 0, length);
+        return trimmed;
+    }
+    
+    /**
+     * Returns the terms that start with the given prefix, the ones with the greatest weight first.
+     * Terms with the same weight are returned in their natural order.
+     * 
+     * @param prefix the prefix of the terms, as it is indexed (i.e. already analyzed)
+     * @param limit the maximum number of returned terms
+     * @return at most limit terms that start with the prefix, may be empty
+     * @throws NullPointerException if prefix is null
+     * @throws IllegalArgumentException if limit is less than 1
+     */
+    public List<String> suggest(final String prefix, final int limit) {
+        Preconditions.checkNotNull(prefix, "Prefix");
+        Preconditions.checkArgument(limit > 0, ERR_LIMIT_INVALID);
+        final Dictionary current = dictionary;
+        
+        final int from = current.lowerBound(prefix);
+        final int to = current.prefixEnd(prefix, from);
+        if (from >= to) return Collections.emptyList();
+        
+        final List<String> suggestions = Lists.newArrayListWithCapacity(Math.min(limit, to - from));
+        final PriorityQueue<Range> ranges = new PriorityQueue<Range>();
+        ranges.add(current.range(from, to));
+        while (suggestions.size() < limit && !ranges.isEmpty()) {
+            final Range range = ranges.poll();
+            suggestions.add(current.term(range.best));
+            if (range.from < range.best) {
+                ranges.add(current.range(range.from, range.best));
+            }
+            if (range.best + 1 < range.to) {
+                ranges.add(current.range(range.best + 1, range.to));
+            }
+        }
+        return suggestions;
+    }
+    
+    /**
+     * <p> Adds the completions of every token of the given input as a required field to the given query.
+     * Within a field, one of the completions of the token must match.
+     * A token without completions is added as a required exact term, so that,
+     * like with {@link LuceneQuery#MOD_AUTOCOMPLETE}, every token must match.
+     * A token with more completions than the limit is added as a required prefix query,
+     * so that the documents with less weighted completions are still found.
+     * </p>
+     * <p> This is a replacement for {@code query.addField(field, input, LuceneQuery.MOD_AUTOCOMPLETE)}
+     * that searches for exact terms as long as a token has at most limit completions.
+     * Unlike the autocomplete modifier, it has no fuzzy part,
+     * so a misspelled token matches no document instead of similar terms.
+     * </p>
+     * 
+     * @param query the query to add the completions to
+     * @param input the user input, split at whitespace, as it is indexed (i.e. already analyzed)
+     * @param limit the maximum number of completions per token, above which the prefix is searched
+     * @return the given query
+     * @throws IllegalArgumentException if limit is less than 1
+     */
+    public LuceneQuery addCompletions(final LuceneQuery query, final String input, final int limit) {
+        Preconditions.checkArgument(limit > 0, ERR_LIMIT_INVALID);
+        if (input == null) return query;
+        for (String token : input.trim().split("\\s+")) {
+            if (token.length() == 0) continue;
+            // one more than the limit tells whether all completions fit into the clause
+            final List<String> completions = suggest(token, limit == Integer.MAX_VALUE ? limit : limit + 1);
+            if (completions.isEmpty()) {
+                query.addField(field, token, LuceneQuery.MOD_ID);
+            } else if (completions.size() > limit) {
+                query.addField(field, token, MOD_PREFIX);
+            } else {
+                query.addField(field, completions, LuceneQuery.MOD_ID);
+            }
+        }
+        return query;
+    }
+    
+    /**
+     * A range of terms and the index of its term with the greatest weight.
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    private static final class Range implements Comparable<Range> {
+        
+        private final int from;
+        private final int to;
+        private final int best;
+        private final int weight;
+        
+        Range(final int from, final int to, final int best, final int weight) {
+            this.from = from;
+            this.to = to;
+            this.best = best;
+            this.weight = weight;
+        }
+        
+        @Override
+        public int compareTo(final Range other) {
+            if (weight != other.weight) {
+                return weight > other.weight ? -1 : 1;
+            }
+            return best < other.best ? -1 : (best == other.best ? 0 : 1);
+        }
+        
+    }
+    
+    /**
+     * The immutable terms and weights of one reader and version.
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    private static final class Dictionary {
+        
+        private static final long UNVERSIONED = Long.MIN_VALUE;
+        
+        private static final Dictionary EMPTY = 
+            new Dictionary(null, UNVERSIONED, new char[0], new int[1], new int[0], 0);
+        
+        private final WeakReference<IndexReader> reader;
+        private final long version;
+        private final char[] chars;
+        private final int[] offsets;
+        private final int[] weights;
+        private final int size;
+        
+        // segment tree over the weights, every node holds the index of the greatest weight of its range
+        private final int leaves;
+        private final int[] tree;
+        
+        Dictionary(final IndexReader reader, final long version, 
+            final char[] chars, final int[] offsets, final int[] weights, final int size) {
+            
+            this.reader = new WeakReference<IndexReader>(reader);
+            this.version = version;
+            this.chars = chars;
+            this.offsets = offsets;
+            this.weights = weights;
+            this.size = size;
+            this.leaves = Math.max(1, Integer.highestOneBit(Math.max(size, 1) * 2 - 1));
+            this.tree = new int[2 * leaves];
+            for (int i = 0; i < leaves; i++) {
+                tree[leaves + i] = i < size ? i : -1;
+            }
+            for (int node = leaves - 1; node > 0; node--) {
+                tree[node] = better(tree[2 * node], tree[2 * node + 1]);
+            }
+        }
+        
+        /**
+         * Returns the index with the greater weight, or the lower index if both weights are equal.
+         */
+        private int better(final int left, final int right) {
+            if (left == -1) return right;
+            if (right == -1) return left;
+            if (weights[left] != weights[right]) {
+                return weights[left] > weights[right] ? left : right;
+            }
+            return Math.min(left, right);
+        }
+        
+        private Range range(final int from, final int to) {
+            int best = -1;
+            int left = from + leaves;
+            int right = to + leaves;
+            while (left < right) {
+                if ((left & 1) == 1) {
+                    best = better(best, tree[left++]);
+                }
+                if ((right & 1) == 1) {
+                    best = better(best, tree[--right]);
+                }
+                left >>= 1;
+                right >>= 1;
+            }
+            return new Range(from, to, best, weights[best]);
+        }
+        
+        private String term(final int index) {
+            return new String(chars, offsets[index], offsets[index + 1] - offsets[index]);
+        }
+        
+        private int compare(final int index, final String value) {
+            final int start = offsets[index];
+            final int length = offsets[index + 1] - start;
+            final int common = Math.min(length, value.length());
+            for (int i = 0; i < common; i++) {
+                final char c = chars[start + i];
+                final char v = value.charAt(i);
+                if (c != v) {
+                    return c - v;
+                }
+            }
+            return length - value.length();
+        }
+        
+        private boolean startsWith(final int index, final String prefix) {
+            final int start = offsets[index];
+            if (offsets[index + 1] - start < prefix.length()) return false;
+            for (int i = 0; i < prefix.length(); i++) {
+                if (chars[start + i] != prefix.charAt(i)) return false;
+            }
+            return true;
+        }
+        
+        /**
+         * Returns the index of the first term that is greater than or equal to the given value.
+         */
+        private int lowerBound(final String value) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (compare(middle, value) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+        
+        /**
+         * Returns the index after the last term that starts with the given prefix,
+         * given that all terms from index from on up to that index start with it.
+         */
+        private int prefixEnd(final String prefix, final int from) {
+            int low = from;
+            int high = size;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (startsWith(middle, prefix)) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,229 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * <p> A query template with named parameters, that is compiled once and can be bound many times.
+ * </p>
+ * <p> A PreparedLuceneQuery is created with a {@link PreparedLuceneQueryBuilder}.
+ * Every String value of the template can be replaced by a parameter with {@link #param(String)}.
+ * The template is rendered once into literal chunks and parameter slots,
+ * so that {@link #bind(Map)} only has to escape and write the parameter values.
+ * </p>
+ * <p> Example:
+ * </p>
+ * <pre>
+ *   final PreparedLuceneQueryBuilder builder = new PreparedLuceneQueryBuilder();
+ *   builder.addField("cat", PreparedLuceneQuery.param("cat"), LuceneQuery.MOD_ID);
+ *   builder.addArgument(PreparedLuceneQuery.param("text"), LuceneQuery.MOD_TEXT);
+ *   final PreparedLuceneQuery prepared = builder.build();
+ *   ...
+ *   final LuceneQuery query = prepared.bind(ImmutableMap.of("cat", categories, "text", input));
+ * </pre>
+ * <p> A parameter can be bound to a String, a Collection, an array or any other object, exactly like
+ * the values of {@link AbstractLuceneQuery}. Multiple values are added with the
+ * {@link QueryModifier#getMultiValueModifier()} of the modifier the parameter was added with.
+ * </p>
+ * <p> This class is immutable and threadsafe, so one instance can be shared by all threads.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ * 
+ * @see PreparedLuceneQueryBuilder
+ */
+@ThreadSafe
+@Immutable
+public final class PreparedLuceneQuery {
+    
+    public static final String ERR_PARAMETER_NAME_BLANK = "the parameter name must not be blank";
+    
+    public static final String ERR_PARAMETER_MISSING = "no value bound for parameter ";
+    
+    public static final String ERR_PARAMETER_EMPTY = "the bound value is empty for parameter ";
+    
+    static final char PARAMETER_START = '\uE000';
+    static final char PARAMETER_END = '\uE001';
+    
+    private final String[] chunks;
+    private final Slot[] slots;
+    private final QueryModifier modifier;
+    private final int literalLength;
+    private final Set<String> parameterNames;
+    
+    PreparedLuceneQuery(final List<String> chunks, final List<Slot> slots, final QueryModifier modifier) {
+        Preconditions.checkArgument(chunks.size() == slots.size() + 1, "chunks must surround the slots");
+        this.chunks = chunks.toArray(new String[chunks.size()]);
+        this.slots = slots.toArray(new Slot[slots.size()]);
+        this.modifier = modifier;
+        
+        int length = 0;
+        for (String chunk : this.chunks) {
+            length += chunk.length();
+        }
+        this.literalLength = length;
+        
+        final ImmutableSet.Builder<String> names = ImmutableSet.builder();
+        for (Slot slot : this.slots) {
+            names.add(slot.name);
+        }
+        this.parameterNames = names.build();
+    }
+    
+    /**
+     * <p> Returns a placeholder for the parameter with the given name.
+     * It can be used as a String value in all methods of a {@link PreparedLuceneQueryBuilder}
+     * that accept a single String value.
+     * </p>
+     * 
+     * @param name the name of the parameter
+     * @return a placeholder for the given parameter
+     * @throws IllegalArgumentException if name is blank
+     */
+    public static String param(final String name) {
+        Preconditions.checkArgument(name != null && name.trim().length() > 0, ERR_PARAMETER_NAME_BLANK);
+        return PARAMETER_START + name + PARAMETER_END;
+    }
+    
+    /**
+     * Checks whether the given value is a placeholder created by {@link #param(String)}.
+     * @param value the value to check
+     * @return true if value is a placeholder, false otherwise
+     */
+    static boolean isParam(final Object value) {
+        if (value instanceof String) {
+            final String string = (String) value;
+            return string.length() > 2 
+                && string.charAt(0) == PARAMETER_START 
+                && string.charAt(string.length() - 1) == PARAMETER_END;
+        } else {
+            return false;
+        }
+    }
+    
+    /**
+     * Returns the parameter name of the given placeholder.
+     * @param placeholder a placeholder created by {@link #param(String)}
+     * @return the name of the parameter
+     */
+    static String nameOf(final String placeholder) {
+        return placeholder.substring(1, placeholder.length() - 1);
+    }
+    
+    /**
+     * Returns the names of all parameters of this query.
+     * @return the names of all parameters, in the order they appear in the query
+     */
+    public Set<String> getParameterNames() {
+        return parameterNames;
+    }
+    
+    /**
+     * Returns the default QueryModifier of the queries created by {@link #bind(Map)}.
+     * @return the default QueryModifier
+     */
+    public QueryModifier getModifier() {
+        return modifier;
+    }
+    
+    /**
+     * Binds the only parameter of this query to the given value.
+     * 
+     * @param name the name of the parameter
+     * @param value the value of the parameter
+     * @return a new LuceneQuery with the given parameter bound
+     * @throws IllegalArgumentException if this query has other parameters, or the value is empty
+     * @see #bind(Map)
+     */
+    public LuceneQuery bind(final String name, final Object value) {
+        return bind(Collections.singletonMap(name, value));
+    }
+    
+    /**
+     * <p> Creates a new LuceneQuery from this template, with all parameters replaced by the given values.
+     * </p>
+     * <p> The returned LuceneQuery has the same default QueryModifier as the template
+     * and can be modified further. It is not threadsafe.
+     * </p>
+     * 
+     * @param parameters the parameter values, by parameter name
+     * @return a new LuceneQuery with all parameters bound
+     * @throws IllegalArgumentException if a parameter has no value, or the value is empty
+     */
+    public LuceneQuery bind(final Map<String, ?> parameters) {
+        final DefaultLuceneQuery query = new DefaultLuceneQuery(literalLength + 16 * slots.length);
+        query.setModifier(modifier);
+        
+        query.appendVerbatim(chunks[0]);
+        for (int i = 0; i < slots.length; i++) {
+            slots[i].bind(query, parameters);
+            query.appendVerbatim(chunks[i + 1]);
+        }
+        
+        return query;
+    }
+    
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder(literalLength + 16 * slots.length);
+        builder.append(chunks[0]);
+        for (int i = 0; i < slots.length; i++) {
+            builder.append("${").append(slots[i].name).append("}");
+            builder.append(chunks[i + 1]);
+        }
+        return "PreparedLuceneQuery [" + builder.toString().trim() + "]";
+    }
+    
+    /**
+     * A parameter slot of a {@link PreparedLuceneQuery}.
+     *
+     * @author Oliver Lorenz
+     */
+    @Immutable
+    static final class Slot {
+        
+        private final String name;
+        private final QueryModifier modifier;
+        
+        Slot(final String name, final QueryModifier modifier) {
+            this.name = name;
+            this.modifier = modifier;
+        }
+        
+        private void bind(final DefaultLuceneQuery query, final Map<String, ?> parameters) {
+            final Object value = parameters.get(name);
+            Preconditions.checkArgument(value != null, ERR_PARAMETER_MISSING + "%s", name);
+            
+            query.addArgument(value, modifier);
+            Preconditions.checkArgument(query.lastSuccessful(), ERR_PARAMETER_EMPTY + "%s", name);
+        }
+        
+    }
+    
+}
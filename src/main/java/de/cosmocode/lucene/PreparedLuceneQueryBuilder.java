@@ -0,0 +1,202 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ForwardingIterator;
+import com.google.common.collect.Lists;
+
+import de.cosmocode.patterns.Builder;
+
+/**
+ * <p> A {@link Builder} for a {@link PreparedLuceneQuery}, that behaves like a {@link LuceneQuery}.
+ * </p>
+ * <p> Every String value that is a placeholder created by {@link PreparedLuceneQuery#param(String)}
+ * becomes a parameter slot of the PreparedLuceneQuery. All other values are rendered
+ * (and escaped) immediately, like in a {@link DefaultLuceneQuery}.
+ * </p>
+ * <p> Placeholders are only recognized as single String values, not inside collections, arrays or iterators;
+ * bind a collection to the parameter instead.
+ * A subquery may be another PreparedLuceneQueryBuilder, its parameters are taken over.
+ * </p>
+ * <p> The query returned by {@link #getQuery()} contains internal markers for the parameters
+ * and is not a valid Lucene query. This implementation is not threadsafe.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ * 
+ * @see PreparedLuceneQuery
+ */
+public final class PreparedLuceneQueryBuilder extends InterceptingLuceneQuery implements Builder<PreparedLuceneQuery> {
+    
+    public static final String ERR_PARAMETER_IN_MULTIPLE_VALUES = 
+        "parameters are not supported in collections or arrays, bind a collection to the parameter instead";
+    
+    public static final String ERR_PARAMETER_IN_UNESCAPED = 
+        "parameters are not supported in unescaped values";
+    
+    private static final String MARKER = String.valueOf(PreparedLuceneQuery.PARAMETER_START);
+    
+    private static final String MARKER_SEPARATED = MARKER + " ";
+    
+    private final List<PreparedLuceneQuery.Slot> slots = Lists.newArrayList();
+    
+    private final DefaultLuceneQuery template;
+    
+    /**
+     * Creates a new PreparedLuceneQueryBuilder with the default QueryModifier {@link QueryModifier#DEFAULT}.
+     */
+    public PreparedLuceneQueryBuilder() {
+        this(new DefaultLuceneQuery());
+    }
+    
+    private PreparedLuceneQueryBuilder(final DefaultLuceneQuery template) {
+        super(template);
+        this.template = template;
+    }
+    
+    private static void checkNoParameter(final Iterable<?> values) {
+        for (Object value : values) {
+            Preconditions.checkArgument(!PreparedLuceneQuery.isParam(value), ERR_PARAMETER_IN_MULTIPLE_VALUES);
+        }
+    }
+    
+    @Override
+    public void reset() {
+        super.reset();
+        slots.clear();
+    }
+    
+    @Override
+    public LuceneQuery addArgument(final String value, final QueryModifier modifier) {
+        if (PreparedLuceneQuery.isParam(value)) {
+            Preconditions.checkNotNull(modifier, ERR_MODIFIER_NULL);
+            slots.add(new PreparedLuceneQuery.Slot(PreparedLuceneQuery.nameOf(value), modifier));
+            // the marker takes the place of the rendered argument, it is replaced in build()
+            template.addUnescaped(MARKER, false);
+            return this;
+        } else {
+            return super.addArgument(value, modifier);
+        }
+    }
+    
+    @Override
+    public LuceneQuery addArgumentAsCollection(final Collection<?> values, final QueryModifier modifier) {
+        if (values != null) checkNoParameter(values);
+        return super.addArgumentAsCollection(values, modifier);
+    }
+    
+    @Override
+    public LuceneQuery addArgumentAsIterator(final Iterator<?> values, final QueryModifier modifier) {
+        // the values are consumed lazily, so every value is checked when it is returned
+        return super.addArgumentAsIterator(values == null ? null : new ParameterCheckingIterator<Object>(values),
+            modifier);
+    }
+    
+    @Override
+    public <K> LuceneQuery addArgumentAsArray(final K[] values, final QueryModifier modifier) {
+        if (values != null) checkNoParameter(Lists.newArrayList(values));
+        return super.addArgumentAsArray(values, modifier);
+    }
+    
+    @Override
+    public LuceneQuery addSubquery(final LuceneQuery value, final QueryModifier modifiers) {
+        if (value instanceof PreparedLuceneQueryBuilder) {
+            super.addSubquery(value, modifiers);
+            if (lastSuccessful()) {
+                slots.addAll(PreparedLuceneQueryBuilder.class.cast(value).slots);
+            }
+            return this;
+        } else {
+            return super.addSubquery(value, modifiers);
+        }
+    }
+    
+    @Override
+    public LuceneQuery addUnescaped(final CharSequence value, final boolean mandatory) {
+        Preconditions.checkArgument(value == null || value.toString().indexOf(MARKER) < 0, ERR_PARAMETER_IN_UNESCAPED);
+        return super.addUnescaped(value, mandatory);
+    }
+    
+    @Override
+    public LuceneQuery addUnescapedField(final String key, final CharSequence value, final boolean mandatory) {
+        Preconditions.checkArgument(value == null || value.toString().indexOf(MARKER) < 0, ERR_PARAMETER_IN_UNESCAPED);
+        return super.addUnescapedField(key, value, mandatory);
+    }
+    
+    /**
+     * <p> Compiles the query that was built so far into a {@link PreparedLuceneQuery}.
+     * This builder can be modified further afterwards, without any effect on the returned query.
+     * </p>
+     * 
+     * @return a new PreparedLuceneQuery with the query and the default QueryModifier of this builder
+     */
+    @Override
+    public PreparedLuceneQuery build() {
+        final String query = template.length() == 0 ? "" : template.getQuery();
+        final List<String> chunks = Lists.newArrayListWithCapacity(slots.size() + 1);
+        
+        int start = 0;
+        int marker = query.indexOf(MARKER_SEPARATED);
+        while (marker >= 0) {
+            chunks.add(query.substring(start, marker));
+            start = marker + MARKER_SEPARATED.length();
+            marker = query.indexOf(MARKER_SEPARATED, start);
+        }
+        chunks.add(query.substring(start));
+        
+        Preconditions.checkState(chunks.size() == slots.size() + 1, 
+            "the query contains %s parameter markers, but %s parameters were added", chunks.size() - 1, slots.size());
+        return new PreparedLuceneQuery(chunks, slots, getModifier());
+    }
+    
+    /**
+     * An iterator that rejects placeholders while its values are consumed.
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    private static final class ParameterCheckingIterator<E> extends ForwardingIterator<E> {
+        
+        private final Iterator<? extends E> delegate;
+        
+        private ParameterCheckingIterator(Iterator<? extends E> delegate) {
+            this.delegate = delegate;
+        }
+        
+        @SuppressWarnings("unchecked")
+        @Override
+        protected Iterator<E> delegate() {
+            return (Iterator<E>) delegate;
+        }
+        
+        @Override
+        public E next() {
+            final E next = delegate.next();
+            Preconditions.checkArgument(!PreparedLuceneQuery.isParam(next), ERR_PARAMETER_IN_MULTIPLE_VALUES);
+            return next;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,335 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryWrapperFilter;
+import org.apache.lucene.search.TermQuery;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * <p> Checks queries against a cost budget before they are executed.
+ * </p>
+ * <p> The cost of every query is estimated with a {@link QueryCostEstimator}.
+ * Queries within the budget are returned unchanged. Queries over the budget are handled
+ * according to the {@link Policy} of the guard.
+ * </p>
+ * <p> Example:
+ * </p>
+ * <pre>
+ *   final QueryAdmissionGuard guard = new QueryAdmissionGuard(
+ *       new QueryCostEstimator(reader), 100000, 1024, QueryAdmissionGuard.Policy.DEGRADE);
+ *   try {
+ *       searcher.search(guard.admit(query, parser), 10);
+ *   } catch (QueryRejectedException e) {
+ *       // tell the user to refine the search
+ *   }
+ * </pre>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+@ThreadSafe
+public final class QueryAdmissionGuard {
+    
+    public static final String ERR_BUDGET_INVALID = "the budget must be greater than 0";
+    
+    /**
+     * What to do with a query that is over the budget.
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    public static enum Policy {
+        
+        /**
+         * Throw a {@link QueryRejectedException}.
+         */
+        REJECT,
+        
+        /**
+         * Replace fuzzy clauses by term clauses first, then drop the most expensive optional leaf clauses,
+         * like the expensive tokens of a split user input, until the query is within the budget.
+         * A boolean query always keeps enough optional clauses to match documents.
+         * Throw a {@link QueryRejectedException} if the query is still over the budget.
+         */
+        DEGRADE,
+        
+        /**
+         * Wrap the query in a {@link ConstantScoreQuery}, so that the matching documents are not scored.
+         * The query still has to be matched, so this only saves the scoring cost.
+         */
+        FILTER;
+        
+    }
+    
+    private final QueryCostEstimator estimator;
+    
+    private final double maxCost;
+    
+    private final int maxClauses;
+    
+    private final Policy policy;
+    
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong degraded = new AtomicLong();
+    private final AtomicLong filtered = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    
+    /**
+     * Creates a new QueryAdmissionGuard.
+     * @param estimator the estimator for the cost of the queries
+     * @param maxCost the maximum {@link QueryCost#getCost()} of a query
+     * @param maxClauses the maximum {@link QueryCost#getClauses()} of a query
+     * @param policy what to do with queries over the budget
+     * @throws NullPointerException if estimator or policy is null
+     * @throws IllegalArgumentException if maxCost or maxClauses is less than or equal to 0
+     */
+    public QueryAdmissionGuard(final QueryCostEstimator estimator, final double maxCost, 
+        final int maxClauses, final Policy policy) {
+        
+        Preconditions.checkArgument(maxCost > 0 && maxClauses > 0, ERR_BUDGET_INVALID);
+        this.estimator = Preconditions.checkNotNull(estimator, "Estimator");
+        this.policy = Preconditions.checkNotNull(policy, "Policy");
+        this.maxCost = maxCost;
+        this.maxClauses = maxClauses;
+    }
+    
+    /**
+     * Returns true if the given cost is within the budget of this guard.
+     * @param cost the cost to check
+     * @return true if the cost is within the budget, false otherwise
+     */
+    public boolean isWithinBudget(final QueryCost cost) {
+        return cost.getCost() <= maxCost && cost.getClauses() <= maxClauses;
+    }
+    
+    /**
+     * Parses or converts the given LuceneQuery and checks it against the budget.
+     * 
+     * @param query the query to check
+     * @param parser the parser for the rendered query, not used for a {@link DirectApiLuceneQuery}
+     * @return the query to execute, which is either the given query or a degraded or filtered version of it
+     * @throws ParseException if the query could not be parsed
+     * @throws IOException if the term statistics could not be read
+     * @throws QueryRejectedException if the query is over the budget and could not be degraded
+     * @see #admit(Query)
+     */
+    public Query admit(final LuceneQuery query, final QueryParser parser) throws ParseException, IOException {
+        return admit(LuceneHelper.toLuceneQuery(query, parser));
+    }
+    
+    /**
+     * Checks the given query against the budget.
+     * 
+     * @param query the query to check
+     * @return the query to execute, which is either the given query or a degraded or filtered version of it
+     * @throws IOException if the term statistics could not be read
+     * @throws QueryRejectedException if the query is over the budget and could not be degraded
+     */
+    public Query admit(final Query query) throws IOException {
+        final QueryCost cost = estimator.estimate(query);
+        if (isWithinBudget(cost)) {
+            admitted.incrementAndGet();
+            return query;
+        }
+        
+        switch (policy) {
+            case REJECT: {
+                throw reject(cost);
+            }
+            case DEGRADE: {
+                return degrade(query);
+            }
+            case FILTER: {
+                filtered.incrementAndGet();
+                return new ConstantScoreQuery(new QueryWrapperFilter(query));
+            }
+            default: {
+                throw new IllegalStateException("Unknown policy " + policy);
+            }
+        }
+    }
+    
+    private QueryRejectedException reject(final QueryCost cost) {
+        rejected.incrementAndGet();
+        return new QueryRejectedException("query is over the budget (maxCost=" + maxCost 
+            + ", maxClauses=" + maxClauses + "): " + cost, cost);
+    }
+    
+    private Query degrade(final Query query) throws IOException {
+        final Query degradedQuery = withoutFuzzy(query);
+        QueryCost cost = estimator.estimate(degradedQuery);
+        
+        if (!isWithinBudget(cost)) {
+            // drop the most expensive optional clauses, estimating each of them only once
+            final List<Candidate> candidates = Lists.newArrayList();
+            collectOptional(degradedQuery, candidates);
+            Collections.sort(candidates);
+            
+            double remainingCost = cost.getCost();
+            int remainingClauses = cost.getClauses();
+            for (Candidate candidate : candidates) {
+                if (remainingCost <= maxCost && remainingClauses <= maxClauses) break;
+                if (candidate.remove()) {
+                    remainingCost -= candidate.cost.getCost();
+                    remainingClauses -= candidate.cost.getClauses();
+                }
+            }
+            cost = estimator.estimate(degradedQuery);
+        }
+        
+        if (isWithinBudget(cost)) {
+            degraded.incrementAndGet();
+            return degradedQuery;
+        } else {
+            throw reject(cost);
+        }
+    }
+    
+    private static Query withoutFuzzy(final Query query) {
+        if (query instanceof FuzzyQuery) {
+            final TermQuery term = new TermQuery(FuzzyQuery.class.cast(query).getTerm());
+            term.setBoost(query.getBoost());
+            return term;
+        } else if (query instanceof BooleanQuery) {
+            // always copied, so that the optional clauses can be removed afterwards
+            final BooleanQuery original = BooleanQuery.class.cast(query);
+            final BooleanQuery copy = copyOf(original);
+            for (BooleanClause clause : original.getClauses()) {
+                copy.add(withoutFuzzy(clause.getQuery()), clause.getOccur());
+            }
+            return copy;
+        } else {
+            return query;
+        }
+    }
+    
+    private void collectOptional(final Query query, final List<Candidate> candidates) throws IOException {
+        if (query instanceof BooleanQuery) {
+            final BooleanQuery parent = BooleanQuery.class.cast(query);
+            for (BooleanClause clause : parent.getClauses()) {
+                // only leaves, so that single tokens are dropped instead of whole groups of tokens
+                if (clause.getOccur() == BooleanClause.Occur.SHOULD && !(clause.getQuery() instanceof BooleanQuery)) {
+                    candidates.add(new Candidate(parent, clause, estimator.estimate(clause.getQuery())));
+                }
+                collectOptional(clause.getQuery(), candidates);
+            }
+        }
+    }
+    
+    private static BooleanQuery copyOf(final BooleanQuery original) {
+        final BooleanQuery copy = new BooleanQuery(original.isCoordDisabled());
+        copy.setMinimumNumberShouldMatch(original.getMinimumNumberShouldMatch());
+        copy.setBoost(original.getBoost());
+        return copy;
+    }
+    
+    /**
+     * Returns the number of queries that were within the budget.
+     * @return the number of admitted queries
+     */
+    public long getAdmitted() {
+        return admitted.get();
+    }
+    
+    public long getDegraded() {
+        return degraded.get();
+    }
+    
+    public long getFiltered() {
+        return filtered.get();
+    }
+    
+    public long getRejected() {
+        return rejected.get();
+    }
+    
+    /**
+     * An optional clause that can be removed from its boolean query, ordered by descending cost.
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    private static final class Candidate implements Comparable<Candidate> {
+        
+        private final BooleanQuery parent;
+        
+        private final BooleanClause clause;
+        
+        private final QueryCost cost;
+        
+        Candidate(final BooleanQuery parent, final BooleanClause clause, final QueryCost cost) {
+            this.parent = parent;
+            this.clause = clause;
+            this.cost = cost;
+        }
+        
+        /**
+         * Removes the clause, unless it is the last clause that a document can match in its parent.
+         */
+        private boolean remove() {
+            int should = 0;
+            boolean must = false;
+            for (BooleanClause sibling : parent.getClauses()) {
+                if (sibling.getOccur() == BooleanClause.Occur.SHOULD) {
+                    should++;
+                } else if (sibling.getOccur() == BooleanClause.Occur.MUST) {
+                    must = true;
+                }
+            }
+            final int minimum = parent.getMinimumNumberShouldMatch();
+            if (minimum > 0 ? should <= minimum : !must && should <= 1) {
+                // a required clause only makes the optional clauses unnecessary if none of them is required
+                return false;
+            }
+            
+            // identity, because equal clauses may occur more than once
+            final Iterator<?> iterator = parent.clauses().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next() == clause) {
+                    iterator.remove();
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        @Override
+        public int compareTo(final Candidate other) {
+            return Double.compare(other.cost.getCost(), cost.getCost());
+        }
+        
+    }
+    
+}
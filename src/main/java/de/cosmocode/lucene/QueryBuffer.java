@@ -0,0 +1,339 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import java.util.Arrays;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * <p> The buffer of a {@link DefaultLuceneQuery}: a rope of characters and referenced subqueries.
+ * </p>
+ * <p> All characters are appended to a single StringBuilder. Large subqueries are not copied
+ * into it, but referenced as an immutable {@link Snapshot} at their position.
+ * The whole query is only flattened once, in {@link #writeTo(StringBuilder)}.
+ * </p>
+ * <p> A snapshot refers to the StringBuilder of its buffer, so the characters of a shared prefix
+ * must never change: if the buffer is truncated below the shared length,
+ * the StringBuilder is copied first (copy-on-write). Appending is always safe.
+ * </p>
+ * <p> This implementation is not threadsafe, but snapshots are immutable.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+final class QueryBuffer {
+    
+    /**
+     * Subqueries that are shorter than this are copied, because a reference would not be cheaper.
+     */
+    static final int REFERENCE_THRESHOLD = 256;
+    
+    private static final int[] NO_POSITIONS = new int[0];
+    private static final Snapshot[] NO_SNAPSHOTS = new Snapshot[0];
+    
+    private StringBuilder chars;
+    
+    // positions in chars at which the referenced snapshots are inserted
+    private int[] positions = NO_POSITIONS;
+    private Snapshot[] inserts = NO_SNAPSHOTS;
+    private int insertCount;
+    private int insertedLength;
+    
+    // the number of chars that are referenced by a snapshot and must not change
+    private int sharedLength;
+    
+    QueryBuffer() {
+        this.chars = new StringBuilder();
+    }
+    
+    QueryBuffer(final int initialCapacity) {
+        this.chars = new StringBuilder(initialCapacity);
+    }
+    
+    /**
+     * Returns the length of the whole query, including all referenced subqueries.
+     * @return the length of this buffer
+     */
+    int length() {
+        return chars.length() + insertedLength;
+    }
+    
+    QueryBuffer append(final CharSequence value) {
+        chars.append(value);
+        return this;
+    }
+    
+    QueryBuffer append(final String value) {
+        chars.append(value);
+        return this;
+    }
+    
+    QueryBuffer append(final char value) {
+        chars.append(value);
+        return this;
+    }
+    
+    QueryBuffer append(final double value) {
+        chars.append(value);
+        return this;
+    }
+    
+    /**
+     * Appends the given value, escaped with {@link LuceneHelper#escapeAll(String)}.
+     * @param value the value to escape and append
+     * @return this
+     */
+    QueryBuffer appendEscaped(final String value) {
+        LuceneHelper.escapeAll(value, chars);
+        return this;
+    }
+    
+    /**
+     * Appends the given value, escaped with {@link LuceneHelper#escapeQuotes(String)}.
+     * @param value the value to escape and append
+     * @return this
+     */
+    QueryBuffer appendQuotesEscaped(final String value) {
+        LuceneHelper.escapeQuotes(value, chars);
+        return this;
+    }
+    
+    /**
+     * Appends the content of the given buffer, by reference if it is large enough.
+     * Later changes of the given buffer do not affect this buffer.
+     * @param other the buffer to append
+     * @return this
+     */
+    QueryBuffer append(final QueryBuffer other) {
+        if (other.length() < REFERENCE_THRESHOLD) {
+            other.writeTo(chars);
+        } else {
+            insert(other.snapshot());
+        }
+        return this;
+    }
+    
+    private void insert(final Snapshot snapshot) {
+        if (insertCount == inserts.length) {
+            final int newLength = Math.max(4, insertCount * 2);
+            positions = Arrays.copyOf(positions, newLength);
+            inserts = Arrays.copyOf(inserts, newLength);
+        }
+        positions[insertCount] = chars.length();
+        inserts[insertCount] = snapshot;
+        insertCount++;
+        insertedLength += snapshot.length;
+    }
+    
+    /**
+     * Returns the char at the given index of the whole query.
+     * This is fast for the last chars, but linear in the number of references otherwise.
+     * @param index the index of the char
+     * @return the char at the given index
+     */
+    char charAt(final int index) {
+        int end = length();
+        int charsEnd = chars.length();
+        for (int i = insertCount - 1; i >= 0; i--) {
+            final int insertEnd = end - (charsEnd - positions[i]);
+            final int insertStart = insertEnd - inserts[i].length;
+            if (index >= insertEnd) {
+                return chars.charAt(positions[i] + index - insertEnd);
+            } else if (index >= insertStart) {
+                return inserts[i].charAt(index - insertStart);
+            }
+            end = insertStart;
+            charsEnd = positions[i];
+        }
+        return chars.charAt(index);
+    }
+    
+    /**
+     * Truncates the whole query to the given length.
+     * @param length the new length, must not be greater than the current length
+     */
+    void setLength(final int length) {
+        // drop all references that start at or after the new length
+        while (insertCount > 0) {
+            final Snapshot last = inserts[insertCount - 1];
+            final int lastStart = positions[insertCount - 1] + insertedLength - last.length;
+            if (length > lastStart) break;
+            insertCount--;
+            inserts[insertCount] = null;
+            insertedLength -= last.length;
+        }
+        
+        if (insertCount > 0) {
+            final Snapshot last = inserts[insertCount - 1];
+            final int lastStart = positions[insertCount - 1] + insertedLength - last.length;
+            if (length < lastStart + last.length) {
+                // the new end lies within the last reference, so its remaining part is copied
+                final StringBuilder copy = new StringBuilder(last.length);
+                last.writeTo(copy);
+                insertCount--;
+                inserts[insertCount] = null;
+                insertedLength -= last.length;
+                setCharsLength(positions[insertCount]);
+                chars.append(copy, 0, length - lastStart);
+                return;
+            }
+        }
+        
+        setCharsLength(length - insertedLength);
+    }
+    
+    private void setCharsLength(final int length) {
+        if (length < sharedLength) {
+            // copy-on-write: the shared chars are still referenced by a snapshot
+            final StringBuilder copy = new StringBuilder(chars.capacity());
+            copy.append(chars, 0, length);
+            chars = copy;
+            sharedLength = 0;
+        } else {
+            chars.setLength(length);
+        }
+    }
+    
+    /**
+     * Returns the number of chars this buffer can hold without growing, not counting references.
+     * @return the capacity of this buffer
+     */
+    int capacity() {
+        return chars.capacity();
+    }
+    
+    /**
+     * Grows this buffer in advance, so that the whole query can reach the given length without growing again.
+     * @param minimumLength the expected length of the whole query
+     */
+    void ensureCapacity(final int minimumLength) {
+        chars.ensureCapacity(minimumLength - insertedLength);
+    }
+    
+    /**
+     * Empties this buffer, but keeps its capacity.
+     */
+    void clear() {
+        Arrays.fill(inserts, 0, insertCount, null);
+        insertCount = 0;
+        insertedLength = 0;
+        setCharsLength(0);
+    }
+    
+    /**
+     * Returns an immutable snapshot of the current content of this buffer.
+     * @return a snapshot of this buffer
+     */
+    Snapshot snapshot() {
+        sharedLength = chars.length();
+        return new Snapshot(
+            chars, chars.length(),
+            Arrays.copyOf(positions, insertCount), Arrays.copyOf(inserts, insertCount),
+            length()
+        );
+    }
+    
+    /**
+     * Writes the whole query into the given target.
+     * @param target the StringBuilder to write to
+     */
+    void writeTo(final StringBuilder target) {
+        int start = 0;
+        for (int i = 0; i < insertCount; i++) {
+            target.append(chars, start, positions[i]);
+            inserts[i].writeTo(target);
+            start = positions[i];
+        }
+        target.append(chars, start, chars.length());
+    }
+    
+    @Override
+    public String toString() {
+        if (insertCount == 0) {
+            return chars.toString();
+        } else {
+            final StringBuilder target = new StringBuilder(length());
+            writeTo(target);
+            return target.toString();
+        }
+    }
+    
+    /**
+     * An immutable view of a {@link QueryBuffer} at a certain point in time.
+     *
+     * @author Oliver Lorenz
+     */
+    @Immutable
+    static final class Snapshot {
+        
+        private final StringBuilder chars;
+        private final int charsLength;
+        private final int[] positions;
+        private final Snapshot[] inserts;
+        private final int length;
+        
+        private Snapshot(StringBuilder chars, int charsLength, int[] positions, Snapshot[] inserts, int length) {
+            this.chars = chars;
+            this.charsLength = charsLength;
+            this.positions = positions;
+            this.inserts = inserts;
+            this.length = length;
+        }
+        
+        int length() {
+            return length;
+        }
+        
+        char charAt(final int index) {
+            int offset = 0;
+            int start = 0;
+            for (int i = 0; i < inserts.length; i++) {
+                final int insertStart = offset + positions[i] - start;
+                if (index < insertStart) {
+                    return chars.charAt(start + index - offset);
+                } else if (index < insertStart + inserts[i].length) {
+                    return inserts[i].charAt(index - insertStart);
+                }
+                offset = insertStart + inserts[i].length;
+                start = positions[i];
+            }
+            return chars.charAt(start + index - offset);
+        }
+        
+        void writeTo(final StringBuilder target) {
+            int start = 0;
+            for (int i = 0; i < inserts.length; i++) {
+                target.append(chars, start, positions[i]);
+                inserts[i].writeTo(target);
+                start = positions[i];
+            }
+            target.append(chars, start, charsLength);
+        }
+        
+        @Override
+        public String toString() {
+            final StringBuilder target = new StringBuilder(length);
+            writeTo(target);
+            return target.toString();
+        }
+        
+    }
+    
+}
@@ -0,0 +1,529 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * <p> An immutable clause of a lucene query: a term, a prefix, a wildcard, a fuzzy term, a phrase,
+ * a range or a group of clauses, each with a {@link TermModifier}, an optional field and an optional boost.
+ * </p>
+ * <p> Clauses are usually parsed from a query string with {@link FastQueryParser#parseClauses(CharSequence)},
+ * for example a query that was rendered by another service, and can be converted to lucene queries
+ * with {@link FastQueryParser#toQuery(QueryClause)}.
+ * {@link #toString()} renders the clause in lucene's query syntax again,
+ * so parsing the rendered clause returns an equal clause.
+ * </p>
+ * <p> Example:
+ * </p>
+ * <pre>
+ *   final QueryClause clause = parser.parseClauses("+type:(product offer) -hidden:true");
+ *   for (final QueryClause child : clause.getClauses()) {
+ *       System.out.println(child.getField() + " " + child.getKind());  // type GROUP, hidden TERM
+ *   }
+ * </pre>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+@Immutable
+public final class QueryClause {
+    
+    public static final String ERR_TEXT_EMPTY = "the given text must not be null or empty";
+    
+    public static final String ERR_SIMILARITY_INVALID = 
+        "the given similarity must be between 0 (inclusive) and 1 (exclusive)";
+    
+    public static final String ERR_SLOP_NEGATIVE = "the given slop must not be negative";
+    
+    public static final String ERR_CLAUSES_EMPTY = "a group must contain at least one clause";
+    
+    /**
+     * The kind of a {@link QueryClause}.
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    public static enum Kind {
+        
+        /**
+         * A term, which is analyzed.
+         */
+        TERM,
+        
+        /**
+         * A prefix term, like {@code abc*}.
+         */
+        PREFIX,
+        
+        /**
+         * A term with the wildcards {@code *} and {@code ?}.
+         */
+        WILDCARD,
+        
+        /**
+         * A fuzzy term, like {@code abc~0.7}.
+         */
+        FUZZY,
+        
+        /**
+         * A quoted phrase, which is analyzed.
+         */
+        PHRASE,
+        
+        /**
+         * A range of terms, like {@code [a TO b]}.
+         */
+        RANGE,
+        
+        /**
+         * A group of clauses in brackets, or the query itself.
+         */
+        GROUP;
+        
+    }
+    
+    // escaped in terms, fields and range bounds
+    private static final String SPECIAL = "+-\\&|!(){}[]^~?*:;\" \t\n\r";
+    
+    private final Kind kind;
+    private final TermModifier termModifier;
+    private final String field;
+    private final String text;
+    private final String upper;
+    private final boolean inclusive;
+    private final float similarity;
+    private final int slop;
+    private final float boost;
+    private final ImmutableList<QueryClause> clauses;
+    
+    /**
+     * Creates a clause without checks, for the {@link FastQueryParser}.
+     * A boost of NaN means that the clause has no boost.
+     */
+    QueryClause(final Kind kind, final TermModifier termModifier, final String field, final String text,
+        final String upper, final boolean inclusive, final float similarity, final int slop, final float boost,
+        final ImmutableList<QueryClause> clauses) {
+        
+        this.kind = kind;
+        this.termModifier = Preconditions.checkNotNull(termModifier, QueryModifier.ERR_TERMMOD_NULL);
+        this.field = field;
+        this.text = text;
+        this.upper = upper;
+        this.inclusive = inclusive;
+        this.similarity = similarity;
+        this.slop = slop;
+        this.boost = boost;
+        this.clauses = clauses;
+    }
+    
+    private static QueryClause leaf(final Kind kind, final String text) {
+        Preconditions.checkArgument(text != null && text.length() > 0, ERR_TEXT_EMPTY);
+        return new QueryClause(kind, TermModifier.NONE, null, text, null, false, 0.0f, 0, Float.NaN, null);
+    }
+    
+    /**
+     * Creates a term clause.
+     * @param text the unescaped text of the term
+     * @return a new term clause
+     * @throws IllegalArgumentException if text is null or empty
+     */
+    public static QueryClause term(final String text) {
+        return leaf(Kind.TERM, text);
+    }
+    
+    /**
+     * Creates a prefix clause.
+     * @param text the unescaped prefix, without the trailing {@code *}
+     * @return a new prefix clause
+     * @throws IllegalArgumentException if text is null or empty
+     */
+    public static QueryClause prefix(final String text) {
+        return leaf(Kind.PREFIX, text);
+    }
+    
+    /**
+     * Creates a wildcard clause.
+     * @param text the unescaped text, with the wildcards {@code *} and {@code ?}
+     * @return a new wildcard clause
+     * @throws IllegalArgumentException if text is null or empty
+     */
+    public static QueryClause wildcard(final String text) {
+        return leaf(Kind.WILDCARD, text);
+    }
+    
+    /**
+     * Creates a fuzzy clause.
+     * @param text the unescaped text of the term
+     * @param similarity the minimum similarity, between 0 (inclusive) and 1 (exclusive)
+     * @return a new fuzzy clause
+     * @throws IllegalArgumentException if text is null or empty or similarity is invalid
+     */
+    public static QueryClause fuzzy(final String text, final float similarity) {
+        Preconditions.checkArgument(text != null && text.length() > 0, ERR_TEXT_EMPTY);
+        Preconditions.checkArgument(similarity >= 0.0f && similarity < 1.0f, ERR_SIMILARITY_INVALID);
+        return new QueryClause(Kind.FUZZY, TermModifier.NONE, null, text, null, false, similarity, 0, Float.NaN, null);
+    }
+    
+    /**
+     * Creates a phrase clause.
+     * @param text the unescaped text of the phrase, without quotes, may be empty
+     * @param slop the slop of the phrase, 0 for an exact phrase
+     * @return a new phrase clause
+     * @throws NullPointerException if text is null
+     * @throws IllegalArgumentException if slop is negative
+     */
+    public static QueryClause phrase(final String text, final int slop) {
+        Preconditions.checkNotNull(text, "Text");
+        Preconditions.checkArgument(slop >= 0, ERR_SLOP_NEGATIVE);
+        return new QueryClause(Kind.PHRASE, TermModifier.NONE, null, text, null, false, 0.0f, slop, Float.NaN, null);
+    }
+    
+    /**
+     * Creates a range clause.
+     * The bounds are rendered escaped, like {@link DefaultLuceneQuery#addRange(String, String, QueryModifier)}
+     * does, so bounds with blanks or closing brackets can't be parsed again.
+     * @param lower the unescaped lower bound
+     * @param upper the unescaped upper bound
+     * @param inclusive true for [lower TO upper], false for {lower TO upper}
+     * @return a new range clause
+     * @throws IllegalArgumentException if lower or upper is null or empty
+     */
+    public static QueryClause range(final String lower, final String upper, final boolean inclusive) {
+        Preconditions.checkArgument(lower != null && lower.length() > 0, ERR_TEXT_EMPTY);
+        Preconditions.checkArgument(upper != null && upper.length() > 0, ERR_TEXT_EMPTY);
+        return new QueryClause(Kind.RANGE, TermModifier.NONE, null, lower, upper, inclusive, 0.0f, 0, Float.NaN, null);
+    }
+    
+    /**
+     * Creates a group of the given clauses.
+     * @param clauses the clauses of the group
+     * @return a new group
+     * @throws NullPointerException if clauses is null or contains null
+     * @throws IllegalArgumentException if clauses is empty
+     */
+    public static QueryClause group(final List<QueryClause> clauses) {
+        final ImmutableList<QueryClause> copy = ImmutableList.copyOf(clauses);
+        Preconditions.checkArgument(copy.size() > 0, ERR_CLAUSES_EMPTY);
+        return new QueryClause(Kind.GROUP, TermModifier.NONE, null, null, null, false, 0.0f, 0, Float.NaN, copy);
+    }
+    
+    /**
+     * Creates a group of the given clauses.
+     * @param clauses the clauses of the group
+     * @return a new group
+     * @throws NullPointerException if clauses is null or contains null
+     * @throws IllegalArgumentException if clauses is empty
+     */
+    public static QueryClause group(final QueryClause... clauses) {
+        return group(Arrays.asList(clauses));
+    }
+    
+    /**
+     * Returns a copy of this clause with the given TermModifier.
+     * @param modifier the new TermModifier
+     * @return a copy of this clause, or this clause if it already has the given TermModifier
+     * @throws NullPointerException if modifier is null
+     */
+    public QueryClause withModifier(final TermModifier modifier) {
+        if (modifier == termModifier) return this;
+        return new QueryClause(kind, modifier, field, text, upper, inclusive, similarity, slop, boost, clauses);
+    }
+    
+    /**
+     * Returns a copy of this clause with the given field.
+     * @param newField the new field, null if the clause uses the field of its group
+     * @return a copy of this clause
+     */
+    public QueryClause withField(final String newField) {
+        return new QueryClause(kind, termModifier, newField, text, upper, inclusive, similarity, slop, boost, clauses);
+    }
+    
+    /**
+     * Returns a copy of this clause with the given boost.
+     * @param newBoost the new boost
+     * @return a copy of this clause
+     */
+    public QueryClause withBoost(final float newBoost) {
+        return new QueryClause(kind, termModifier, field, text, upper, inclusive, similarity, slop, newBoost, clauses);
+    }
+    
+    /**
+     * Returns a copy of this clause without a boost.
+     * @return a copy of this clause, or this clause if it has no boost
+     */
+    public QueryClause withoutBoost() {
+        if (!isBoosted()) return this;
+        return new QueryClause(kind, termModifier, field, text, upper, inclusive, similarity, slop, Float.NaN, clauses);
+    }
+    
+    /**
+     * Returns a copy of this group with the given clauses.
+     * @param newClauses the new clauses
+     * @return a copy of this group
+     * @throws IllegalStateException if this clause is not a group
+     * @throws NullPointerException if newClauses is null or contains null
+     * @throws IllegalArgumentException if newClauses is empty
+     */
+    public QueryClause withClauses(final List<QueryClause> newClauses) {
+        Preconditions.checkState(kind == Kind.GROUP, "%s is not a group", this);
+        final ImmutableList<QueryClause> copy = ImmutableList.copyOf(newClauses);
+        Preconditions.checkArgument(copy.size() > 0, ERR_CLAUSES_EMPTY);
+        return new QueryClause(kind, termModifier, field, text, upper, inclusive, similarity, slop, boost, copy);
+    }
+    
+    public Kind getKind() {
+        return kind;
+    }
+    
+    public TermModifier getTermModifier() {
+        return termModifier;
+    }
+    
+    /**
+     * Returns the field of this clause.
+     * @return the field, or null if the clause uses the field of its group or the default field
+     */
+    public String getField() {
+        return field;
+    }
+    
+    /**
+     * Returns the unescaped text of a term or phrase or the lower bound of a range.
+     * @return the text, null for groups
+     */
+    public String getText() {
+        return text;
+    }
+    
+    /**
+     * Returns the upper bound of a range.
+     * @return the upper bound, null for all other clauses
+     */
+    public String getUpper() {
+        return upper;
+    }
+    
+    public boolean isInclusive() {
+        return inclusive;
+    }
+    
+    public float getSimilarity() {
+        return similarity;
+    }
+    
+    public int getSlop() {
+        return slop;
+    }
+    
+    /**
+     * Returns whether this clause has a boost, which can differ from a boost of 1 for groups:
+     * the boost of a group with a single clause replaces the boost of that clause.
+     * @return true if this clause has a boost
+     */
+    public boolean isBoosted() {
+        return !Float.isNaN(boost);
+    }
+    
+    /**
+     * Returns the boost of this clause.
+     * @return the boost, 1 if the clause has no boost
+     */
+    public float getBoost() {
+        return isBoosted() ? boost : 1.0f;
+    }
+    
+    /**
+     * Returns the clauses of a group.
+     * @return the clauses, an empty list for all other clauses
+     */
+    public List<QueryClause> getClauses() {
+        return clauses == null ? ImmutableList.<QueryClause>of() : clauses;
+    }
+    
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + kind.hashCode();
+        result = prime * result + termModifier.hashCode();
+        result = prime * result + ((field == null) ? 0 : field.hashCode());
+        result = prime * result + ((text == null) ? 0 : text.hashCode());
+        result = prime * result + ((upper == null) ? 0 : upper.hashCode());
+        result = prime * result + (inclusive ? 1231 : 1237);
+        result = prime * result + Float.floatToIntBits(similarity);
+        result = prime * result + slop;
+        result = prime * result + Float.floatToIntBits(boost);
+        result = prime * result + ((clauses == null) ? 0 : clauses.hashCode());
+        return result;
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        } else if (obj instanceof QueryClause) {
+            final QueryClause other = (QueryClause) obj;
+            return
+                kind == other.kind
+                && termModifier == other.termModifier
+                && inclusive == other.inclusive
+                && slop == other.slop
+                && Float.floatToIntBits(similarity) == Float.floatToIntBits(other.similarity)
+                && Float.floatToIntBits(boost) == Float.floatToIntBits(other.boost)
+                && (field == null ? other.field == null : field.equals(other.field))
+                && (text == null ? other.text == null : text.equals(other.text))
+                && (upper == null ? other.upper == null : upper.equals(other.upper))
+                && (clauses == null ? other.clauses == null : clauses.equals(other.clauses));
+        } else {
+            return false;
+        }
+    }
+    
+    /**
+     * Renders this clause in lucene's query syntax.
+     * A group without modifier, field and boost is rendered without brackets, like a query.
+     * @return this clause in lucene's query syntax
+     */
+    @Override
+    public String toString() {
+        final StringBuilder target = new StringBuilder(64);
+        if (kind == Kind.GROUP && termModifier == TermModifier.NONE && field == null && !isBoosted()) {
+            appendClauses(target);
+        } else {
+            appendTo(target);
+        }
+        return target.toString();
+    }
+    
+    /**
+     * Appends this clause in lucene's query syntax to the given StringBuilder.
+     * @param target the StringBuilder to append to
+     * @return the given StringBuilder
+     */
+    StringBuilder appendTo(final StringBuilder target) {
+        target.append(termModifier.getModifier());
+        if (field != null) {
+            appendEscaped(target, field, false);
+            target.append(':');
+        }
+        
+        switch (kind) {
+            case TERM: {
+                appendEscaped(target, text, false);
+                break;
+            }
+            case PREFIX: {
+                appendEscaped(target, text, false);
+                target.append('*');
+                break;
+            }
+            case WILDCARD: {
+                appendEscaped(target, text, true);
+                break;
+            }
+            case FUZZY: {
+                appendEscaped(target, text, false);
+                target.append('~');
+                appendNumber(target, similarity);
+                break;
+            }
+            case PHRASE: {
+                target.append('"');
+                for (int i = 0; i < text.length(); i++) {
+                    final char c = text.charAt(i);
+                    if (c == '"' || c == '\\') target.append('\\');
+                    target.append(c);
+                }
+                target.append('"');
+                if (slop > 0) target.append('~').append(slop);
+                break;
+            }
+            case RANGE: {
+                target.append(inclusive ? '[' : '{');
+                appendBound(target, text);
+                target.append(" TO ");
+                appendBound(target, upper);
+                target.append(inclusive ? ']' : '}');
+                break;
+            }
+            case GROUP: {
+                target.append('(');
+                appendClauses(target);
+                target.append(')');
+                break;
+            }
+            default: {
+                throw new IllegalStateException("Unknown kind " + kind);
+            }
+        }
+        
+        if (isBoosted()) {
+            target.append('^');
+            appendNumber(target, boost);
+        }
+        return target;
+    }
+    
+    private void appendClauses(final StringBuilder target) {
+        for (int i = 0; i < clauses.size(); i++) {
+            if (i > 0) target.append(' ');
+            clauses.get(i).appendTo(target);
+        }
+    }
+    
+    private static boolean isSpecial(final char c) {
+        return SPECIAL.indexOf(c) >= 0;
+    }
+    
+    /**
+     * Escapes a term or field. The wildcards of a wildcard term are kept, unless they start the term.
+     */
+    private static void appendEscaped(final StringBuilder target, final String value, final boolean wildcards) {
+        // the parsers treat unescaped AND, OR and NOT as operators
+        if ("AND".equals(value) || "OR".equals(value) || "NOT".equals(value)) target.append('\\');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (isSpecial(c) && !(wildcards && i > 0 && (c == '*' || c == '?'))) target.append('\\');
+            target.append(c);
+        }
+    }
+    
+    private static void appendBound(final StringBuilder target, final String bound) {
+        // an unescaped TO would be read as the separator
+        if ("TO".equals(bound)) target.append('\\');
+        appendEscaped(target, bound, false);
+    }
+    
+    private static void appendNumber(final StringBuilder target, final float number) {
+        final String value = Float.toString(number);
+        if (value.indexOf('E') < 0) {
+            target.append(value);
+        } else {
+            // the parsers don't read exponents
+            target.append(new BigDecimal(value).toPlainString());
+        }
+    }
+    
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * <p> The estimated cost of a lucene query, computed by a {@link QueryCostEstimator}.
+ * </p>
+ * <p> The cost is an abstract number that is roughly proportional to the work
+ * that a searcher has to do: the number of postings that are read plus
+ * the number of terms that are scanned in the term dictionary to expand
+ * wildcard, fuzzy and range clauses.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+@Immutable
+public final class QueryCost {
+    
+    private final int clauses;
+    private final int wildcardClauses;
+    private final int fuzzyClauses;
+    private final int rangeClauses;
+    private final long scannedTerms;
+    private final long postings;
+    private final double cost;
+    
+    QueryCost(final int clauses, final int wildcardClauses, final int fuzzyClauses, final int rangeClauses, 
+        final long scannedTerms, final long postings, final double cost) {
+        
+        this.clauses = clauses;
+        this.wildcardClauses = wildcardClauses;
+        this.fuzzyClauses = fuzzyClauses;
+        this.rangeClauses = rangeClauses;
+        this.scannedTerms = scannedTerms;
+        this.postings = postings;
+        this.cost = cost;
+    }
+    
+    /**
+     * Returns the number of leaf clauses, i.e. all clauses that are not boolean queries.
+     * @return the number of leaf clauses
+     */
+    public int getClauses() {
+        return clauses;
+    }
+    
+    /**
+     * Returns the number of wildcard and prefix clauses.
+     * @return the number of wildcard clauses
+     */
+    public int getWildcardClauses() {
+        return wildcardClauses;
+    }
+    
+    public int getFuzzyClauses() {
+        return fuzzyClauses;
+    }
+    
+    public int getRangeClauses() {
+        return rangeClauses;
+    }
+    
+    /**
+     * Returns the estimated number of terms that are scanned to expand multi term clauses.
+     * @return the estimated number of scanned terms
+     */
+    public long getScannedTerms() {
+        return scannedTerms;
+    }
+    
+    /**
+     * Returns the estimated number of postings (matching documents per term) that are read.
+     * @return the estimated number of postings
+     */
+    public long getPostings() {
+        return postings;
+    }
+    
+    /**
+     * Returns the total estimated cost.
+     * @return the total cost
+     */
+    public double getCost() {
+        return cost;
+    }
+    
+    @Override
+    public String toString() {
+        return "QueryCost [cost=" + cost + ", clauses=" + clauses + ", wildcardClauses=" + wildcardClauses 
+            + ", fuzzyClauses=" + fuzzyClauses + ", rangeClauses=" + rangeClauses 
+            + ", scannedTerms=" + scannedTerms + ", postings=" + postings + "]";
+    }
+    
+}
@@ -0,0 +1,290 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.io.IOException;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreRangeQuery;
+import org.apache.lucene.search.FilteredQuery;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.RangeQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.WildcardQuery;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p> Estimates the {@link QueryCost} of a lucene query before it is executed.
+ * </p>
+ * <p> With an {@link IndexReader}, the estimator uses the document frequencies of the terms
+ * and scans the term dictionary to count the terms that wildcard, fuzzy and range clauses expand to.
+ * The scan stops after {@link #getMaxScannedTerms()} terms per clause, so that the estimation
+ * itself stays cheap; a clause that reaches the limit is expensive anyway.
+ * </p>
+ * <p> Without an IndexReader, the estimator assumes {@link #ASSUMED_TERMS_PER_FIELD} terms per field,
+ * {@link #ASSUMED_DOC_FREQ} documents per term and a branching of {@link #ASSUMED_BRANCHING}
+ * per prefix character, so that short prefixes are much more expensive than long ones.
+ * </p>
+ * <p> The cost of a query is the number of read postings, plus the number of scanned terms,
+ * where each term that is scanned by a fuzzy clause costs {@link #FUZZY_TERM_COST}, 
+ * because the edit distance has to be computed for it.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ * 
+ * @see QueryAdmissionGuard
+ */
+@ThreadSafe
+public final class QueryCostEstimator {
+    
+    public static final long ASSUMED_TERMS_PER_FIELD = 100000L;
+    
+    public static final long ASSUMED_DOC_FREQ = 100L;
+    
+    public static final int ASSUMED_BRANCHING = 16;
+    
+    public static final double FUZZY_TERM_COST = 10.0;
+    
+    public static final int DEFAULT_MAX_SCANNED_TERMS = 10000;
+    
+    public static final String ERR_MAX_SCANNED_TERMS_INVALID = "maxScannedTerms must be greater than 0";
+    
+    private final IndexReader reader;
+    
+    private final int maxScannedTerms;
+    
+    /**
+     * Creates a new QueryCostEstimator that works without an index, using assumed term statistics.
+     */
+    public QueryCostEstimator() {
+        this.reader = null;
+        this.maxScannedTerms = DEFAULT_MAX_SCANNED_TERMS;
+    }
+    
+    /**
+     * Creates a new QueryCostEstimator that uses the term statistics of the given IndexReader.
+     * @param reader the reader of the index the queries are executed on
+     * @throws NullPointerException if reader is null
+     */
+    public QueryCostEstimator(final IndexReader reader) {
+        this(reader, DEFAULT_MAX_SCANNED_TERMS);
+    }
+    
+    /**
+     * Creates a new QueryCostEstimator that uses the term statistics of the given IndexReader.
+     * @param reader the reader of the index the queries are executed on
+     * @param maxScannedTerms the maximum number of terms that are scanned per clause
+     * @throws NullPointerException if reader is null
+     * @throws IllegalArgumentException if maxScannedTerms is less than 1
+     */
+    public QueryCostEstimator(final IndexReader reader, final int maxScannedTerms) {
+        Preconditions.checkArgument(maxScannedTerms > 0, ERR_MAX_SCANNED_TERMS_INVALID);
+        this.reader = Preconditions.checkNotNull(reader, "Reader");
+        this.maxScannedTerms = maxScannedTerms;
+    }
+    
+    public int getMaxScannedTerms() {
+        return maxScannedTerms;
+    }
+    
+    /**
+     * Estimates the cost of the given query.
+     * @param query the query to estimate
+     * @return the estimated cost of the query
+     * @throws IOException if the term statistics could not be read
+     */
+    public QueryCost estimate(final Query query) throws IOException {
+        final Estimation estimation = new Estimation();
+        visit(query, estimation);
+        return estimation.toCost();
+    }
+    
+    private void visit(final Query query, final Estimation estimation) throws IOException {
+        if (query instanceof BooleanQuery) {
+            for (BooleanClause clause : BooleanQuery.class.cast(query).getClauses()) {
+                visit(clause.getQuery(), estimation);
+            }
+        } else if (query instanceof FilteredQuery) {
+            visit(FilteredQuery.class.cast(query).getQuery(), estimation);
+        } else if (query instanceof TermQuery) {
+            estimation.clauses++;
+            estimation.postings += docFreq(TermQuery.class.cast(query).getTerm());
+        } else if (query instanceof PhraseQuery) {
+            estimation.clauses++;
+            for (Term term : PhraseQuery.class.cast(query).getTerms()) {
+                estimation.postings += docFreq(term);
+            }
+        } else if (query instanceof PrefixQuery) {
+            estimation.clauses++;
+            estimation.wildcardClauses++;
+            scan(PrefixQuery.class.cast(query).getPrefix(), null, true, estimation, false);
+        } else if (query instanceof WildcardQuery) {
+            estimation.clauses++;
+            estimation.wildcardClauses++;
+            final Term term = WildcardQuery.class.cast(query).getTerm();
+            scan(term.createTerm(wildcardPrefix(term.text())), null, true, estimation, false);
+        } else if (query instanceof FuzzyQuery) {
+            estimation.clauses++;
+            estimation.fuzzyClauses++;
+            final FuzzyQuery fuzzy = FuzzyQuery.class.cast(query);
+            final Term term = fuzzy.getTerm();
+            final String prefix = term.text().substring(0, Math.min(fuzzy.getPrefixLength(), term.text().length()));
+            scan(term.createTerm(prefix), null, true, estimation, true);
+            estimation.postings += docFreq(term);
+        } else if (query instanceof RangeQuery) {
+            estimation.clauses++;
+            estimation.rangeClauses++;
+            final RangeQuery range = RangeQuery.class.cast(query);
+            final String field = range.getField();
+            final Term lower = range.getLowerTerm() == null ? new Term(field, "") : range.getLowerTerm();
+            final String upper = range.getUpperTerm() == null ? null : range.getUpperTerm().text();
+            scan(lower, upper, false, estimation, false);
+        } else if (query instanceof ConstantScoreRangeQuery) {
+            estimation.clauses++;
+            estimation.rangeClauses++;
+            final ConstantScoreRangeQuery range = ConstantScoreRangeQuery.class.cast(query);
+            final String lower = range.getLowerVal() == null ? "" : range.getLowerVal();
+            scan(new Term(range.getField(), lower), range.getUpperVal(), false, estimation, false);
+        } else if (query instanceof MatchAllDocsQuery) {
+            estimation.clauses++;
+            estimation.postings += reader == null ? ASSUMED_TERMS_PER_FIELD * ASSUMED_DOC_FREQ : reader.maxDoc();
+        } else {
+            estimation.clauses++;
+            estimation.postings += ASSUMED_DOC_FREQ;
+        }
+    }
+    
+    private static String wildcardPrefix(final String text) {
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c == '*' || c == '?') {
+                return text.substring(0, i);
+            }
+        }
+        return text;
+    }
+    
+    private long docFreq(final Term term) throws IOException {
+        return reader == null ? ASSUMED_DOC_FREQ : reader.docFreq(term);
+    }
+    
+    /**
+     * Scans the terms of the field of the given term, starting at the given term.
+     * If prefix is true, all terms that start with the text of the term are scanned.
+     * Otherwise all terms up to upper (inclusive) are scanned, or up to the end of the field if upper is null.
+     */
+    private void scan(final Term start, final String upper, final boolean prefix, final Estimation estimation, 
+        final boolean fuzzy) throws IOException {
+        
+        final long scanned;
+        final long postings;
+        if (reader == null) {
+            final int prefixLength;
+            if (prefix) {
+                prefixLength = start.text().length();
+            } else if (upper == null) {
+                // an unbounded range may reach every term of the field
+                prefixLength = 0;
+            } else {
+                prefixLength = commonPrefixLength(start.text(), upper);
+            }
+            long assumed = ASSUMED_TERMS_PER_FIELD;
+            for (int i = 0; i < prefixLength && assumed > 1; i++) {
+                assumed /= ASSUMED_BRANCHING;
+            }
+            scanned = Math.max(assumed, 1L);
+            postings = scanned * ASSUMED_DOC_FREQ;
+        } else {
+            long terms = 0;
+            long docs = 0;
+            final String field = start.field();
+            final String text = start.text();
+            final TermEnum termEnum = reader.terms(start);
+            try {
+                do {
+                    final Term term = termEnum.term();
+                    if (term == null || !field.equals(term.field())) break;
+                    if (prefix ? !term.text().startsWith(text) : isAbove(term.text(), upper)) break;
+                    terms++;
+                    docs += termEnum.docFreq();
+                } while (terms < maxScannedTerms && termEnum.next());
+            } finally {
+                termEnum.close();
+            }
+            scanned = terms;
+            postings = docs;
+        }
+        
+        if (fuzzy) {
+            estimation.fuzzyScannedTerms += scanned;
+        } else {
+            estimation.scannedTerms += scanned;
+            estimation.postings += postings;
+        }
+    }
+    
+    private static boolean isAbove(final String text, final String upper) {
+        return upper != null && text.compareTo(upper) > 0;
+    }
+    
+    private static int commonPrefixLength(final String left, final String right) {
+        final int length = Math.min(left.length(), right.length());
+        for (int i = 0; i < length; i++) {
+            if (left.charAt(i) != right.charAt(i)) {
+                return i;
+            }
+        }
+        return length;
+    }
+    
+    /**
+     * The mutable state of a single estimation.
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    private static final class Estimation {
+        
+        private int clauses;
+        private int wildcardClauses;
+        private int fuzzyClauses;
+        private int rangeClauses;
+        private long scannedTerms;
+        private long fuzzyScannedTerms;
+        private long postings;
+        
+        private QueryCost toCost() {
+            final double cost = postings + scannedTerms + fuzzyScannedTerms * FUZZY_TERM_COST;
+            return new QueryCost(clauses, wildcardClauses, fuzzyClauses, rangeClauses, 
+                scannedTerms + fuzzyScannedTerms, postings, cost);
+        }
+        
+    }
+    
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * <p> An immutable event about a built or executed query, fired by {@link QueryEvents}.
+ * </p>
+ * <p> How much is known about a query depends on how it was built:
+ * the clause counts and the build time are only known for an {@link InstrumentedLuceneQuery},
+ * the shape only for a {@link ShapeLuceneQuery} or an InstrumentedLuceneQuery that wraps one.
+ * Unknown numbers are -1, an unknown shape is null.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+@Immutable
+public final class QueryEvent {
+    
+    /**
+     * The type of a QueryEvent.
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    public static enum Type {
+        
+        /**
+         * The query was built, i.e. rendered for the first time.
+         */
+        BUILT,
+        
+        /**
+         * The query was executed.
+         */
+        EXECUTED;
+        
+    }
+    
+    private final Type type;
+    private final long timestamp;
+    private final String threadName;
+    
+    private final String query;
+    private final String shape;
+    
+    private final long clauses;
+    private final long wildcardClauses;
+    private final long fuzzyClauses;
+    private final long buildNanos;
+    
+    private final int hits;
+    private final long executionNanos;
+    private final boolean cacheHit;
+    
+    private QueryEvent(final Type type, final LuceneQuery source, final String query, 
+        final int hits, final long executionNanos, final boolean cacheHit) {
+        
+        this.type = type;
+        this.timestamp = System.currentTimeMillis();
+        this.threadName = Thread.currentThread().getName();
+        this.query = query;
+        
+        if (source instanceof InstrumentedLuceneQuery) {
+            final InstrumentedLuceneQuery instrumented = InstrumentedLuceneQuery.class.cast(source);
+            this.shape = instrumented.getShape();
+            this.clauses = instrumented.getClauses();
+            this.wildcardClauses = instrumented.getWildcardClauses();
+            this.fuzzyClauses = instrumented.getFuzzyClauses();
+            this.buildNanos = instrumented.getBuildNanos();
+        } else if (source instanceof ShapeLuceneQuery) {
+            final ShapeLuceneQuery shaped = ShapeLuceneQuery.class.cast(source);
+            this.shape = shaped.getShape();
+            this.clauses = -1;
+            this.wildcardClauses = -1;
+            this.fuzzyClauses = -1;
+            this.buildNanos = shaped.getBuildNanos();
+        } else {
+            this.shape = null;
+            this.clauses = -1;
+            this.wildcardClauses = -1;
+            this.fuzzyClauses = -1;
+            this.buildNanos = -1;
+        }
+        
+        this.hits = hits;
+        this.executionNanos = executionNanos;
+        this.cacheHit = cacheHit;
+    }
+    
+    static QueryEvent built(final LuceneQuery source, final String query) {
+        return new QueryEvent(Type.BUILT, source, query, -1, -1, false);
+    }
+    
+    static QueryEvent executed(final LuceneQuery source, final String query, 
+        final int hits, final long executionNanos, final boolean cacheHit) {
+        return new QueryEvent(Type.EXECUTED, source, query, hits, executionNanos, cacheHit);
+    }
+    
+    public Type getType() {
+        return type;
+    }
+    
+    /**
+     * Returns the time at which this event was created, in milliseconds since the epoch.
+     * @return the creation time of this event
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+    
+    /**
+     * Returns the name of the thread that built or executed the query.
+     * @return the name of the thread that fired this event
+     */
+    public String getThreadName() {
+        return threadName;
+    }
+    
+    /**
+     * Returns the rendered query.
+     * @return the rendered query
+     */
+    public String getQuery() {
+        return query;
+    }
+    
+    /**
+     * Returns the shape of the query, or null if it is not known.
+     * @return the shape or null
+     * @see ShapeLuceneQuery#getShape()
+     */
+    public String getShape() {
+        return shape;
+    }
+    
+    /**
+     * Returns the fingerprint of the shape, or 0 if the shape is not known.
+     * @return the fingerprint of the shape or 0
+     * @see ShapeLuceneQuery#fingerprint(CharSequence)
+     */
+    public long getFingerprint() {
+        return shape == null ? 0L : ShapeLuceneQuery.fingerprint(shape);
+    }
+    
+    public long getClauses() {
+        return clauses;
+    }
+    
+    public long getWildcardClauses() {
+        return wildcardClauses;
+    }
+    
+    public long getFuzzyClauses() {
+        return fuzzyClauses;
+    }
+    
+    /**
+     * Returns the time in nanoseconds that was spent to build the query, or -1 if it is not known.
+     * @return the build time in nanoseconds or -1
+     */
+    public long getBuildNanos() {
+        return buildNanos;
+    }
+    
+    /**
+     * Returns the number of hits of an executed query, or -1 for a built query.
+     * @return the number of hits or -1
+     */
+    public int getHits() {
+        return hits;
+    }
+    
+    /**
+     * Returns the time in nanoseconds that was spent to execute the query, or -1 for a built query.
+     * @return the execution time in nanoseconds or -1
+     */
+    public long getExecutionNanos() {
+        return executionNanos;
+    }
+    
+    /**
+     * Returns true if the result of an executed query was taken from a cache.
+     * @return true if the result was cached, false otherwise
+     */
+    public boolean isCacheHit() {
+        return cacheHit;
+    }
+    
+    @Override
+    public String toString() {
+        return "QueryEvent [type=" + type + ", shape=" + shape + ", length=" + query.length() 
+            + ", clauses=" + clauses + ", buildNanos=" + buildNanos + ", hits=" + hits 
+            + ", executionNanos=" + executionNanos + ", cacheHit=" + cacheHit + "]";
+    }
+    
+}
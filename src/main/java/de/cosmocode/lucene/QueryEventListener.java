@@ -0,0 +1,38 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+/**
+ * <p> A listener for {@link QueryEvent}s, registered with {@link QueryEvents#addListener(QueryEventListener)}.
+ * </p>
+ * <p> Listeners are called synchronously in the thread that built or executed the query,
+ * so they should return quickly and hand expensive work off to another thread.
+ * Implementations must be threadsafe.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+public interface QueryEventListener {
+    
+    /**
+     * Called for every event while this listener is registered.
+     * @param event the event, never null
+     */
+    void onEvent(QueryEvent event);
+    
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p> The central dispatcher of {@link QueryEvent}s.
+ * </p>
+ * <p> Events are disabled as long as no {@link QueryEventListener} is registered.
+ * Listeners can be added and removed at any time. While events are disabled,
+ * firing an event costs a single volatile read and no event is created.
+ * </p>
+ * <p> {@link QueryEvent.Type#BUILT} events are fired by {@link InstrumentedLuceneQuery}
+ * when a query is rendered for the first time. The library does not execute queries itself,
+ * so search code should call {@link #fireExecuted(LuceneQuery, String, int, long, boolean)}
+ * with the rendered query after each search.
+ * </p>
+ * <p> Example:
+ * </p>
+ * <pre>
+ *   final String rendered = query.getQuery();
+ *   final long start = System.nanoTime();
+ *   final TopDocs docs = searcher.search(parser.parse(rendered), 10);
+ *   QueryEvents.fireExecuted(query, rendered, docs.totalHits, System.nanoTime() - start, false);
+ * </pre>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ * 
+ * @see QueryStatistics
+ */
+@ThreadSafe
+public final class QueryEvents {
+    
+    public static final String ERR_LISTENER_NULL = "the listener must not be null";
+    
+    private static final Logger LOG = LoggerFactory.getLogger(QueryEvents.class);
+    
+    private static final QueryEventListener[] NONE = new QueryEventListener[0];
+    
+    // copy on write, read without locking
+    private static volatile QueryEventListener[] listeners = NONE;
+    
+    private QueryEvents() {
+        
+    }
+    
+    /**
+     * Returns true if at least one listener is registered.
+     * @return true if events are enabled, false otherwise
+     */
+    public static boolean isEnabled() {
+        return listeners.length > 0;
+    }
+    
+    /**
+     * Returns true if the given listener is registered.
+     * @param listener the listener to check
+     * @return true if the listener is registered, false otherwise
+     */
+    public static boolean isRegistered(final QueryEventListener listener) {
+        for (QueryEventListener registered : listeners) {
+            if (registered == listener) return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Registers the given listener. Registering a listener twice has no effect.
+     * @param listener the listener to add
+     * @return true if the listener was added, false if it was already registered
+     * @throws NullPointerException if listener is null
+     */
+    public static synchronized boolean addListener(final QueryEventListener listener) {
+        Preconditions.checkNotNull(listener, ERR_LISTENER_NULL);
+        final QueryEventListener[] current = listeners;
+        for (QueryEventListener registered : current) {
+            if (registered == listener) return false;
+        }
+        
+        final QueryEventListener[] added = new QueryEventListener[current.length + 1];
+        System.arraycopy(current, 0, added, 0, current.length);
+        added[current.length] = listener;
+        listeners = added;
+        return true;
+    }
+    
+    /**
+     * Removes the given listener.
+     * @param listener the listener to remove
+     * @return true if the listener was removed, false if it was not registered
+     */
+    public static synchronized boolean removeListener(final QueryEventListener listener) {
+        final QueryEventListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                final QueryEventListener[] removed;
+                if (current.length == 1) {
+                    removed = NONE;
+                } else {
+                    removed = new QueryEventListener[current.length - 1];
+                    System.arraycopy(current, 0, removed, 0, i);
+                    System.arraycopy(current, i + 1, removed, i, current.length - i - 1);
+                }
+                listeners = removed;
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Fires a {@link QueryEvent.Type#EXECUTED} event for the given query, if events are enabled.
+     * The query is rendered again for the event, see
+     * {@link #fireExecuted(LuceneQuery, String, int, long, boolean)} to pass the query that was executed.
+     * 
+     * @param query the executed query
+     * @param hits the number of hits
+     * @param executionNanos the time in nanoseconds it took to execute the query
+     * @param cacheHit true if the result was taken from a cache
+     */
+    public static void fireExecuted(final LuceneQuery query, final int hits, 
+        final long executionNanos, final boolean cacheHit) {
+        
+        final QueryEventListener[] current = listeners;
+        if (current.length == 0) return;
+        fire(current, QueryEvent.executed(query, query.getQuery(), hits, executionNanos, cacheHit));
+    }
+    
+    /**
+     * Fires a {@link QueryEvent.Type#EXECUTED} event for the given query and its rendered form,
+     * if events are enabled. Unlike {@link #fireExecuted(LuceneQuery, int, long, boolean)},
+     * the query is not rendered again.
+     * 
+     * @param query the executed query
+     * @param rendered the rendered query, as it was given to the parser
+     * @param hits the number of hits
+     * @param executionNanos the time in nanoseconds it took to execute the query
+     * @param cacheHit true if the result was taken from a cache
+     */
+    public static void fireExecuted(final LuceneQuery query, final String rendered, final int hits, 
+        final long executionNanos, final boolean cacheHit) {
+        
+        final QueryEventListener[] current = listeners;
+        if (current.length == 0) return;
+        fire(current, QueryEvent.executed(query, rendered, hits, executionNanos, cacheHit));
+    }
+    
+    /**
+     * Fires a {@link QueryEvent.Type#BUILT} event for the given query, if events are enabled.
+     * @param query the built query
+     * @param rendered the rendered query
+     */
+    static void fireBuilt(final LuceneQuery query, final String rendered) {
+        final QueryEventListener[] current = listeners;
+        if (current.length == 0) return;
+        fire(current, QueryEvent.built(query, rendered));
+    }
+    
+    private static void fire(final QueryEventListener[] current, final QueryEvent event) {
+        for (QueryEventListener listener : current) {
+            try {
+                listener.onEvent(event);
+            } catch (RuntimeException e) {
+                LOG.warn("QueryEventListener " + listener + " failed on " + event, e);
+            }
+        }
+    }
+    
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+/**
+ * <p> A registry for the metrics of built queries, used by {@link InstrumentedLuceneQuery}.
+ * </p>
+ * <p> Implementations can forward the metrics to any monitoring system.
+ * The handles returned by {@link #counter(String)} and {@link #recorder(String)}
+ * are looked up once and reused for every query, so the lookup itself does not need to be fast,
+ * but updating the handles must be cheap and threadsafe.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ * 
+ * @see DefaultQueryMetricsRegistry
+ */
+public interface QueryMetricsRegistry {
+    
+    /**
+     * Returns the counter with the given name, creating it if necessary.
+     * @param name the name of the counter
+     * @return the counter with the given name, never null
+     */
+    Counter counter(String name);
+    
+    /**
+     * Returns the recorder with the given name, creating it if necessary.
+     * @param name the name of the recorder
+     * @return the recorder with the given name, never null
+     */
+    Recorder recorder(String name);
+    
+    /**
+     * A monotonic counter. Implementations must be threadsafe.
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    interface Counter {
+        
+        /**
+         * Adds the given delta to this counter.
+         * @param delta the delta to add
+         */
+        void add(long delta);
+        
+    }
+    
+    /**
+     * Records the distribution of values, like durations or lengths. Implementations must be threadsafe.
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    interface Recorder {
+        
+        /**
+         * Records the given value.
+         * @param value the value to record
+         */
+        void update(long value);
+        
+    }
+    
+}
@@ -19,6 +19,8 @@ package de.cosmocode.lucene;
 import javax.annotation.concurrent.Immutable;
 import javax.annotation.concurrent.ThreadSafe;
 
+import org.apache.lucene.document.DateTools.Resolution;
+
 import com.google.common.base.Preconditions;
 
 /**
@@ -51,11 +53,14 @@ public final class QueryModifier {
     public static final String ERR_FUZZYNESS_DISABLED = 
         "fuzzyness is not enabled";
     
+    public static final String ERR_RANGE_BUCKETS_DISABLED = 
+        "range buckets are not enabled";
+    
     /**
      * The default QueryModifier.
      * It has termModifier set to NONE,
-     * split, disjunct and wildcarded are false
-     * and fuzzyness is disabled.
+     * split, disjunct, wildcarded and edgeNGrams are false
+     * and fuzzyness and range buckets are disabled.
      */
     public static final QueryModifier DEFAULT = start().end();
     
@@ -65,6 +70,8 @@ public final class QueryModifier {
     private final boolean disjunct;
     private final boolean wildcarded;
     private final Double fuzzyness;
+    private final boolean edgeNGrams;
+    private final Resolution rangeBuckets;
     
     private final int myHashCode;
     private QueryModifier multiModifier;
@@ -73,6 +80,39 @@ public final class QueryModifier {
     
     public QueryModifier(TermModifier termModifier, boolean split,
             boolean disjunct, boolean wildcarded, Double fuzzyness) {
+        this(termModifier, split, disjunct, wildcarded, fuzzyness, false);
+    }
+    
+    /**
+     * Creates a new QueryModifier.
+     * @param termModifier the TermModifier
+     * @param split whether values are split at blanks
+     * @param disjunct whether multiple values are added in disjunction
+     * @param wildcarded whether values are searched wildcarded
+     * @param fuzzyness the fuzzyness, null to disable it
+     * @param edgeNGrams whether wildcarded values of a field are searched in the edge n-gram field
+     * @since 1.3
+     * @see EdgeNGrams
+     */
+    public QueryModifier(TermModifier termModifier, boolean split,
+            boolean disjunct, boolean wildcarded, Double fuzzyness, boolean edgeNGrams) {
+        this(termModifier, split, disjunct, wildcarded, fuzzyness, edgeNGrams, null);
+    }
+    
+    /**
+     * Creates a new QueryModifier.
+     * @param termModifier the TermModifier
+     * @param split whether values are split at blanks
+     * @param disjunct whether multiple values are added in disjunction
+     * @param wildcarded whether values are searched wildcarded
+     * @param fuzzyness the fuzzyness, null to disable it
+     * @param edgeNGrams whether wildcarded values of a field are searched in the edge n-gram field
+     * @param rangeBuckets the resolution of the buckets that ranges of dates are split into, null to disable it
+     * @since 1.3
+     * @see RangeBuckets
+     */
+    public QueryModifier(TermModifier termModifier, boolean split, boolean disjunct, boolean wildcarded,
+            Double fuzzyness, boolean edgeNGrams, Resolution rangeBuckets) {
         super();
         
         Preconditions.checkNotNull(termModifier, ERR_TERMMOD_NULL);
@@ -86,6 +126,8 @@ public final class QueryModifier {
         this.disjunct = disjunct;
         this.wildcarded = wildcarded;
         this.fuzzyness = fuzzyness;
+        this.edgeNGrams = edgeNGrams;
+        this.rangeBuckets = rangeBuckets;
 
         this.myHashCode = generateHashCode();
     }
@@ -95,7 +137,9 @@ public final class QueryModifier {
         final int prime = 31;
         int result = 1;
         result = prime * result + (disjunct ? 1231 : 1237);
+        result = prime * result + (edgeNGrams ? 1231 : 1237);
         result = prime * result + ((fuzzyness == null) ? 0 : fuzzyness.hashCode());
+        result = prime * result + ((rangeBuckets == null) ? 0 : rangeBuckets.hashCode());
         result = prime * result + (split ? 1231 : 1237);
         result = prime * result + ((termModifier == null) ? 0 : termModifier.hashCode());
         result = prime * result + (wildcarded ? 1231 : 1237);
@@ -120,7 +164,8 @@ public final class QueryModifier {
         if (termModifier == TermModifier.NONE) {
             return this;
         } else {
-            return new QueryModifier(TermModifier.NONE, split, disjunct, wildcarded, fuzzyness);
+            return new QueryModifier(TermModifier.NONE, split, disjunct, wildcarded, fuzzyness, edgeNGrams,
+                rangeBuckets);
         }
     }
     
@@ -176,6 +221,39 @@ public final class QueryModifier {
         return wildcarded;
     }
     
+    /**
+     * Returns whether wildcarded values of a field are searched as a single term
+     * of the edge n-gram field of that field.
+     * @return true if edge n-grams are enabled
+     * @since 1.3
+     * @see EdgeNGrams
+     */
+    public boolean isEdgeNGrams() {
+        return edgeNGrams;
+    }
+    
+    /**
+     * Returns whether ranges of dates are split into buckets.
+     * @return true if range buckets are enabled
+     * @since 1.3
+     * @see RangeBuckets
+     */
+    public boolean isRangeBucketsEnabled() {
+        return rangeBuckets != null;
+    }
+    
+    /**
+     * Returns the resolution of the buckets that ranges of dates are split into.
+     * @return the resolution of the range buckets
+     * @throws IllegalStateException if range buckets are disabled. Check with {@link #isRangeBucketsEnabled()}
+     * @since 1.3
+     * @see RangeBuckets
+     */
+    public Resolution getRangeBuckets() {
+        Preconditions.checkState(rangeBuckets != null, ERR_RANGE_BUCKETS_DISABLED);
+        return rangeBuckets;
+    }
+    
     public boolean isFuzzyEnabled() {
         return fuzzyness != null;
     }
@@ -212,7 +290,9 @@ public final class QueryModifier {
                 disjunct == other.disjunct
                 && split == other.split
                 && wildcarded == other.wildcarded
+                && edgeNGrams == other.edgeNGrams
                 && termModifier.equals(other.termModifier)
+                && rangeBuckets == other.rangeBuckets
                 && (isFuzzyEnabled() 
                     ? fuzzyness.equals(other.fuzzyness) 
                     : !other.isFuzzyEnabled());
@@ -224,8 +304,8 @@ public final class QueryModifier {
 
     @Override
     public String toString() {
-        return "QueryModifier [disjunct=" + disjunct + ", fuzzyness="
-                + fuzzyness + ", split=" + split + ", termModifier="
+        return "QueryModifier [disjunct=" + disjunct + ", edgeNGrams=" + edgeNGrams + ", fuzzyness="
+                + fuzzyness + ", rangeBuckets=" + rangeBuckets + ", split=" + split + ", termModifier="
                 + termModifier + ", wildcarded=" + wildcarded + "]";
     }
     
@@ -258,6 +338,8 @@ public final class QueryModifier {
         builder.setDisjunct(mod.isDisjunct());
         builder.setWildcarded(mod.isWildcarded());
         builder.setFuzzyness(mod.fuzzyness);
+        builder.setEdgeNGrams(mod.isEdgeNGrams());
+        builder.setRangeBuckets(mod.rangeBuckets);
         return builder;
     }
     
@@ -265,7 +347,7 @@ public final class QueryModifier {
      * Returns an empty {@link ModifierBuilder}. 
      * It can be used to create a new {@link QueryModifier}.
      * <br> The TermModifier ({@link #getTermModifier()}) is set to {@link TermModifier#NONE}
-     * split is false, disjunct is false and wildcarded is false.
+     * split is false, disjunct is false, wildcarded is false and edgeNGrams is false.
      * @return an empty {@link ModifierBuilder}
      */
     public static ModifierBuilder start() {
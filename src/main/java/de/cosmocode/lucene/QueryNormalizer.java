@@ -0,0 +1,195 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.regex.Pattern;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+import de.cosmocode.lucene.QueryClause.Kind;
+
+/**
+ * <p> Normalizes {@link QueryClause}s into a canonical form, so that semantically identical queries
+ * which were built in a different order have the same key, e.g. for a cache of results or filters.
+ * </p>
+ * <p> The normalization
+ * </p>
+ * <ul>
+ *   <li> sorts the clauses of every group and removes duplicate clauses </li>
+ *   <li> replaces groups of a single optional clause by that clause, like lucene's QueryParser does </li>
+ *   <li> moves a field that all clauses of a group share to the group </li>
+ *   <li> rounds boosts to two decimal places, like {@link LuceneQuery#addBoost(double)}, and removes boosts of 1 </li>
+ *   <li> lowercases prefix, wildcard and fuzzy terms and range bounds, like the query parsers do </li>
+ *   <li> formats the range bounds of numeric fields like {@link Double#toString(double)},
+ *        like {@link LuceneQuery#addRange(double, double)} does </li>
+ * </ul>
+ * <p> Example:
+ * </p>
+ * <pre>
+ *   final QueryNormalizer normalizer = new QueryNormalizer(ImmutableSet.of("price"));
+ *   // both are "+price:[1.0 TO 2.5] +type:offer"
+ *   normalizer.key(parser.parseClauses("+type:offer +price:[1 TO 2.50]"));
+ *   normalizer.key(parser.parseClauses("+price:[1.0 TO 2.5] +type:(offer)"));
+ * </pre>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+@ThreadSafe
+@Immutable
+public final class QueryNormalizer {
+    
+    public static final String ERR_FIELDS_NULL = "the given numeric fields must not be null";
+    
+    /**
+     * A QueryNormalizer without numeric fields.
+     */
+    public static final QueryNormalizer DEFAULT = new QueryNormalizer(ImmutableSet.<String>of());
+    
+    private static final Pattern NUMBER = Pattern.compile("-?[0-9]+(\\.[0-9]+)?([eE][-+]?[0-9]+)?");
+    
+    private final ImmutableSet<String> numericFields;
+    
+    /**
+     * Creates a new QueryNormalizer.
+     * @param numericFields the fields whose range bounds are numbers,
+     *        for which [1 TO 2.50] and [1.0 TO 2.5] are the same range
+     * @throws NullPointerException if numericFields is null
+     */
+    public QueryNormalizer(final Set<String> numericFields) {
+        Preconditions.checkNotNull(numericFields, ERR_FIELDS_NULL);
+        this.numericFields = ImmutableSet.copyOf(numericFields);
+    }
+    
+    /**
+     * Returns the canonical form of the given clause.
+     * @param clause the clause to normalize
+     * @return the normalized clause
+     * @throws NullPointerException if clause is null
+     */
+    public QueryClause normalize(final QueryClause clause) {
+        Preconditions.checkNotNull(clause, "Clause");
+        return normalize(clause, null);
+    }
+    
+    /**
+     * Returns the key of the given clause, which is the rendered canonical form.
+     * Semantically identical clauses have the same key.
+     * @param clause the clause
+     * @return the key of the clause
+     * @throws NullPointerException if clause is null
+     */
+    public String key(final QueryClause clause) {
+        return normalize(clause).toString();
+    }
+    
+    private QueryClause normalize(final QueryClause clause, final String parentField) {
+        final String field = clause.getField() == null ? parentField : clause.getField();
+        final float boost = normalizeBoost(clause);
+        switch (clause.getKind()) {
+            case TERM:
+            case PHRASE: {
+                // the analyzer decides about the case
+                return new QueryClause(clause.getKind(), clause.getTermModifier(), field, clause.getText(), null,
+                    false, clause.getSimilarity(), clause.getSlop(), boost, null);
+            }
+            case PREFIX:
+            case WILDCARD:
+            case FUZZY: {
+                return new QueryClause(clause.getKind(), clause.getTermModifier(), field,
+                    clause.getText().toLowerCase(), null, false, clause.getSimilarity(), 0, boost, null);
+            }
+            case RANGE: {
+                return new QueryClause(Kind.RANGE, clause.getTermModifier(), field,
+                    normalizeBound(field, clause.getText()), normalizeBound(field, clause.getUpper()),
+                    clause.isInclusive(), 0.0f, 0, boost, null);
+            }
+            case GROUP: {
+                return normalizeGroup(clause, field, boost);
+            }
+            default: {
+                throw new IllegalStateException("Unknown kind " + clause.getKind());
+            }
+        }
+    }
+    
+    private QueryClause normalizeGroup(final QueryClause group, final String field, final float boost) {
+        // sorted and without duplicates, equal renderings are equal clauses
+        final SortedMap<String, QueryClause> clauses = Maps.newTreeMap();
+        for (final QueryClause child : group.getClauses()) {
+            final QueryClause normalized = normalize(child, field);
+            clauses.put(normalized.toString(), normalized);
+        }
+        
+        final QueryClause first = clauses.get(clauses.firstKey());
+        if (clauses.size() == 1 && first.getTermModifier() == TermModifier.NONE) {
+            // the QueryParser replaces the group by its clause, the boost of the group replaces the one of the clause
+            final QueryClause clause = first.withModifier(group.getTermModifier());
+            if (group.isBoosted()) {
+                return Float.isNaN(boost) ? clause.withoutBoost() : clause.withBoost(boost);
+            } else {
+                return clause;
+            }
+        }
+        
+        // a field that all clauses share is moved back to the group
+        final String commonField = clauses.size() > 1 ? first.getField() : null;
+        for (final QueryClause clause : clauses.values()) {
+            if (commonField == null || !commonField.equals(clause.getField())) {
+                return new QueryClause(Kind.GROUP, group.getTermModifier(), null, null, null, false, 0.0f, 0, boost,
+                    ImmutableList.copyOf(clauses.values()));
+            }
+        }
+        final ImmutableList.Builder<QueryClause> fieldless = ImmutableList.builder();
+        for (final QueryClause clause : clauses.values()) {
+            fieldless.add(clause.withField(null));
+        }
+        return new QueryClause(Kind.GROUP, group.getTermModifier(), commonField, null, null, false, 0.0f, 0, boost,
+            fieldless.build());
+    }
+    
+    /**
+     * Rounds the boost like addBoost does.
+     * @return the rounded boost, NaN if the clause has no boost or the rounded boost is 1
+     */
+    private float normalizeBoost(final QueryClause clause) {
+        if (!clause.isBoosted()) return Float.NaN;
+        if (Float.isInfinite(clause.getBoost())) return clause.getBoost();
+        final float rounded = new BigDecimal(Float.toString(clause.getBoost())).
+            setScale(2, RoundingMode.DOWN).floatValue();
+        return rounded == 1.0f ? Float.NaN : rounded;
+    }
+    
+    private String normalizeBound(final String field, final String bound) {
+        if (field != null && numericFields.contains(field) && NUMBER.matcher(bound).matches()) {
+            return Double.toString(Double.parseDouble(bound)).toLowerCase();
+        } else {
+            return bound.toLowerCase();
+        }
+    }
+    
+}
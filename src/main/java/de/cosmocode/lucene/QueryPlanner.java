@@ -0,0 +1,407 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.ConstantScoreRangeQuery;
+import org.apache.lucene.search.FilteredQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryWrapperFilter;
+import org.apache.lucene.search.RangeQuery;
+import org.apache.lucene.search.TermQuery;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+/**
+ * <p> Rewrites lucene queries before they are executed, based on the term statistics of the index.
+ * </p>
+ * <p> The planner reorders the clauses of every boolean query by their estimated number of matching
+ * documents: required clauses come first, the most selective (least matching) first,
+ * followed by the prohibited clauses, the ones that exclude the most documents first,
+ * and then the optional clauses in their original order.
+ * </p>
+ * <p> If filter fields are configured, the required clauses of the top level boolean query
+ * that only search in filter fields (like ids or categories) are moved into a filter,
+ * together with the prohibited clauses. Filter clauses do not contribute to the score anymore.
+ * </p>
+ * <p> High frequency term pruning can be enabled with {@link #setMaxDocFreqRatio(double)}.
+ * Optional term clauses that match more than the given ratio of all documents,
+ * like very common words of a split user input, add a lot of scoring work for little relevance.
+ * If they only influence the score, because they are (nested in) an optional clause next to a required clause,
+ * they are dropped (or down-weighted, see {@link #setPrunedBoost(float)}). Otherwise they decide whether
+ * a document matches, so they are only down-weighted, if a boost is set. Every pruned term is counted in the
+ * {@link QueryMetricsRegistry} set by {@link #setMetricsRegistry(QueryMetricsRegistry)}.
+ * </p>
+ * <p> The document frequencies are taken from a {@link TermStatisticsCache},
+ * so that the planning of similar queries does not read the same terms again.
+ * </p>
+ * <p> Example:
+ * </p>
+ * <pre>
+ *   final QueryPlanner planner = new QueryPlanner(new TermStatisticsCache(), ImmutableSet.of("category"));
+ *   searcher.search(planner.plan(query, parser, reader), 10);
+ * </pre>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+@ThreadSafe
+public final class QueryPlanner {
+    
+    /**
+     * Counter of dropped terms, followed by "." and the field name for the counter per field.
+     */
+    public static final String PRUNED_TERMS = "lucene.query.prunedTerms";
+    
+    /**
+     * Counter of down-weighted terms, followed by "." and the field name for the counter per field.
+     */
+    public static final String DOWNWEIGHTED_TERMS = "lucene.query.downweightedTerms";
+    
+    public static final String ERR_RATIO_INVALID = "the ratio must be greater than 0 and at most 1";
+    
+    public static final String ERR_BOOST_INVALID = "the boost must be between 0 (inclusive) and 1 (exclusive)";
+    
+    private static final Comparator<Planned> BY_MATCHES = new Comparator<Planned>() {
+        
+        @Override
+        public int compare(Planned left, Planned right) {
+            return left.matches < right.matches ? -1 : (left.matches == right.matches ? 0 : 1);
+        }
+        
+    };
+    
+    private final TermStatisticsCache statistics;
+    
+    private final Set<String> filterFields;
+    
+    private volatile double maxDocFreqRatio = 1.0;
+    
+    private volatile float prunedBoost;
+    
+    private volatile QueryMetricsRegistry registry;
+    
+    /**
+     * Creates a new QueryPlanner that only reorders clauses.
+     * @param statistics the cache for the term statistics
+     * @throws NullPointerException if statistics is null
+     */
+    public QueryPlanner(final TermStatisticsCache statistics) {
+        this(statistics, ImmutableSet.<String>of());
+    }
+    
+    /**
+     * Creates a new QueryPlanner that reorders clauses and moves clauses
+     * of the given fields into a filter.
+     * @param statistics the cache for the term statistics
+     * @param filterFields the fields that are only used to filter, not to score
+     * @throws NullPointerException if statistics or filterFields is null
+     */
+    public QueryPlanner(final TermStatisticsCache statistics, final Set<String> filterFields) {
+        this.statistics = Preconditions.checkNotNull(statistics, "Statistics");
+        this.filterFields = ImmutableSet.copyOf(filterFields);
+    }
+    
+    public double getMaxDocFreqRatio() {
+        return maxDocFreqRatio;
+    }
+    
+    /**
+     * Enables the pruning of optional term clauses that match more than the given ratio of all documents.
+     * A ratio of 1 disables the pruning, which is the default.
+     * @param maxDocFreqRatio the maximum ratio of matching documents, e.g. 0.5
+     * @throws IllegalArgumentException if the ratio is not greater than 0 and at most 1
+     */
+    public void setMaxDocFreqRatio(final double maxDocFreqRatio) {
+        Preconditions.checkArgument(maxDocFreqRatio > 0.0 && maxDocFreqRatio <= 1.0, ERR_RATIO_INVALID);
+        this.maxDocFreqRatio = maxDocFreqRatio;
+    }
+    
+    public float getPrunedBoost() {
+        return prunedBoost;
+    }
+    
+    /**
+     * Sets the factor by which the boost of pruned terms is multiplied.
+     * 0, the default, drops the terms where that does not change the matching documents.
+     * @param prunedBoost the boost factor of pruned terms
+     * @throws IllegalArgumentException if the boost is not between 0 (inclusive) and 1 (exclusive)
+     */
+    public void setPrunedBoost(final float prunedBoost) {
+        Preconditions.checkArgument(prunedBoost >= 0.0f && prunedBoost < 1.0f, ERR_BOOST_INVALID);
+        this.prunedBoost = prunedBoost;
+    }
+    
+    /**
+     * Sets the registry in which the pruned terms are counted.
+     * @param registry the registry for the pruned terms, null to not count them
+     */
+    public void setMetricsRegistry(final QueryMetricsRegistry registry) {
+        this.registry = registry;
+    }
+    
+    /**
+     * Converts the given LuceneQuery and plans it.
+     * 
+     * @param query the query to plan
+     * @param parser the parser for the rendered query, not used for a {@link DirectApiLuceneQuery}
+     * @param reader the reader of the index the query is executed on
+     * @return the planned query
+     * @throws ParseException if the query could not be parsed
+     * @throws IOException if the term statistics could not be read
+     * @see #plan(Query, IndexReader)
+     */
+    public Query plan(final LuceneQuery query, final QueryParser parser, final IndexReader reader) 
+        throws ParseException, IOException {
+        return plan(LuceneHelper.toLuceneQuery(query, parser), reader);
+    }
+    
+    /**
+     * Plans the given query. The given query is not modified.
+     * 
+     * @param query the query to plan
+     * @param reader the reader of the index the query is executed on
+     * @return the planned query, which matches the same documents
+     * @throws IOException if the term statistics could not be read
+     */
+    public Query plan(final Query query, final IndexReader reader) throws IOException {
+        final Query reordered = reorder(query, reader, false).query;
+        if (filterFields.isEmpty() || !(reordered instanceof BooleanQuery)) {
+            return reordered;
+        } else {
+            return extractFilter(BooleanQuery.class.cast(reordered));
+        }
+    }
+    
+    /**
+     * Reorders the given query recursively. A query is scoring only if it can not change
+     * the matching documents of the top level query, but only their scores.
+     */
+    private Planned reorder(final Query query, final IndexReader reader, final boolean scoringOnly) 
+        throws IOException {
+        
+        if (query instanceof BooleanQuery) {
+            final BooleanQuery original = BooleanQuery.class.cast(query);
+            boolean hasRequired = false;
+            for (BooleanClause clause : original.getClauses()) {
+                hasRequired |= clause.getOccur() == BooleanClause.Occur.MUST;
+            }
+            // optional clauses only influence the score if there are required clauses
+            final boolean optionalScoringOnly = scoringOnly 
+                || (hasRequired && original.getMinimumNumberShouldMatch() == 0);
+            
+            final List<Planned> required = Lists.newArrayList();
+            final List<Planned> prohibited = Lists.newArrayList();
+            final List<Planned> optional = Lists.newArrayList();
+            for (BooleanClause clause : original.getClauses()) {
+                final boolean childScoringOnly = 
+                    clause.getOccur() == BooleanClause.Occur.SHOULD ? optionalScoringOnly : scoringOnly;
+                final Planned planned = reorder(clause.getQuery(), reader, childScoringOnly);
+                if (clause.getOccur() == BooleanClause.Occur.MUST) {
+                    required.add(planned);
+                } else if (clause.getOccur() == BooleanClause.Occur.MUST_NOT) {
+                    prohibited.add(planned);
+                } else {
+                    optional.add(planned);
+                }
+            }
+            
+            Collections.sort(required, BY_MATCHES);
+            Collections.sort(prohibited, Collections.reverseOrder(BY_MATCHES));
+            
+            final BooleanQuery copy = copyOf(original);
+            long matches = Long.MAX_VALUE;
+            for (Planned planned : required) {
+                copy.add(planned.query, BooleanClause.Occur.MUST);
+                matches = Math.min(matches, planned.matches);
+            }
+            for (Planned planned : prohibited) {
+                copy.add(planned.query, BooleanClause.Occur.MUST_NOT);
+            }
+            final int maxDoc = statistics.maxDoc(reader);
+            final double ratio = maxDocFreqRatio;
+            long optionalMatches = 0;
+            for (Planned planned : optional) {
+                if (ratio < 1.0 && planned.query instanceof TermQuery && planned.matches > ratio * maxDoc) {
+                    final Query pruned = prune(TermQuery.class.cast(planned.query), optionalScoringOnly);
+                    if (pruned == null) continue;
+                    copy.add(pruned, BooleanClause.Occur.SHOULD);
+                } else {
+                    copy.add(planned.query, BooleanClause.Occur.SHOULD);
+                }
+                optionalMatches += planned.matches;
+            }
+            if (required.isEmpty()) {
+                matches = Math.min(optionalMatches, maxDoc);
+            }
+            return new Planned(copy, matches);
+        } else {
+            return new Planned(query, estimateMatches(query, reader));
+        }
+    }
+    
+    /**
+     * Drops or down-weights the given high frequency term.
+     * Returns null if the term is dropped, the given query if it is kept unchanged.
+     */
+    private Query prune(final TermQuery query, final boolean scoringOnly) {
+        final float boost = prunedBoost;
+        final String field = query.getTerm().field();
+        if (boost == 0.0f) {
+            if (scoringOnly) {
+                count(PRUNED_TERMS, field);
+                return null;
+            } else {
+                return query;
+            }
+        } else {
+            final TermQuery downweighted = new TermQuery(query.getTerm());
+            downweighted.setBoost(query.getBoost() * boost);
+            count(DOWNWEIGHTED_TERMS, field);
+            return downweighted;
+        }
+    }
+    
+    private void count(final String name, final String field) {
+        final QueryMetricsRegistry current = registry;
+        if (current == null) return;
+        current.counter(name).add(1L);
+        current.counter(name + "." + field).add(1L);
+    }
+    
+    private long estimateMatches(final Query query, final IndexReader reader) throws IOException {
+        if (query instanceof TermQuery) {
+            return statistics.docFreq(reader, TermQuery.class.cast(query).getTerm());
+        } else if (query instanceof PhraseQuery) {
+            long matches = statistics.maxDoc(reader);
+            for (Term term : PhraseQuery.class.cast(query).getTerms()) {
+                matches = Math.min(matches, statistics.docFreq(reader, term));
+            }
+            return matches;
+        } else {
+            // multi term queries, ranges and unknown queries are treated as unselective
+            return statistics.maxDoc(reader);
+        }
+    }
+    
+    private Query extractFilter(final BooleanQuery query) {
+        final BooleanQuery filter = new BooleanQuery();
+        final BooleanQuery scoring = copyOf(query);
+        boolean positive = false;
+        boolean required = false;
+        
+        for (BooleanClause clause : query.getClauses()) {
+            if (clause.getOccur() == BooleanClause.Occur.MUST && isFilter(clause.getQuery())) {
+                filter.add(clause);
+                positive = true;
+            } else if (clause.getOccur() != BooleanClause.Occur.MUST_NOT) {
+                scoring.add(clause);
+                required |= clause.getOccur() == BooleanClause.Occur.MUST;
+            }
+        }
+        if (!positive) return query;
+        
+        for (BooleanClause clause : query.getClauses()) {
+            if (clause.getOccur() == BooleanClause.Occur.MUST_NOT) {
+                filter.add(clause);
+            }
+        }
+        
+        final QueryWrapperFilter wrapper = new QueryWrapperFilter(filter);
+        if (scoring.getClauses().length == 0) {
+            final Query constant = new ConstantScoreQuery(wrapper);
+            constant.setBoost(query.getBoost());
+            return constant;
+        }
+        if (!required) {
+            // the optional clauses were optional because of the required clauses, they still are
+            scoring.add(new MatchAllDocsQuery(), BooleanClause.Occur.MUST);
+        }
+        final FilteredQuery filtered = new FilteredQuery(scoring, wrapper);
+        filtered.setBoost(query.getBoost());
+        scoring.setBoost(1.0f);
+        return filtered;
+    }
+    
+    private boolean isFilter(final Query query) {
+        if (query instanceof BooleanQuery) {
+            for (BooleanClause clause : BooleanQuery.class.cast(query).getClauses()) {
+                if (!isFilter(clause.getQuery())) return false;
+            }
+            return true;
+        } else if (query instanceof TermQuery) {
+            return filterFields.contains(TermQuery.class.cast(query).getTerm().field());
+        } else if (query instanceof PrefixQuery) {
+            return filterFields.contains(PrefixQuery.class.cast(query).getPrefix().field());
+        } else if (query instanceof MultiTermQuery) {
+            return filterFields.contains(MultiTermQuery.class.cast(query).getTerm().field());
+        } else if (query instanceof RangeQuery) {
+            return filterFields.contains(RangeQuery.class.cast(query).getField());
+        } else if (query instanceof ConstantScoreRangeQuery) {
+            return filterFields.contains(ConstantScoreRangeQuery.class.cast(query).getField());
+        } else {
+            return false;
+        }
+    }
+    
+    private static BooleanQuery copyOf(final BooleanQuery original) {
+        final BooleanQuery copy = new BooleanQuery(original.isCoordDisabled());
+        copy.setMinimumNumberShouldMatch(original.getMinimumNumberShouldMatch());
+        copy.setBoost(original.getBoost());
+        return copy;
+    }
+    
+    /**
+     * A planned query with its estimated number of matching documents.
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    private static final class Planned {
+        
+        private final Query query;
+        
+        private final long matches;
+        
+        Planned(final Query query, final long matches) {
+            this.query = query;
+            this.matches = matches;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+/**
+ * <p> Thrown by a {@link QueryAdmissionGuard} if a query exceeds the budget.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+public final class QueryRejectedException extends RuntimeException {
+    
+    private static final long serialVersionUID = -2380514326254187447L;
+    
+    private final transient QueryCost cost;
+    
+    public QueryRejectedException(final String message, final QueryCost cost) {
+        super(message);
+        this.cost = cost;
+    }
+    
+    /**
+     * Returns the estimated cost of the rejected query.
+     * @return the cost of the rejected query
+     */
+    public QueryCost getCost() {
+        return cost;
+    }
+    
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * <p> A registry that aggregates statistics per query shape.
+ * </p>
+ * <p> The registry is lock-free: the shapes are kept in a {@link ConcurrentHashMap}
+ * and all statistics are recorded in striped {@link Histogram}s,
+ * so many threads can record their queries at the same time.
+ * </p>
+ * <p> The number of distinct shapes is bounded. Once the limit is reached,
+ * queries with new shapes are recorded under {@link #OVERFLOW_SHAPE}.
+ * </p>
+ * <p> Example:
+ * </p>
+ * <pre>
+ *   final ShapeLuceneQuery query = new ShapeLuceneQuery(LuceneHelper.newQuery());
+ *   query.addField("category", categories, LuceneQuery.MOD_ID);
+ *   registry.recordBuild(query);
+ *   ...
+ *   final long start = System.nanoTime();
+ *   searcher.search(parser.parse(query.getQuery()), 10);
+ *   registry.recordExecution(query.getShape(), System.nanoTime() - start);
+ * </pre>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ * 
+ * @see ShapeLuceneQuery
+ */
+@ThreadSafe
+public final class QueryShapeRegistry {
+    
+    /**
+     * The shape under which all queries are recorded once the maximum number of shapes is reached.
+     */
+    public static final String OVERFLOW_SHAPE = "<other>";
+    
+    public static final int DEFAULT_MAX_SHAPES = 1000;
+    
+    public static final String ERR_MAX_SHAPES_INVALID = "maxShapes must be greater than 0";
+    
+    private final ConcurrentMap<String, QueryShapeStatistics> shapes;
+    
+    private final int maxShapes;
+    
+    // created up front, so that a full registry records unseen shapes without creating their statistics
+    private volatile QueryShapeStatistics overflow = new QueryShapeStatistics(OVERFLOW_SHAPE);
+    
+    /**
+     * Creates a new QueryShapeRegistry that records at most {@link #DEFAULT_MAX_SHAPES} different shapes.
+     */
+    public QueryShapeRegistry() {
+        this(DEFAULT_MAX_SHAPES);
+    }
+    
+    /**
+     * Creates a new QueryShapeRegistry that records at most maxShapes different shapes.
+     * @param maxShapes the maximum number of shapes
+     * @throws IllegalArgumentException if maxShapes is less than 1
+     */
+    public QueryShapeRegistry(final int maxShapes) {
+        Preconditions.checkArgument(maxShapes > 0, ERR_MAX_SHAPES_INVALID);
+        this.maxShapes = maxShapes;
+        this.shapes = new ConcurrentHashMap<String, QueryShapeStatistics>(
+            Math.min(maxShapes, 64), 0.75f, Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * Returns the statistics for the given shape, creating them if necessary.
+     * @param shape the shape of the queries
+     * @return the statistics of the given shape, or those of {@link #OVERFLOW_SHAPE} if the registry is full
+     * @throws NullPointerException if shape is null
+     */
+    public QueryShapeStatistics statistics(final String shape) {
+        Preconditions.checkNotNull(shape, "Shape");
+        final QueryShapeStatistics existing = shapes.get(shape);
+        if (existing != null) {
+            return existing;
+        }
+        
+        final QueryShapeStatistics created;
+        final String key;
+        if (shapes.size() < maxShapes) {
+            key = shape;
+            created = new QueryShapeStatistics(shape);
+        } else {
+            key = OVERFLOW_SHAPE;
+            created = overflow;
+        }
+        final QueryShapeStatistics previous = shapes.putIfAbsent(key, created);
+        return previous == null ? created : previous;
+    }
+    
+    /**
+     * Records the build of a query with the given shape.
+     * @param shape the shape of the query
+     * @param buildNanos the time in nanoseconds it took to build the query
+     * @param queryLength the length of the rendered query
+     */
+    public void recordBuild(final String shape, final long buildNanos, final int queryLength) {
+        final QueryShapeStatistics statistics = statistics(shape);
+        statistics.getBuildNanos().update(buildNanos);
+        statistics.getQueryLength().update(queryLength);
+    }
+    
+    /**
+     * Records the build of the given query. Empty queries are ignored.
+     * @param query the query to record
+     */
+    public void recordBuild(final ShapeLuceneQuery query) {
+        final String shape = query.getShape();
+        if (shape.length() == 0) return;
+        recordBuild(shape, query.getBuildNanos(), query.getQuery().length());
+    }
+    
+    /**
+     * Records the execution of a query with the given shape.
+     * @param shape the shape of the query
+     * @param executionNanos the time in nanoseconds it took to execute the query
+     */
+    public void recordExecution(final String shape, final long executionNanos) {
+        statistics(shape).getExecutionNanos().update(executionNanos);
+    }
+    
+    /**
+     * Returns a view of the statistics of all recorded shapes.
+     * @return the statistics of all recorded shapes
+     */
+    public Collection<QueryShapeStatistics> getStatistics() {
+        return Collections.unmodifiableCollection(shapes.values());
+    }
+    
+    /**
+     * Returns the statistics of the most frequently built shapes, most frequent first.
+     * @param limit the maximum number of returned shapes
+     * @return the statistics of at most limit shapes
+     */
+    public List<QueryShapeStatistics> getMostFrequent(final int limit) {
+        // the counts are read once, they change while the shapes are sorted
+        final List<Ranked> ranked = Lists.newArrayList();
+        for (QueryShapeStatistics statistics : shapes.values()) {
+            ranked.add(new Ranked(statistics.getCount(), statistics));
+        }
+        return top(ranked, limit);
+    }
+    
+    private static List<QueryShapeStatistics> top(final List<Ranked> ranked, final int limit) {
+        Collections.sort(ranked);
+        final int size = Math.min(ranked.size(), limit);
+        final List<QueryShapeStatistics> top = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+            top.add(ranked.get(i).statistics);
+        }
+        return top;
+    }
+    
+    /**
+     * Returns the statistics of the shapes with the slowest single execution, slowest first.
+     * Shapes that were never executed are not included.
+     * @param limit the maximum number of returned shapes
+     * @return the statistics of at most limit shapes
+     */
+    public List<QueryShapeStatistics> getSlowest(final int limit) {
+        // the maxima are read once, they change while the shapes are sorted
+        final List<Ranked> executed = Lists.newArrayList();
+        for (QueryShapeStatistics statistics : shapes.values()) {
+            if (statistics.getExecutionNanos().getCount() > 0) {
+                executed.add(new Ranked(statistics.getExecutionNanos().getMax(), statistics));
+            }
+        }
+        return top(executed, limit);
+    }
+    
+    /**
+     * Removes all recorded shapes.
+     */
+    public void clear() {
+        overflow = new QueryShapeStatistics(OVERFLOW_SHAPE);
+        shapes.clear();
+    }
+    
+    /**
+     * The statistics of a shape with a snapshot of the value it is ranked by, highest value first.
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    private static final class Ranked implements Comparable<Ranked> {
+        
+        private final long value;
+        
+        private final QueryShapeStatistics statistics;
+        
+        Ranked(final long value, final QueryShapeStatistics statistics) {
+            this.value = value;
+            this.statistics = statistics;
+        }
+        
+        @Override
+        public int compareTo(final Ranked other) {
+            return value < other.value ? 1 : (value == other.value ? 0 : -1);
+        }
+        
+    }
+    
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * <p> The aggregated statistics of all queries with the same shape.
+ * Instances are created and updated by a {@link QueryShapeRegistry}.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ * 
+ * @see ShapeLuceneQuery
+ * @see QueryShapeRegistry
+ */
+@ThreadSafe
+public final class QueryShapeStatistics {
+    
+    private final String shape;
+    private final long fingerprint;
+    
+    private final Histogram buildNanos = new Histogram();
+    private final Histogram queryLength = new Histogram();
+    private final Histogram executionNanos = new Histogram();
+    
+    QueryShapeStatistics(final String shape) {
+        this.shape = shape;
+        this.fingerprint = ShapeLuceneQuery.fingerprint(shape);
+    }
+    
+    public String getShape() {
+        return shape;
+    }
+    
+    public long getFingerprint() {
+        return fingerprint;
+    }
+    
+    /**
+     * Returns the number of built queries with this shape.
+     * @return the number of built queries
+     */
+    public long getCount() {
+        return buildNanos.getCount();
+    }
+    
+    /**
+     * Returns the histogram of the build times in nanoseconds.
+     * @return the build time histogram
+     */
+    public Histogram getBuildNanos() {
+        return buildNanos;
+    }
+    
+    /**
+     * Returns the histogram of the lengths of the rendered queries.
+     * @return the query length histogram
+     */
+    public Histogram getQueryLength() {
+        return queryLength;
+    }
+    
+    /**
+     * Returns the histogram of the execution times in nanoseconds.
+     * @return the execution time histogram
+     */
+    public Histogram getExecutionNanos() {
+        return executionNanos;
+    }
+    
+    @Override
+    public String toString() {
+        return "QueryShapeStatistics [shape=" + shape + ", count=" + getCount()
+            + ", buildNanos=" + buildNanos + ", queryLength=" + queryLength 
+            + ", executionNanos=" + executionNanos + "]";
+    }
+    
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p> Estimates the length of the next query from the lengths of the last rendered queries.
+ * </p>
+ * <p> The estimate is a percentile of a moving window of samples, so that a
+ * {@link DefaultLuceneQuery} created with it is large enough for most queries
+ * without growing its buffer, but a few huge queries don't inflate all others.
+ * The estimate is recomputed every {@value #RECOMPUTE_INTERVAL} samples,
+ * so {@link #estimate()} itself is just a volatile read.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+@ThreadSafe
+final class QuerySizeEstimator {
+    
+    public static final String ERR_WINDOW_INVALID = "window must be a power of two and at least 16";
+    
+    static final int DEFAULT_WINDOW = 64;
+    
+    static final double DEFAULT_PERCENTILE = 0.9;
+    
+    static final int RECOMPUTE_INTERVAL = 16;
+    
+    private final AtomicIntegerArray samples;
+    
+    private final AtomicInteger sampleCount = new AtomicInteger();
+    
+    private final double percentile;
+    
+    private volatile int estimate;
+    
+    QuerySizeEstimator() {
+        this(DEFAULT_WINDOW, DEFAULT_PERCENTILE);
+    }
+    
+    QuerySizeEstimator(final int window, final double percentile) {
+        Preconditions.checkArgument(window >= RECOMPUTE_INTERVAL && Integer.bitCount(window) == 1, 
+            ERR_WINDOW_INVALID);
+        Preconditions.checkArgument(percentile > 0.0 && percentile <= 1.0, Histogram.ERR_PERCENTILE_INVALID);
+        this.samples = new AtomicIntegerArray(window);
+        this.percentile = percentile;
+    }
+    
+    /**
+     * Records the length of a rendered query.
+     * @param length the length of the query
+     */
+    void record(final int length) {
+        final int index = sampleCount.getAndIncrement();
+        samples.set(index & (samples.length() - 1), length);
+        if ((index & (RECOMPUTE_INTERVAL - 1)) == RECOMPUTE_INTERVAL - 1) {
+            // the counter may overflow after a long time, but then the window is full anyway
+            final boolean filling = index >= 0 && index < samples.length();
+            recompute(filling ? index + 1 : samples.length());
+        }
+    }
+    
+    private void recompute(final int filled) {
+        // the window is filled from index 0, so the first "filled" samples are valid
+        final int[] sorted = new int[filled];
+        for (int i = 0; i < filled; i++) {
+            sorted[i] = samples.get(i);
+        }
+        Arrays.sort(sorted);
+        estimate = sorted[(int) Math.ceil(percentile * filled) - 1];
+    }
+    
+    /**
+     * Returns the expected length of the next query, 0 if there are not enough samples yet.
+     * @return the estimated query length
+     */
+    int estimate() {
+        return estimate;
+    }
+    
+}
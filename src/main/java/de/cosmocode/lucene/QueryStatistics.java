@@ -0,0 +1,238 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.util.List;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p> Aggregates {@link QueryEvent}s and exposes them as a standard MBean.
+ * </p>
+ * <p> The statistics are collected while they are enabled, which registers them as a
+ * {@link QueryEventListener}. They can be enabled and disabled at runtime through JMX.
+ * Per shape statistics are kept in a {@link QueryShapeRegistry}, so events without
+ * a shape only show up in the totals.
+ * </p>
+ * <p> Example:
+ * </p>
+ * <pre>
+ *   final QueryStatistics statistics = new QueryStatistics();
+ *   statistics.setEnabled(true);
+ *   ManagementFactory.getPlatformMBeanServer().registerMBean(statistics, 
+ *       new ObjectName(QueryStatistics.OBJECT_NAME));
+ * </pre>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+@ThreadSafe
+public final class QueryStatistics implements QueryStatisticsMBean, QueryEventListener {
+    
+    public static final String OBJECT_NAME = "de.cosmocode.lucene:type=QueryStatistics";
+    
+    public static final int DEFAULT_SLOWEST_SHAPES_LIMIT = 10;
+    
+    public static final String ERR_LIMIT_INVALID = "the limit must be greater than 0";
+    
+    private final QueryShapeRegistry registry;
+    
+    private volatile Totals totals = new Totals();
+    
+    private volatile int slowestShapesLimit = DEFAULT_SLOWEST_SHAPES_LIMIT;
+    
+    /**
+     * Creates new, disabled QueryStatistics with their own {@link QueryShapeRegistry}.
+     */
+    public QueryStatistics() {
+        this(new QueryShapeRegistry());
+    }
+    
+    /**
+     * Creates new, disabled QueryStatistics that record the shapes in the given registry.
+     * @param registry the registry for the per shape statistics
+     * @throws NullPointerException if registry is null
+     */
+    public QueryStatistics(final QueryShapeRegistry registry) {
+        this.registry = Preconditions.checkNotNull(registry, "Registry");
+    }
+    
+    @Override
+    public void onEvent(final QueryEvent event) {
+        final Totals current = totals;
+        final String shape = event.getShape();
+        switch (event.getType()) {
+            case BUILT: {
+                current.buildNanos.update(event.getBuildNanos());
+                current.queryLength.update(event.getQuery().length());
+                if (shape != null && shape.length() > 0) {
+                    registry.recordBuild(shape, event.getBuildNanos(), event.getQuery().length());
+                }
+                break;
+            }
+            case EXECUTED: {
+                current.executionNanos.update(event.getExecutionNanos());
+                if (event.isCacheHit()) {
+                    current.cacheHits.increment();
+                } else {
+                    current.cacheMisses.increment();
+                }
+                if (shape != null && shape.length() > 0) {
+                    registry.recordExecution(shape, event.getExecutionNanos());
+                }
+                break;
+            }
+            default: {
+                throw new IllegalArgumentException("Unknown event type " + event.getType());
+            }
+        }
+    }
+    
+    /**
+     * Returns the registry with the per shape statistics.
+     * @return the shape registry
+     */
+    public QueryShapeRegistry getRegistry() {
+        return registry;
+    }
+    
+    @Override
+    public boolean isEnabled() {
+        return QueryEvents.isRegistered(this);
+    }
+    
+    @Override
+    public void setEnabled(final boolean enabled) {
+        if (enabled) {
+            QueryEvents.addListener(this);
+        } else {
+            QueryEvents.removeListener(this);
+        }
+    }
+    
+    @Override
+    public long getBuiltQueries() {
+        return totals.buildNanos.getCount();
+    }
+    
+    @Override
+    public double getMeanBuildNanos() {
+        return totals.buildNanos.getMean();
+    }
+    
+    @Override
+    public long getBuildNanos99thPercentile() {
+        return totals.buildNanos.getPercentile(0.99);
+    }
+    
+    @Override
+    public long getMaxBuildNanos() {
+        return totals.buildNanos.getMax();
+    }
+    
+    @Override
+    public long getMaxQueryLength() {
+        return totals.queryLength.getMax();
+    }
+    
+    @Override
+    public long getExecutedQueries() {
+        return totals.executionNanos.getCount();
+    }
+    
+    @Override
+    public double getMeanExecutionNanos() {
+        return totals.executionNanos.getMean();
+    }
+    
+    @Override
+    public long getExecutionNanos99thPercentile() {
+        return totals.executionNanos.getPercentile(0.99);
+    }
+    
+    @Override
+    public long getMaxExecutionNanos() {
+        return totals.executionNanos.getMax();
+    }
+    
+    @Override
+    public long getCacheHits() {
+        return totals.cacheHits.get();
+    }
+    
+    @Override
+    public long getCacheMisses() {
+        return totals.cacheMisses.get();
+    }
+    
+    @Override
+    public double getCacheHitRatio() {
+        final Totals current = totals;
+        final long hits = current.cacheHits.get();
+        final long all = hits + current.cacheMisses.get();
+        return all == 0 ? 0.0 : (double) hits / all;
+    }
+    
+    @Override
+    public int getSlowestShapesLimit() {
+        return slowestShapesLimit;
+    }
+    
+    @Override
+    public void setSlowestShapesLimit(final int limit) {
+        Preconditions.checkArgument(limit > 0, ERR_LIMIT_INVALID);
+        this.slowestShapesLimit = limit;
+    }
+    
+    @Override
+    public String[] getSlowestShapes() {
+        final List<QueryShapeStatistics> slowest = registry.getSlowest(slowestShapesLimit);
+        final String[] descriptions = new String[slowest.size()];
+        for (int i = 0; i < descriptions.length; i++) {
+            final QueryShapeStatistics statistics = slowest.get(i);
+            final Histogram executionNanos = statistics.getExecutionNanos();
+            descriptions[i] = statistics.getShape() + " [executions=" + executionNanos.getCount() 
+                + ", p99=" + executionNanos.getPercentile(0.99) + "ns, max=" + executionNanos.getMax() + "ns]";
+        }
+        return descriptions;
+    }
+    
+    @Override
+    public void reset() {
+        totals = new Totals();
+        registry.clear();
+    }
+    
+    /**
+     * The totals over all shapes, replaced as a whole on {@link QueryStatistics#reset()}.
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    private static final class Totals {
+        
+        private final Histogram buildNanos = new Histogram();
+        private final Histogram queryLength = new Histogram();
+        private final Histogram executionNanos = new Histogram();
+        private final StripedCounter cacheHits = new StripedCounter();
+        private final StripedCounter cacheMisses = new StripedCounter();
+        
+    }
+    
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+/**
+ * <p> The management interface of {@link QueryStatistics}.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+public interface QueryStatisticsMBean {
+    
+    /**
+     * Returns true if the statistics are registered as a {@link QueryEventListener}.
+     * @return true if enabled, false otherwise
+     */
+    boolean isEnabled();
+    
+    /**
+     * Registers or unregisters the statistics as a {@link QueryEventListener}.
+     * @param enabled true to enable, false to disable
+     */
+    void setEnabled(boolean enabled);
+    
+    long getBuiltQueries();
+    
+    double getMeanBuildNanos();
+    
+    long getBuildNanos99thPercentile();
+    
+    long getMaxBuildNanos();
+    
+    long getMaxQueryLength();
+    
+    long getExecutedQueries();
+    
+    double getMeanExecutionNanos();
+    
+    long getExecutionNanos99thPercentile();
+    
+    long getMaxExecutionNanos();
+    
+    long getCacheHits();
+    
+    long getCacheMisses();
+    
+    /**
+     * Returns the ratio of cache hits to executed queries, or 0 if no query was executed yet.
+     * @return the cache hit ratio, between 0 and 1
+     */
+    double getCacheHitRatio();
+    
+    int getSlowestShapesLimit();
+    
+    void setSlowestShapesLimit(int limit);
+    
+    /**
+     * Returns the shapes with the slowest single execution, slowest first,
+     * at most {@link #getSlowestShapesLimit()}.
+     * @return a description of each of the slowest shapes
+     */
+    String[] getSlowestShapes();
+    
+    /**
+     * Discards all recorded statistics.
+     */
+    void reset();
+    
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.text.ParseException;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.lucene.document.DateTools;
+import org.apache.lucene.document.DateTools.Resolution;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * <p> Splits ranges of dates into aligned buckets, so that the bulk of a range can be served from cached filters.
+ * </p>
+ * <p> A time window like {@code [20100301083015 TO 20100317170000]} changes with every second,
+ * so a cache of range filters never hits. Split with a resolution of {@link Resolution#DAY},
+ * the window becomes the union of
+ * </p>
+ * <ul>
+ *   <li> the edge {@code [20100301083015 TO 20100301235959]} </li>
+ *   <li> the whole days {@code [20100302000000 TO 20100302999999]}, ..., {@code [20100316000000 TO 20100316999999]}
+ *   </li>
+ *   <li> the edge {@code [20100317000000 TO 20100317170000]} </li>
+ * </ul>
+ * <p> The whole days are the same for all windows of the same days, and only the edges change.
+ * Whole months and years within the range are used as single buckets, so the number of buckets stays small.
+ * A bucket matches every value that starts with its date, which is why its upper bound ends with nines.
+ * </p>
+ * <p> Only ranges of dates in the format of {@link DateTools} are split. Both bounds must have the same resolution,
+ * which must be finer than the resolution of the buckets. All other ranges are returned unchanged.
+ * </p>
+ * <p> Bucketing is enabled with {@link ModifierBuilder#setRangeBuckets(Resolution)};
+ * {@link TermExpansionCache#rewrite(org.apache.lucene.index.IndexReader, org.apache.lucene.search.Query)}
+ * caches the documents of the buckets.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+@ThreadSafe
+public final class RangeBuckets {
+    
+    public static final String ERR_RESOLUTION_NULL = "the given resolution must not be null";
+    
+    // from coarse to fine, with the length of their DateTools format and their calendar field
+    private static final Resolution[] RESOLUTIONS = {
+        Resolution.YEAR, Resolution.MONTH, Resolution.DAY, Resolution.HOUR,
+        Resolution.MINUTE, Resolution.SECOND, Resolution.MILLISECOND
+    };
+    private static final int[] LENGTHS = {4, 6, 8, 10, 12, 14, 17};
+    private static final int[] FIELDS = {
+        Calendar.YEAR, Calendar.MONTH, Calendar.DAY_OF_MONTH, Calendar.HOUR_OF_DAY,
+        Calendar.MINUTE, Calendar.SECOND, Calendar.MILLISECOND
+    };
+    
+    private static final TimeZone GMT = TimeZone.getTimeZone("GMT");
+    
+    private RangeBuckets() {
+        
+    }
+    
+    /**
+     * Splits the inclusive range from the given lower to the given upper date into buckets and edges.
+     * @param lower the lower date, inclusive
+     * @param upper the upper date, inclusive
+     * @param resolution the resolution of the smallest buckets
+     * @return the inclusive ranges whose union is the given range, in ascending order,
+     *         or the given range if it can't be split
+     * @throws NullPointerException if resolution is null
+     * @throws IllegalArgumentException if lower or upper is null or empty
+     */
+    public static List<QueryClause> split(final String lower, final String upper, final Resolution resolution) {
+        Preconditions.checkNotNull(resolution, ERR_RESOLUTION_NULL);
+        final QueryClause range = QueryClause.range(lower, upper, true);
+        
+        final int level = levelOf(lower);
+        final int bucketLevel = indexOf(resolution);
+        if (level < 0 || level != levelOf(upper) || bucketLevel >= level || lower.compareTo(upper) > 0) {
+            return ImmutableList.of(range);
+        }
+        
+        final long start;
+        final long end;
+        try {
+            start = DateTools.stringToTime(lower);
+            // exclusive
+            end = add(DateTools.stringToTime(upper), level);
+        } catch (ParseException e) {
+            return ImmutableList.of(range);
+        }
+        // DateTools parses leniently, so invalid dates like month 13 are rejected here
+        if (!lower.equals(DateTools.timeToString(start, RESOLUTIONS[level]))
+            || !upper.equals(DateTools.timeToString(end - 1, RESOLUTIONS[level]))) {
+            return ImmutableList.of(range);
+        }
+        
+        final long rounded = DateTools.round(start, resolution);
+        final long firstBucket = rounded == start ? start : add(rounded, bucketLevel);
+        final long lastBucketEnd = DateTools.round(end, resolution);
+        if (firstBucket >= lastBucketEnd) return ImmutableList.of(range);
+        
+        final ImmutableList.Builder<QueryClause> ranges = ImmutableList.builder();
+        if (start < firstBucket) {
+            ranges.add(QueryClause.range(lower, DateTools.timeToString(firstBucket - 1, RESOLUTIONS[level]), true));
+        }
+        
+        long position = firstBucket;
+        while (position < lastBucketEnd) {
+            // the coarsest bucket that starts here and ends within the range
+            int current = 0;
+            while (DateTools.round(position, RESOLUTIONS[current]) != position
+                || add(position, current) > lastBucketEnd) {
+                current++;
+            }
+            final String prefix = DateTools.timeToString(position, RESOLUTIONS[current]);
+            final int padding = LENGTHS[level] - prefix.length();
+            ranges.add(QueryClause.range(
+                prefix + Strings.repeat("0", padding), prefix + Strings.repeat("9", padding), true
+            ));
+            position = add(position, current);
+        }
+        
+        if (lastBucketEnd < end) {
+            ranges.add(QueryClause.range(DateTools.timeToString(lastBucketEnd, RESOLUTIONS[level]), upper, true));
+        }
+        return ranges.build();
+    }
+    
+    /**
+     * Checks whether the given inclusive range is a bucket, i.e. it matches all dates
+     * that start with the same year, month, day, hour, minute or second.
+     * @param lower the lower bound
+     * @param upper the upper bound
+     * @return true if the range is a bucket, false otherwise
+     */
+    public static boolean isBucket(final String lower, final String upper) {
+        final int level = levelOf(lower);
+        if (level < 0 || level != levelOf(upper)) return false;
+        for (int i = 0; i < level; i++) {
+            final int length = LENGTHS[i];
+            if (lower.regionMatches(0, upper, 0, length)
+                && isRepeated(lower, length, '0') && isRepeated(upper, length, '9')) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static boolean isRepeated(final String value, final int from, final char c) {
+        for (int i = from; i < value.length(); i++) {
+            if (value.charAt(i) != c) return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Returns the index of the resolution of the given date, -1 if the given value is no date.
+     */
+    private static int levelOf(final String value) {
+        if (value == null) return -1;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < '0' || c > '9') return -1;
+        }
+        for (int i = 0; i < LENGTHS.length; i++) {
+            if (LENGTHS[i] == value.length()) return i;
+        }
+        return -1;
+    }
+    
+    private static int indexOf(final Resolution resolution) {
+        for (int i = 0; i < RESOLUTIONS.length; i++) {
+            if (RESOLUTIONS[i] == resolution) return i;
+        }
+        throw new IllegalArgumentException("Unknown resolution " + resolution);
+    }
+    
+    private static long add(final long time, final int level) {
+        final Calendar calendar = Calendar.getInstance(GMT);
+        calendar.setTimeInMillis(time);
+        calendar.add(FIELDS[level], 1);
+        return calendar.getTimeInMillis();
+    }
+    
+}
@@ -0,0 +1,340 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * <p> A LuceneQuery that records a value-free shape of the query next to the query itself.
+ * All calls are forwarded to a delegate, which builds the actual query.
+ * </p>
+ * <p> The shape looks like the query that {@link DefaultLuceneQuery} would create,
+ * but every value is replaced by a "?" and every collection or array by "?...".
+ * Queries that are built by the same code path with different values therefore have the same shape,
+ * which can be used to group queries, for example in a {@link QueryShapeRegistry}.
+ * </p>
+ * <p> Example:
+ * </p>
+ * <pre>
+ *   final ShapeLuceneQuery query = new ShapeLuceneQuery(LuceneHelper.newQuery());
+ *   query.addField("category", Lists.newArrayList("1", "2", "3"), LuceneQuery.MOD_ID);
+ *   query.addRangeField("price", 10, 20, LuceneQuery.MOD_ID);
+ *   query.addFuzzyArgument("text");
+ *   System.out.println(query.getShape());
+ *   // prints out: +category:((?...)) +price:([? TO ?]) (?~0.5)
+ * </pre>
+ * <p> This implementation is not threadsafe.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+public final class ShapeLuceneQuery extends InterceptingLuceneQuery {
+    
+    /**
+     * Placeholder for a single value in a shape.
+     */
+    public static final String VALUE = "?";
+    
+    /**
+     * Placeholder for multiple values (a collection, an array or split tokens) in a shape.
+     */
+    public static final String VALUES = "?...";
+    
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    
+    private final StringBuilder shape = new StringBuilder();
+    
+    private final Deque<Integer> positionStack = new ArrayDeque<Integer>(8);
+    
+    private long buildNanos;
+    
+    /**
+     * Creates a new ShapeLuceneQuery that forwards all calls to the given LuceneQuery.
+     * @param delegate the LuceneQuery that builds the actual query
+     * @throws NullPointerException if delegate is null
+     */
+    public ShapeLuceneQuery(final LuceneQuery delegate) {
+        super(delegate);
+    }
+    
+    /**
+     * <p> Computes a 64 bit fingerprint (FNV-1a) of the given shape.
+     * Equal shapes always have the same fingerprint.
+     * </p>
+     * 
+     * @param shape the shape to compute the fingerprint for
+     * @return the fingerprint of the given shape
+     */
+    public static long fingerprint(final CharSequence shape) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < shape.length(); i++) {
+            final char c = shape.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return hash;
+    }
+    
+    /**
+     * Returns the shape of the query that was built so far, which is empty if nothing was added.
+     * @return the value-free shape of this query
+     */
+    public String getShape() {
+        return shape.toString();
+    }
+    
+    /**
+     * Returns the fingerprint of {@link #getShape()}.
+     * @return the fingerprint of the shape
+     * @see #fingerprint(CharSequence)
+     */
+    public long getFingerprint() {
+        return fingerprint(getShape());
+    }
+    
+    /**
+     * Returns the time in nanoseconds that the delegate spent to build the query.
+     * The time between the calls is not included.
+     * @return the build time in nanoseconds
+     */
+    public long getBuildNanos() {
+        return buildNanos;
+    }
+    
+    @Override
+    public void reset() {
+        super.reset();
+        shape.setLength(0);
+        positionStack.clear();
+        buildNanos = 0;
+    }
+    
+    private void separate() {
+        if (shape.length() > 0 && shape.charAt(shape.length() - 1) != '(') {
+            shape.append(' ');
+        }
+    }
+    
+    private void appendValue(final QueryModifier modifier, final String valuePlaceholder) {
+        if (modifier.isWildcarded() && modifier.isFuzzyEnabled()) {
+            shape.append("(\"").append(valuePlaceholder).append("\" ").append(valuePlaceholder).append("* ");
+            shape.append(valuePlaceholder).append("~").append(modifier.getFuzzyness()).append(")");
+        } else if (modifier.isWildcarded()) {
+            shape.append("(\"").append(valuePlaceholder).append("\" ").append(valuePlaceholder).append("*)");
+        } else if (modifier.isFuzzyEnabled()) {
+            shape.append(valuePlaceholder).append("~").append(modifier.getFuzzyness());
+        } else {
+            shape.append(valuePlaceholder);
+        }
+    }
+    
+    @Override
+    public LuceneQuery addArgument(final String value, final QueryModifier modifier) {
+        final long start = System.nanoTime();
+        super.addArgument(value, modifier);
+        buildNanos += System.nanoTime() - start;
+        
+        if (lastSuccessful()) {
+            separate();
+            shape.append(modifier.getTermPrefix()).append("(");
+            appendValue(modifier, VALUE);
+            if (modifier.isSplit() && value.contains(" ")) {
+                shape.append(" (").append(VALUES).append(")^0.5");
+            }
+            shape.append(")");
+        }
+        return this;
+    }
+    
+    private void appendValues(final QueryModifier modifier) {
+        if (lastSuccessful()) {
+            separate();
+            shape.append(modifier.getTermPrefix()).append("(");
+            appendValue(modifier.getMultiValueModifier(), VALUES);
+            shape.append(")");
+        }
+    }
+    
+    @Override
+    public LuceneQuery addArgumentAsCollection(final Collection<?> values, final QueryModifier modifier) {
+        final long start = System.nanoTime();
+        super.addArgumentAsCollection(values, modifier);
+        buildNanos += System.nanoTime() - start;
+        appendValues(modifier);
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery addArgumentAsIterator(final Iterator<?> values, final QueryModifier modifier) {
+        final long start = System.nanoTime();
+        super.addArgumentAsIterator(values, modifier);
+        buildNanos += System.nanoTime() - start;
+        appendValues(modifier);
+        return this;
+    }
+    
+    @Override
+    public <K> LuceneQuery addArgumentAsArray(final K[] values, final QueryModifier modifier) {
+        final long start = System.nanoTime();
+        super.addArgumentAsArray(values, modifier);
+        buildNanos += System.nanoTime() - start;
+        appendValues(modifier);
+        return this;
+    }
+    
+    @Override
+    protected LuceneQuery addArgumentAsArray(final Object values, final QueryModifier modifier) {
+        final long start = System.nanoTime();
+        super.addArgumentAsArray(values, modifier);
+        buildNanos += System.nanoTime() - start;
+        appendValues(modifier);
+        return this;
+    }
+    
+    private void appendRange(final QueryModifier modifier) {
+        if (lastSuccessful()) {
+            final String wildcard = modifier.isWildcarded() ? "*" : "";
+            separate();
+            shape.append(modifier.getTermPrefix());
+            shape.append("[").append(VALUE).append(wildcard).append(" TO ").append(VALUE).append(wildcard).append("]");
+        }
+    }
+    
+    @Override
+    public LuceneQuery addRange(final String from, final String to, final QueryModifier mod) {
+        final long start = System.nanoTime();
+        super.addRange(from, to, mod);
+        buildNanos += System.nanoTime() - start;
+        appendRange(mod);
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery addRange(final int from, final int to, final QueryModifier mod) {
+        final long start = System.nanoTime();
+        super.addRange(from, to, mod);
+        buildNanos += System.nanoTime() - start;
+        appendRange(mod);
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery addRange(final double from, final double to, final QueryModifier mod) {
+        final long start = System.nanoTime();
+        super.addRange(from, to, mod);
+        buildNanos += System.nanoTime() - start;
+        appendRange(mod);
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery addSubquery(final LuceneQuery value, final QueryModifier modifiers) {
+        final long start = System.nanoTime();
+        super.addSubquery(value, modifiers);
+        buildNanos += System.nanoTime() - start;
+        
+        if (lastSuccessful()) {
+            separate();
+            shape.append(modifiers.getTermPrefix()).append("(");
+            if (value instanceof ShapeLuceneQuery) {
+                shape.append(ShapeLuceneQuery.class.cast(value).getShape());
+            } else {
+                shape.append(VALUE);
+            }
+            shape.append(")");
+        }
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery addUnescaped(final CharSequence value, final boolean mandatory) {
+        final long start = System.nanoTime();
+        super.addUnescaped(value, mandatory);
+        buildNanos += System.nanoTime() - start;
+        
+        if (lastSuccessful()) {
+            separate();
+            if (mandatory) shape.append("+");
+            shape.append(VALUE);
+        }
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery addUnescapedField(final String key, final CharSequence value, final boolean mandatory) {
+        final long start = System.nanoTime();
+        super.addUnescapedField(key, value, mandatory);
+        buildNanos += System.nanoTime() - start;
+        
+        if (lastSuccessful()) {
+            separate();
+            if (mandatory) shape.append("+");
+            shape.append(key).append(":(").append(VALUE).append(")");
+        }
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery startField(final String fieldName, final QueryModifier modifier) {
+        final long start = System.nanoTime();
+        super.startField(fieldName, modifier);
+        buildNanos += System.nanoTime() - start;
+        
+        if (lastSuccessful()) {
+            positionStack.push(shape.length());
+            separate();
+            shape.append(modifier.getTermPrefix()).append(fieldName).append(":(");
+        }
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery endField() {
+        final long start = System.nanoTime();
+        super.endField();
+        buildNanos += System.nanoTime() - start;
+        
+        final Integer previousPosition = positionStack.poll();
+        if (lastSuccessful()) {
+            shape.append(")");
+        } else if (previousPosition != null) {
+            // the delegate reverted the empty field, so the shape is reverted as well
+            shape.setLength(previousPosition);
+        }
+        return this;
+    }
+    
+    @Override
+    public LuceneQuery addBoost(final double boostFactor) {
+        final long start = System.nanoTime();
+        super.addBoost(boostFactor);
+        buildNanos += System.nanoTime() - start;
+        
+        if (boostFactor != 1.0 && lastSuccessful()) {
+            final double rounded = ((int) (boostFactor * 100.0)) / 100.0;
+            shape.append("^").append(rounded);
+        }
+        return this;
+    }
+    
+}
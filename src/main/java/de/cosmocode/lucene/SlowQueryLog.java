@@ -0,0 +1,395 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * <p> A log for queries that took too long to build or to execute.
+ * </p>
+ * <p> The log is a {@link QueryEventListener} that is registered by {@link #start()}.
+ * For every slow query it captures the shape and its fingerprint, the clause statistics,
+ * the truncated rendered query and the origin of the query in the calling code.
+ * The entries are put into a lock-free ring buffer, so that logging never blocks the threads
+ * that build or execute queries. A daemon thread flushes the buffer periodically to the
+ * {@code de.cosmocode.lucene.SlowQueryLog} logger at level WARN.
+ * </p>
+ * <p> The log is rate-limited: at most {@link #getMaxEntriesPerSecond()} entries are captured per second.
+ * Entries above that rate, and entries that do not fit into a full buffer, are only counted and
+ * reported in a summary line on the next flush.
+ * </p>
+ * <p> Example:
+ * </p>
+ * <pre>
+ *   final SlowQueryLog log = new SlowQueryLog(50, 500, TimeUnit.MILLISECONDS);
+ *   log.start();
+ *   ...
+ *   log.stop();
+ * </pre>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ * 
+ * @see QueryEvents
+ */
+@ThreadSafe
+public final class SlowQueryLog implements QueryEventListener {
+    
+    public static final int DEFAULT_CAPACITY = 1024;
+    
+    public static final int DEFAULT_MAX_ENTRIES_PER_SECOND = 10;
+    
+    public static final int DEFAULT_MAX_QUERY_LENGTH = 1000;
+    
+    public static final int DEFAULT_STACK_DEPTH = 3;
+    
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000L;
+    
+    public static final String ERR_THRESHOLD_NEGATIVE = "the thresholds must not be negative";
+    
+    public static final String ERR_CAPACITY_INVALID = "the capacity must be greater than 0";
+    
+    public static final String ERR_VALUE_INVALID = "the value must be greater than 0";
+    
+    private static final Logger LOG = LoggerFactory.getLogger(SlowQueryLog.class);
+    
+    // these classes are skipped when the origin of a query is determined
+    private static final Set<String> INTERNAL_CLASSES = ImmutableSet.of(
+        SlowQueryLog.class.getName(), QueryEvents.class.getName(), QueryEvent.class.getName(),
+        InstrumentedLuceneQuery.class.getName(), InterceptingLuceneQuery.class.getName(),
+        ShapeLuceneQuery.class.getName(), ForwardingLuceneQuery.class.getName(),
+        AbstractLuceneQuery.class.getName(), DefaultLuceneQuery.class.getName()
+    );
+    
+    private static final Comparator<Entry> BY_TIMESTAMP = new Comparator<Entry>() {
+        
+        @Override
+        public int compare(Entry left, Entry right) {
+            final long leftTimestamp = left.event.getTimestamp();
+            final long rightTimestamp = right.event.getTimestamp();
+            return leftTimestamp < rightTimestamp ? -1 : (leftTimestamp == rightTimestamp ? 0 : 1);
+        }
+        
+    };
+    
+    private final long buildThresholdNanos;
+    
+    private final long executionThresholdNanos;
+    
+    private final AtomicReferenceArray<Entry> buffer;
+    
+    private final AtomicLong sequence = new AtomicLong();
+    
+    private final AtomicLong currentSecond = new AtomicLong();
+    
+    private final AtomicInteger entriesInSecond = new AtomicInteger();
+    
+    private final AtomicLong suppressed = new AtomicLong();
+    
+    private final AtomicLong dropped = new AtomicLong();
+    
+    private volatile int maxEntriesPerSecond = DEFAULT_MAX_ENTRIES_PER_SECOND;
+    
+    private volatile int maxQueryLength = DEFAULT_MAX_QUERY_LENGTH;
+    
+    private volatile int stackDepth = DEFAULT_STACK_DEPTH;
+    
+    private ScheduledExecutorService flusher;
+    
+    /**
+     * Creates a new SlowQueryLog with a buffer of {@link #DEFAULT_CAPACITY} entries.
+     * @param buildThreshold the minimum time to build a query that is logged
+     * @param executionThreshold the minimum time to execute a query that is logged
+     * @param unit the unit of both thresholds
+     * @throws IllegalArgumentException if a threshold is negative
+     */
+    public SlowQueryLog(final long buildThreshold, final long executionThreshold, final TimeUnit unit) {
+        this(buildThreshold, executionThreshold, unit, DEFAULT_CAPACITY);
+    }
+    
+    /**
+     * Creates a new SlowQueryLog.
+     * @param buildThreshold the minimum time to build a query that is logged
+     * @param executionThreshold the minimum time to execute a query that is logged
+     * @param unit the unit of both thresholds
+     * @param capacity the number of entries that can be buffered between two flushes
+     * @throws IllegalArgumentException if a threshold is negative or capacity is less than 1
+     */
+    public SlowQueryLog(final long buildThreshold, final long executionThreshold, 
+        final TimeUnit unit, final int capacity) {
+        
+        Preconditions.checkArgument(buildThreshold >= 0 && executionThreshold >= 0, ERR_THRESHOLD_NEGATIVE);
+        Preconditions.checkArgument(capacity > 0, ERR_CAPACITY_INVALID);
+        this.buildThresholdNanos = unit.toNanos(buildThreshold);
+        this.executionThresholdNanos = unit.toNanos(executionThreshold);
+        this.buffer = new AtomicReferenceArray<Entry>(capacity);
+    }
+    
+    public int getMaxEntriesPerSecond() {
+        return maxEntriesPerSecond;
+    }
+    
+    /**
+     * Sets the maximum number of entries that are captured per second.
+     * @param maxEntriesPerSecond the maximum number of entries per second
+     * @throws IllegalArgumentException if maxEntriesPerSecond is less than 1
+     */
+    public void setMaxEntriesPerSecond(final int maxEntriesPerSecond) {
+        Preconditions.checkArgument(maxEntriesPerSecond > 0, ERR_VALUE_INVALID);
+        this.maxEntriesPerSecond = maxEntriesPerSecond;
+    }
+    
+    public int getMaxQueryLength() {
+        return maxQueryLength;
+    }
+    
+    /**
+     * Sets the length after which the rendered query is truncated in the log.
+     * @param maxQueryLength the maximum length of a logged query
+     * @throws IllegalArgumentException if maxQueryLength is less than 1
+     */
+    public void setMaxQueryLength(final int maxQueryLength) {
+        Preconditions.checkArgument(maxQueryLength > 0, ERR_VALUE_INVALID);
+        this.maxQueryLength = maxQueryLength;
+    }
+    
+    public int getStackDepth() {
+        return stackDepth;
+    }
+    
+    /**
+     * Sets the number of stack frames of the calling code that are logged as the origin of a query.
+     * @param stackDepth the number of logged stack frames
+     * @throws IllegalArgumentException if stackDepth is less than 1
+     */
+    public void setStackDepth(final int stackDepth) {
+        Preconditions.checkArgument(stackDepth > 0, ERR_VALUE_INVALID);
+        this.stackDepth = stackDepth;
+    }
+    
+    /**
+     * Returns the number of slow queries that were not logged because of the rate limit.
+     * @return the number of suppressed entries since the last flush
+     */
+    public long getSuppressed() {
+        return suppressed.get();
+    }
+    
+    /**
+     * Returns the number of slow queries that were not logged because the buffer was full.
+     * @return the number of dropped entries since the last flush
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+    
+    /**
+     * Registers this log as a {@link QueryEventListener} and starts a daemon thread
+     * that flushes the log every {@link #DEFAULT_FLUSH_INTERVAL_MILLIS} milliseconds.
+     * Does nothing if the log is already started.
+     */
+    public synchronized void start() {
+        if (flusher != null) return;
+        flusher = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("slow-query-log-%d").build());
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            
+            @Override
+            public void run() {
+                flush();
+            }
+            
+        }, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        QueryEvents.addListener(this);
+    }
+    
+    /**
+     * Unregisters this log, stops the flushing thread and flushes the remaining entries.
+     * Does nothing if the log is not started.
+     */
+    public synchronized void stop() {
+        if (flusher == null) return;
+        QueryEvents.removeListener(this);
+        flusher.shutdown();
+        flusher = null;
+        flush();
+    }
+    
+    @Override
+    public void onEvent(final QueryEvent event) {
+        final boolean slow;
+        if (event.getType() == QueryEvent.Type.BUILT) {
+            slow = event.getBuildNanos() >= buildThresholdNanos;
+        } else {
+            slow = event.getExecutionNanos() >= executionThresholdNanos;
+        }
+        if (!slow) return;
+        
+        if (!acquire(event.getTimestamp())) {
+            suppressed.incrementAndGet();
+            return;
+        }
+        
+        final Entry entry = new Entry(event, origin(new Throwable().getStackTrace(), stackDepth));
+        final int index = (int) (sequence.getAndIncrement() % buffer.length());
+        if (!buffer.compareAndSet(index, null, entry)) {
+            dropped.incrementAndGet();
+        }
+    }
+    
+    private boolean acquire(final long timestamp) {
+        final long second = timestamp / 1000L;
+        final long current = currentSecond.get();
+        if (current != second && currentSecond.compareAndSet(current, second)) {
+            entriesInSecond.set(0);
+        }
+        return entriesInSecond.incrementAndGet() <= maxEntriesPerSecond;
+    }
+    
+    private static StackTraceElement[] origin(final StackTraceElement[] stackTrace, final int depth) {
+        int start = 0;
+        while (start < stackTrace.length && isInternal(stackTrace[start].getClassName())) {
+            start++;
+        }
+        final int length = Math.min(depth, stackTrace.length - start);
+        final StackTraceElement[] origin = new StackTraceElement[length];
+        System.arraycopy(stackTrace, start, origin, 0, length);
+        return origin;
+    }
+    
+    private static boolean isInternal(final String className) {
+        final int inner = className.indexOf('$');
+        return INTERNAL_CLASSES.contains(inner == -1 ? className : className.substring(0, inner));
+    }
+    
+    /**
+     * Writes all buffered entries to the log, oldest first.
+     * Called periodically by the flushing thread.
+     */
+    public void flush() {
+        for (String message : drain()) {
+            LOG.warn(message);
+        }
+    }
+    
+    /**
+     * Removes all buffered entries and formats them, oldest first.
+     * A summary of suppressed and dropped entries is appended, if there are any.
+     * @return the formatted entries
+     */
+    synchronized List<String> drain() {
+        final List<Entry> entries = Lists.newArrayList();
+        for (int i = 0; i < buffer.length(); i++) {
+            final Entry entry = buffer.getAndSet(i, null);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        Collections.sort(entries, BY_TIMESTAMP);
+        
+        final List<String> messages = Lists.newArrayListWithCapacity(entries.size() + 1);
+        final int maxLength = maxQueryLength;
+        for (Entry entry : entries) {
+            messages.add(entry.format(maxLength));
+        }
+        
+        final long suppressedSinceFlush = suppressed.getAndSet(0);
+        final long droppedSinceFlush = dropped.getAndSet(0);
+        if (suppressedSinceFlush > 0 || droppedSinceFlush > 0) {
+            messages.add("slow query log skipped " + suppressedSinceFlush + " entries because of the rate limit and " 
+                + droppedSinceFlush + " entries because the buffer was full");
+        }
+        return messages;
+    }
+    
+    /**
+     * A captured slow query, formatted by the flushing thread.
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    private static final class Entry {
+        
+        private final QueryEvent event;
+        
+        private final StackTraceElement[] origin;
+        
+        Entry(final QueryEvent event, final StackTraceElement[] origin) {
+            this.event = event;
+            this.origin = origin;
+        }
+        
+        private String format(final int maxQueryLength) {
+            final StringBuilder builder = new StringBuilder(256);
+            final boolean built = event.getType() == QueryEvent.Type.BUILT;
+            builder.append("slow query ").append(built ? "built in " : "executed in ");
+            builder.append(TimeUnit.NANOSECONDS.toMillis(built ? event.getBuildNanos() : event.getExecutionNanos()));
+            builder.append("ms [thread=").append(event.getThreadName());
+            if (event.getShape() != null) {
+                builder.append(", fingerprint=").append(Long.toHexString(event.getFingerprint()));
+                builder.append(", shape=").append(event.getShape());
+            }
+            builder.append(", length=").append(event.getQuery().length());
+            if (event.getClauses() >= 0) {
+                builder.append(", clauses=").append(event.getClauses());
+                builder.append(", wildcardClauses=").append(event.getWildcardClauses());
+                builder.append(", fuzzyClauses=").append(event.getFuzzyClauses());
+            }
+            if (!built) {
+                builder.append(", hits=").append(event.getHits());
+                builder.append(", cacheHit=").append(event.isCacheHit());
+            }
+            builder.append(", origin=");
+            for (int i = 0; i < origin.length; i++) {
+                if (i > 0) {
+                    builder.append(" < ");
+                }
+                builder.append(origin[i]);
+            }
+            builder.append("] ");
+            
+            final String query = event.getQuery();
+            if (query.length() > maxQueryLength) {
+                builder.append(query, 0, maxQueryLength).append("... (truncated)");
+            } else {
+                builder.append(query);
+            }
+            return builder.toString();
+        }
+        
+    }
+    
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * <p> A lock-free counter that is striped by thread, so that concurrent increments
+ * from many threads rarely write to the same cache line.
+ * </p>
+ * <p> Reading the counter sums up all stripes, so {@link #get()} is more expensive than {@link #add(long)}.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ */
+@ThreadSafe
+public final class StripedCounter implements QueryMetricsRegistry.Counter {
+    
+    // one stripe per 64 byte cache line, also used by Histogram
+    static final int PADDING = 8;
+    
+    private static final int STRIPES = stripes();
+    
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+    
+    /**
+     * Returns the number of stripes for striped values, also used by {@link Histogram}.
+     * @return the next power of two of the available processors, at most 64
+     */
+    static int stripes() {
+        final int processors = Math.min(Runtime.getRuntime().availableProcessors(), 64);
+        return Integer.highestOneBit(Math.max(processors, 1) * 2 - 1);
+    }
+    
+    @Override
+    public void add(final long delta) {
+        final int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        cells.addAndGet(stripe * PADDING, delta);
+    }
+    
+    /**
+     * Adds one to this counter.
+     */
+    public void increment() {
+        add(1L);
+    }
+    
+    /**
+     * Returns the current value of this counter.
+     * Concurrent updates may or may not be included.
+     * @return the sum of all stripes
+     */
+    public long get() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+    
+    @Override
+    public String toString() {
+        return Long.toString(get());
+    }
+    
+}
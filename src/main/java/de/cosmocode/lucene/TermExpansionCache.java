@@ -0,0 +1,590 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.ConstantScoreRangeQuery;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.FilteredQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.RangeQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.search.WildcardTermEnum;
+import org.apache.lucene.util.OpenBitSet;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * <p> A cache for the terms that prefix and wildcard queries expand to, valid for one generation of an index reader.
+ * </p>
+ * <p> Lucene rewrites every {@link PrefixQuery} and {@link WildcardQuery} by enumerating the term dictionary,
+ * although the same prefixes occur again and again, especially for autocompletion.
+ * The cache keeps the expanded terms per field and prefix or pattern, and, once a prefix
+ * expands to more terms than a BooleanQuery may have, the matching documents as a constant score DocIdSet.
+ * </p>
+ * <p> Like the {@link TermStatisticsCache}, the cache remembers the reader and its
+ * {@link IndexReader#getVersion() version} and discards all expansions as soon as it is used
+ * with another reader or a changed version. The expansions are bounded by their estimated weight in bytes;
+ * the least recently used expansions are discarded first.
+ * </p>
+ * <p> Example:
+ * </p>
+ * <pre>
+ *   final TermExpansionCache cache = new TermExpansionCache();
+ *   // for a parsed query
+ *   searcher.search(cache.rewrite(reader, parser.parse(query.getQuery())), 10);
+ * </pre>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ * 
+ * @see DirectApiLuceneQuery
+ */
+@ThreadSafe
+public final class TermExpansionCache {
+    
+    public static final long DEFAULT_MAX_WEIGHT = 4L * 1024L * 1024L;
+    
+    public static final String ERR_MAX_WEIGHT_INVALID = "maxWeight must be greater than 0";
+    
+    /**
+     * The estimated weight of a cached term, in bytes, without its chars.
+     */
+    private static final int TERM_WEIGHT = 48;
+    
+    private static final char PREFIX = 'p';
+    
+    private static final char WILDCARD = 'w';
+    
+    private static final char RANGE = 'r';
+    
+    private final long maxWeight;
+    
+    private final AtomicLong hits = new AtomicLong();
+    
+    private final AtomicLong misses = new AtomicLong();
+    
+    private volatile Generation generation;
+    
+    /**
+     * Creates a new TermExpansionCache with a maximum weight of {@link #DEFAULT_MAX_WEIGHT} bytes.
+     */
+    public TermExpansionCache() {
+        this(DEFAULT_MAX_WEIGHT);
+    }
+    
+    /**
+     * Creates a new TermExpansionCache.
+     * @param maxWeight the maximum estimated weight of the cached expansions per reader generation, in bytes
+     * @throws IllegalArgumentException if maxWeight is less than 1
+     */
+    public TermExpansionCache(final long maxWeight) {
+        Preconditions.checkArgument(maxWeight > 0, ERR_MAX_WEIGHT_INVALID);
+        this.maxWeight = maxWeight;
+    }
+    
+    private Generation generationOf(final IndexReader reader) {
+        final long version = versionOf(reader);
+        final Generation current = generation;
+        if (current != null && current.reader.get() == reader && current.version == version) {
+            return current;
+        }
+        final Generation created = new Generation(reader, version, maxWeight);
+        generation = created;
+        return created;
+    }
+    
+    private static long versionOf(final IndexReader reader) {
+        try {
+            return reader.getVersion();
+        } catch (UnsupportedOperationException e) {
+            // some readers, like MultiReader, have no version; they are only cached by identity
+            return -1L;
+        }
+    }
+    
+    /**
+     * Returns all terms of the field of the given prefix that start with the text of the prefix.
+     * @param reader the reader of the index
+     * @param prefix the field and the prefix
+     * @return the terms, in the order of the term dictionary
+     * @throws IOException if the terms could not be read
+     */
+    public List<Term> prefixTerms(final IndexReader reader, final Term prefix) throws IOException {
+        return Collections.unmodifiableList(Arrays.asList(expansionOf(reader, new Key(PREFIX, prefix)).terms));
+    }
+    
+    /**
+     * Returns all terms of the field of the given pattern that match the pattern (with * and ?).
+     * @param reader the reader of the index
+     * @param pattern the field and the wildcard pattern
+     * @return the terms, in the order of the term dictionary
+     * @throws IOException if the terms could not be read
+     */
+    public List<Term> wildcardTerms(final IndexReader reader, final Term pattern) throws IOException {
+        return Collections.unmodifiableList(Arrays.asList(expansionOf(reader, new Key(WILDCARD, pattern)).terms));
+    }
+    
+    /**
+     * <p> Replaces all prefix and wildcard queries in the given query by their cached expansions.
+     * </p>
+     * <p> A prefix or wildcard query becomes a BooleanQuery of its terms, as lucene would rewrite it,
+     * or a ConstantScoreQuery of a cached DocIdSet if it has more terms than
+     * {@link BooleanQuery#getMaxClauseCount()}. BooleanQuerys and FilteredQuerys are copied
+     * with their rewritten clauses, the given query is not changed.
+     * </p>
+     * <p> Inclusive ranges that are {@link RangeBuckets#isBucket(String, String) buckets} of dates
+     * always become a ConstantScoreQuery of a cached DocIdSet, all other ranges are not changed.
+     * </p>
+     * 
+     * @param reader the reader of the index
+     * @param query the query to rewrite
+     * @return the rewritten query, or the given query if it contains no prefix or wildcard query
+     * @throws IOException if the terms could not be read
+     * @throws NullPointerException if reader or query is null
+     */
+    public Query rewrite(final IndexReader reader, final Query query) throws IOException {
+        Preconditions.checkNotNull(reader, "Reader");
+        Preconditions.checkNotNull(query, "Query");
+        
+        if (query instanceof PrefixQuery) {
+            return expand(reader, new Key(PREFIX, PrefixQuery.class.cast(query).getPrefix()), query.getBoost());
+        } else if (query instanceof WildcardQuery) {
+            return expand(reader, new Key(WILDCARD, WildcardQuery.class.cast(query).getTerm()), query.getBoost());
+        } else if (query instanceof ConstantScoreRangeQuery) {
+            final ConstantScoreRangeQuery range = ConstantScoreRangeQuery.class.cast(query);
+            if (range.includesLower() && range.includesUpper()
+                && RangeBuckets.isBucket(range.getLowerVal(), range.getUpperVal())) {
+                return bucket(new Key(RANGE, new Term(range.getField(), range.getLowerVal()), range.getUpperVal()),
+                    query.getBoost());
+            }
+            return query;
+        } else if (query instanceof RangeQuery) {
+            final RangeQuery range = RangeQuery.class.cast(query);
+            final Term lower = range.getLowerTerm();
+            final Term upper = range.getUpperTerm();
+            if (range.isInclusive() && range.getCollator() == null && lower != null && upper != null
+                && RangeBuckets.isBucket(lower.text(), upper.text())) {
+                return bucket(new Key(RANGE, lower, upper.text()), query.getBoost());
+            }
+            return query;
+        } else if (query instanceof BooleanQuery) {
+            final BooleanQuery original = BooleanQuery.class.cast(query);
+            final BooleanQuery copy = new BooleanQuery(original.isCoordDisabled());
+            copy.setMinimumNumberShouldMatch(original.getMinimumNumberShouldMatch());
+            copy.setBoost(original.getBoost());
+            for (final BooleanClause clause : original.getClauses()) {
+                copy.add(rewrite(reader, clause.getQuery()), clause.getOccur());
+            }
+            return copy;
+        } else if (query instanceof FilteredQuery) {
+            final FilteredQuery original = FilteredQuery.class.cast(query);
+            final FilteredQuery copy = new FilteredQuery(rewrite(reader, original.getQuery()), original.getFilter());
+            copy.setBoost(original.getBoost());
+            return copy;
+        } else {
+            return query;
+        }
+    }
+    
+    private Query expand(final IndexReader reader, final Key key, final float boost) throws IOException {
+        final Expansion expansion = expansionOf(reader, key);
+        if (expansion.terms.length > BooleanQuery.getMaxClauseCount()) {
+            final Query query = new ConstantScoreQuery(new ExpansionFilter(this, key));
+            query.setBoost(boost);
+            return query;
+        }
+        
+        final BooleanQuery query = new BooleanQuery(true);
+        for (final Term term : expansion.terms) {
+            final TermQuery termQuery = new TermQuery(term);
+            termQuery.setBoost(boost);
+            query.add(termQuery, Occur.SHOULD);
+        }
+        return query;
+    }
+    
+    private Query bucket(final Key key, final float boost) {
+        // buckets are cached as documents, they are used as filters for time windows
+        final Query query = new ConstantScoreQuery(new ExpansionFilter(this, key));
+        query.setBoost(boost);
+        return query;
+    }
+    
+    private Expansion expansionOf(final IndexReader reader, final Key key) throws IOException {
+        Preconditions.checkNotNull(reader, "Reader");
+        Preconditions.checkNotNull(key.term, "Term");
+        
+        final Generation current = generationOf(reader);
+        final Expansion cached = current.get(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        
+        misses.incrementAndGet();
+        final Term[] terms;
+        if (key.kind == PREFIX) {
+            terms = expandPrefix(reader, key.term);
+        } else {
+            terms = expandWildcard(reader, key.term);
+        }
+        final Expansion expansion = new Expansion(terms);
+        current.put(key, expansion);
+        return expansion;
+    }
+    
+    private DocIdSet docIdSetOf(final IndexReader reader, final Key key) throws IOException {
+        if (key.kind == RANGE) return bucketOf(reader, key);
+        
+        final Expansion expansion = expansionOf(reader, key);
+        final DocIdSet cached = expansion.docIdSet;
+        if (cached != null) return cached;
+        
+        final OpenBitSet docIdSet = new OpenBitSet(reader.maxDoc());
+        final TermDocs termDocs = reader.termDocs();
+        try {
+            for (final Term term : expansion.terms) {
+                termDocs.seek(term);
+                while (termDocs.next()) {
+                    docIdSet.fastSet(termDocs.doc());
+                }
+            }
+        } finally {
+            termDocs.close();
+        }
+        
+        generationOf(reader).addDocIdSet(key, expansion, docIdSet);
+        return docIdSet;
+    }
+    
+    private static Term[] expandPrefix(final IndexReader reader, final Term prefix) throws IOException {
+        final List<Term> terms = Lists.newArrayList();
+        final String field = prefix.field();
+        final String text = prefix.text();
+        final TermEnum enumerator = reader.terms(prefix);
+        try {
+            do {
+                final Term term = enumerator.term();
+                // field names of terms are interned
+                if (term == null || term.field() != field || !term.text().startsWith(text)) break;
+                terms.add(term);
+            } while (enumerator.next());
+        } finally {
+            enumerator.close();
+        }
+        return terms.toArray(new Term[terms.size()]);
+    }
+    
+    /**
+     * Returns the documents of a range bucket. Buckets are only used as filters and may contain
+     * a distinct term for every document, so their terms are streamed into the set instead of being cached.
+     */
+    private DocIdSet bucketOf(final IndexReader reader, final Key key) throws IOException {
+        final Generation current = generationOf(reader);
+        final Expansion cached = current.get(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached.docIdSet;
+        }
+        
+        misses.incrementAndGet();
+        final OpenBitSet docIdSet = new OpenBitSet(reader.maxDoc());
+        final String field = key.term.field();
+        final TermEnum enumerator = reader.terms(key.term);
+        final TermDocs termDocs = reader.termDocs();
+        try {
+            do {
+                final Term term = enumerator.term();
+                if (term == null || term.field() != field || term.text().compareTo(key.upper) > 0) break;
+                termDocs.seek(enumerator);
+                while (termDocs.next()) {
+                    docIdSet.fastSet(termDocs.doc());
+                }
+            } while (enumerator.next());
+        } finally {
+            termDocs.close();
+            enumerator.close();
+        }
+        
+        current.put(key, new Expansion(docIdSet));
+        return docIdSet;
+    }
+    
+    private static Term[] expandWildcard(final IndexReader reader, final Term pattern) throws IOException {
+        final List<Term> terms = Lists.newArrayList();
+        final WildcardTermEnum enumerator = new WildcardTermEnum(reader, pattern);
+        try {
+            do {
+                final Term term = enumerator.term();
+                if (term != null) {
+                    terms.add(term);
+                }
+            } while (enumerator.next());
+        } finally {
+            enumerator.close();
+        }
+        return terms.toArray(new Term[terms.size()]);
+    }
+    
+    private static long weightOf(final Term[] terms) {
+        long weight = TERM_WEIGHT;
+        for (final Term term : terms) {
+            weight += TERM_WEIGHT + 2L * term.text().length();
+        }
+        return weight;
+    }
+    
+    public long getHits() {
+        return hits.get();
+    }
+    
+    public long getMisses() {
+        return misses.get();
+    }
+    
+    /**
+     * Returns the estimated weight of the expansions that are cached for the current reader generation.
+     * @return the weight in bytes, 0 if nothing was cached yet
+     */
+    public long getWeight() {
+        final Generation current = generation;
+        return current == null ? 0L : current.getWeight();
+    }
+    
+    /**
+     * The kind and term of an expansion, and the upper bound of a range.
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    private static final class Key {
+        
+        private final char kind;
+        
+        private final Term term;
+        
+        private final String upper;
+        
+        Key(final char kind, final Term term) {
+            this(kind, term, null);
+        }
+        
+        Key(final char kind, final Term term, final String upper) {
+            this.kind = kind;
+            this.term = term;
+            this.upper = upper;
+        }
+        
+        @Override
+        public int hashCode() {
+            return 31 * (31 * kind + term.hashCode()) + (upper == null ? 0 : upper.hashCode());
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            } else if (obj instanceof Key) {
+                final Key other = (Key) obj;
+                return kind == other.kind && term.equals(other.term)
+                    && (upper == null ? other.upper == null : upper.equals(other.upper));
+            } else {
+                return false;
+            }
+        }
+        
+        @Override
+        public String toString() {
+            if (kind == PREFIX) {
+                return term + "*";
+            } else if (kind == RANGE) {
+                return term.field() + ":[" + term.text() + " TO " + upper + "]";
+            } else {
+                return term.toString();
+            }
+        }
+        
+    }
+    
+    /**
+     * The expanded terms of a prefix or pattern and, once it was needed, the set of matching documents.
+     * The expansion of a range bucket only consists of its documents.
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    private static final class Expansion {
+        
+        private static final Term[] NO_TERMS = new Term[0];
+        
+        private final Term[] terms;
+        
+        private final long termsWeight;
+        
+        private volatile DocIdSet docIdSet;
+        
+        Expansion(final Term[] terms) {
+            this.terms = terms;
+            this.termsWeight = weightOf(terms);
+        }
+        
+        Expansion(final OpenBitSet docIdSet) {
+            this(NO_TERMS);
+            this.docIdSet = docIdSet;
+        }
+        
+        /**
+         * Returns the estimated weight of the terms and documents of this expansion.
+         */
+        long weight() {
+            final DocIdSet documents = docIdSet;
+            if (documents instanceof OpenBitSet) {
+                return termsWeight + OpenBitSet.class.cast(documents).getNumWords() * 8L;
+            } else {
+                return termsWeight;
+            }
+        }
+        
+    }
+    
+    /**
+     * A filter that matches the documents of a cached expansion.
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    private static final class ExpansionFilter extends Filter {
+        
+        private static final long serialVersionUID = -3468109437520717295L;
+        
+        private final transient TermExpansionCache cache;
+        
+        private final Key key;
+        
+        ExpansionFilter(final TermExpansionCache cache, final Key key) {
+            this.cache = cache;
+            this.key = key;
+        }
+        
+        @Override
+        public DocIdSet getDocIdSet(IndexReader reader) throws IOException {
+            return cache.docIdSetOf(reader, key);
+        }
+        
+        @Override
+        public int hashCode() {
+            return key.hashCode();
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof ExpansionFilter && key.equals(ExpansionFilter.class.cast(obj).key);
+        }
+        
+        @Override
+        public String toString() {
+            return "ExpansionFilter(" + key + ")";
+        }
+        
+    }
+    
+    /**
+     * The cached expansions of one reader generation, least recently used first.
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    private static final class Generation {
+        
+        private final WeakReference<IndexReader> reader;
+        
+        private final long version;
+        
+        private final long maxWeight;
+        
+        @GuardedBy("this")
+        private final Map<Key, Expansion> expansions = new LinkedHashMap<Key, Expansion>(16, 0.75f, true);
+        
+        @GuardedBy("this")
+        private long weight;
+        
+        Generation(final IndexReader reader, final long version, final long maxWeight) {
+            this.reader = new WeakReference<IndexReader>(reader);
+            this.version = version;
+            this.maxWeight = maxWeight;
+        }
+        
+        synchronized Expansion get(final Key key) {
+            return expansions.get(key);
+        }
+        
+        synchronized void put(final Key key, final Expansion expansion) {
+            final long expansionWeight = expansion.weight();
+            if (expansionWeight > maxWeight || expansions.containsKey(key)) return;
+            expansions.put(key, expansion);
+            weight += expansionWeight;
+            evict();
+        }
+        
+        synchronized void addDocIdSet(final Key key, final Expansion expansion, final OpenBitSet docIdSet) {
+            // the expansion may have been evicted or got its documents from another thread in the meantime
+            if (expansions.get(key) != expansion || expansion.docIdSet != null) return;
+            expansion.docIdSet = docIdSet;
+            weight += docIdSet.getNumWords() * 8L;
+            evict();
+        }
+        
+        private void evict() {
+            final Iterator<Map.Entry<Key, Expansion>> iterator = expansions.entrySet().iterator();
+            while (weight > maxWeight && iterator.hasNext()) {
+                weight -= iterator.next().getValue().weight();
+                iterator.remove();
+            }
+        }
+        
+        synchronized long getWeight() {
+            return weight;
+        }
+        
+    }
+    
+}
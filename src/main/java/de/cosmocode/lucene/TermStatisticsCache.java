@@ -0,0 +1,163 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p> A cache for the document frequencies of terms, valid for one generation of an index reader.
+ * </p>
+ * <p> The cache remembers the reader and its {@link IndexReader#getVersion() version}.
+ * As soon as it is asked with another reader or a changed version, all cached values are discarded.
+ * A cache should therefore be used for one index only.
+ * The number of cached terms is bounded; once the limit is reached,
+ * further terms are read from the reader without being cached.
+ * </p>
+ * 
+ * @since 1.3
+ * @author Oliver Lorenz
+ * 
+ * @see QueryPlanner
+ */
+@ThreadSafe
+public final class TermStatisticsCache {
+    
+    public static final int DEFAULT_MAX_TERMS = 10000;
+    
+    public static final String ERR_MAX_TERMS_INVALID = "maxTerms must be greater than 0";
+    
+    private final int maxTerms;
+    
+    private final AtomicLong hits = new AtomicLong();
+    
+    private final AtomicLong misses = new AtomicLong();
+    
+    private volatile Generation generation;
+    
+    /**
+     * Creates a new TermStatisticsCache that caches at most {@link #DEFAULT_MAX_TERMS} terms.
+     */
+    public TermStatisticsCache() {
+        this(DEFAULT_MAX_TERMS);
+    }
+    
+    /**
+     * Creates a new TermStatisticsCache that caches at most maxTerms terms.
+     * @param maxTerms the maximum number of cached terms per reader generation
+     * @throws IllegalArgumentException if maxTerms is less than 1
+     */
+    public TermStatisticsCache(final int maxTerms) {
+        Preconditions.checkArgument(maxTerms > 0, ERR_MAX_TERMS_INVALID);
+        this.maxTerms = maxTerms;
+    }
+    
+    private Generation generationOf(final IndexReader reader) {
+        final long version = versionOf(reader);
+        final Generation current = generation;
+        if (current != null && current.reader.get() == reader && current.version == version) {
+            return current;
+        }
+        final Generation created = new Generation(reader, version);
+        generation = created;
+        return created;
+    }
+    
+    private static long versionOf(final IndexReader reader) {
+        try {
+            return reader.getVersion();
+        } catch (UnsupportedOperationException e) {
+            // some readers, like MultiReader, have no version; they are only cached by identity
+            return -1L;
+        }
+    }
+    
+    /**
+     * Returns the number of documents that contain the given term.
+     * @param reader the reader of the index
+     * @param term the term
+     * @return the document frequency of the term
+     * @throws IOException if the document frequency could not be read
+     */
+    public int docFreq(final IndexReader reader, final Term term) throws IOException {
+        final Generation current = generationOf(reader);
+        final Integer cached = current.docFreqs.get(term);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached.intValue();
+        }
+        
+        misses.incrementAndGet();
+        final int docFreq = reader.docFreq(term);
+        if (current.docFreqs.size() < maxTerms) {
+            current.docFreqs.put(term, docFreq);
+        }
+        return docFreq;
+    }
+    
+    /**
+     * Returns the number of documents of the given reader, including deleted documents.
+     * @param reader the reader of the index
+     * @return the maximum document number
+     */
+    public int maxDoc(final IndexReader reader) {
+        return generationOf(reader).maxDoc;
+    }
+    
+    public long getHits() {
+        return hits.get();
+    }
+    
+    public long getMisses() {
+        return misses.get();
+    }
+    
+    /**
+     * The cached values of one reader generation.
+     * 
+     * @since 1.3
+     * @author Oliver Lorenz
+     */
+    private static final class Generation {
+        
+        private final WeakReference<IndexReader> reader;
+        
+        private final long version;
+        
+        private final int maxDoc;
+        
+        private final ConcurrentMap<Term, Integer> docFreqs = new ConcurrentHashMap<Term, Integer>();
+        
+        Generation(final IndexReader reader, final long version) {
+            this.reader = new WeakReference<IndexReader>(reader);
+            this.version = version;
+            this.maxDoc = reader.maxDoc();
+        }
+        
+    }
+    
+}
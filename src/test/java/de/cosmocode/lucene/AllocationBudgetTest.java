@@ -0,0 +1,288 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+
+/**
+ * <p> Checks the bytes allocated per operation of typical {@link LuceneQuery} scenarios
+ * against the budgets in {@code allocation-budgets.properties}.
+ * </p>
+ * <p> Run with {@code -Dallocation.budgets.print=true} to print the measured bytes of every scenario.
+ * The test is skipped on JVMs that can't measure the allocated bytes of a thread,
+ * and on JVMs before Java 9, whose Strings take twice the bytes of the recorded budgets.
+ * </p>
+ *
+ * @author Oliver Lorenz
+ */
+public final class AllocationBudgetTest {
+    
+    private static final String BUDGETS = "allocation-budgets.properties";
+    
+    private static final QueryModifier WILDCARDED = QueryModifier.start().required().wildcarded().end();
+    
+    private static final List<String> IDS_10 = ids(10);
+    private static final List<String> IDS_1000 = ids(1000);
+    
+    private static AllocationMeter meter;
+    
+    private static Properties budgets;
+    
+    private static List<String> ids(int size) {
+        final List<String> ids = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            ids.add(Integer.toString(1000000 + i * 7919, 36));
+        }
+        return ids;
+    }
+    
+    /**
+     * Loads the budgets.
+     * @throws IOException if the budgets could not be read
+     */
+    @BeforeClass
+    public static void setupClass() throws IOException {
+        meter = AllocationMeter.create();
+        budgets = new Properties();
+        final InputStream in = AllocationBudgetTest.class.getClassLoader().getResourceAsStream(BUDGETS);
+        Assert.assertNotNull(BUDGETS + " not found", in);
+        try {
+            budgets.load(in);
+        } finally {
+            in.close();
+        }
+    }
+    
+    private void assertBudget(String scenario, AllocationMeter.Operation operation) {
+        Assume.assumeNotNull(meter);
+        // 1.6, 1.7 and 1.8 have no compact strings
+        Assume.assumeTrue(!System.getProperty("java.specification.version").startsWith("1."));
+        
+        final long measured = meter.measure(operation);
+        if (Boolean.getBoolean("allocation.budgets.print")) {
+            System.out.println(scenario + " = " + measured);
+        }
+        
+        final String budget = budgets.getProperty(scenario);
+        Assert.assertNotNull("no budget for " + scenario + ", it allocates " + measured + " bytes", budget);
+        if (measured > Long.parseLong(budget.trim())) {
+            Assert.fail(scenario + " allocates " + measured + " bytes per operation, the budget is " + budget);
+        }
+    }
+    
+    /**
+     * Escaping a value without special characters.
+     */
+    @Test
+    public void escapePlain() {
+        assertBudget("escape.plain", new AllocationMeter.Operation() {
+            
+            @Override
+            public Object run() {
+                return LuceneHelper.escapeAll("plainvalue123");
+            }
+            
+        });
+    }
+    
+    /**
+     * Escaping a value with special characters.
+     */
+    @Test
+    public void escapeSpecial() {
+        assertBudget("escape.special", new AllocationMeter.Operation() {
+            
+            @Override
+            public Object run() {
+                return LuceneHelper.escapeAll("red/blue T-Shirt \"XL\" (2-pack)");
+            }
+            
+        });
+    }
+    
+    /**
+     * A single field with a single value.
+     */
+    @Test
+    public void singleField() {
+        assertBudget("query.singleField", new AllocationMeter.Operation() {
+            
+            @Override
+            public Object run() {
+                return new DefaultLuceneQuery().addField("name", "value").getQuery();
+            }
+            
+        });
+    }
+    
+    /**
+     * A list of 10 ids.
+     */
+    @Test
+    public void idList10() {
+        assertBudget("query.idList10", new AllocationMeter.Operation() {
+            
+            @Override
+            public Object run() {
+                return new DefaultLuceneQuery().addField("id", IDS_10, LuceneQuery.MOD_ID).getQuery();
+            }
+            
+        });
+    }
+    
+    /**
+     * A list of 1000 ids.
+     */
+    @Test
+    public void idList1000() {
+        assertBudget("query.idList1000", new AllocationMeter.Operation() {
+            
+            @Override
+            public Object run() {
+                return new DefaultLuceneQuery().addField("id", IDS_1000, LuceneQuery.MOD_ID).getQuery();
+            }
+            
+        });
+    }
+    
+    /**
+     * Multi-word text input with {@link LuceneQuery#MOD_TEXT}.
+     */
+    @Test
+    public void text() {
+        assertBudget("query.text", new AllocationMeter.Operation() {
+            
+            @Override
+            public Object run() {
+                return new DefaultLuceneQuery().addField("name", "red running shoes", LuceneQuery.MOD_TEXT).getQuery();
+            }
+            
+        });
+    }
+    
+    /**
+     * Autocompletion with {@link LuceneQuery#MOD_AUTOCOMPLETE}.
+     */
+    @Test
+    public void autocomplete() {
+        assertBudget("query.autocomplete", new AllocationMeter.Operation() {
+            
+            @Override
+            public Object run() {
+                return new DefaultLuceneQuery().addField("name", "runn", LuceneQuery.MOD_AUTOCOMPLETE).getQuery();
+            }
+            
+        });
+    }
+    
+    /**
+     * Nested fields with a range, a wildcarded value and a boost.
+     */
+    @Test
+    public void nestedFields() {
+        assertBudget("query.nestedFields", new AllocationMeter.Operation() {
+            
+            @Override
+            public Object run() {
+                final LuceneQuery query = new DefaultLuceneQuery();
+                query.startField("category", true);
+                query.addArgument(IDS_10, LuceneQuery.MOD_ID);
+                query.endField();
+                query.addRangeField("price", 10, 100);
+                query.startField("name", false);
+                query.addArgument("shoe", WILDCARDED);
+                query.addBoost(2.0);
+                query.endField();
+                return query.getQuery();
+            }
+            
+        });
+    }
+    
+    /**
+     * A query built from a locked {@link LuceneQueryBuilder}.
+     */
+    @Test
+    public void builderBuild() {
+        final LuceneQueryBuilder builder = new LuceneQueryBuilder();
+        builder.addField("type", "product", true);
+        builder.addField("shop", "eu", true);
+        builder.lock();
+        
+        assertBudget("builder.build", new AllocationMeter.Operation() {
+            
+            @Override
+            public Object run() {
+                return builder.build().addField("name", "shoe").getQuery();
+            }
+            
+        });
+    }
+    
+    /**
+     * A {@link PreparedLuceneQuery} with a bound value.
+     */
+    @Test
+    public void preparedBind() {
+        final PreparedLuceneQueryBuilder builder = new PreparedLuceneQueryBuilder();
+        builder.addField("type", "product", true);
+        builder.addField("name", PreparedLuceneQuery.param("name"), LuceneQuery.MOD_TEXT);
+        final PreparedLuceneQuery prepared = builder.build();
+        
+        assertBudget("prepared.bind", new AllocationMeter.Operation() {
+            
+            @Override
+            public Object run() {
+                return prepared.bind("name", "red shoes").getQuery();
+            }
+            
+        });
+    }
+    
+    /**
+     * A large subquery, which is referenced instead of copied.
+     */
+    @Test
+    public void largeSubquery() {
+        final LuceneQuery subquery = new DefaultLuceneQuery().addField("text", Strings.repeat("a", 2000));
+        
+        assertBudget("query.largeSubquery", new AllocationMeter.Operation() {
+            
+            @Override
+            public Object run() {
+                final DefaultLuceneQuery query = new DefaultLuceneQuery();
+                query.addField("type", "product", true);
+                query.addSubquery(subquery);
+                return query.length();
+            }
+            
+        });
+    }
+    
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * <p> Measures the bytes that the current thread allocates per operation,
+ * with {@code com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}.
+ * </p>
+ * <p> The operation is warmed up first, so that it is compiled and escape analysis
+ * can remove short-lived objects, as in a long running application.
+ * The result is the minimum of a few rounds, which filters out
+ * allocations of the JVM itself (like the compiler or class loading).
+ * </p>
+ *
+ * @author Oliver Lorenz
+ */
+final class AllocationMeter {
+    
+    private static final int WARMUP = 20000;
+    private static final int ROUNDS = 5;
+    private static final int OPERATIONS = 1000;
+    
+    private final com.sun.management.ThreadMXBean threads;
+    
+    // the results of the operations, so that the JIT can't remove them
+    private volatile Object sink;
+    
+    /**
+     * An operation whose allocations are measured.
+     */
+    interface Operation {
+        
+        /**
+         * Runs the operation once.
+         * @return the result of the operation
+         */
+        Object run();
+        
+    }
+    
+    private AllocationMeter(com.sun.management.ThreadMXBean threads) {
+        this.threads = threads;
+    }
+    
+    /**
+     * Returns an AllocationMeter, or null if the JVM can't measure allocated bytes.
+     * @return a new AllocationMeter or null
+     */
+    public static AllocationMeter create() {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        try {
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+                if (threads.isThreadAllocatedMemorySupported()) {
+                    threads.setThreadAllocatedMemoryEnabled(true);
+                    return new AllocationMeter(threads);
+                }
+            }
+            return null;
+        } catch (UnsupportedOperationException e) {
+            return null;
+        } catch (NoClassDefFoundError e) {
+            // not a sun/oracle/openjdk jvm
+            return null;
+        }
+    }
+    
+    private long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    
+    /**
+     * Measures the bytes that are allocated by one call of the given operation.
+     * @param operation the operation to measure
+     * @return the allocated bytes per call
+     */
+    public long measure(Operation operation) {
+        for (int i = 0; i < WARMUP; i++) {
+            sink = operation.run();
+        }
+        
+        long minimum = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            final long before = allocatedBytes();
+            for (int i = 0; i < OPERATIONS; i++) {
+                sink = operation.run();
+            }
+            final long after = allocatedBytes();
+            minimum = Math.min(minimum, (after - before) / OPERATIONS);
+        }
+        return minimum;
+    }
+    
+}
@@ -0,0 +1,232 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.cosmocode.lucene.DefaultLuceneQuery.ClauseHandle;
+
+/**
+ * Tests {@link DefaultLuceneQuery#addClause(LuceneQuery)} and the {@link ClauseHandle}s it returns.
+ *
+ * @author Oliver Lorenz
+ */
+public final class ClauseHandleTest {
+    
+    private static DefaultLuceneQuery facet(final String field, final String value) {
+        final DefaultLuceneQuery facet = new DefaultLuceneQuery();
+        facet.addField(field, value, true);
+        return facet;
+    }
+    
+    private static DefaultLuceneQuery permissions() {
+        final List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            ids.add("id" + i);
+        }
+        final DefaultLuceneQuery permissions = new DefaultLuceneQuery();
+        permissions.addField("acl", ids, LuceneQuery.MOD_ID);
+        return permissions;
+    }
+    
+    /**
+     * Tests that added clauses are rendered in order with the clauses of the add...-methods.
+     */
+    @Test
+    public void addClause() {
+        final DefaultLuceneQuery query = new DefaultLuceneQuery();
+        query.addField("type", "product", true);
+        query.addClause(facet("color", "red"));
+        query.addField("name", "shirt", true);
+        Assert.assertEquals("+type:((product) ) +color:((red) ) +name:((shirt) ) ", query.getQuery());
+        Assert.assertEquals(query.getQuery(), query.appendQueryTo(new StringBuilder()).toString());
+    }
+    
+    /**
+     * Tests that a field that is ended right after an added clause is reverted without touching the clause.
+     */
+    @Test
+    public void emptyFieldAfterClause() {
+        final DefaultLuceneQuery query = new DefaultLuceneQuery();
+        query.addField("type", "product", true);
+        query.addClause(facet("color", "red"));
+        query.startField("empty", true);
+        query.endField();
+        Assert.assertFalse(query.lastSuccessful());
+        query.addField("name", "shirt", true);
+        Assert.assertEquals("+type:((product) ) +color:((red) ) +name:((shirt) ) ", query.getQuery());
+    }
+    
+    /**
+     * Tests that a removed clause disappears and the other segments stay untouched.
+     */
+    @Test
+    public void remove() {
+        final DefaultLuceneQuery permissions = permissions();
+        final DefaultLuceneQuery query = new DefaultLuceneQuery();
+        query.addClause(permissions);
+        final ClauseHandle color = query.addClause(facet("color", "red"));
+        query.addClause(facet("size", "xl"));
+        
+        query.remove(color);
+        Assert.assertFalse(color.isValid());
+        Assert.assertEquals(permissions.getQuery() + "+size:((xl) ) ", query.getQuery());
+    }
+    
+    /**
+     * Tests that a replaced clause keeps its position and its handle.
+     */
+    @Test
+    public void replace() {
+        final DefaultLuceneQuery query = new DefaultLuceneQuery();
+        query.addField("type", "product", true);
+        final ClauseHandle color = query.addClause(facet("color", "red"));
+        query.addField("name", "shirt", true);
+        
+        Assert.assertSame(color, query.replace(color, facet("color", "blue")));
+        Assert.assertTrue(color.isValid());
+        Assert.assertEquals("+type:((product) ) +color:((blue) ) +name:((shirt) ) ", query.getQuery());
+        
+        query.replace(color, facet("color", "green"));
+        Assert.assertEquals("+type:((product) ) +color:((green) ) +name:((shirt) ) ", query.getQuery());
+    }
+    
+    /**
+     * Tests that a clause is a snapshot, later changes of its query are not visible.
+     */
+    @Test
+    public void snapshot() {
+        final DefaultLuceneQuery permissions = permissions();
+        final String expected = permissions.getQuery();
+        final DefaultLuceneQuery query = new DefaultLuceneQuery();
+        query.addClause(permissions);
+        permissions.addField("acl", "other", true);
+        Assert.assertEquals(expected, query.getQuery());
+        permissions.reset();
+        Assert.assertEquals(expected, query.getQuery());
+    }
+    
+    /**
+     * Tests that a clause of a query that is not a DefaultLuceneQuery is separated by a blank.
+     */
+    @Test
+    public void otherQuery() {
+        final LuceneQuery other = new LuceneQueryBuilder();
+        other.addArgument("a");
+        final DefaultLuceneQuery query = new DefaultLuceneQuery();
+        final ClauseHandle handle = query.addClause(other);
+        query.addArgument("b");
+        Assert.assertEquals("(a) (b) ", query.getQuery());
+        query.remove(handle);
+        Assert.assertEquals("(b) ", query.getQuery());
+    }
+    
+    /**
+     * Tests that a query with clauses can be used as a subquery and as a clause.
+     */
+    @Test
+    public void nested() {
+        final DefaultLuceneQuery inner = new DefaultLuceneQuery();
+        inner.addArgument("a");
+        inner.addClause(facet("color", "red"));
+        
+        final DefaultLuceneQuery outer = new DefaultLuceneQuery();
+        outer.addSubquery(inner, QueryModifier.start().required().end());
+        outer.addClause(inner);
+        Assert.assertEquals("+((a) +color:((red) ) ) (a) +color:((red) ) ", outer.getQuery());
+    }
+    
+    /**
+     * Tests that a boost does not apply to the clause that was added last.
+     */
+    @Test
+    public void boost() {
+        final DefaultLuceneQuery query = new DefaultLuceneQuery();
+        query.addClause(facet("color", "red"));
+        query.addBoost(2.0);
+        query.addArgument("a").addBoost(3.0);
+        Assert.assertEquals("+color:((red) ) (a) ^3.0 ", query.getQuery());
+    }
+    
+    /**
+     * Tests that the query is empty after all clauses were removed.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void removeAll() {
+        final DefaultLuceneQuery query = new DefaultLuceneQuery();
+        query.remove(query.addClause(facet("color", "red")));
+        query.getQuery();
+    }
+    
+    /**
+     * Tests that a handle is invalid after a reset.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void reset() {
+        final DefaultLuceneQuery query = new DefaultLuceneQuery();
+        final ClauseHandle handle = query.addClause(facet("color", "red"));
+        query.reset();
+        Assert.assertFalse(handle.isValid());
+        query.addClause(facet("color", "red"));
+        query.remove(handle);
+    }
+    
+    /**
+     * Tests that a handle can only be removed once.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void removeTwice() {
+        final DefaultLuceneQuery query = new DefaultLuceneQuery();
+        final ClauseHandle handle = query.addClause(facet("color", "red"));
+        query.remove(handle);
+        query.remove(handle);
+    }
+    
+    /**
+     * Tests that a handle of another query is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void foreignHandle() {
+        final DefaultLuceneQuery query = new DefaultLuceneQuery();
+        final ClauseHandle handle = query.addClause(facet("color", "red"));
+        new DefaultLuceneQuery().replace(handle, facet("color", "blue"));
+    }
+    
+    /**
+     * Tests that an empty clause is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyClause() {
+        new DefaultLuceneQuery().addClause(new DefaultLuceneQuery());
+    }
+    
+    /**
+     * Tests that a clause can not be added within a field.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void withinField() {
+        final DefaultLuceneQuery query = new DefaultLuceneQuery();
+        query.startField("color", QueryModifier.DEFAULT);
+        query.addClause(facet("color", "red"));
+    }
+    
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Tests the metrics of {@link InstrumentedLuceneQuery} in a {@link DefaultQueryMetricsRegistry}.
+ *
+ * @author Oliver Lorenz
+ */
+public final class DefaultQueryMetricsRegistryTest {
+    
+    private DefaultQueryMetricsRegistry registry;
+    
+    private InstrumentedLuceneQueryFactory factory;
+    
+    /**
+     * Creates a new registry and factory for every test.
+     */
+    @Before
+    public void setUp() {
+        registry = new DefaultQueryMetricsRegistry();
+        factory = new InstrumentedLuceneQueryFactory(LuceneHelper.DEFAULT_FACTORY, registry);
+    }
+    
+    /**
+     * Tests that the same handle is returned for the same name.
+     */
+    @Test
+    public void sameHandle() {
+        Assert.assertSame(registry.counter("a"), registry.counter("a"));
+        Assert.assertSame(registry.recorder("a"), registry.recorder("a"));
+        Assert.assertNotSame(registry.counter("a"), registry.counter("b"));
+    }
+    
+    /**
+     * Tests that the striped counter sums up the increments of many threads.
+     * @throws InterruptedException if the test is interrupted
+     */
+    @Test
+    public void stripedCounter() throws InterruptedException {
+        final StripedCounter counter = registry.counter("concurrent");
+        final Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        counter.increment();
+                    }
+                }
+                
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(8000L, counter.get());
+        Assert.assertEquals(8000L, registry.getCount("concurrent"));
+    }
+    
+    /**
+     * Tests the calls and clauses of a query with a collection, a range and a fuzzy argument.
+     */
+    @Test
+    public void metrics() {
+        final LuceneQuery query = factory.create();
+        query.addField("category", Lists.newArrayList("1", "2", "3"), LuceneQuery.MOD_ID);
+        query.addRangeField("price", 10, 20, LuceneQuery.MOD_ID);
+        query.addFuzzyArgument("text");
+        query.addArgument("prefix", LuceneQuery.MOD_TEXT);
+        
+        Assert.assertEquals(0L, registry.getCount(InstrumentedLuceneQuery.BUILT));
+        final String rendered = query.getQuery();
+        
+        Assert.assertEquals(1L, registry.getCount(InstrumentedLuceneQuery.BUILT));
+        Assert.assertEquals(2L, registry.getCount(InstrumentedLuceneQuery.CALLS + "startField"));
+        Assert.assertEquals(2L, registry.getCount(InstrumentedLuceneQuery.CALLS + "endField"));
+        Assert.assertEquals(1L, registry.getCount(InstrumentedLuceneQuery.CALLS + "addArgumentAsCollection"));
+        Assert.assertEquals(1L, registry.getCount(InstrumentedLuceneQuery.CALLS + "addRange"));
+        Assert.assertEquals(2L, registry.getCount(InstrumentedLuceneQuery.CALLS + "addArgument"));
+        Assert.assertEquals(0L, registry.getCount(InstrumentedLuceneQuery.FAILURES));
+        
+        Assert.assertEquals(6L, registry.getHistogram(InstrumentedLuceneQuery.CLAUSES).getSum());
+        Assert.assertEquals(1L, registry.getHistogram(InstrumentedLuceneQuery.WILDCARD_CLAUSES).getSum());
+        Assert.assertEquals(1L, registry.getHistogram(InstrumentedLuceneQuery.FUZZY_CLAUSES).getSum());
+        Assert.assertEquals(rendered.length(), registry.getHistogram(InstrumentedLuceneQuery.LENGTH).getSum());
+        Assert.assertEquals(1L, registry.getHistogram(InstrumentedLuceneQuery.BUILD_NANOS).getCount());
+    }
+    
+    /**
+     * Tests that the values of an iterator are counted while it is consumed.
+     */
+    @Test
+    public void iteratorMetrics() {
+        final LuceneQuery query = factory.create();
+        query.addFieldAsIterator("category", Lists.newArrayList("1", "2", "3").iterator(), LuceneQuery.MOD_ID);
+        query.getQuery();
+        
+        Assert.assertEquals(1L, registry.getCount(InstrumentedLuceneQuery.CALLS + "addArgumentAsIterator"));
+        Assert.assertEquals(3L, registry.getHistogram(InstrumentedLuceneQuery.CLAUSES).getSum());
+    }
+    
+    /**
+     * Tests that a query is published only once, until it is reset.
+     */
+    @Test
+    public void publishedOnce() {
+        final InstrumentedLuceneQuery query = InstrumentedLuceneQuery.class.cast(factory.create());
+        query.addArgument("value");
+        query.getQuery();
+        query.getQuery();
+        Assert.assertEquals(1L, registry.getCount(InstrumentedLuceneQuery.BUILT));
+        
+        query.reset();
+        query.addArgument("other");
+        query.getQuery();
+        Assert.assertEquals(2L, registry.getCount(InstrumentedLuceneQuery.BUILT));
+        Assert.assertEquals(2L, registry.getCount(InstrumentedLuceneQuery.CALLS + "addArgument"));
+    }
+    
+    /**
+     * Tests that failed calls are counted and do not count as clauses.
+     */
+    @Test
+    public void failures() {
+        final LuceneQuery query = factory.create();
+        query.addArgument((String) null);
+        query.addArgument("   ");
+        query.addArgument("value");
+        query.getQuery();
+        
+        Assert.assertEquals(3L, registry.getCount(InstrumentedLuceneQuery.CALLS + "addArgument"));
+        Assert.assertEquals(2L, registry.getCount(InstrumentedLuceneQuery.FAILURES));
+        Assert.assertEquals(1L, registry.getHistogram(InstrumentedLuceneQuery.CLAUSES).getSum());
+    }
+    
+    /**
+     * Tests that an instrumented subquery is counted as part of the enclosing query.
+     */
+    @Test
+    public void subquery() {
+        final LuceneQuery sub = factory.create();
+        sub.addArgument("a");
+        sub.addArgument("b");
+        final LuceneQuery query = factory.create();
+        query.addSubquery(sub);
+        query.addArgument("c");
+        query.getQuery();
+        
+        Assert.assertEquals(1L, registry.getCount(InstrumentedLuceneQuery.BUILT));
+        Assert.assertEquals(3L, registry.getCount(InstrumentedLuceneQuery.CALLS + "addArgument"));
+        Assert.assertEquals(3L, registry.getHistogram(InstrumentedLuceneQuery.CLAUSES).getSum());
+    }
+    
+    /**
+     * Tests that the time to render an instrumented subquery is counted only once in the enclosing query.
+     */
+    @Test
+    public void subqueryRenderedOnce() {
+        final long sleepMillis = 200L;
+        final LuceneQuery slow = new ForwardingLuceneQuery() {
+            
+            private final LuceneQuery delegate = new DefaultLuceneQuery();
+            
+            @Override
+            protected LuceneQuery delegate() {
+                return delegate;
+            }
+            
+            @Override
+            public String getQuery() {
+                try {
+                    Thread.sleep(sleepMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getQuery();
+            }
+            
+        };
+        final InstrumentedLuceneQuery sub = new InstrumentedLuceneQuery(slow, registry);
+        sub.addArgument("a");
+        final InstrumentedLuceneQuery query = InstrumentedLuceneQuery.class.cast(factory.create());
+        query.addSubquery(sub);
+        
+        final long sleepNanos = TimeUnit.MILLISECONDS.toNanos(sleepMillis);
+        Assert.assertTrue(query.getBuildNanos() >= sleepNanos);
+        Assert.assertTrue(query.getBuildNanos() < 2 * sleepNanos);
+    }
+    
+}
@@ -0,0 +1,290 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriter.MaxFieldLength;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests {@link EdgeNGrams} and the rendering of wildcarded values with edge n-grams enabled.
+ *
+ * @author Oliver Lorenz
+ */
+public final class EdgeNGramsTest {
+    
+    private static final QueryModifier WILDCARDED = QueryModifier.start().required().wildcarded().end();
+    
+    private static final QueryModifier EDGE = WILDCARDED.copy().edgeNGrams().end();
+    
+    private static IndexSearcher searcher;
+    
+    /**
+     * Creates an index with 100 documents, whose field "name" contains "name" and "itemNN"
+     * and one of ten colors, with the edge n-grams of the names.
+     * @throws IOException if the index could not be created
+     */
+    @BeforeClass
+    public static void createIndex() throws IOException {
+        final String[] colors = {"red", "green", "blue", "black", "brown", "grey", "gold", "pink", "purple", "white"};
+        final RAMDirectory directory = new RAMDirectory();
+        final IndexWriter writer = new IndexWriter(directory, new WhitespaceAnalyzer(), MaxFieldLength.UNLIMITED);
+        for (int i = 0; i < 100; i++) {
+            final String name = "name item" + (i < 10 ? "0" : "") + i + " " + colors[i % 10];
+            writer.addDocument(EdgeNGrams.createDocument("name", name));
+        }
+        writer.close();
+        searcher = new IndexSearcher(directory);
+    }
+    
+    /**
+     * Closes the searcher.
+     * @throws IOException if the searcher could not be closed
+     */
+    @AfterClass
+    public static void closeIndex() throws IOException {
+        searcher.close();
+    }
+    
+    private static int count(final LuceneQuery query) throws IOException, ParseException {
+        final Query parsed = new QueryParser("name", new WhitespaceAnalyzer()).parse(query.getQuery());
+        return searcher.search(parsed, 100).totalHits;
+    }
+    
+    private static LuceneQuery field(final String value, final QueryModifier modifier) {
+        final LuceneQuery query = new DefaultLuceneQuery();
+        query.addField("name", value, modifier);
+        return query;
+    }
+    
+    /**
+     * Tests {@link EdgeNGrams#grams(String)}.
+     */
+    @Test
+    public void grams() {
+        Assert.assertEquals(
+            Arrays.asList("a", "ab", "abc", "x", "xy"),
+            Arrays.asList(EdgeNGrams.grams("Abc xy  ab").toArray())
+        );
+        Assert.assertTrue(EdgeNGrams.grams(null).isEmpty());
+    }
+    
+    /**
+     * Tests {@link EdgeNGrams#grams(org.apache.lucene.analysis.Analyzer, String, String)},
+     * which splits the value like the analyzer of the field.
+     * @throws IOException if the value could not be analyzed
+     */
+    @Test
+    public void gramsAnalyzed() throws IOException {
+        Assert.assertEquals(
+            Arrays.asList("f", "fo", "foo", "b", "ba", "bar", "baz"),
+            Arrays.asList(EdgeNGrams.grams(new StandardAnalyzer(), "name", "Foo-Bar, baz!").toArray())
+        );
+        Assert.assertFalse(EdgeNGrams.grams("Foo-Bar, baz!").contains("bar"));
+    }
+    
+    /**
+     * Tests that n-grams built by the analyzer of a field find the same documents as a prefix query.
+     * @throws IOException if the index could not be created
+     * @throws ParseException if a query could not be parsed
+     */
+    @Test
+    public void sameHitsAnalyzed() throws IOException, ParseException {
+        final StandardAnalyzer analyzer = new StandardAnalyzer();
+        final RAMDirectory directory = new RAMDirectory();
+        final IndexWriter writer = new IndexWriter(directory, analyzer, MaxFieldLength.UNLIMITED);
+        writer.addDocument(EdgeNGrams.createDocument(analyzer, "name", "Foo-Bar, baz!"));
+        writer.close();
+        
+        final IndexSearcher analyzed = new IndexSearcher(directory);
+        try {
+            final QueryParser parser = new QueryParser("name", analyzer);
+            for (final String prefix : new String[] {"fo", "bar", "ba"}) {
+                final int expected = analyzed.search(parser.parse(field(prefix, WILDCARDED).getQuery()), 1).totalHits;
+                Assert.assertEquals(prefix, 1, expected);
+                Assert.assertEquals(prefix, expected, 
+                    analyzed.search(parser.parse(field(prefix, EDGE).getQuery()), 1).totalHits);
+            }
+        } finally {
+            analyzed.close();
+        }
+    }
+    
+    /**
+     * Tests that {@link EdgeNGrams#grams(String)} stops at {@link EdgeNGrams#MAX_GRAM}.
+     */
+    @Test
+    public void gramsMax() {
+        final String longToken = "abcdefghijklmnopqrstuvwxyz";
+        Assert.assertEquals(EdgeNGrams.MAX_GRAM, EdgeNGrams.grams(longToken).size());
+        Assert.assertFalse(EdgeNGrams.isLookup(longToken));
+        Assert.assertTrue(EdgeNGrams.isLookup(longToken.substring(0, EdgeNGrams.MAX_GRAM)));
+    }
+    
+    /**
+     * Tests {@link EdgeNGrams#isLookup(String)} with whitespace and empty values.
+     */
+    @Test
+    public void isLookup() {
+        Assert.assertFalse(EdgeNGrams.isLookup("item blue"));
+        Assert.assertFalse(EdgeNGrams.isLookup(""));
+        Assert.assertFalse(EdgeNGrams.isLookup(null));
+        Assert.assertTrue(EdgeNGrams.isLookup("i"));
+    }
+    
+    /**
+     * Tests {@link EdgeNGrams#addTo(Document, String, String)}.
+     */
+    @Test
+    public void addTo() {
+        final Document doc = EdgeNGrams.addTo(new Document(), "name", "Blue blue");
+        Assert.assertEquals(4, doc.getFields("name" + EdgeNGrams.FIELD_SUFFIX).length);
+        Assert.assertNull(doc.get("name"));
+    }
+    
+    /**
+     * Tests {@link EdgeNGrams#addTo(Document, String, String)} with null as field.
+     * Expects a NullPointerException.
+     */
+    @Test(expected = NullPointerException.class)
+    public void addToFieldNull() {
+        EdgeNGrams.addTo(new Document(), null, "value");
+    }
+    
+    /**
+     * Tests that a wildcarded value of a field is rendered as a term of the n-gram field.
+     * @throws ParseException if the query could not be parsed
+     */
+    @Test
+    public void rendered() throws ParseException {
+        final String rendered = field("Ite", EDGE).getQuery();
+        Assert.assertEquals("+name:((name_edge:ite) ) ", rendered);
+        final Query parsed = new QueryParser("name", new WhitespaceAnalyzer()).parse(rendered);
+        Assert.assertEquals("+name_edge:ite", parsed.toString());
+    }
+    
+    /**
+     * Tests that a wildcarded value outside of a field is still rendered as prefix.
+     */
+    @Test
+    public void renderedWithoutField() {
+        final LuceneQuery query = new DefaultLuceneQuery();
+        query.addArgument("ite", EDGE);
+        Assert.assertEquals(new DefaultLuceneQuery().addArgument("ite", WILDCARDED).getQuery(), query.getQuery());
+    }
+    
+    /**
+     * Tests that a value that is too long for the n-gram field is still rendered as prefix.
+     */
+    @Test
+    public void renderedTooLong() {
+        final String value = "itemitemitemitemitemitem";
+        Assert.assertEquals(field(value, WILDCARDED).getQuery(), field(value, EDGE).getQuery());
+    }
+    
+    /**
+     * Tests that the field of a value is not used after the field was ended.
+     */
+    @Test
+    public void renderedAfterEndField() {
+        final LuceneQuery query = new DefaultLuceneQuery();
+        query.addField("name", "ite", EDGE);
+        query.addArgument("blu", EDGE);
+        Assert.assertEquals("+name:((name_edge:ite) ) +((\"blu\" blu*)) ", query.getQuery());
+    }
+    
+    /**
+     * Tests that the outer field is used again after a nested field was ended.
+     */
+    @Test
+    public void renderedAfterNestedField() {
+        final LuceneQuery query = new DefaultLuceneQuery();
+        query.startField("name", QueryModifier.DEFAULT);
+        query.addField("color", "bl", EDGE);
+        query.addArgument("ite", EDGE);
+        query.endField();
+        Assert.assertEquals("name:(+color:((color_edge:bl) ) +(name_edge:ite) ) ", query.getQuery());
+    }
+    
+    /**
+     * Tests that the {@link DirectApiLuceneQuery} looks up the same n-gram terms and finds the same documents.
+     * @throws IOException if the search failed
+     * @throws ParseException if a query could not be parsed
+     */
+    @Test
+    public void directApi() throws IOException, ParseException {
+        for (final String prefix : new String[] {"i", "item0", "Gr", "x"}) {
+            final DirectApiLuceneQuery query = new DirectApiLuceneQuery("name", new WhitespaceAnalyzer());
+            query.addField("name", prefix, EDGE);
+            final Query direct = query.toQuery();
+            Assert.assertEquals(prefix, count(field(prefix, EDGE)), searcher.search(direct, 100).totalHits);
+            final String lookup = "name_edge:" + EdgeNGrams.normalize(prefix);
+            Assert.assertTrue(direct.toString(), direct.toString().contains(lookup));
+        }
+    }
+    
+    /**
+     * Tests a wildcarded fuzzy value with edge n-grams.
+     */
+    @Test
+    public void renderedFuzzy() {
+        final QueryModifier fuzzy = EDGE.copy().setFuzzyness(0.7).end();
+        Assert.assertEquals("+name:(((name_edge:ite ite~0.7)) ) ", field("ite", fuzzy).getQuery());
+    }
+    
+    /**
+     * Tests that the n-gram lookups find the same documents as the prefix queries.
+     * @throws IOException if the search failed
+     * @throws ParseException if a query could not be parsed
+     */
+    @Test
+    public void sameHits() throws IOException, ParseException {
+        for (final String prefix : new String[] {"i", "item", "item0", "item42", "b", "bl", "Gr", "name", "x"}) {
+            Assert.assertEquals(prefix, count(field(prefix, WILDCARDED)), count(field(prefix, EDGE)));
+        }
+        Assert.assertEquals(30, count(field("b", EDGE)));
+        Assert.assertEquals(10, count(field("item0", EDGE)));
+    }
+    
+    /**
+     * Tests that the n-gram lookup is a single term query.
+     * @throws ParseException if the query could not be parsed
+     */
+    @Test
+    public void termQuery() throws ParseException {
+        final Query parsed = new QueryParser("name", new WhitespaceAnalyzer()).parse(field("i", EDGE).getQuery());
+        final Query clause = ((BooleanQuery) parsed).getClauses()[0].getQuery();
+        Assert.assertTrue(clause instanceof TermQuery);
+    }
+    
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.Query;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Tests {@link FastQueryParser}.
+ *
+ * @author Oliver Lorenz
+ */
+public final class FastQueryParserTest {
+    
+    private static final List<String> SUPPORTED = Arrays.asList(
+        "value", "+value", "-value", "Value Other", "+a -b c",
+        "field:value", "+field:(a b) -other:(\"c d\")", "field : value", "a:(b:(c))",
+        "(a) (b c)", "+(a)", "((a))^2", "(a b)^0.5", "a^2", "a^2.5 b^10",
+        "\"a phrase\"", "\"a phrase\"~3", "\"a phrase\"^2", "\"single\"", "\"\"", "\"esc\\\"aped\"",
+        "abc*", "ABC*", "a*c", "a?c", "ab*c*", "a\\*b", "a\\ b*", "a\\*b*c",
+        "abc~", "abc~0.7", "ABC~0.75^2", "abc ~0.7", "abc^2~0.7",
+        "[a TO b]", "{a TO b}", "[1.0 TO 2.5]", "[A* TO B*]", "[a b]", "field:[10 TO 20]^2",
+        "a-b", "a+b", "a&&b", "a\\:b", "a\\(b\\)", "+(\"value\" value*)", "a(b)", "-(a) +(b)",
+        "the a", "+(the) +value", "foo.bar baz@qux.com"
+    );
+    
+    private static final List<String> UNSUPPORTED = Arrays.asList(
+        "a AND b", "a OR b", "NOT a", "a && b", "a || b", "!a", "*abc", "?abc", "*",
+        "[1/1/10 TO 2/2/10]", "[\"a\" TO b]", "a\\u0041", "field*:value"
+    );
+    
+    private static final List<String> INVALID = Arrays.asList(
+        "", "  ", "(", ")", "(a", "a)", "()", "a:", "\"open", "a^", "a^b", "a^ 1.5",
+        "[a TO b", "[a TO]", "a\\", "+", "a~2"
+    );
+    
+    private static void assertSameAsQueryParser(final Analyzer analyzer, final String query) throws ParseException {
+        final FastQueryParser parser = new FastQueryParser("text", analyzer);
+        final Query expected = new QueryParser("text", analyzer).parse(query);
+        final Query actual = parser.parseFast(query);
+        Assert.assertNotNull(query, actual);
+        Assert.assertEquals(query, expected, actual);
+        Assert.assertEquals(query, expected.toString(), actual.toString());
+    }
+    
+    /**
+     * Tests that the supported syntax is parsed like the QueryParser does.
+     * @throws ParseException if the QueryParser can't parse a query
+     */
+    @Test
+    public void supported() throws ParseException {
+        for (final String query : SUPPORTED) {
+            assertSameAsQueryParser(new WhitespaceAnalyzer(), query);
+            assertSameAsQueryParser(new StandardAnalyzer(), query);
+        }
+    }
+    
+    /**
+     * Tests that unsupported syntax is handed to the QueryParser.
+     * @throws ParseException if the QueryParser can't parse a query
+     */
+    @Test
+    public void unsupported() throws ParseException {
+        final FastQueryParser parser = new FastQueryParser("text", new WhitespaceAnalyzer());
+        for (final String query : UNSUPPORTED) {
+            Assert.assertNull(query, parser.parseFast(query));
+            final QueryParser queryParser = new QueryParser("text", new WhitespaceAnalyzer());
+            queryParser.setAllowLeadingWildcard(false);
+            Query expected;
+            try {
+                expected = queryParser.parse(query);
+            } catch (ParseException e) {
+                expected = null;
+            }
+            try {
+                Assert.assertEquals(query, expected, parser.parse(query));
+            } catch (ParseException e) {
+                Assert.assertNull(query, expected);
+            }
+        }
+        Assert.assertEquals(0, parser.getParsed());
+        Assert.assertEquals(UNSUPPORTED.size(), parser.getFallbacks());
+    }
+    
+    /**
+     * Tests that invalid queries throw the ParseException of the QueryParser.
+     */
+    @Test
+    public void invalid() {
+        final FastQueryParser parser = new FastQueryParser("text", new WhitespaceAnalyzer());
+        for (final String query : INVALID) {
+            Assert.assertNull(query, parser.parseFast(query));
+            try {
+                parser.parse(query);
+                Assert.fail("expected a ParseException for " + query);
+            } catch (ParseException e) {
+                // expected
+            } catch (IllegalArgumentException e) {
+                // expected, the FuzzyQuery rejects a similarity >= 1
+            }
+        }
+    }
+    
+    /**
+     * Tests that the queries that a {@link DefaultLuceneQuery} renders are parsed without a QueryParser.
+     * @throws ParseException if the QueryParser can't parse a query
+     */
+    @Test
+    public void rendered() throws ParseException {
+        final List<QueryModifier> modifiers = Lists.newArrayList(
+            QueryModifier.DEFAULT, LuceneQuery.MOD_ID, LuceneQuery.MOD_TEXT, LuceneQuery.MOD_NOT_ID,
+            LuceneQuery.MOD_AUTOCOMPLETE,
+            QueryModifier.start().required().wildcarded().setFuzzyness(0.7).doSplit().end(),
+            QueryModifier.start().prohibited().disjunct().doSplit().end()
+        );
+        for (final QueryModifier modifier : modifiers) {
+            for (final Object value : IndexHelper.ARGS) {
+                final LuceneQuery query = new DefaultLuceneQuery();
+                query.addField("field", value.toString() + " x-y", modifier);
+                query.addArgument(value.toString(), modifier);
+                query.addBoost(1.5);
+                query.addArgumentAsCollection(Arrays.asList(value, "Sam:Sung (tv)", "a\"b"), modifier);
+                query.addRangeField("range", value.toString(), "zzz", modifier);
+                query.addRange(1.5, 2.25, modifier);
+                assertSameAsQueryParser(new WhitespaceAnalyzer(), query.getQuery());
+                assertSameAsQueryParser(new StandardAnalyzer(), query.getQuery());
+            }
+        }
+    }
+    
+    /**
+     * Tests the counters of {@link FastQueryParser#parse(CharSequence)}.
+     * @throws ParseException if a query can't be parsed
+     */
+    @Test
+    public void counters() throws ParseException {
+        final FastQueryParser parser = new FastQueryParser("text", new WhitespaceAnalyzer());
+        parser.parse("+a b");
+        parser.parse(new StringBuilder("a OR b"));
+        Assert.assertEquals(1, parser.getParsed());
+        Assert.assertEquals(1, parser.getFallbacks());
+    }
+    
+    /**
+     * Tests {@link FastQueryParser#FastQueryParser(String, Analyzer)} with null as field.
+     * Expects a NullPointerException.
+     */
+    @Test(expected = NullPointerException.class)
+    public void fieldNull() {
+        new FastQueryParser(null, new WhitespaceAnalyzer());
+    }
+    
+}
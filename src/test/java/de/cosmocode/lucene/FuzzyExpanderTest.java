@@ -0,0 +1,205 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests {@link FuzzyExpander}.
+ *
+ * @author Oliver Lorenz
+ */
+public final class FuzzyExpanderTest {
+    
+    private static IndexReader reader;
+    
+    /**
+     * Opens the index of {@link IndexHelper#createTermsDirectory()}.
+     * @throws IOException if the index could not be created
+     */
+    @BeforeClass
+    public static void openIndex() throws IOException {
+        reader = IndexReader.open(IndexHelper.createTermsDirectory());
+    }
+    
+    /**
+     * Closes the index.
+     * @throws IOException if the index could not be closed
+     */
+    @AfterClass
+    public static void closeIndex() throws IOException {
+        reader.close();
+    }
+    
+    private static Map<String, Float> boosts(final Query query) {
+        final Map<String, Float> boosts = new HashMap<String, Float>();
+        for (final BooleanClause clause : ((BooleanQuery) query).getClauses()) {
+            final TermQuery termQuery = (TermQuery) clause.getQuery();
+            boosts.put(termQuery.getTerm().toString(), termQuery.getBoost());
+        }
+        return boosts;
+    }
+    
+    /**
+     * Tests that the expansion contains the same terms with the same boosts as the rewritten FuzzyQuery.
+     * @throws IOException if the index could not be read
+     */
+    @Test
+    public void sameAsFuzzyQuery() throws IOException {
+        final FuzzyExpander expander = new FuzzyExpander(1000, 100);
+        for (final String value : new String[] {"term42", "trem42", "gruop3", "comon", "t", "xyz", "term4"}) {
+            for (final double fuzzyness : new double[] {0.0, 0.5, 0.7, 0.9}) {
+                final Query expected = new FuzzyQuery(new Term("text", value), (float) fuzzyness).rewrite(reader);
+                final Query actual = expander.expand(reader, "text", value, fuzzyness);
+                Assert.assertEquals(value + "~" + fuzzyness, boosts(expected), boosts(actual));
+            }
+        }
+    }
+    
+    /**
+     * Tests that the expansion keeps only the best candidates, the exact term first.
+     * @throws IOException if the index could not be read
+     */
+    @Test
+    public void maxCandidates() throws IOException {
+        final FuzzyExpander expander = new FuzzyExpander(3, 100);
+        final BooleanQuery query = expander.expand(reader, "text", "term42", 0.5);
+        Assert.assertEquals(3, query.getClauses().length);
+        final TermQuery best = (TermQuery) query.getClauses()[0].getQuery();
+        Assert.assertEquals(new Term("text", "term42"), best.getTerm());
+        Assert.assertEquals(1.0f, best.getBoost(), 0.0001f);
+        Assert.assertTrue(query.isCoordDisabled());
+    }
+    
+    /**
+     * Tests that an expansion is cached until the reader changes.
+     * @throws IOException if the index could not be read
+     */
+    @Test
+    public void cached() throws IOException {
+        final FuzzyExpander expander = new FuzzyExpander();
+        expander.expand(reader, "text", "term42", 0.5);
+        expander.expand(reader, "text", "term42", 0.5);
+        expander.expand(reader, "text", "term42", 0.7);
+        Assert.assertEquals(1, expander.getHits());
+        Assert.assertEquals(2, expander.getMisses());
+        
+        final IndexReader other = IndexReader.open(IndexHelper.createTermsDirectory());
+        try {
+            expander.expand(other, "text", "term42", 0.5);
+            Assert.assertEquals(3, expander.getMisses());
+        } finally {
+            other.close();
+        }
+    }
+    
+    /**
+     * Tests that a cached expansion returns a new query every time.
+     * @throws IOException if the index could not be read
+     */
+    @Test
+    public void newQuery() throws IOException {
+        final FuzzyExpander expander = new FuzzyExpander();
+        final BooleanQuery first = expander.expand(reader, "text", "term42", 0.5);
+        first.setBoost(2.0f);
+        Assert.assertEquals(1.0f, expander.expand(reader, "text", "term42", 0.5).getBoost(), 0.0f);
+    }
+    
+    /**
+     * Tests an expansion in a field without terms.
+     * @throws IOException if the index could not be read
+     */
+    @Test
+    public void unknownField() throws IOException {
+        Assert.assertEquals(0, new FuzzyExpander().expand(reader, "unknown", "term42", 0.5).getClauses().length);
+    }
+    
+    /**
+     * Tests {@link FuzzyExpander#expand(IndexReader, String, String, double)} with an empty value.
+     * Expects an IllegalArgumentException.
+     * @throws IOException if the index could not be read
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyValue() throws IOException {
+        new FuzzyExpander().expand(reader, "text", "", 0.5);
+    }
+    
+    /**
+     * Tests {@link FuzzyExpander#expand(IndexReader, String, String, double)} with an invalid fuzzyness.
+     * Expects an IllegalArgumentException.
+     * @throws IOException if the index could not be read
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidFuzzyness() throws IOException {
+        new FuzzyExpander().expand(reader, "text", "term42", 1.0);
+    }
+    
+    /**
+     * Tests {@link FuzzyExpander#successor(String, int)}.
+     */
+    @Test
+    public void successor() {
+        Assert.assertEquals("ac", FuzzyExpander.successor("abc", 2));
+        Assert.assertEquals("b", FuzzyExpander.successor("a" + Character.MAX_VALUE, 2));
+        Assert.assertNull(FuzzyExpander.successor(String.valueOf(Character.MAX_VALUE), 1));
+    }
+    
+    /**
+     * Tests that a {@link DirectApiLuceneQuery} with an expander finds the same documents as a FuzzyQuery.
+     * @throws IOException if the index could not be searched
+     */
+    @Test
+    public void directApi() throws IOException {
+        final FuzzyExpander expander = new FuzzyExpander();
+        final DirectApiLuceneQuery query =
+            new DirectApiLuceneQuery("text", new WhitespaceAnalyzer(), reader, expander, null);
+        query.addFuzzyArgument("trem42", true, 0.5);
+        
+        final IndexSearcher searcher = new IndexSearcher(reader);
+        final Query expected = new FuzzyQuery(new Term("text", "trem42"), 0.5f);
+        Assert.assertEquals(searcher.search(expected, 100).totalHits, searcher.search(query.toQuery(), 100).totalHits);
+        Assert.assertEquals(1, expander.getMisses());
+    }
+    
+    /**
+     * Tests that a {@link DirectApiLuceneQuery} without an expander uses a FuzzyQuery.
+     */
+    @Test
+    public void directApiWithoutExpander() {
+        final DirectApiLuceneQuery query = new DirectApiLuceneQuery("text", new WhitespaceAnalyzer());
+        query.addFuzzyArgument("trem42", true, 0.5);
+        final BooleanQuery topQuery = (BooleanQuery) query.toQuery();
+        Assert.assertTrue(topQuery.getClauses()[0].getQuery() instanceof FuzzyQuery);
+    }
+    
+}
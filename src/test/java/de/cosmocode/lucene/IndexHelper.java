@@ -21,6 +21,7 @@ import java.util.Map;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.KeywordAnalyzer;
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.Field.Index;
@@ -119,6 +120,30 @@ public final class IndexHelper {
         return new IndexWriter(DIRECTORY, ANALYZER, MaxFieldLength.UNLIMITED);
     }
     
+    /**
+     * <p> Creates an index of 100 documents for the tests that look at the terms of an index.
+     * Every document contains "common", its number as "termNN" and one of ten groups as "groupN"
+     * in the field "text", one of four categories "cN" in the field "category" and its number as "rank".
+     * </p>
+     * 
+     * @return the directory of a new index
+     * @throws IOException if the index could not be created
+     */
+    public static Directory createTermsDirectory() throws IOException {
+        final Directory directory = new RAMDirectory();
+        final IndexWriter writer = new IndexWriter(directory, new WhitespaceAnalyzer(), MaxFieldLength.UNLIMITED);
+        for (int i = 0; i < 100; i++) {
+            final Document document = new Document();
+            final String text = "common term" + (i < 10 ? "0" : "") + i + " group" + (i % 10);
+            document.add(new Field("text", text, Store.NO, Index.ANALYZED));
+            document.add(new Field("category", "c" + (i % 4), Store.NO, Index.NOT_ANALYZED));
+            document.add(new Field("rank", Integer.toString(i), Store.NO, Index.NOT_ANALYZED));
+            writer.addDocument(document);
+        }
+        writer.close();
+        return directory;
+    }
+    
     /**
      * Creates a new QueryParser with the default field and analyzer defined in this class.
      * @return a new QueryParser
@@ -0,0 +1,50 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import org.junit.BeforeClass;
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+import de.cosmocode.junit.UnitProvider;
+
+/**
+ * Tests {@link InstrumentedLuceneQuery}.
+ * 
+ * @author Oliver Lorenz
+ */
+@RunWith(Suite.class)
+@SuiteClasses(LuceneQueryTest.class)
+public final class InstrumentedLuceneQueryTest implements UnitProvider<LuceneQuery> {
+    
+    @Override
+    public LuceneQuery unit() {
+        return new InstrumentedLuceneQuery(new DefaultLuceneQuery(), new DefaultQueryMetricsRegistry());
+    }
+    
+    /**
+     * Sets up this class as the current class to test.
+     * Unset happens automatically.
+     */
+    @BeforeClass
+    public static void setupClass() {
+        LuceneQueryTest.setUnitProvider(InstrumentedLuceneQueryTest.class);
+    }
+
+}
@@ -16,6 +16,8 @@
 
 package de.cosmocode.lucene;
 
+import java.util.Random;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -136,4 +138,77 @@ public class LuceneHelperTest {
         Assert.assertEquals(expected, actual);
     }
 
+    /**
+     * Tests that an input without special characters is returned as it is.
+     */
+    @Test
+    public void testEscapeAllUnchanged() {
+        final String input = "ABC123abc%/.,";
+        Assert.assertSame(input, LuceneHelper.escapeAll(input));
+        Assert.assertSame(input, LuceneHelper.escapeInput(input));
+        Assert.assertSame(input, LuceneHelper.escapeQuotes(input));
+        Assert.assertSame(input, LuceneHelper.removeSpecialCharacters(input));
+    }
+
+    /**
+     * Tests the appending variants of the escape methods.
+     */
+    @Test
+    public void testAppending() {
+        final String input = "bla %\"{]{/(CKD93jfs09 sdf}  {]";
+        final StringBuilder target = new StringBuilder("prefix ");
+        LuceneHelper.escapeAll(input, target).append(' ');
+        LuceneHelper.escapeInput(new StringBuilder(input), target).append(' ');
+        LuceneHelper.escapeQuotes(input, target).append(' ');
+        LuceneHelper.removeSpecialCharacters(input, target).append(' ');
+        LuceneHelper.escapeAll(null, target);
+        
+        final String expected = "prefix " + 
+            LuceneHelper.escapeAll(input) + " " + 
+            LuceneHelper.escapeInput(input) + " " + 
+            LuceneHelper.escapeQuotes(input) + " " + 
+            LuceneHelper.removeSpecialCharacters(input) + " ";
+        Assert.assertEquals(expected, target.toString());
+    }
+
+    /**
+     * Tests that the escape methods return the same as the public patterns,
+     * for random input of special, ascii and non-ascii chars.
+     */
+    @Test
+    public void testEscapeLikePatterns() {
+        final String chars = "+-\\&|!(){}[]^~?*:; \"aZ09%/\u00e4\u4e2d\u0416";
+        final Random random = new Random(1L);
+        for (int i = 0; i < 1000; i++) {
+            final StringBuilder input = new StringBuilder();
+            for (int j = random.nextInt(20); j > 0; j--) {
+                input.append(chars.charAt(random.nextInt(chars.length())));
+            }
+            final String value = input.toString();
+            Assert.assertEquals(
+                LuceneHelper.ESCAPE_WITH_QUOTES_PATTERN.matcher(value).replaceAll("\\\\$0"), 
+                LuceneHelper.escapeAll(value));
+            Assert.assertEquals(
+                LuceneHelper.ESCAPE_PATTERN.matcher(value).replaceAll("\\\\$0"), 
+                LuceneHelper.escapeInput(value));
+            Assert.assertEquals(
+                LuceneHelper.QUOTES_PATTERN.matcher(value).replaceAll("\\\\$0"), 
+                LuceneHelper.escapeQuotes(value));
+            Assert.assertEquals(
+                LuceneHelper.QUOTES_PATTERN.matcher(value).replaceAll(""), 
+                LuceneHelper.removeQuotes(value));
+            Assert.assertEquals(
+                LuceneHelper.ESCAPE_WITH_QUOTES_PATTERN.matcher(value).replaceAll(""), 
+                LuceneHelper.removeSpecialCharacters(value));
+        }
+    }
+
+    /**
+     * Tests the appending variants with a null target.
+     */
+    @Test(expected = NullPointerException.class)
+    public void testAppendingNullTarget() {
+        LuceneHelper.escapeAll("test", null);
+    }
+
 }
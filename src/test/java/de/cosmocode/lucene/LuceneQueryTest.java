@@ -36,6 +36,7 @@ import de.cosmocode.lucene.fragments.query.AddArgumentArrayFragment;
 import de.cosmocode.lucene.fragments.query.AddArgumentArrayModFragment;
 import de.cosmocode.lucene.fragments.query.AddArgumentCollectionFragment;
 import de.cosmocode.lucene.fragments.query.AddArgumentCollectionModFragment;
+import de.cosmocode.lucene.fragments.query.AddArgumentIteratorFragment;
 import de.cosmocode.lucene.fragments.query.AddArgumentStringFragment;
 import de.cosmocode.lucene.fragments.query.AddArgumentStringModFragment;
 import de.cosmocode.lucene.fragments.query.AddFieldArrayFragment;
@@ -87,6 +88,7 @@ import de.cosmocode.lucene.fragments.query.AddRangeStringStringModFragment;
     AddArgumentCollectionModFragment.class,
     AddFieldCollectionFragment.class,
     AddFieldCollectionModFragment.class,
+    AddArgumentIteratorFragment.class,
     AddArgumentArrayFragment.class,
     AddArgumentArrayModFragment.class,
     AddFieldArrayFragment.class,
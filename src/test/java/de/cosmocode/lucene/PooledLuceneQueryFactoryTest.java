@@ -0,0 +1,153 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+
+import de.cosmocode.patterns.Factory;
+
+/**
+ * Tests {@link PooledLuceneQueryFactory} and {@link DefaultLuceneQuery#reset()}.
+ *
+ * @author Oliver Lorenz
+ */
+public final class PooledLuceneQueryFactoryTest {
+    
+    /**
+     * Tests that a released query is reused, empty and with its buffer kept.
+     */
+    @Test
+    public void reuse() {
+        final PooledLuceneQueryFactory factory = new PooledLuceneQueryFactory(LuceneQuery.MOD_ID);
+        final LuceneQuery first = factory.create();
+        first.addArgument(Strings.repeat("a", 1000));
+        final int capacity = ((DefaultLuceneQuery) first).capacity();
+        first.setModifier(QueryModifier.DEFAULT);
+        Assert.assertTrue(factory.release(first));
+        
+        final LuceneQuery second = factory.create();
+        Assert.assertSame(first, second);
+        Assert.assertFalse(second.lastSuccessful());
+        Assert.assertEquals(LuceneQuery.MOD_ID, second.getModifier());
+        Assert.assertEquals(capacity, ((DefaultLuceneQuery) second).capacity());
+        second.addArgument("b");
+        Assert.assertEquals("+(b) ", second.getQuery());
+    }
+    
+    /**
+     * Tests that queries with a buffer beyond the maximum retained capacity are discarded.
+     */
+    @Test
+    public void releaseTooLarge() {
+        final PooledLuceneQueryFactory factory = new PooledLuceneQueryFactory(QueryModifier.DEFAULT, 4, 100);
+        final LuceneQuery query = factory.create();
+        query.addArgument(Strings.repeat("a", 1000));
+        Assert.assertFalse(factory.release(query));
+        Assert.assertNotSame(query, factory.create());
+    }
+    
+    /**
+     * Tests that the pool is bounded.
+     */
+    @Test
+    public void releaseFull() {
+        final PooledLuceneQueryFactory factory = new PooledLuceneQueryFactory(QueryModifier.DEFAULT, 2, 100);
+        Assert.assertTrue(factory.release(factory.create()));
+        Assert.assertTrue(factory.release(new DefaultLuceneQuery()));
+        Assert.assertFalse(factory.release(new DefaultLuceneQuery()));
+    }
+    
+    /**
+     * Tests that releasing the same query twice fails.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void releaseTwice() {
+        final PooledLuceneQueryFactory factory = new PooledLuceneQueryFactory(QueryModifier.DEFAULT);
+        final LuceneQuery query = factory.create();
+        factory.release(query);
+        factory.release(query);
+    }
+    
+    /**
+     * Tests that resetting a query does not change a query that references it as a subquery.
+     */
+    @Test
+    public void resetReferencedSubquery() {
+        final DefaultLuceneQuery sub = new DefaultLuceneQuery();
+        sub.addArgument(Strings.repeat("a", QueryBuffer.REFERENCE_THRESHOLD));
+        final LuceneQuery query = new DefaultLuceneQuery().addSubquery(sub);
+        final String expected = query.getQuery();
+        
+        sub.reset();
+        sub.addArgument("b");
+        Assert.assertEquals(expected, query.getQuery());
+    }
+    
+    /**
+     * Tests {@link DirectApiLuceneQuery#reset()}.
+     */
+    @Test
+    public void resetDirectApi() {
+        final DirectApiLuceneQuery query = new DirectApiLuceneQuery(IndexHelper.DEFAULT_FIELD, IndexHelper.ANALYZER);
+        query.addArgument("a");
+        query.reset();
+        Assert.assertFalse(query.lastSuccessful());
+        query.addArgument("b");
+        Assert.assertEquals(new DirectApiLuceneQuery(IndexHelper.DEFAULT_FIELD, IndexHelper.ANALYZER)
+            .addArgument("b").getQuery(), query.getQuery());
+    }
+    
+    /**
+     * Tests {@link LuceneQueryBuilder#reset()} with a template other than {@link DefaultLuceneQuery}.
+     */
+    @Test
+    public void resetBuilderWithTemplate() {
+        final LuceneQueryBuilder builder = new LuceneQueryBuilder(new Factory<LuceneQuery>() {
+            
+            @Override
+            public LuceneQuery create() {
+                return new DirectApiLuceneQuery(IndexHelper.DEFAULT_FIELD, IndexHelper.ANALYZER);
+            }
+            
+        });
+        builder.setModifier(LuceneQuery.MOD_ID);
+        builder.addField("a", "b");
+        builder.reset();
+        Assert.assertFalse(builder.lastSuccessful());
+        Assert.assertEquals(LuceneQuery.MOD_ID, builder.getModifier());
+        builder.addField("c", "d");
+        Assert.assertEquals(new DirectApiLuceneQuery(IndexHelper.DEFAULT_FIELD, IndexHelper.ANALYZER)
+            .addField("c", "d", LuceneQuery.MOD_ID).getQuery(), builder.getQuery());
+    }
+    
+    /**
+     * Tests {@link LuceneQueryBuilder#reset()}.
+     */
+    @Test
+    public void resetBuilder() {
+        final LuceneQueryBuilder builder = new LuceneQueryBuilder();
+        builder.addField("a", "b");
+        builder.reset();
+        builder.addField("c", "d");
+        Assert.assertEquals(new DefaultLuceneQuery().addField("c", "d").getQuery(), builder.getQuery());
+    }
+
+}
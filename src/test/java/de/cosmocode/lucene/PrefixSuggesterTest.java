@@ -0,0 +1,197 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests {@link PrefixSuggester}.
+ *
+ * @author Oliver Lorenz
+ */
+public final class PrefixSuggesterTest {
+    
+    private static IndexReader reader;
+    
+    /**
+     * Opens the index of {@link IndexHelper#createTermsDirectory()}.
+     * @throws IOException if the index could not be created
+     */
+    @BeforeClass
+    public static void createIndex() throws IOException {
+        reader = IndexReader.open(IndexHelper.createTermsDirectory());
+    }
+    
+    /**
+     * Closes the reader.
+     * @throws IOException if closing failed
+     */
+    @AfterClass
+    public static void closeIndex() throws IOException {
+        reader.close();
+    }
+    
+    private PrefixSuggester suggester() throws IOException {
+        final PrefixSuggester suggester = new PrefixSuggester("text");
+        Assert.assertTrue(suggester.refresh(reader));
+        return suggester;
+    }
+    
+    /**
+     * Tests that all terms of the field are loaded.
+     * @throws IOException if the terms could not be loaded
+     */
+    @Test
+    public void size() throws IOException {
+        Assert.assertEquals(111, suggester().size());
+    }
+    
+    /**
+     * Tests that terms with the same weight are suggested in their natural order.
+     * @throws IOException if the terms could not be loaded
+     */
+    @Test
+    public void sameWeight() throws IOException {
+        Assert.assertEquals(Arrays.asList("term10", "term11", "term12"), suggester().suggest("term1", 3));
+        Assert.assertEquals(10, suggester().suggest("term1", 20).size());
+        Assert.assertEquals(Arrays.asList("term42"), suggester().suggest("term42", 3));
+    }
+    
+    /**
+     * Tests that the terms with the greatest document frequency are suggested first.
+     * @throws IOException if the terms could not be loaded
+     */
+    @Test
+    public void byDocFreq() throws IOException {
+        Assert.assertEquals(Arrays.asList("common", "group0", "group1"), suggester().suggest("", 3));
+    }
+    
+    /**
+     * Tests prefixes without completions.
+     * @throws IOException if the terms could not be loaded
+     */
+    @Test
+    public void noCompletion() throws IOException {
+        final PrefixSuggester suggester = suggester();
+        Assert.assertEquals(Collections.emptyList(), suggester.suggest("zzz", 3));
+        Assert.assertEquals(Collections.emptyList(), suggester.suggest("term100", 3));
+        Assert.assertEquals(Collections.emptyList(), suggester.suggest("a", 3));
+        Assert.assertEquals(Collections.emptyList(), new PrefixSuggester("text").suggest("term", 3));
+    }
+    
+    /**
+     * Tests the weights from a weight field.
+     * @throws IOException if the terms could not be loaded
+     */
+    @Test
+    public void byWeightField() throws IOException {
+        final PrefixSuggester suggester = new PrefixSuggester("text", "rank");
+        suggester.refresh(reader);
+        Assert.assertEquals(Arrays.asList("term99", "term98"), suggester.suggest("term", 2));
+        Assert.assertEquals(Arrays.asList("common", "group9", "term99"), suggester.suggest("", 3));
+    }
+    
+    /**
+     * Tests that the terms are only loaded again for another reader version.
+     * @throws IOException if the terms could not be loaded
+     */
+    @Test
+    public void refresh() throws IOException {
+        final PrefixSuggester suggester = suggester();
+        Assert.assertFalse(suggester.refresh(reader));
+    }
+    
+    /**
+     * Tests that the terms are loaded again for another reader with the same version.
+     * @throws IOException if the terms could not be loaded
+     */
+    @Test
+    public void refreshOtherReader() throws IOException {
+        final PrefixSuggester suggester = suggester();
+        final IndexReader other = IndexReader.open(reader.directory());
+        try {
+            Assert.assertEquals(reader.getVersion(), other.getVersion());
+            Assert.assertTrue(suggester.refresh(other));
+            Assert.assertFalse(suggester.refresh(other));
+        } finally {
+            other.close();
+        }
+    }
+    
+    /**
+     * Tests that the completions match the same documents as the prefix of an autocomplete query.
+     * @throws IOException if the terms could not be loaded
+     * @throws ParseException if the query could not be parsed
+     */
+    @Test
+    public void addCompletions() throws IOException, ParseException {
+        final LuceneQuery query = suggester().addCompletions(LuceneHelper.newQuery(), "  term1  gro ", 10);
+        final String rendered = query.getQuery();
+        Assert.assertTrue(rendered, rendered.contains("term19"));
+        Assert.assertTrue(rendered, rendered.contains("group9"));
+        
+        final QueryParser parser = new QueryParser("text", new WhitespaceAnalyzer());
+        final int hits = new IndexSearcher(reader).search(parser.parse(rendered), 100).totalHits;
+        Assert.assertEquals(10, hits);
+    }
+    
+    /**
+     * Tests that a token with more completions than the limit is searched as a prefix,
+     * so that no document with a less weighted completion is lost.
+     * @throws IOException if the terms could not be loaded
+     * @throws ParseException if the query could not be parsed
+     */
+    @Test
+    public void addCompletionsAboveLimit() throws IOException, ParseException {
+        final LuceneQuery query = suggester().addCompletions(LuceneHelper.newQuery(), "term1", 3);
+        final String rendered = query.getQuery();
+        Assert.assertTrue(rendered, rendered.contains("term1*"));
+        
+        final QueryParser parser = new QueryParser("text", new WhitespaceAnalyzer());
+        final int hits = new IndexSearcher(reader).search(parser.parse(rendered), 100).totalHits;
+        Assert.assertEquals(10, hits);
+    }
+    
+    /**
+     * Tests that a token without completions is still required, like with the autocomplete modifier.
+     * @throws IOException if the terms could not be loaded
+     * @throws ParseException if the query could not be parsed
+     */
+    @Test
+    public void addCompletionsWithoutCompletion() throws IOException, ParseException {
+        final LuceneQuery query = suggester().addCompletions(LuceneHelper.newQuery(), "term1 zzz", 10);
+        final String rendered = query.getQuery();
+        Assert.assertTrue(rendered, rendered.contains("zzz"));
+        
+        final QueryParser parser = new QueryParser("text", new WhitespaceAnalyzer());
+        final int hits = new IndexSearcher(reader).search(parser.parse(rendered), 100).totalHits;
+        Assert.assertEquals(0, hits);
+    }
+    
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+
+/**
+ * Tests {@link PreparedLuceneQuery} and {@link PreparedLuceneQueryBuilder}.
+ *
+ * @author Oliver Lorenz
+ */
+public final class PreparedLuceneQueryTest {
+    
+    private PreparedLuceneQuery prepare() {
+        final PreparedLuceneQueryBuilder builder = new PreparedLuceneQueryBuilder();
+        builder.addField("type", "product", LuceneQuery.MOD_ID);
+        builder.addField("cat", PreparedLuceneQuery.param("cat"), LuceneQuery.MOD_ID);
+        builder.addArgument(PreparedLuceneQuery.param("text"), LuceneQuery.MOD_TEXT);
+        builder.addBoost(2.0);
+        return builder.build();
+    }
+    
+    /**
+     * Tests that a bound query is equal to the same query built directly.
+     */
+    @Test
+    public void bind() {
+        final LuceneQuery expected = new DefaultLuceneQuery();
+        expected.addField("type", "product", LuceneQuery.MOD_ID);
+        expected.addField("cat", "shoes", LuceneQuery.MOD_ID);
+        expected.addArgument("red boots", LuceneQuery.MOD_TEXT);
+        expected.addBoost(2.0);
+        
+        final Map<String, ?> parameters = ImmutableMap.of("cat", "shoes", "text", "red boots");
+        final LuceneQuery actual = prepare().bind(parameters);
+        Assert.assertEquals(expected.getQuery(), actual.getQuery());
+        Assert.assertTrue(actual.lastSuccessful());
+    }
+    
+    /**
+     * Tests binding a collection to a parameter.
+     */
+    @Test
+    public void bindCollection() {
+        final LuceneQuery expected = new DefaultLuceneQuery();
+        expected.addField("type", "product", LuceneQuery.MOD_ID);
+        expected.addField("cat", ImmutableList.of("shoes", "boots"), LuceneQuery.MOD_ID);
+        expected.addArgument("red", LuceneQuery.MOD_TEXT);
+        expected.addBoost(2.0);
+        
+        final Map<String, ?> parameters = ImmutableMap.of("cat", ImmutableList.of("shoes", "boots"), "text", "red");
+        Assert.assertEquals(expected.getQuery(), prepare().bind(parameters).getQuery());
+    }
+    
+    /**
+     * Tests that values are escaped on binding.
+     */
+    @Test
+    public void bindEscaped() {
+        final LuceneQuery actual = prepare().bind(ImmutableMap.of("cat", "a:b", "text", "c"));
+        Assert.assertTrue(actual.getQuery().contains("a\\:b"));
+    }
+    
+    /**
+     * Tests that a bound query can be modified further, without changing the template.
+     */
+    @Test
+    public void bindModify() {
+        final PreparedLuceneQuery prepared = prepare();
+        final Map<String, ?> parameters = ImmutableMap.of("cat", "shoes", "text", "red");
+        final String expected = prepared.bind(parameters).getQuery();
+        prepared.bind(parameters).addField("extra", "value");
+        Assert.assertEquals(expected, prepared.bind(parameters).getQuery());
+    }
+    
+    /**
+     * Tests the parameter names.
+     */
+    @Test
+    public void parameterNames() {
+        Assert.assertEquals(ImmutableList.of("cat", "text"), ImmutableList.copyOf(prepare().getParameterNames()));
+    }
+    
+    /**
+     * Tests a subquery that is a PreparedLuceneQueryBuilder itself.
+     */
+    @Test
+    public void nestedBuilder() {
+        final PreparedLuceneQueryBuilder sub = new PreparedLuceneQueryBuilder();
+        sub.addField("perm", PreparedLuceneQuery.param("perm"), LuceneQuery.MOD_ID);
+        final PreparedLuceneQueryBuilder builder = new PreparedLuceneQueryBuilder();
+        builder.addArgument(PreparedLuceneQuery.param("text"));
+        builder.addSubquery(sub, LuceneQuery.MOD_ID);
+        
+        final LuceneQuery expected = new DefaultLuceneQuery();
+        expected.addArgument("text");
+        expected.addSubquery(new DefaultLuceneQuery().addField("perm", "1", LuceneQuery.MOD_ID), LuceneQuery.MOD_ID);
+        
+        final LuceneQuery actual = builder.build().bind(ImmutableMap.of("text", "text", "perm", "1"));
+        Assert.assertEquals(expected.getQuery(), actual.getQuery());
+    }
+    
+    /**
+     * Tests that a missing parameter value fails.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void bindMissing() {
+        prepare().bind("cat", "shoes");
+    }
+    
+    /**
+     * Tests that an empty parameter value fails.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void bindEmpty() {
+        prepare().bind(ImmutableMap.of("cat", ImmutableList.of(), "text", "red"));
+    }
+    
+    /**
+     * Tests that a parameter in a collection is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void parameterInCollection() {
+        new PreparedLuceneQueryBuilder().addField("cat", ImmutableList.of(PreparedLuceneQuery.param("cat")));
+    }
+    
+    /**
+     * Tests that a parameter in an iterator is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void parameterInIterator() {
+        new PreparedLuceneQueryBuilder().addArgumentAsIterator(
+            Arrays.asList("x", PreparedLuceneQuery.param("id")).iterator());
+    }
+    
+    /**
+     * Tests that a parameter in an iterable that is not a collection is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void parameterInIterable() {
+        new PreparedLuceneQueryBuilder().addFieldAsIterable("id",
+            Iterables.unmodifiableIterable(Arrays.asList("x", PreparedLuceneQuery.param("id"))), LuceneQuery.MOD_ID);
+    }
+
+}
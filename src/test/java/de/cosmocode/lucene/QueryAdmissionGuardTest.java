@@ -0,0 +1,189 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests {@link QueryAdmissionGuard}.
+ *
+ * @author Oliver Lorenz
+ */
+public final class QueryAdmissionGuardTest {
+    
+    private static IndexReader reader;
+    
+    /**
+     * Opens the index of {@link IndexHelper#createTermsDirectory()}.
+     * @throws IOException if the index could not be created
+     */
+    @BeforeClass
+    public static void createIndex() throws IOException {
+        reader = IndexReader.open(IndexHelper.createTermsDirectory());
+    }
+    
+    /**
+     * Closes the reader.
+     * @throws IOException if closing failed
+     */
+    @AfterClass
+    public static void closeIndex() throws IOException {
+        reader.close();
+    }
+    
+    private QueryAdmissionGuard guard(final double maxCost, final QueryAdmissionGuard.Policy policy) {
+        return new QueryAdmissionGuard(new QueryCostEstimator(reader), maxCost, 1024, policy);
+    }
+    
+    private QueryParser parser() {
+        return new QueryParser("text", new WhitespaceAnalyzer());
+    }
+    
+    private LuceneQuery autocomplete(final String input) {
+        final LuceneQuery query = LuceneHelper.newQuery();
+        query.addArgument(input, LuceneQuery.MOD_AUTOCOMPLETE);
+        return query;
+    }
+    
+    /**
+     * Tests that a cheap query is returned unchanged.
+     * @throws IOException if the estimation failed
+     * @throws ParseException if the query could not be parsed
+     */
+    @Test
+    public void admitted() throws IOException, ParseException {
+        final QueryAdmissionGuard guard = guard(1000, QueryAdmissionGuard.Policy.REJECT);
+        final LuceneQuery query = LuceneHelper.newQuery();
+        query.addArgument("group1", LuceneQuery.MOD_ID);
+        final Query parsed = parser().parse(query.getQuery());
+        Assert.assertEquals(parsed, guard.admit(query, parser()));
+        Assert.assertEquals(1L, guard.getAdmitted());
+    }
+    
+    /**
+     * Tests that an expensive query is rejected.
+     * @throws IOException if the estimation failed
+     * @throws ParseException if the query could not be parsed
+     */
+    @Test
+    public void rejected() throws IOException, ParseException {
+        final QueryAdmissionGuard guard = guard(100, QueryAdmissionGuard.Policy.REJECT);
+        try {
+            guard.admit(autocomplete("term1 group"), parser());
+            Assert.fail("QueryRejectedException expected");
+        } catch (QueryRejectedException e) {
+            Assert.assertEquals(3, e.getCost().getFuzzyClauses());
+        }
+        Assert.assertEquals(1L, guard.getRejected());
+    }
+    
+    /**
+     * Tests that a degraded query has no fuzzy clauses and fewer optional clauses.
+     * @throws IOException if the estimation failed
+     * @throws ParseException if the query could not be parsed
+     */
+    @Test
+    public void degraded() throws IOException, ParseException {
+        final QueryAdmissionGuard guard = guard(100, QueryAdmissionGuard.Policy.DEGRADE);
+        final Query degraded = guard.admit(autocomplete("term1 group"), parser());
+        final QueryCost cost = new QueryCostEstimator(reader).estimate(degraded);
+        Assert.assertEquals(0, cost.getFuzzyClauses());
+        Assert.assertTrue(cost.toString(), cost.getCost() <= 100);
+        Assert.assertEquals(1L, guard.getDegraded());
+        
+        final int hits = new IndexSearcher(reader).search(degraded, 100).totalHits;
+        Assert.assertTrue(hits > 0);
+    }
+    
+    /**
+     * Tests that a query that can not be degraded enough is rejected.
+     * @throws IOException if the estimation failed
+     * @throws ParseException if the query could not be parsed
+     */
+    @Test(expected = QueryRejectedException.class)
+    public void degradedRejected() throws IOException, ParseException {
+        final QueryAdmissionGuard guard = guard(1, QueryAdmissionGuard.Policy.DEGRADE);
+        guard.admit(autocomplete("common"), parser());
+    }
+    
+    private BooleanQuery minimumShouldMatch() {
+        final BooleanQuery query = new BooleanQuery();
+        query.add(new TermQuery(new Term("text", "common")), BooleanClause.Occur.MUST);
+        query.add(new PrefixQuery(new Term("text", "term1")), BooleanClause.Occur.SHOULD);
+        query.add(new PrefixQuery(new Term("text", "term2")), BooleanClause.Occur.SHOULD);
+        query.add(new TermQuery(new Term("text", "group1")), BooleanClause.Occur.SHOULD);
+        query.setMinimumNumberShouldMatch(2);
+        return query;
+    }
+    
+    /**
+     * Tests that a degraded query keeps the minimum number of optional clauses, even with a required clause.
+     * @throws IOException if the estimation failed
+     */
+    @Test
+    public void degradedMinimumShouldMatch() throws IOException {
+        final Query degraded = guard(135, QueryAdmissionGuard.Policy.DEGRADE).admit(minimumShouldMatch());
+        Assert.assertEquals(3, BooleanQuery.class.cast(degraded).getClauses().length);
+        Assert.assertTrue(new IndexSearcher(reader).search(degraded, 100).totalHits > 0);
+    }
+    
+    /**
+     * Tests that a query is rejected if it could only be degraded below its minimum number of optional clauses.
+     * @throws IOException if the estimation failed
+     */
+    @Test(expected = QueryRejectedException.class)
+    public void degradedMinimumShouldMatchRejected() throws IOException {
+        guard(120, QueryAdmissionGuard.Policy.DEGRADE).admit(minimumShouldMatch());
+    }
+    
+    /**
+     * Tests that an expensive query is downgraded to a filter with the same hits.
+     * @throws IOException if the estimation failed
+     * @throws ParseException if the query could not be parsed
+     */
+    @Test
+    public void filtered() throws IOException, ParseException {
+        final QueryAdmissionGuard guard = guard(100, QueryAdmissionGuard.Policy.FILTER);
+        final LuceneQuery query = autocomplete("term1");
+        final Query filtered = guard.admit(query, parser());
+        Assert.assertTrue(filtered instanceof ConstantScoreQuery);
+        Assert.assertEquals(1L, guard.getFiltered());
+        
+        final IndexSearcher searcher = new IndexSearcher(reader);
+        Assert.assertEquals(
+            searcher.search(parser().parse(query.getQuery()), 100).totalHits,
+            searcher.search(filtered, 100).totalHits);
+    }
+    
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+
+/**
+ * Tests {@link QueryBuffer}.
+ *
+ * @author Oliver Lorenz
+ */
+public final class QueryBufferTest {
+    
+    private static final String LARGE = Strings.repeat("x", QueryBuffer.REFERENCE_THRESHOLD);
+    
+    private QueryBuffer buffer(final String content) {
+        return new QueryBuffer().append(content);
+    }
+    
+    /**
+     * Tests that a large buffer is referenced and rendered correctly.
+     */
+    @Test
+    public void appendReference() {
+        final QueryBuffer sub = buffer(LARGE);
+        final QueryBuffer buffer = buffer("a(").append(sub).append(")b");
+        Assert.assertEquals("a(" + LARGE + ")b", buffer.toString());
+        Assert.assertEquals(LARGE.length() + 4, buffer.length());
+    }
+    
+    /**
+     * Tests that changes to a referenced buffer do not change the buffer that references it.
+     */
+    @Test
+    public void appendReferenceIsSnapshot() {
+        final QueryBuffer sub = buffer(LARGE);
+        final QueryBuffer buffer = buffer("a").append(sub);
+        sub.append("appended");
+        sub.setLength(1);
+        sub.append("changed");
+        Assert.assertEquals("a" + LARGE, buffer.toString());
+        Assert.assertEquals("xchanged", sub.toString());
+    }
+    
+    /**
+     * Tests {@link QueryBuffer#charAt(int)} around references.
+     */
+    @Test
+    public void charAt() {
+        final QueryBuffer buffer = buffer("ab").append(buffer("c" + LARGE + "d")).append("ef");
+        final String expected = "abc" + LARGE + "def";
+        for (int i = 0; i < expected.length(); i++) {
+            Assert.assertEquals("charAt(" + i + ")", expected.charAt(i), buffer.charAt(i));
+        }
+    }
+    
+    /**
+     * Tests {@link QueryBuffer#setLength(int)} before, within and after references.
+     */
+    @Test
+    public void setLength() {
+        final String expected = "ab" + LARGE + "cd" + LARGE + "ef";
+        for (int length = expected.length(); length >= 0; length -= 7) {
+            final QueryBuffer buffer = 
+                buffer("ab").append(buffer(LARGE)).append("cd").append(buffer(LARGE)).append("ef");
+            buffer.setLength(length);
+            Assert.assertEquals(expected.substring(0, length), buffer.toString());
+            buffer.append("g");
+            Assert.assertEquals(expected.substring(0, length) + "g", buffer.toString());
+        }
+    }
+    
+    /**
+     * Tests nested references of subqueries in a {@link DefaultLuceneQuery}.
+     */
+    @Test
+    public void nestedSubqueries() {
+        final DefaultLuceneQuery permissions = new DefaultLuceneQuery();
+        final String[] ids = new String[100];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = "id" + i;
+        }
+        permissions.addField("permission", ids, LuceneQuery.MOD_ID);
+        final DefaultLuceneQuery facets = new DefaultLuceneQuery();
+        facets.addSubquery(permissions, LuceneQuery.MOD_ID).addField("color", "red", LuceneQuery.MOD_ID);
+        final DefaultLuceneQuery query = new DefaultLuceneQuery();
+        query.addSubquery(facets, LuceneQuery.MOD_ID).addArgument("text", LuceneQuery.MOD_TEXT);
+        
+        // a LuceneQuery that is not a DefaultLuceneQuery is always copied
+        final LuceneQuery copiedFacets = new DefaultLuceneQuery();
+        copiedFacets.addSubquery(new ShapeLuceneQuery(permissions), LuceneQuery.MOD_ID);
+        copiedFacets.addField("color", "red", LuceneQuery.MOD_ID);
+        final LuceneQuery copied = new DefaultLuceneQuery();
+        copied.addSubquery(new ShapeLuceneQuery(copiedFacets), LuceneQuery.MOD_ID);
+        copied.addArgument("text", LuceneQuery.MOD_TEXT);
+        
+        final String expected = copied.getQuery();
+        Assert.assertEquals(expected, query.getQuery());
+        Assert.assertEquals(expected, query.appendQueryTo(new StringBuilder()).toString());
+    }
+
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.Query;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import de.cosmocode.lucene.QueryClause.Kind;
+
+/**
+ * Tests {@link QueryClause} and {@link FastQueryParser#parseClauses(CharSequence)}.
+ *
+ * @author Oliver Lorenz
+ */
+public final class QueryClauseTest {
+    
+    private static final List<String> QUERIES = Arrays.asList(
+        "value", "+value", "-value", "Value Other", "+a -b c",
+        "field:value", "+field:(a b) -other:(\"c d\")", "a:(b:(c))",
+        "(a) (b c)", "+(a)", "((a))^2", "(a b)^0.5", "a^2", "a^2.5 b^10",
+        "\"a phrase\"", "\"a phrase\"~3", "\"a phrase\"^2", "\"\"", "\"esc\\\"aped\"",
+        "abc*", "ABC*", "a*c", "a?c", "ab*c*", "a\\*b", "a\\ b*", "a\\*b*c",
+        "abc~", "abc~0.7", "ABC~0.75^2", "abc^2~0.7", "abc~0.0001",
+        "[a TO b]", "{a TO b}", "[1.0 TO 2.5]", "[A* TO B*]", "field:[10 TO 20]^2", "[\\TO TO b]",
+        "a-b", "a+b", "a&&b", "a\\:b", "a\\(b\\)", "\\AND", "a\\&\\&b", "the a", "+(the) +value"
+    );
+    
+    private final FastQueryParser parser = new FastQueryParser("text", new WhitespaceAnalyzer());
+    
+    private void assertRoundTrip(final String query) throws ParseException {
+        final QueryClause clause = parser.parseClauses(query);
+        final String rendered = clause.toString();
+        Assert.assertEquals(query + " => " + rendered, clause, parser.parseClauses(rendered));
+        
+        final Query expected = new QueryParser("text", new WhitespaceAnalyzer()).parse(query);
+        Assert.assertEquals(query, expected, parser.toQuery(clause));
+        Assert.assertEquals(rendered, expected, new QueryParser("text", new WhitespaceAnalyzer()).parse(rendered));
+    }
+    
+    /**
+     * Tests that parsing a rendered clause returns an equal clause, and that clauses are converted
+     * to the same lucene queries as the QueryParser creates.
+     * @throws ParseException if a query can't be parsed
+     */
+    @Test
+    public void roundTrip() throws ParseException {
+        for (final String query : QUERIES) {
+            assertRoundTrip(query);
+        }
+    }
+    
+    /**
+     * Tests the round trip for the queries that a {@link DefaultLuceneQuery} renders.
+     * @throws ParseException if a query can't be parsed
+     */
+    @Test
+    public void roundTripRendered() throws ParseException {
+        final List<QueryModifier> modifiers = Arrays.asList(
+            QueryModifier.DEFAULT, LuceneQuery.MOD_ID, LuceneQuery.MOD_TEXT, LuceneQuery.MOD_NOT_ID,
+            LuceneQuery.MOD_AUTOCOMPLETE
+        );
+        for (final QueryModifier modifier : modifiers) {
+            for (final Object value : IndexHelper.ARGS) {
+                final LuceneQuery query = new DefaultLuceneQuery();
+                query.addField("field", value.toString() + " x-y", modifier);
+                query.addBoost(1.5);
+                query.addArgumentAsCollection(Arrays.asList(value, "Sam:Sung (tv)", "a\"b"), modifier);
+                query.addRangeField("range", value.toString(), "zzz", modifier);
+                query.addRange(1.5, 2.25, modifier);
+                assertRoundTrip(query.getQuery());
+            }
+        }
+    }
+    
+    /**
+     * Tests the clauses of a parsed query.
+     * @throws ParseException if the query can't be parsed
+     */
+    @Test
+    public void structure() throws ParseException {
+        final QueryClause clause = parser.parseClauses("+type:(product offer*) -hidden:true^2 {a TO b}");
+        Assert.assertEquals(Kind.GROUP, clause.getKind());
+        Assert.assertNull(clause.getField());
+        Assert.assertEquals(3, clause.getClauses().size());
+        
+        final QueryClause type = clause.getClauses().get(0);
+        Assert.assertEquals(TermModifier.REQUIRED, type.getTermModifier());
+        Assert.assertEquals("type", type.getField());
+        Assert.assertEquals(
+            ImmutableList.of(QueryClause.term("product"), QueryClause.prefix("offer")),
+            type.getClauses()
+        );
+        
+        final QueryClause hidden = clause.getClauses().get(1);
+        Assert.assertEquals(Kind.TERM, hidden.getKind());
+        Assert.assertEquals(TermModifier.PROHIBITED, hidden.getTermModifier());
+        Assert.assertEquals("true", hidden.getText());
+        Assert.assertEquals(2.0f, hidden.getBoost(), 0.0f);
+        Assert.assertTrue(hidden.isBoosted());
+        
+        Assert.assertEquals(QueryClause.range("a", "b", false), clause.getClauses().get(2));
+    }
+    
+    /**
+     * Tests that clauses created with the factory methods are rendered and converted correctly.
+     * @throws ParseException if a clause can't be converted
+     */
+    @Test
+    public void factories() throws ParseException {
+        final QueryClause clause = QueryClause.group(
+            QueryClause.term("Sam:Sung (tv)").withModifier(TermModifier.REQUIRED),
+            QueryClause.term("AND").withField("brand"),
+            QueryClause.wildcard("a*b?").withBoost(0.5f),
+            QueryClause.fuzzy("samsung", 0.6f).withField("name"),
+            QueryClause.phrase("a \"b\"", 2),
+            QueryClause.range("1", "5", false).withModifier(TermModifier.PROHIBITED),
+            QueryClause.group(QueryClause.term("x"), QueryClause.term("y")).withField("tags")
+        );
+        Assert.assertEquals(
+            "+Sam\\:Sung\\ \\(tv\\) brand:\\AND a*b?^0.5 name:samsung~0.6 \"a \\\"b\\\"\"~2 -{1 TO 5} tags:(x y)",
+            clause.toString()
+        );
+        Assert.assertEquals(clause, parser.parseClauses(clause.toString()));
+        
+        final FastQueryParser standard = new FastQueryParser("text", new StandardAnalyzer());
+        final Query expected = new QueryParser("text", new StandardAnalyzer()).parse(clause.toString());
+        Assert.assertEquals(expected, standard.toQuery(clause));
+        Assert.assertEquals(1, standard.getParsed());
+    }
+    
+    /**
+     * Tests that a single clause with a modifier is converted like its rendered form.
+     * @throws ParseException if the clause can't be converted
+     */
+    @Test
+    public void singleClause() throws ParseException {
+        final QueryClause clause = QueryClause.term("a").withModifier(TermModifier.REQUIRED);
+        Assert.assertEquals("+a", clause.toString());
+        Assert.assertEquals(new QueryParser("text", new WhitespaceAnalyzer()).parse("+a"), parser.toQuery(clause));
+    }
+    
+    /**
+     * Tests that ranges of dates are parsed into clauses, but converted by a QueryParser.
+     * @throws ParseException if the query can't be parsed
+     */
+    @Test
+    public void dateRange() throws ParseException {
+        final String query = "date:[1/1/10 TO 2/2/10]";
+        final QueryClause clause = parser.parseClauses(query);
+        Assert.assertEquals(QueryClause.range("1/1/10", "2/2/10", true).withField("date"), clause.getClauses().get(0));
+        Assert.assertEquals(new QueryParser("text", new WhitespaceAnalyzer()).parse(query), parser.toQuery(clause));
+        Assert.assertEquals(1, parser.getFallbacks());
+    }
+    
+    /**
+     * Tests that escaped leading wildcards are rejected like the QueryParser does.
+     * @throws ParseException if the query can't be parsed into clauses
+     */
+    @Test
+    public void leadingWildcard() throws ParseException {
+        final QueryClause clause = parser.parseClauses("\\*a?");
+        Assert.assertEquals(QueryClause.wildcard("*a?"), clause.getClauses().get(0));
+        Assert.assertEquals("\\*a?", clause.toString());
+        Assert.assertNull(parser.parseFast("\\*a?"));
+        Assert.assertNull(parser.parseFast("\\*a*"));
+    }
+    
+    /**
+     * Tests {@link FastQueryParser#parseClauses(CharSequence)} with unsupported syntax.
+     * Expects a ParseException.
+     * @throws ParseException expected
+     */
+    @Test(expected = ParseException.class)
+    public void unsupported() throws ParseException {
+        parser.parseClauses("a OR b");
+    }
+    
+    /**
+     * Tests {@link FastQueryParser#parseClauses(CharSequence)} with an empty query.
+     * Expects a ParseException.
+     * @throws ParseException expected
+     */
+    @Test(expected = ParseException.class)
+    public void empty() throws ParseException {
+        parser.parseClauses(" ");
+    }
+    
+    /**
+     * Tests {@link QueryClause#group(QueryClause...)} without clauses.
+     * Expects an IllegalArgumentException.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void groupEmpty() {
+        QueryClause.group();
+    }
+    
+    /**
+     * Tests {@link QueryClause#fuzzy(String, float)} with a similarity of 1.
+     * Expects an IllegalArgumentException.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void fuzzyInvalid() {
+        QueryClause.fuzzy("a", 1.0f);
+    }
+    
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriter.MaxFieldLength;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.ConstantScoreRangeQuery;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.RangeQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests {@link QueryCostEstimator}.
+ *
+ * @author Oliver Lorenz
+ */
+public final class QueryCostEstimatorTest {
+    
+    private static IndexReader reader;
+    
+    /**
+     * Creates an index with 100 documents: every document contains "common",
+     * its number as "termNN" and one of ten groups as "groupN".
+     * @throws IOException if the index could not be created
+     */
+    @BeforeClass
+    public static void createIndex() throws IOException {
+        reader = IndexReader.open(createDirectory());
+    }
+    
+    /**
+     * Creates the test index.
+     * @return the directory of the test index
+     * @throws IOException if the index could not be created
+     */
+    static Directory createDirectory() throws IOException {
+        final Directory directory = new RAMDirectory();
+        final IndexWriter writer = new IndexWriter(directory, new WhitespaceAnalyzer(), MaxFieldLength.UNLIMITED);
+        for (int i = 0; i < 100; i++) {
+            final Document document = new Document();
+            final String text = "common term" + (i < 10 ? "0" : "") + i + " group" + (i % 10);
+            document.add(new Field("text", text, Field.Store.NO, Field.Index.ANALYZED));
+            writer.addDocument(document);
+        }
+        writer.close();
+        return directory;
+    }
+    
+    /**
+     * Closes the reader.
+     * @throws IOException if closing failed
+     */
+    @AfterClass
+    public static void closeIndex() throws IOException {
+        reader.close();
+    }
+    
+    private QueryParser parser() {
+        return new QueryParser("text", new WhitespaceAnalyzer());
+    }
+    
+    /**
+     * Tests that a term costs its document frequency.
+     * @throws IOException if the estimation failed
+     */
+    @Test
+    public void term() throws IOException {
+        final QueryCostEstimator estimator = new QueryCostEstimator(reader);
+        Assert.assertEquals(100.0, estimator.estimate(new TermQuery(new Term("text", "common"))).getCost(), 0.0);
+        Assert.assertEquals(10.0, estimator.estimate(new TermQuery(new Term("text", "group1"))).getCost(), 0.0);
+        Assert.assertEquals(0.0, estimator.estimate(new TermQuery(new Term("text", "missing"))).getCost(), 0.0);
+    }
+    
+    /**
+     * Tests that a prefix query counts the expanded terms and their documents.
+     * @throws IOException if the estimation failed
+     */
+    @Test
+    public void prefix() throws IOException {
+        final QueryCostEstimator estimator = new QueryCostEstimator(reader);
+        final QueryCost cost = estimator.estimate(new PrefixQuery(new Term("text", "term1")));
+        Assert.assertEquals(1, cost.getWildcardClauses());
+        Assert.assertEquals(10L, cost.getScannedTerms());
+        Assert.assertEquals(10L, cost.getPostings());
+        Assert.assertEquals(20.0, cost.getCost(), 0.0);
+    }
+    
+    /**
+     * Tests that the scan stops at the configured limit.
+     * @throws IOException if the estimation failed
+     */
+    @Test
+    public void prefixLimited() throws IOException {
+        final QueryCostEstimator estimator = new QueryCostEstimator(reader, 5);
+        Assert.assertEquals(5L, estimator.estimate(new PrefixQuery(new Term("text", "term"))).getScannedTerms());
+    }
+    
+    /**
+     * Tests that a fuzzy query without prefix scans all terms of the field.
+     * @throws IOException if the estimation failed
+     */
+    @Test
+    public void fuzzy() throws IOException {
+        final QueryCostEstimator estimator = new QueryCostEstimator(reader);
+        final QueryCost all = estimator.estimate(new FuzzyQuery(new Term("text", "term01"), 0.7f, 0));
+        Assert.assertEquals(1, all.getFuzzyClauses());
+        Assert.assertEquals(111L, all.getScannedTerms());
+        final QueryCost prefixed = estimator.estimate(new FuzzyQuery(new Term("text", "term01"), 0.7f, 5));
+        Assert.assertEquals(10L, prefixed.getScannedTerms());
+        Assert.assertTrue(prefixed.getCost() < all.getCost());
+    }
+    
+    /**
+     * Tests that a range counts the terms in the range.
+     * @throws IOException if the estimation failed
+     */
+    @Test
+    public void range() throws IOException {
+        final QueryCostEstimator estimator = new QueryCostEstimator(reader);
+        final QueryCost cost = estimator.estimate(
+            new RangeQuery(new Term("text", "term10"), new Term("text", "term19"), true));
+        Assert.assertEquals(1, cost.getRangeClauses());
+        Assert.assertEquals(10L, cost.getScannedTerms());
+    }
+    
+    /**
+     * Tests that a range without upper bound scans up to the end of the field, with and without reader.
+     * @throws IOException if the estimation failed
+     */
+    @Test
+    public void rangeUnbounded() throws IOException {
+        final QueryCostEstimator estimator = new QueryCostEstimator(reader);
+        Assert.assertEquals(105L, estimator.estimate(
+            new RangeQuery(new Term("text", "group5"), null, true)).getScannedTerms());
+        Assert.assertEquals(105L, estimator.estimate(
+            new ConstantScoreRangeQuery("text", "group5", null, true, true)).getScannedTerms());
+        Assert.assertEquals(5L, new QueryCostEstimator(reader, 5).estimate(
+            new RangeQuery(new Term("text", "group5"), null, true)).getScannedTerms());
+        
+        final QueryCost assumed = new QueryCostEstimator().estimate(
+            new ConstantScoreRangeQuery("date", "20100101", null, true, true));
+        Assert.assertEquals(QueryCostEstimator.ASSUMED_TERMS_PER_FIELD, assumed.getScannedTerms());
+    }
+    
+    /**
+     * Tests the estimation of a parsed boolean query, with and without reader.
+     * @throws IOException if the estimation failed
+     * @throws ParseException if the query could not be parsed
+     */
+    @Test
+    public void parsed() throws IOException, ParseException {
+        final LuceneQuery query = LuceneHelper.newQuery();
+        query.addArgument("group1", LuceneQuery.MOD_ID);
+        query.addArgument("term", LuceneQuery.MOD_TEXT);
+        final QueryCost cost = new QueryCostEstimator(reader).estimate(parser().parse(query.getQuery()));
+        Assert.assertEquals(3, cost.getClauses());
+        Assert.assertEquals(1, cost.getWildcardClauses());
+        Assert.assertEquals(10L + 100L, cost.getPostings());
+        
+        final QueryCost assumed = new QueryCostEstimator().estimate(parser().parse(query.getQuery()));
+        Assert.assertEquals(3, assumed.getClauses());
+        Assert.assertTrue(assumed.getCost() > cost.getCost());
+    }
+    
+}
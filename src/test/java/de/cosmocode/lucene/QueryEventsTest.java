@@ -0,0 +1,232 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Tests {@link QueryEvents} and {@link QueryStatistics}.
+ *
+ * @author Oliver Lorenz
+ */
+public final class QueryEventsTest {
+    
+    private final List<QueryEvent> events = Lists.newArrayList();
+    
+    private final QueryEventListener collector = new QueryEventListener() {
+        
+        @Override
+        public void onEvent(QueryEvent event) {
+            events.add(event);
+        }
+        
+    };
+    
+    private QueryStatistics statistics;
+    
+    private InstrumentedLuceneQueryFactory factory;
+    
+    /**
+     * Registers the collecting listener.
+     */
+    @Before
+    public void setUp() {
+        QueryEvents.addListener(collector);
+        statistics = new QueryStatistics();
+        factory = new InstrumentedLuceneQueryFactory(LuceneHelper.DEFAULT_FACTORY, new DefaultQueryMetricsRegistry());
+    }
+    
+    /**
+     * Removes all listeners of this test.
+     */
+    @After
+    public void tearDown() {
+        QueryEvents.removeListener(collector);
+        statistics.setEnabled(false);
+    }
+    
+    private LuceneQuery newShapeQuery() {
+        return new InstrumentedLuceneQuery(new ShapeLuceneQuery(LuceneHelper.newQuery()), 
+            new DefaultQueryMetricsRegistry());
+    }
+    
+    /**
+     * Tests that a built event is fired once, with the shape and the clause counts.
+     */
+    @Test
+    public void built() {
+        final LuceneQuery query = newShapeQuery();
+        query.addField("category", Lists.newArrayList("1", "2"), LuceneQuery.MOD_ID);
+        query.addFuzzyArgument("text");
+        final String rendered = query.getQuery();
+        query.getQuery();
+        
+        Assert.assertEquals(1, events.size());
+        final QueryEvent event = events.get(0);
+        Assert.assertSame(QueryEvent.Type.BUILT, event.getType());
+        Assert.assertEquals(rendered, event.getQuery());
+        Assert.assertEquals("+category:((?...)) (?~0.5)", event.getShape());
+        Assert.assertEquals(ShapeLuceneQuery.fingerprint(event.getShape()), event.getFingerprint());
+        Assert.assertEquals(3L, event.getClauses());
+        Assert.assertEquals(1L, event.getFuzzyClauses());
+        Assert.assertTrue(event.getBuildNanos() >= 0);
+        Assert.assertEquals(-1, event.getHits());
+    }
+    
+    /**
+     * Tests that no event is fired for an uninstrumented query and that
+     * an executed event of an unknown query has no shape.
+     */
+    @Test
+    public void executedPlain() {
+        final LuceneQuery query = LuceneHelper.newQuery();
+        query.addArgument("value");
+        query.getQuery();
+        Assert.assertTrue(events.isEmpty());
+        
+        QueryEvents.fireExecuted(query, 5, 1000L, true);
+        Assert.assertEquals(1, events.size());
+        final QueryEvent event = events.get(0);
+        Assert.assertSame(QueryEvent.Type.EXECUTED, event.getType());
+        Assert.assertNull(event.getShape());
+        Assert.assertEquals(-1L, event.getClauses());
+        Assert.assertEquals(5, event.getHits());
+        Assert.assertEquals(1000L, event.getExecutionNanos());
+        Assert.assertTrue(event.isCacheHit());
+    }
+    
+    /**
+     * Tests that an executed event with the rendered query does not render the query again.
+     */
+    @Test
+    public void executedRendered() {
+        final InstrumentedLuceneQuery query = InstrumentedLuceneQuery.class.cast(factory.create());
+        query.addArgument("value");
+        final String rendered = query.getQuery();
+        final long buildNanos = query.getBuildNanos();
+        
+        QueryEvents.fireExecuted(query, rendered, 2, 1000L, false);
+        Assert.assertEquals(buildNanos, query.getBuildNanos());
+        final QueryEvent event = events.get(events.size() - 1);
+        Assert.assertSame(QueryEvent.Type.EXECUTED, event.getType());
+        Assert.assertSame(rendered, event.getQuery());
+        Assert.assertEquals(2, event.getHits());
+    }
+    
+    /**
+     * Tests that events are disabled once all listeners are removed.
+     */
+    @Test
+    public void disabled() {
+        QueryEvents.removeListener(collector);
+        Assert.assertFalse(QueryEvents.isEnabled());
+        final LuceneQuery query = factory.create();
+        query.addArgument("value");
+        query.getQuery();
+        QueryEvents.fireExecuted(query, 1, 1L, false);
+        Assert.assertTrue(events.isEmpty());
+    }
+    
+    /**
+     * Tests that a failing listener does not affect the query or other listeners.
+     */
+    @Test
+    public void failingListener() {
+        final QueryEventListener failing = new QueryEventListener() {
+            
+            @Override
+            public void onEvent(QueryEvent event) {
+                throw new IllegalStateException("failing on purpose");
+            }
+            
+        };
+        Assert.assertTrue(QueryEvents.addListener(failing));
+        Assert.assertFalse(QueryEvents.addListener(failing));
+        try {
+            final LuceneQuery query = factory.create();
+            query.addArgument("value");
+            Assert.assertEquals("(value)", query.getQuery().trim());
+            Assert.assertEquals(1, events.size());
+        } finally {
+            Assert.assertTrue(QueryEvents.removeListener(failing));
+        }
+    }
+    
+    /**
+     * Tests the aggregation of QueryStatistics, including the slowest shapes.
+     */
+    @Test
+    public void statistics() {
+        statistics.setEnabled(true);
+        Assert.assertTrue(statistics.isEnabled());
+        
+        final LuceneQuery fast = newShapeQuery();
+        fast.addArgument("fast", LuceneQuery.MOD_ID);
+        QueryEvents.fireExecuted(fast, 1, 100L, false);
+        
+        final LuceneQuery slow = newShapeQuery();
+        slow.addField("category", "slow", LuceneQuery.MOD_ID);
+        QueryEvents.fireExecuted(slow, 1, 100000L, true);
+        
+        Assert.assertEquals(2L, statistics.getBuiltQueries());
+        Assert.assertEquals(2L, statistics.getExecutedQueries());
+        Assert.assertEquals(100000L, statistics.getMaxExecutionNanos());
+        Assert.assertEquals(0.5, statistics.getCacheHitRatio(), 0.0);
+        
+        final String[] slowest = statistics.getSlowestShapes();
+        Assert.assertEquals(2, slowest.length);
+        Assert.assertTrue(slowest[0], slowest[0].startsWith("+category:((?))"));
+        
+        statistics.reset();
+        Assert.assertEquals(0L, statistics.getExecutedQueries());
+        Assert.assertEquals(0, statistics.getSlowestShapes().length);
+        
+        statistics.setEnabled(false);
+        Assert.assertFalse(statistics.isEnabled());
+    }
+    
+    /**
+     * Tests that QueryStatistics can be registered as an MBean.
+     * @throws Exception if the registration fails
+     */
+    @Test
+    public void mbean() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(QueryStatistics.OBJECT_NAME);
+        server.registerMBean(statistics, name);
+        try {
+            server.setAttribute(name, new Attribute("Enabled", Boolean.TRUE));
+            Assert.assertTrue(statistics.isEnabled());
+            Assert.assertEquals(0L, server.getAttribute(name, "ExecutedQueries"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+    
+}
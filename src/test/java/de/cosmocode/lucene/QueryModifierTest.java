@@ -16,6 +16,7 @@
 
 package de.cosmocode.lucene;
 
+import org.apache.lucene.document.DateTools.Resolution;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -247,6 +248,80 @@ public final class QueryModifierTest {
         Assert.assertEquals(expected, actual);
     }
     
+    /**
+     * Tests {@link ModifierBuilder#edgeNGrams()}.
+     */
+    @Test
+    public void edgeNGrams() {
+        final QueryModifier expected = new QueryModifier(TermModifier.NONE, false, false, true, null, true);
+        final QueryModifier actual = QueryModifier.start().wildcarded().edgeNGrams().end();
+        Assert.assertEquals(expected, actual);
+        Assert.assertTrue(actual.isEdgeNGrams());
+        Assert.assertFalse(expected.equals(QueryModifier.start().wildcarded().end()));
+    }
+    
+    /**
+     * Tests {@link ModifierBuilder#noEdgeNGrams()}.
+     */
+    @Test
+    public void noEdgeNGrams() {
+        final QueryModifier expected = new QueryModifier(TermModifier.NONE, false, false, true, null);
+        final QueryModifier actual = QueryModifier.start().wildcarded().edgeNGrams().noEdgeNGrams().end();
+        Assert.assertEquals(expected, actual);
+        Assert.assertFalse(actual.isEdgeNGrams());
+    }
+    
+    /**
+     * Tests that {@link QueryModifier#copy()}, {@link QueryModifier#getArgumentModifier()}
+     * and {@link QueryModifier#getMultiValueModifier()} keep edgeNGrams.
+     */
+    @Test
+    public void edgeNGramsCopied() {
+        final QueryModifier mod = QueryModifier.start().required().wildcarded().setEdgeNGrams(true).end();
+        Assert.assertTrue(mod.copy().end().isEdgeNGrams());
+        Assert.assertTrue(mod.getArgumentModifier().isEdgeNGrams());
+        Assert.assertTrue(mod.getMultiValueModifier().isEdgeNGrams());
+    }
+    
+    /**
+     * Tests {@link ModifierBuilder#setRangeBuckets(Resolution)}.
+     */
+    @Test
+    public void rangeBuckets() {
+        final QueryModifier expected = new QueryModifier(TermModifier.NONE, false, false, false, null, false,
+            Resolution.DAY);
+        final QueryModifier actual = QueryModifier.start().setRangeBuckets(Resolution.DAY).end();
+        Assert.assertEquals(expected, actual);
+        Assert.assertEquals(expected.hashCode(), actual.hashCode());
+        Assert.assertTrue(actual.isRangeBucketsEnabled());
+        Assert.assertSame(Resolution.DAY, actual.getRangeBuckets());
+        Assert.assertFalse(expected.equals(QueryModifier.start().setRangeBuckets(Resolution.HOUR).end()));
+        Assert.assertFalse(expected.equals(QueryModifier.DEFAULT));
+        Assert.assertFalse(QueryModifier.start().setRangeBuckets(Resolution.DAY).noRangeBuckets().end().
+            isRangeBucketsEnabled());
+    }
+    
+    /**
+     * Tests {@link QueryModifier#getRangeBuckets()} without range buckets.
+     * Expects an IllegalStateException.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void rangeBucketsDisabled() {
+        QueryModifier.DEFAULT.getRangeBuckets();
+    }
+    
+    /**
+     * Tests that {@link QueryModifier#copy()}, {@link QueryModifier#getArgumentModifier()}
+     * and {@link QueryModifier#getMultiValueModifier()} keep the range buckets.
+     */
+    @Test
+    public void rangeBucketsCopied() {
+        final QueryModifier mod = QueryModifier.start().required().setRangeBuckets(Resolution.MONTH).end();
+        Assert.assertSame(Resolution.MONTH, mod.copy().end().getRangeBuckets());
+        Assert.assertSame(Resolution.MONTH, mod.getArgumentModifier().getRangeBuckets());
+        Assert.assertSame(Resolution.MONTH, mod.getMultiValueModifier().getRangeBuckets());
+    }
+    
     /**
      * Tests {@link ModifierBuilder#setTermModifier(TermModifier)} with null.
      * Expects a NullPointerException.
@@ -0,0 +1,206 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+/**
+ * Tests {@link QueryNormalizer}.
+ *
+ * @author Oliver Lorenz
+ */
+public final class QueryNormalizerTest {
+    
+    private static IndexReader reader;
+    
+    private final FastQueryParser parser = new FastQueryParser("text", new WhitespaceAnalyzer());
+    
+    private final QueryNormalizer normalizer = new QueryNormalizer(ImmutableSet.of("price", "rank"));
+    
+    /**
+     * Opens a reader on the index of {@link IndexHelper#createTermsDirectory()}.
+     * @throws IOException if the index can't be created
+     */
+    @BeforeClass
+    public static void openIndex() throws IOException {
+        reader = IndexReader.open(IndexHelper.createTermsDirectory());
+    }
+    
+    /**
+     * Closes the reader.
+     * @throws IOException if closing failed
+     */
+    @AfterClass
+    public static void closeIndex() throws IOException {
+        reader.close();
+    }
+    
+    private String key(final CharSequence query) throws ParseException {
+        return normalizer.key(parser.parseClauses(query));
+    }
+    
+    /**
+     * Tests that the order of fields doesn't change the key.
+     * @throws ParseException if a query can't be parsed
+     */
+    @Test
+    public void fieldOrder() throws ParseException {
+        final LuceneQuery first = new DefaultLuceneQuery();
+        first.addField("a", "x", true);
+        first.addField("b", Arrays.asList("y", "z"), LuceneQuery.MOD_ID);
+        final LuceneQuery second = new DefaultLuceneQuery();
+        second.addField("b", Arrays.asList("z", "y"), LuceneQuery.MOD_ID);
+        second.addField("a", "x", true);
+        
+        Assert.assertFalse(first.getQuery().equals(second.getQuery()));
+        Assert.assertEquals(key(first.getQuery()), key(second.getQuery()));
+        Assert.assertEquals("+a:x +b:(y z)", key(first.getQuery()));
+    }
+    
+    /**
+     * Tests that the iteration order of a collection doesn't change the key.
+     * @throws ParseException if a query can't be parsed
+     */
+    @Test
+    public void iterationOrder() throws ParseException {
+        final List<String> values = Arrays.asList("delta", "alpha", "charlie", "bravo", "echo");
+        final LuceneQuery first = new DefaultLuceneQuery();
+        first.addArgument(values, LuceneQuery.MOD_ID);
+        final LuceneQuery second = new DefaultLuceneQuery();
+        second.addArgument(Sets.newHashSet(values), LuceneQuery.MOD_ID);
+        Assert.assertEquals(key(first.getQuery()), key(second.getQuery()));
+    }
+    
+    /**
+     * Tests that duplicate clauses are removed.
+     * @throws ParseException if a query can't be parsed
+     */
+    @Test
+    public void duplicates() throws ParseException {
+        Assert.assertEquals("+a b", key("+a b +a b"));
+        Assert.assertEquals("+a a", key("a +a"));
+    }
+    
+    /**
+     * Tests that groups of a single optional clause are replaced by that clause.
+     * @throws ParseException if a query can't be parsed
+     */
+    @Test
+    public void singleClauseGroups() throws ParseException {
+        Assert.assertEquals("+a", key("+(a)"));
+        Assert.assertEquals("+f:a^2.0", key("+f:((a)^3)^2"));
+        Assert.assertEquals("f:a", key("(f:(a^3))^1"));
+        Assert.assertEquals("+(+a)", key("+(+a)"));
+        Assert.assertEquals("f:a g:b", key("f:(a g:b)"));
+    }
+    
+    /**
+     * Tests that boosts are rounded like {@link LuceneQuery#addBoost(double)} does.
+     * @throws ParseException if a query can't be parsed
+     */
+    @Test
+    public void boosts() throws ParseException {
+        Assert.assertEquals(key("a^1.51"), key("a^1.519"));
+        Assert.assertEquals(key("a^0.7"), key("a^0.70"));
+        Assert.assertEquals("a", key("a^1.0"));
+        Assert.assertEquals("a", key("a^1.001"));
+        
+        final LuceneQuery query = new DefaultLuceneQuery();
+        query.addField("b", "x").addBoost(2.349);
+        Assert.assertEquals(key(query.getQuery()), key("b:x^2.34999"));
+    }
+    
+    /**
+     * Tests that the range bounds of numeric fields are formatted like {@link Double#toString(double)}.
+     * @throws ParseException if a query can't be parsed
+     */
+    @Test
+    public void numbers() throws ParseException {
+        final LuceneQuery query = new DefaultLuceneQuery();
+        query.addRangeField("price", 1, 2.5);
+        Assert.assertEquals(key(query.getQuery()), key("price:[1 TO 2.50]"));
+        Assert.assertEquals("price:[1.0e7 TO 2.0e7]", key("price:[10000000 TO 2e7]"));
+        // other fields are compared as they are
+        Assert.assertEquals("other:[1 TO 2.50]", key("other:[1 TO 2.50]"));
+        Assert.assertEquals("price:[a TO b]", key("price:[A TO b]"));
+    }
+    
+    /**
+     * Tests that expanded terms are lowercased, but analyzed terms are not.
+     * @throws ParseException if a query can't be parsed
+     */
+    @Test
+    public void lowercase() throws ParseException {
+        Assert.assertEquals("Abc abc* abc~0.6", key("Abc ABC* aBc~0.6"));
+    }
+    
+    /**
+     * Tests that the normalized query finds the same documents as the original query.
+     * @throws ParseException if a query can't be parsed
+     * @throws IOException if searching failed
+     */
+    @Test
+    public void sameDocuments() throws ParseException, IOException {
+        final IndexSearcher searcher = new IndexSearcher(reader);
+        final List<String> queries = Arrays.asList(
+            "+category:(c1 c2) -group3 +(term1* term2*)", "+(group1 group1 +common) category:(c1)^2",
+            "rank:[10 TO 20] -(group0)", "+TERM0* +(category:c0^1.001 category:c3)", "term1? -category:{c0 TO c2}"
+        );
+        for (final String text : queries) {
+            final Query original = parser.parse(text);
+            final Query normalized = parser.toQuery(normalizer.normalize(parser.parseClauses(text)));
+            final ScoreDoc[] expected = searcher.search(original, 100).scoreDocs;
+            final ScoreDoc[] actual = searcher.search(normalized, 100).scoreDocs;
+            Assert.assertEquals(text, expected.length, actual.length);
+            Assert.assertEquals(text, docs(expected), docs(actual));
+        }
+    }
+    
+    private static ImmutableSet<Integer> docs(final ScoreDoc[] scoreDocs) {
+        final ImmutableSet.Builder<Integer> docs = ImmutableSet.builder();
+        for (final ScoreDoc scoreDoc : scoreDocs) {
+            docs.add(scoreDoc.doc);
+        }
+        return docs.build();
+    }
+    
+    /**
+     * Tests {@link QueryNormalizer#QueryNormalizer(java.util.Set)} with null.
+     * Expects a NullPointerException.
+     */
+    @Test(expected = NullPointerException.class)
+    public void fieldsNull() {
+        new QueryNormalizer(null);
+    }
+    
+}
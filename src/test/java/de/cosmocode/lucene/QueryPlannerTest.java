@@ -0,0 +1,231 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.FilteredQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Tests {@link QueryPlanner} and {@link TermStatisticsCache}.
+ *
+ * @author Oliver Lorenz
+ */
+public final class QueryPlannerTest {
+    
+    private static IndexReader reader;
+    
+    /**
+     * Opens the index of {@link IndexHelper#createTermsDirectory()}.
+     * @throws IOException if the index could not be created
+     */
+    @BeforeClass
+    public static void createIndex() throws IOException {
+        reader = IndexReader.open(IndexHelper.createTermsDirectory());
+    }
+    
+    /**
+     * Closes the reader.
+     * @throws IOException if closing failed
+     */
+    @AfterClass
+    public static void closeIndex() throws IOException {
+        reader.close();
+    }
+    
+    private QueryParser parser() {
+        return new QueryParser("text", new WhitespaceAnalyzer());
+    }
+    
+    private LuceneQuery newQuery() {
+        final LuceneQuery query = LuceneHelper.newQuery();
+        query.addField("text", "common", LuceneQuery.MOD_ID);
+        query.addField("category", "c1", LuceneQuery.MOD_ID);
+        query.addField("text", "group1", LuceneQuery.MOD_NOT_ID);
+        query.addField("text", "term05", LuceneQuery.MOD_ID);
+        query.addField("text", "group", LuceneQuery.MOD_NOT_ID);
+        return query;
+    }
+    
+    private int hits(final Query query) throws IOException {
+        return new IndexSearcher(reader).search(query, 100).totalHits;
+    }
+    
+    /**
+     * Tests that the required clauses are ordered by their document frequency.
+     * @throws IOException if the planning failed
+     * @throws ParseException if the query could not be parsed
+     */
+    @Test
+    public void reorder() throws IOException, ParseException {
+        final QueryPlanner planner = new QueryPlanner(new TermStatisticsCache());
+        final Query original = LuceneHelper.toLuceneQuery(newQuery(), parser());
+        final Query planned = planner.plan(newQuery(), parser(), reader);
+        
+        final BooleanClause[] clauses = BooleanQuery.class.cast(planned).getClauses();
+        Assert.assertEquals(5, clauses.length);
+        Assert.assertEquals("+text:term05", clauses[0].toString());
+        Assert.assertEquals("+category:c1", clauses[1].toString());
+        Assert.assertEquals("+text:common", clauses[2].toString());
+        Assert.assertEquals("-text:group1", clauses[3].toString());
+        Assert.assertEquals("-text:group", clauses[4].toString());
+        Assert.assertEquals(hits(original), hits(planned));
+    }
+    
+    /**
+     * Tests that the required clauses of filter fields are moved into a filter.
+     * @throws IOException if the planning failed
+     * @throws ParseException if the query could not be parsed
+     */
+    @Test
+    public void filter() throws IOException, ParseException {
+        final QueryPlanner planner = new QueryPlanner(new TermStatisticsCache(), ImmutableSet.of("category"));
+        final LuceneQuery query = LuceneHelper.newQuery();
+        query.addField("category", "c1", LuceneQuery.MOD_ID);
+        query.addField("text", "group1", LuceneQuery.MOD_NOT_ID);
+        query.addArgument("term05");
+        final Query original = LuceneHelper.toLuceneQuery(query, parser());
+        final Query planned = planner.plan(original, reader);
+        
+        Assert.assertTrue(planned.toString(), planned instanceof FilteredQuery);
+        Assert.assertEquals(hits(original), hits(planned));
+        Assert.assertEquals(20, hits(planned));
+    }
+    
+    /**
+     * Tests that a query with only filter clauses is turned into a constant score query.
+     * @throws IOException if the planning failed
+     * @throws ParseException if the query could not be parsed
+     */
+    @Test
+    public void filterOnly() throws IOException, ParseException {
+        final QueryPlanner planner = new QueryPlanner(new TermStatisticsCache(), ImmutableSet.of("category"));
+        final LuceneQuery query = LuceneHelper.newQuery();
+        query.addField("category", "c1", LuceneQuery.MOD_ID);
+        final Query original = LuceneHelper.toLuceneQuery(query, parser());
+        final Query planned = planner.plan(original, reader);
+        Assert.assertTrue(planned.toString(), planned instanceof ConstantScoreQuery);
+        Assert.assertEquals(hits(original), hits(planned));
+    }
+    
+    /**
+     * Tests that the term statistics are cached for the same reader generation.
+     * @throws IOException if the planning failed
+     * @throws ParseException if the query could not be parsed
+     */
+    @Test
+    public void cached() throws IOException, ParseException {
+        final TermStatisticsCache cache = new TermStatisticsCache();
+        final QueryPlanner planner = new QueryPlanner(cache);
+        planner.plan(newQuery(), parser(), reader);
+        Assert.assertEquals(0L, cache.getHits());
+        final long misses = cache.getMisses();
+        planner.plan(newQuery(), parser(), reader);
+        Assert.assertEquals(misses, cache.getHits());
+        Assert.assertEquals(misses, cache.getMisses());
+        
+        final IndexReader other = IndexReader.open(IndexHelper.createTermsDirectory());
+        try {
+            planner.plan(newQuery(), parser(), other);
+            Assert.assertEquals(2 * misses, cache.getMisses());
+        } finally {
+            other.close();
+        }
+    }
+    
+    private Query textQuery() throws ParseException {
+        final LuceneQuery query = LuceneHelper.newQuery();
+        query.addField("category", "c1", LuceneQuery.MOD_ID);
+        query.addField("text", false, Arrays.asList("common", "term05", "group5"), false);
+        return LuceneHelper.toLuceneQuery(query, parser());
+    }
+    
+    /**
+     * Tests that optional high frequency terms next to required clauses are dropped and counted.
+     * @throws IOException if the planning failed
+     * @throws ParseException if the query could not be parsed
+     */
+    @Test
+    public void pruneDropped() throws IOException, ParseException {
+        final DefaultQueryMetricsRegistry registry = new DefaultQueryMetricsRegistry();
+        final QueryPlanner planner = new QueryPlanner(new TermStatisticsCache());
+        planner.setMaxDocFreqRatio(0.5);
+        planner.setMetricsRegistry(registry);
+        
+        final Query original = textQuery();
+        final Query planned = planner.plan(original, reader);
+        Assert.assertFalse(planned.toString(), planned.toString().contains("common"));
+        Assert.assertTrue(planned.toString(), planned.toString().contains("term05"));
+        Assert.assertEquals(hits(original), hits(planned));
+        Assert.assertEquals(1L, registry.getCount(QueryPlanner.PRUNED_TERMS));
+        Assert.assertEquals(1L, registry.getCount(QueryPlanner.PRUNED_TERMS + ".text"));
+    }
+    
+    /**
+     * Tests that pruning is disabled by default.
+     * @throws IOException if the planning failed
+     * @throws ParseException if the query could not be parsed
+     */
+    @Test
+    public void pruneDisabled() throws IOException, ParseException {
+        final QueryPlanner planner = new QueryPlanner(new TermStatisticsCache());
+        Assert.assertTrue(planner.plan(textQuery(), reader).toString().contains("common"));
+    }
+    
+    /**
+     * Tests that optional high frequency terms that decide the matches are kept,
+     * unless a boost for pruned terms is set.
+     * @throws IOException if the planning failed
+     * @throws ParseException if the query could not be parsed
+     */
+    @Test
+    public void pruneDownweighted() throws IOException, ParseException {
+        final DefaultQueryMetricsRegistry registry = new DefaultQueryMetricsRegistry();
+        final QueryPlanner planner = new QueryPlanner(new TermStatisticsCache());
+        planner.setMaxDocFreqRatio(0.5);
+        planner.setMetricsRegistry(registry);
+        
+        final LuceneQuery query = LuceneHelper.newQuery();
+        query.addArgument(Arrays.asList("common", "term05"), false);
+        final Query original = LuceneHelper.toLuceneQuery(query, parser());
+        Assert.assertEquals(original, planner.plan(original, reader));
+        Assert.assertEquals(0L, registry.getCount(QueryPlanner.PRUNED_TERMS));
+        
+        planner.setPrunedBoost(0.1f);
+        final Query planned = planner.plan(original, reader);
+        Assert.assertTrue(planned.toString(), planned.toString().contains("common^0.1"));
+        Assert.assertEquals(hits(original), hits(planned));
+        Assert.assertEquals(1L, registry.getCount(QueryPlanner.DOWNWEIGHTED_TERMS));
+    }
+    
+}
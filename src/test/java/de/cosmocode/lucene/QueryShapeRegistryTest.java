@@ -0,0 +1,149 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Tests {@link ShapeLuceneQuery#getShape()} and {@link QueryShapeRegistry}.
+ *
+ * @author Oliver Lorenz
+ */
+public final class QueryShapeRegistryTest {
+    
+    private ShapeLuceneQuery newQuery(final Object... categories) {
+        final ShapeLuceneQuery query = new ShapeLuceneQuery(LuceneHelper.newQuery());
+        query.addField("category", Lists.newArrayList(categories), LuceneQuery.MOD_ID);
+        query.addRangeField("price", 10, 20, LuceneQuery.MOD_ID);
+        query.addFuzzyArgument("text");
+        return query;
+    }
+    
+    /**
+     * Tests the shape of a query with a field, a range and a fuzzy argument.
+     */
+    @Test
+    public void shape() {
+        final String expected = "+category:((?...)) +price:([? TO ?]) (?~0.5)";
+        Assert.assertEquals(expected, newQuery("1", "2").getShape());
+    }
+    
+    /**
+     * Tests that queries with different values have the same shape and fingerprint.
+     */
+    @Test
+    public void shapeValueFree() {
+        final ShapeLuceneQuery first = newQuery("1");
+        final ShapeLuceneQuery second = newQuery("1", "2", "3", "4");
+        Assert.assertFalse(first.getQuery().equals(second.getQuery()));
+        Assert.assertEquals(first.getShape(), second.getShape());
+        Assert.assertEquals(first.getFingerprint(), second.getFingerprint());
+    }
+    
+    /**
+     * Tests that an empty field is reverted in the shape, too.
+     */
+    @Test
+    public void shapeEmptyField() {
+        final ShapeLuceneQuery query = new ShapeLuceneQuery(LuceneHelper.newQuery());
+        query.addField("empty", Lists.newArrayList(), LuceneQuery.MOD_ID);
+        query.addField("test", "value", LuceneQuery.MOD_TEXT);
+        Assert.assertEquals("+test:(((\"?\" ?*)))", query.getShape());
+    }
+    
+    /**
+     * Tests the shape of a boosted subquery.
+     */
+    @Test
+    public void shapeSubquery() {
+        final ShapeLuceneQuery sub = new ShapeLuceneQuery(LuceneHelper.newQuery());
+        sub.addArgument("sub", LuceneQuery.MOD_ID);
+        final ShapeLuceneQuery query = new ShapeLuceneQuery(LuceneHelper.newQuery());
+        query.addSubquery(sub, LuceneQuery.MOD_NOT_ID).addBoost(2.0);
+        Assert.assertEquals("-(+(?))^2.0", query.getShape());
+    }
+    
+    /**
+     * Tests {@link QueryShapeRegistry#recordBuild(ShapeLuceneQuery)}.
+     */
+    @Test
+    public void recordBuild() {
+        final QueryShapeRegistry registry = new QueryShapeRegistry();
+        registry.recordBuild(newQuery("1"));
+        registry.recordBuild(newQuery("1", "2"));
+        registry.recordBuild(new ShapeLuceneQuery(LuceneHelper.newQuery().addArgument("other")));
+        Assert.assertEquals(1, registry.getStatistics().size());
+        
+        final QueryShapeStatistics statistics = registry.getMostFrequent(1).get(0);
+        Assert.assertEquals(newQuery("3").getShape(), statistics.getShape());
+        Assert.assertEquals(2, statistics.getCount());
+        Assert.assertEquals(2, statistics.getQueryLength().getCount());
+        Assert.assertEquals(0, statistics.getExecutionNanos().getCount());
+    }
+    
+    /**
+     * Tests that shapes beyond the limit are recorded as {@link QueryShapeRegistry#OVERFLOW_SHAPE}.
+     */
+    @Test
+    public void recordOverflow() {
+        final QueryShapeRegistry registry = new QueryShapeRegistry(1);
+        registry.recordExecution("first", 10);
+        registry.recordExecution("second", 20);
+        registry.recordExecution("third", 30);
+        Assert.assertEquals(2, registry.getStatistics().size());
+        Assert.assertEquals(2, registry.statistics(QueryShapeRegistry.OVERFLOW_SHAPE).getExecutionNanos().getCount());
+    }
+    
+    /**
+     * Tests that a full registry returns the same overflow statistics for every unseen shape,
+     * and that clearing the registry starts with new overflow statistics.
+     */
+    @Test
+    public void overflowReused() {
+        final QueryShapeRegistry registry = new QueryShapeRegistry(1);
+        registry.recordExecution("first", 10);
+        final QueryShapeStatistics overflow = registry.statistics("second");
+        Assert.assertEquals(QueryShapeRegistry.OVERFLOW_SHAPE, overflow.getShape());
+        Assert.assertSame(overflow, registry.statistics("third"));
+        
+        registry.recordExecution("third", 30);
+        registry.clear();
+        registry.recordExecution("first", 10);
+        Assert.assertEquals(0, registry.statistics("second").getExecutionNanos().getCount());
+    }
+    
+    /**
+     * Tests the percentiles of a {@link Histogram}.
+     */
+    @Test
+    public void histogram() {
+        final Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.update(i);
+        }
+        Assert.assertEquals(100, histogram.getCount());
+        Assert.assertEquals(5050, histogram.getSum());
+        Assert.assertEquals(100, histogram.getMax());
+        Assert.assertEquals(63, histogram.getPercentile(0.5));
+        Assert.assertEquals(100, histogram.getPercentile(0.99));
+    }
+
+}
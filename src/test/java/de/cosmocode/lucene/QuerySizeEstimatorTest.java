@@ -0,0 +1,156 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+
+/**
+ * Tests {@link QuerySizeEstimator} and the presizing of {@link DefaultLuceneQuery}s.
+ *
+ * @author Oliver Lorenz
+ */
+public final class QuerySizeEstimatorTest {
+    
+    /**
+     * Tests that there is no estimate before enough samples were recorded.
+     */
+    @Test
+    public void noEstimate() {
+        final QuerySizeEstimator estimator = new QuerySizeEstimator();
+        for (int i = 1; i < QuerySizeEstimator.RECOMPUTE_INTERVAL; i++) {
+            estimator.record(100);
+        }
+        Assert.assertEquals(0, estimator.estimate());
+    }
+    
+    /**
+     * Tests the percentile of a partially filled window.
+     */
+    @Test
+    public void percentile() {
+        final QuerySizeEstimator estimator = new QuerySizeEstimator(64, 0.5);
+        for (int i = 1; i <= 16; i++) {
+            estimator.record(i * 10);
+        }
+        Assert.assertEquals(80, estimator.estimate());
+    }
+    
+    /**
+     * Tests that old samples leave the window.
+     */
+    @Test
+    public void movingWindow() {
+        final QuerySizeEstimator estimator = new QuerySizeEstimator(16, 0.9);
+        for (int i = 0; i < 16; i++) {
+            estimator.record(10000);
+        }
+        Assert.assertEquals(10000, estimator.estimate());
+        for (int i = 0; i < 16; i++) {
+            estimator.record(50);
+        }
+        Assert.assertEquals(50, estimator.estimate());
+    }
+    
+    /**
+     * Tests that a few outliers don't change the estimate.
+     */
+    @Test
+    public void outliers() {
+        final QuerySizeEstimator estimator = new QuerySizeEstimator();
+        for (int i = 0; i < 64; i++) {
+            estimator.record(i % 32 == 0 ? 1000000 : 200);
+        }
+        Assert.assertEquals(200, estimator.estimate());
+    }
+    
+    /**
+     * Tests that an invalid window size is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidWindow() {
+        new QuerySizeEstimator(100, 0.9);
+    }
+    
+    /**
+     * Tests that a {@link DefaultLuceneQueryFactory} presizes new queries with the observed lengths.
+     */
+    @Test
+    public void factoryPresizes() {
+        final DefaultLuceneQueryFactory factory = new DefaultLuceneQueryFactory(QueryModifier.DEFAULT);
+        final String value = Strings.repeat("a", 500);
+        String expected = null;
+        for (int i = 0; i < QuerySizeEstimator.RECOMPUTE_INTERVAL; i++) {
+            final LuceneQuery query = factory.create();
+            query.addField("field", value);
+            expected = query.getQuery();
+            // rendering twice is recorded once
+            query.getQuery();
+        }
+        Assert.assertEquals(expected.length(), factory.getExpectedLength());
+        
+        final DefaultLuceneQuery presized = (DefaultLuceneQuery) factory.create();
+        Assert.assertTrue(presized.capacity() >= expected.length());
+    }
+    
+    /**
+     * Tests that a {@link LuceneQueryBuilder} presizes built queries with the observed lengths.
+     */
+    @Test
+    public void builderPresizes() {
+        final LuceneQueryBuilder builder = new LuceneQueryBuilder();
+        builder.addField("type", "product");
+        builder.lock();
+        
+        final String value = Strings.repeat("b", 300);
+        int length = 0;
+        for (int i = 0; i < QuerySizeEstimator.RECOMPUTE_INTERVAL; i++) {
+            final LuceneQuery query = builder.build();
+            query.addField("name", value);
+            length = query.getQuery().length();
+        }
+        
+        final DefaultLuceneQuery presized = (DefaultLuceneQuery) builder.build();
+        Assert.assertTrue(presized.capacity() >= length);
+    }
+    
+    /**
+     * Tests that collections are rendered as before, with space reserved up front.
+     */
+    @Test
+    public void collectionReserve() {
+        final String[] values = new String[1000];
+        Arrays.fill(values, "value");
+        final DefaultLuceneQuery query = new DefaultLuceneQuery();
+        query.addArgument("first");
+        query.addArgument(values);
+        
+        final StringBuilder expected = new StringBuilder("(first) (");
+        for (int i = 0; i < values.length; i++) {
+            expected.append("+(value) ");
+        }
+        expected.append(") ");
+        Assert.assertEquals(expected.toString(), query.getQuery());
+        Assert.assertTrue(query.capacity() >= expected.length());
+    }
+
+}
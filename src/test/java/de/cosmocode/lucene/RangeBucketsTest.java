@@ -0,0 +1,288 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.DateTools;
+import org.apache.lucene.document.DateTools.Resolution;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriter.MaxFieldLength;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Tests {@link RangeBuckets}.
+ *
+ * @author Oliver Lorenz
+ */
+public final class RangeBucketsTest {
+    
+    private static final QueryModifier DAYS = QueryModifier.start().required().setRangeBuckets(Resolution.DAY).end();
+    
+    private static QueryClause range(final String lower, final String upper) {
+        return QueryClause.range(lower, upper, true);
+    }
+    
+    /**
+     * Tests the split of a time window into days and edges.
+     */
+    @Test
+    public void days() {
+        final List<QueryClause> expected = ImmutableList.of(
+            range("20100301083015", "20100301235959"),
+            range("20100302000000", "20100302999999"),
+            range("20100303000000", "20100303999999"),
+            range("20100304000000", "20100304170000")
+        );
+        Assert.assertEquals(expected, RangeBuckets.split("20100301083015", "20100304170000", Resolution.DAY));
+    }
+    
+    /**
+     * Tests that whole months and years are used as single buckets.
+     */
+    @Test
+    public void coarseBuckets() {
+        final List<QueryClause> expected = ImmutableList.of(
+            range("20091215", "20091231"),
+            range("20100000", "20109999"),
+            range("20110100", "20110199"),
+            range("20110200", "20110299"),
+            range("20110301", "20110310")
+        );
+        Assert.assertEquals(expected, RangeBuckets.split("20091215", "20110310", Resolution.MONTH));
+    }
+    
+    /**
+     * Tests that aligned bounds produce no edges.
+     */
+    @Test
+    public void aligned() {
+        Assert.assertEquals(
+            ImmutableList.of(range("20100300", "20100399"), range("20100400", "20100499")),
+            RangeBuckets.split("20100301", "20100430", Resolution.MONTH)
+        );
+    }
+    
+    /**
+     * Tests that ranges which can't be split are returned unchanged.
+     */
+    @Test
+    public void unchanged() {
+        final List<String[]> ranges = Arrays.asList(
+            new String[] {"20100301083015", "20100301170000"},
+            new String[] {"20100301", "20100304"},
+            new String[] {"20100301", "2010030417"},
+            new String[] {"20101301", "20101402"},
+            new String[] {"2010-03-01", "2010-03-04"},
+            new String[] {"20100304120000", "20100301120000"},
+            new String[] {"a", "z"}
+        );
+        for (final String[] bounds : ranges) {
+            Assert.assertEquals(bounds[0],
+                ImmutableList.of(range(bounds[0], bounds[1])), RangeBuckets.split(bounds[0], bounds[1], Resolution.DAY)
+            );
+        }
+    }
+    
+    /**
+     * Tests that the pieces of a split range match exactly the values of the range.
+     */
+    @Test
+    public void union() {
+        final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+        calendar.set(2008, Calendar.DECEMBER, 20, 0, 0, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        final List<String> hours = ImmutableList.copyOf(hoursUntil(calendar, 2010));
+        
+        for (int from = 0; from < hours.size(); from += 997) {
+            for (int to = from; to < hours.size(); to += 1499) {
+                final String lower = hours.get(from);
+                final String upper = hours.get(to);
+                final List<QueryClause> pieces = RangeBuckets.split(lower, upper, Resolution.DAY);
+                for (final String hour : hours) {
+                    int matches = 0;
+                    for (final QueryClause piece : pieces) {
+                        if (hour.compareTo(piece.getText()) >= 0 && hour.compareTo(piece.getUpper()) <= 0) matches++;
+                    }
+                    final boolean expected = hour.compareTo(lower) >= 0 && hour.compareTo(upper) <= 0;
+                    Assert.assertEquals(lower + " " + upper + " " + hour, expected ? 1 : 0, matches);
+                }
+            }
+        }
+    }
+    
+    private static List<String> hoursUntil(final Calendar calendar, final int year) {
+        final ImmutableList.Builder<String> hours = ImmutableList.builder();
+        while (calendar.get(Calendar.YEAR) <= year) {
+            hours.add(DateTools.dateToString(calendar.getTime(), Resolution.HOUR));
+            calendar.add(Calendar.HOUR_OF_DAY, 7);
+        }
+        return hours.build();
+    }
+    
+    /**
+     * Tests {@link RangeBuckets#isBucket(String, String)}.
+     */
+    @Test
+    public void isBucket() {
+        Assert.assertTrue(RangeBuckets.isBucket("20100302000000", "20100302999999"));
+        Assert.assertTrue(RangeBuckets.isBucket("20100000", "20109999"));
+        Assert.assertFalse(RangeBuckets.isBucket("20100301083015", "20100301235959"));
+        Assert.assertFalse(RangeBuckets.isBucket("20100302000000", "20100303999999"));
+        Assert.assertFalse(RangeBuckets.isBucket("20100302", "20100302"));
+        Assert.assertFalse(RangeBuckets.isBucket("0000", "9999"));
+        Assert.assertFalse(RangeBuckets.isBucket("a", "b"));
+    }
+    
+    /**
+     * Tests that the {@link DefaultLuceneQuery} renders the buckets of a split range.
+     */
+    @Test
+    public void rendered() {
+        final LuceneQuery query = new DefaultLuceneQuery();
+        query.addRangeField("date", "20100301083015", "20100303170000", DAYS);
+        Assert.assertEquals(
+            "+date:(([20100301083015 TO 20100301235959] [20100302000000 TO 20100302999999] "
+                + "[20100303000000 TO 20100303170000] )  )",
+            query.getQuery().trim()
+        );
+    }
+    
+    private static Directory createDirectory() throws IOException {
+        final Directory directory = new RAMDirectory();
+        final IndexWriter writer = new IndexWriter(directory, new WhitespaceAnalyzer(), MaxFieldLength.UNLIMITED);
+        final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+        calendar.set(2010, Calendar.FEBRUARY, 25, 0, 0, 0);
+        for (int i = 0; i < 200; i++) {
+            final Document document = new Document();
+            final String date = DateTools.dateToString(calendar.getTime(), Resolution.SECOND);
+            document.add(new Field("date", date, Field.Store.NO, Field.Index.NOT_ANALYZED));
+            writer.addDocument(document);
+            calendar.add(Calendar.MINUTE, 97);
+        }
+        writer.close();
+        return directory;
+    }
+    
+    /**
+     * Tests that bucketed ranges find the same documents as plain ranges, with the rendered query and the direct
+     * API, and that the buckets are cached.
+     * @throws IOException if the index can't be searched
+     * @throws ParseException if a query can't be parsed
+     */
+    @Test
+    public void sameDocuments() throws IOException, ParseException {
+        final IndexReader reader = IndexReader.open(createDirectory());
+        try {
+            final IndexSearcher searcher = new IndexSearcher(reader);
+            final FastQueryParser parser = new FastQueryParser("text", new WhitespaceAnalyzer());
+            final TermExpansionCache cache = new TermExpansionCache();
+            
+            final String[][] windows = {
+                {"20100225083015", "20100305170000"}, {"20100225083016", "20100305170001"}, 
+                {"20100226000000", "20100302235959"}, {"20100301120000", "20100301130000"}
+            };
+            for (final String[] window : windows) {
+                final LuceneQuery plain = new DefaultLuceneQuery();
+                plain.addRangeField("date", window[0], window[1], LuceneQuery.MOD_ID);
+                final int expected = searcher.search(parser.parse(plain.getQuery()), 200).totalHits;
+                Assert.assertTrue(expected > 0);
+                
+                final LuceneQuery bucketed = new DefaultLuceneQuery();
+                bucketed.addRangeField("date", window[0], window[1], DAYS);
+                final Query rendered = cache.rewrite(reader, parser.parse(bucketed.getQuery()));
+                Assert.assertEquals(expected, searcher.search(rendered, 200).totalHits);
+                
+                final DirectApiLuceneQuery direct = 
+                    new DirectApiLuceneQuery("text", new WhitespaceAnalyzer(), reader, null, cache);
+                direct.addRangeField("date", window[0], window[1], DAYS);
+                Assert.assertEquals(expected, searcher.search(direct.toQuery(), 200).totalHits);
+            }
+            // the days from 02/26 to 03/04 of the first window are cached, all other windows use them
+            Assert.assertEquals(7, cache.getMisses());
+            Assert.assertTrue(cache.getHits() > cache.getMisses());
+        } finally {
+            reader.close();
+        }
+    }
+    
+    /**
+     * Tests that a bucket whose terms are heavier than the cache is cached by its documents.
+     * @throws IOException if the index could not be read
+     */
+    @Test
+    public void largeBucket() throws IOException {
+        final RAMDirectory directory = new RAMDirectory();
+        final IndexWriter writer = new IndexWriter(directory, new WhitespaceAnalyzer(), MaxFieldLength.UNLIMITED);
+        final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+        calendar.clear();
+        calendar.set(2010, Calendar.MARCH, 1);
+        for (int i = 0; i < 1000; i++) {
+            // one distinct timestamp per document
+            final Document document = new Document();
+            final String date = DateTools.dateToString(calendar.getTime(), Resolution.SECOND);
+            document.add(new Field("date", date, Field.Store.NO, Field.Index.NOT_ANALYZED));
+            writer.addDocument(document);
+            calendar.add(Calendar.SECOND, 37);
+        }
+        writer.close();
+        
+        final IndexReader reader = IndexReader.open(directory);
+        try {
+            final IndexSearcher searcher = new IndexSearcher(reader);
+            final TermExpansionCache cache = new TermExpansionCache(1024);
+            final DirectApiLuceneQuery query = 
+                new DirectApiLuceneQuery("text", new WhitespaceAnalyzer(), reader, null, cache);
+            query.addRangeField("date", "20100301000000", "20100301999999", LuceneQuery.MOD_ID);
+            final Query rewritten = cache.rewrite(reader, query.toQuery());
+            
+            Assert.assertEquals(1000, searcher.search(rewritten, 10).totalHits);
+            Assert.assertEquals(1000, searcher.search(rewritten, 10).totalHits);
+            Assert.assertEquals(1, cache.getMisses());
+            Assert.assertEquals(1, cache.getHits());
+            Assert.assertTrue(cache.getWeight() > 0 && cache.getWeight() <= 1024);
+        } finally {
+            reader.close();
+        }
+    }
+    
+    /**
+     * Tests {@link RangeBuckets#split(String, String, Resolution)} with null as resolution.
+     * Expects a NullPointerException.
+     */
+    @Test(expected = NullPointerException.class)
+    public void resolutionNull() {
+        RangeBuckets.split("20100301", "20100304", null);
+    }
+    
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests {@link SlowQueryLog}.
+ *
+ * @author Oliver Lorenz
+ */
+public final class SlowQueryLogTest {
+    
+    private SlowQueryLog log;
+    
+    /**
+     * Stops the log of the test.
+     */
+    @After
+    public void tearDown() {
+        if (log != null) {
+            log.stop();
+        }
+    }
+    
+    private LuceneQuery newQuery() {
+        return new InstrumentedLuceneQuery(new ShapeLuceneQuery(LuceneHelper.newQuery()), 
+            new DefaultQueryMetricsRegistry());
+    }
+    
+    /**
+     * Tests that a slow query is logged with its shape, clause statistics and origin.
+     */
+    @Test
+    public void slowBuild() {
+        log = new SlowQueryLog(0, 1, TimeUnit.DAYS);
+        log.start();
+        
+        final LuceneQuery query = newQuery();
+        query.addArgument("slow", LuceneQuery.MOD_AUTOCOMPLETE);
+        query.getQuery();
+        
+        final List<String> messages = log.drain();
+        Assert.assertEquals(1, messages.size());
+        final String message = messages.get(0);
+        Assert.assertTrue(message, message.startsWith("slow query built in "));
+        Assert.assertTrue(message, message.contains(", shape=+((\"?\" ?* ?~"));
+        Assert.assertTrue(message, message.contains(", clauses=1, wildcardClauses=1, fuzzyClauses=1"));
+        Assert.assertTrue(message, message.contains(", origin=" + SlowQueryLogTest.class.getName() + ".slowBuild("));
+        Assert.assertTrue(message, message.endsWith(query.getQuery()));
+    }
+    
+    /**
+     * Tests that fast queries are not logged.
+     */
+    @Test
+    public void fast() {
+        log = new SlowQueryLog(1, 1, TimeUnit.DAYS);
+        log.start();
+        
+        final LuceneQuery query = newQuery();
+        query.addArgument("fast");
+        query.getQuery();
+        QueryEvents.fireExecuted(query, 1, 1000L, false);
+        Assert.assertTrue(log.drain().isEmpty());
+    }
+    
+    /**
+     * Tests that slow executions are logged and long queries are truncated.
+     */
+    @Test
+    public void slowExecutionTruncated() {
+        log = new SlowQueryLog(1, 1, TimeUnit.MILLISECONDS);
+        log.setMaxQueryLength(10);
+        log.start();
+        
+        final LuceneQuery query = newQuery();
+        query.addArgument("a rather long query value");
+        QueryEvents.fireExecuted(query, 3, TimeUnit.MILLISECONDS.toNanos(5), true);
+        
+        final List<String> messages = log.drain();
+        Assert.assertEquals(1, messages.size());
+        final String message = messages.get(0);
+        Assert.assertTrue(message, message.startsWith("slow query executed in 5ms"));
+        Assert.assertTrue(message, message.contains(", hits=3, cacheHit=true"));
+        Assert.assertTrue(message, message.endsWith("] " + query.getQuery().substring(0, 10) + "... (truncated)"));
+    }
+    
+    /**
+     * Tests that entries above the rate limit and above the capacity are only counted.
+     */
+    @Test
+    public void limits() {
+        log = new SlowQueryLog(0, 0, TimeUnit.NANOSECONDS, 4);
+        log.setMaxEntriesPerSecond(6);
+        log.start();
+        
+        final LuceneQuery query = newQuery();
+        query.addArgument("value");
+        for (int i = 0; i < 10; i++) {
+            QueryEvents.fireExecuted(query, 1, 1L, false);
+        }
+        
+        // the rate limit may start a new second while the events are fired
+        final long skipped = log.getSuppressed() + log.getDropped();
+        final List<String> messages = log.drain();
+        Assert.assertTrue(messages.toString(), messages.size() <= 5);
+        Assert.assertTrue(skipped >= 6);
+        Assert.assertTrue(messages.get(messages.size() - 1).startsWith("slow query log skipped "));
+        Assert.assertEquals(0L, log.getSuppressed() + log.getDropped());
+    }
+    
+    /**
+     * Tests that a stopped log does not capture queries anymore.
+     */
+    @Test
+    public void stopped() {
+        log = new SlowQueryLog(0, 0, TimeUnit.NANOSECONDS);
+        log.start();
+        log.stop();
+        Assert.assertFalse(QueryEvents.isRegistered(log));
+        
+        final LuceneQuery query = newQuery();
+        query.addArgument("value");
+        query.getQuery();
+        Assert.assertTrue(log.drain().isEmpty());
+    }
+    
+}
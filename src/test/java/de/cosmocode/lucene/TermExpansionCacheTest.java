@@ -0,0 +1,220 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.lucene;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests {@link TermExpansionCache}.
+ *
+ * @author Oliver Lorenz
+ */
+public final class TermExpansionCacheTest {
+    
+    private static IndexReader reader;
+    
+    private static IndexSearcher searcher;
+    
+    /**
+     * Opens the index of {@link IndexHelper#createTermsDirectory()}.
+     * @throws IOException if the index could not be created
+     */
+    @BeforeClass
+    public static void openIndex() throws IOException {
+        reader = IndexReader.open(IndexHelper.createTermsDirectory());
+        searcher = new IndexSearcher(reader);
+    }
+    
+    /**
+     * Closes the index.
+     * @throws IOException if the index could not be closed
+     */
+    @AfterClass
+    public static void closeIndex() throws IOException {
+        searcher.close();
+        reader.close();
+    }
+    
+    private static Query parse(final String query) throws ParseException {
+        return new QueryParser("text", new WhitespaceAnalyzer()).parse(query);
+    }
+    
+    private static int count(final Query query) throws IOException {
+        return searcher.search(query, 100).totalHits;
+    }
+    
+    /**
+     * Tests {@link TermExpansionCache#prefixTerms(IndexReader, Term)}.
+     * @throws IOException if the index could not be read
+     */
+    @Test
+    public void prefixTerms() throws IOException {
+        final TermExpansionCache cache = new TermExpansionCache();
+        Assert.assertEquals(10, cache.prefixTerms(reader, new Term("text", "term4")).size());
+        Assert.assertEquals(new Term("text", "term40"), cache.prefixTerms(reader, new Term("text", "term4")).get(0));
+        Assert.assertEquals(0, cache.prefixTerms(reader, new Term("text", "zzz")).size());
+        Assert.assertEquals(0, cache.prefixTerms(reader, new Term("unknown", "term4")).size());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(3, cache.getMisses());
+    }
+    
+    /**
+     * Tests {@link TermExpansionCache#wildcardTerms(IndexReader, Term)}.
+     * @throws IOException if the index could not be read
+     */
+    @Test
+    public void wildcardTerms() throws IOException {
+        final TermExpansionCache cache = new TermExpansionCache();
+        Assert.assertEquals(10, cache.wildcardTerms(reader, new Term("text", "term?5")).size());
+        Assert.assertEquals(100, cache.wildcardTerms(reader, new Term("text", "t*")).size());
+        // a prefix and a pattern with the same text are different expansions
+        Assert.assertEquals(0, cache.prefixTerms(reader, new Term("text", "t*")).size());
+    }
+    
+    /**
+     * Tests that a rewritten parsed query finds the same documents and reuses the expansions.
+     * @throws IOException if the index could not be searched
+     * @throws ParseException if the query could not be parsed
+     */
+    @Test
+    public void rewrite() throws IOException, ParseException {
+        final TermExpansionCache cache = new TermExpansionCache();
+        final Query query = parse("+category:c1 +(text:term4* text:gr?up3)");
+        final String original = query.toString();
+        
+        final Query rewritten = cache.rewrite(reader, query);
+        Assert.assertEquals(count(query), count(rewritten));
+        Assert.assertEquals(8, count(rewritten));
+        Assert.assertEquals(original, query.toString());
+        Assert.assertEquals(2, cache.getMisses());
+        
+        cache.rewrite(reader, parse("text:term4*^2"));
+        Assert.assertEquals(1, cache.getHits());
+    }
+    
+    /**
+     * Tests that the boost of a prefix query is kept.
+     * @throws IOException if the index could not be read
+     */
+    @Test
+    public void rewriteBoost() throws IOException {
+        final PrefixQuery query = new PrefixQuery(new Term("text", "term4"));
+        query.setBoost(2.0f);
+        final Query rewritten = new TermExpansionCache().rewrite(reader, query);
+        Assert.assertEquals(query.rewrite(reader), rewritten);
+    }
+    
+    /**
+     * Tests that an expansion with more terms than a BooleanQuery may have
+     * becomes a ConstantScoreQuery of a cached DocIdSet.
+     * @throws IOException if the index could not be searched
+     */
+    @Test
+    public void constantScore() throws IOException {
+        final int maxClauseCount = BooleanQuery.getMaxClauseCount();
+        BooleanQuery.setMaxClauseCount(50);
+        try {
+            final TermExpansionCache cache = new TermExpansionCache();
+            final Query rewritten = cache.rewrite(reader, new PrefixQuery(new Term("text", "term")));
+            Assert.assertTrue(rewritten instanceof ConstantScoreQuery);
+            final long weight = cache.getWeight();
+            
+            Assert.assertEquals(100, count(rewritten));
+            Assert.assertTrue(cache.getWeight() > weight);
+            Assert.assertEquals(100, count(cache.rewrite(reader, new PrefixQuery(new Term("text", "term")))));
+            Assert.assertEquals(1, cache.getMisses());
+        } finally {
+            BooleanQuery.setMaxClauseCount(maxClauseCount);
+        }
+    }
+    
+    /**
+     * Tests that the least recently used expansions are discarded once the cache is full.
+     * @throws IOException if the index could not be read
+     */
+    @Test
+    public void evicted() throws IOException {
+        final TermExpansionCache cache = new TermExpansionCache(2000);
+        for (int i = 0; i < 10; i++) {
+            cache.prefixTerms(reader, new Term("text", "term" + i));
+        }
+        Assert.assertTrue(cache.getWeight() <= 2000);
+        cache.prefixTerms(reader, new Term("text", "term9"));
+        Assert.assertEquals(1, cache.getHits());
+        cache.prefixTerms(reader, new Term("text", "term0"));
+        Assert.assertEquals(1, cache.getHits());
+    }
+    
+    /**
+     * Tests that the expansions are discarded for another reader.
+     * @throws IOException if the index could not be read
+     */
+    @Test
+    public void otherReader() throws IOException {
+        final TermExpansionCache cache = new TermExpansionCache();
+        cache.prefixTerms(reader, new Term("text", "term4"));
+        final IndexReader other = IndexReader.open(IndexHelper.createTermsDirectory());
+        try {
+            cache.prefixTerms(other, new Term("text", "term4"));
+            Assert.assertEquals(0, cache.getHits());
+            Assert.assertEquals(2, cache.getMisses());
+        } finally {
+            other.close();
+        }
+    }
+    
+    /**
+     * Tests that a {@link DirectApiLuceneQuery} with a cache expands wildcarded values with the cache.
+     * @throws IOException if the index could not be searched
+     */
+    @Test
+    public void directApi() throws IOException {
+        final TermExpansionCache cache = new TermExpansionCache();
+        final QueryModifier modifier = QueryModifier.start().required().wildcarded().end();
+        final DirectApiLuceneQuery query =
+            new DirectApiLuceneQuery("text", new WhitespaceAnalyzer(), reader, null, cache);
+        query.addArgument("term4", modifier);
+        
+        Assert.assertEquals(10, count(query.toQuery()));
+        Assert.assertEquals(1, cache.getMisses());
+    }
+    
+    /**
+     * Tests {@link TermExpansionCache#TermExpansionCache(long)} with 0.
+     * Expects an IllegalArgumentException.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void maxWeightInvalid() {
+        new TermExpansionCache(0);
+    }
+    
+}
@@ -0,0 +1,284 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.cosmocode.lucene.fragments.query;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+import de.cosmocode.lucene.LuceneQuery;
+import de.cosmocode.lucene.QueryModifier;
+
+/**
+ * <p> Tests all methods that are Iterator or Iterable related for {@link LuceneQuery}. <br />
+ * Tested methods are:
+ * </p>
+ * <ul>
+ *   <li> {@link LuceneQuery#addArgumentAsIterator(Iterator)} </li>
+ *   <li> {@link LuceneQuery#addArgumentAsIterable(Iterable)} </li>
+ *   <li> {@link LuceneQuery#addFieldAsIterator(String, Iterator, QueryModifier)} </li>
+ *   <li> {@link LuceneQuery#addFieldAsIterable(String, Iterable, QueryModifier)} </li>
+ * </ul>
+ * @author Oliver Lorenz
+ */
+public final class AddArgumentIteratorFragment extends AbstractLuceneQueryTestFragment {
+    
+    private static final QueryModifier REQUIRED = QueryModifier.start().required().end();
+    
+    private static final String CURSOR_CLOSED = "cursor closed";
+    
+    @Override
+    public LuceneQuery unit() {
+        final LuceneQuery unit = super.unit();
+        unit.setModifier(REQUIRED);
+        return unit;
+    }
+    
+    /**
+     * Returns the given values as an Iterable that is not a Collection.
+     */
+    private static Iterable<Object> iterable(final Object... values) {
+        return Iterables.unmodifiableIterable(Lists.newArrayList(values));
+    }
+    
+    /**
+     * Returns an Iterator that returns the given value and fails on the next call, like a closed cursor.
+     */
+    private static Iterator<Object> failing(final Object value) {
+        return new AbstractIterator<Object>() {
+            
+            private boolean returned;
+            
+            @Override
+            protected Object computeNext() {
+                if (returned) throw new IllegalStateException(CURSOR_CLOSED);
+                returned = true;
+                return value;
+            }
+            
+        };
+    }
+    
+    /**
+     * Tests {@link LuceneQuery#addArgumentAsIterator(Iterator)} with null.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void addArgumentNull() {
+        final LuceneQuery query = unit();
+        query.addArgumentAsIterator(null);
+        query.getQuery();
+    }
+    
+    /**
+     * Tests {@link LuceneQuery#addArgumentAsIterator(Iterator)} with an empty iterator.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void addArgumentEmpty() {
+        final LuceneQuery query = unit();
+        query.addArgumentAsIterator(Collections.emptySet().iterator());
+        query.getQuery();
+    }
+    
+    /**
+     * Tests {@link LuceneQuery#addArgumentAsIterator(Iterator)}
+     * with an iterator that contains only null or empty or blank Strings.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void addArgumentOnlyInvalid() {
+        final LuceneQuery query = unit();
+        query.addArgumentAsIterator(Lists.newArrayList("   ", null, "", null, "   ").iterator());
+        query.getQuery();
+    }
+    
+    /**
+     * Tests {@link LuceneQuery#addArgumentAsIterator(Iterator)} with one element.
+     */
+    @Test
+    public void addArgumentOneElement() {
+        final LuceneQuery query = unit();
+        query.addArgumentAsIterator(ImmutableList.of(ARG1).iterator());
+        final String expected = "+" + ARG1;
+        assertEquals(expected, query);
+    }
+    
+    /**
+     * Tests {@link LuceneQuery#addArgumentAsIterator(Iterator)} with 2 elements.
+     */
+    @Test
+    public void addArgumentTwoElements() {
+        final LuceneQuery query = unit();
+        query.addArgumentAsIterator(ImmutableList.<Object>of(ARG1, ARG2).iterator());
+        final String expected = "+" + ARG1 + " +" + ARG2;
+        assertEquals(expected, query);
+    }
+    
+    /**
+     * Tests {@link LuceneQuery#addArgumentAsIterator(Iterator)} with an iterator that contains invalid values.
+     */
+    @Test
+    public void addArgumentContainsInvalid() {
+        final LuceneQuery query = unit();
+        query.addArgumentAsIterator(Lists.newArrayList(ARG1, "", null, ARG3, "").iterator());
+        final String expected = "+" + ARG1 + " +" + ARG3;
+        assertEquals(expected, query);
+    }
+    
+    /**
+     * Tests that {@link LuceneQuery#addArgumentAsIterator(Iterator)} consumes the whole iterator.
+     */
+    @Test
+    public void addArgumentConsumed() {
+        final LuceneQuery query = unit();
+        final Iterator<String> values = ImmutableList.of(ARG1, ARG3).iterator();
+        query.addArgumentAsIterator(values);
+        Assert.assertFalse(values.hasNext());
+    }
+    
+    /**
+     * Tests that {@link LuceneQuery#addArgumentAsIterator(Iterator)} with an iterator that fails midway
+     * adds nothing, so that the following arguments are not affected.
+     */
+    @Test
+    public void addArgumentFailing() {
+        final LuceneQuery query = unit();
+        query.addArgument(ARG1);
+        try {
+            query.addArgumentAsIterator(failing(ARG2));
+            Assert.fail("the failing iterator must throw");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(CURSOR_CLOSED, e.getMessage());
+        }
+        query.addArgument(ARG3);
+        final String expected = "+" + ARG1 + " +" + ARG3;
+        assertEquals(expected, query);
+    }
+    
+    /**
+     * Tests {@link LuceneQuery#addArgumentAsIterable(Iterable)} with null.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void addIterableNull() {
+        final LuceneQuery query = unit();
+        query.addArgumentAsIterable(null);
+        query.getQuery();
+    }
+    
+    /**
+     * Tests {@link LuceneQuery#addArgumentAsIterable(Iterable)} with an empty iterable.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void addIterableEmpty() {
+        final LuceneQuery query = unit();
+        query.addArgumentAsIterable(iterable());
+        query.getQuery();
+    }
+    
+    /**
+     * Tests {@link LuceneQuery#addArgumentAsIterable(Iterable)} with 2 elements.
+     */
+    @Test
+    public void addIterableTwoElements() {
+        final LuceneQuery query = unit();
+        query.addArgumentAsIterable(iterable(ARG1, ARG2));
+        final String expected = "+" + ARG1 + " +" + ARG2;
+        assertEquals(expected, query);
+    }
+    
+    /**
+     * Tests {@link LuceneQuery#addArgumentAsIterable(Iterable)} with a collection.
+     */
+    @Test
+    public void addIterableCollection() {
+        final LuceneQuery query = unit();
+        final List<Object> values = ImmutableList.<Object>of(ARG1, ARG2);
+        query.addArgumentAsIterable(values);
+        final String expected = "+" + ARG1 + " +" + ARG2;
+        assertEquals(expected, query);
+    }
+    
+    /**
+     * Tests {@link LuceneQuery#addFieldAsIterator(String, Iterator, QueryModifier)} with a null key.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void addFieldNullKey() {
+        final LuceneQuery query = unit();
+        query.addFieldAsIterator(null, ImmutableList.of(ARG1).iterator(), REQUIRED);
+        query.getQuery();
+    }
+    
+    /**
+     * Tests {@link LuceneQuery#addFieldAsIterator(String, Iterator, QueryModifier)} with an empty iterator.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void addFieldEmpty() {
+        final LuceneQuery query = unit();
+        query.addFieldAsIterator(FIELD1, Collections.emptySet().iterator(), REQUIRED);
+        query.getQuery();
+    }
+    
+    /**
+     * Tests {@link LuceneQuery#addFieldAsIterator(String, Iterator, QueryModifier)} with 2 elements.
+     */
+    @Test
+    public void addFieldTwoElements() {
+        final LuceneQuery query = unit();
+        query.addFieldAsIterator(FIELD1, ImmutableList.<Object>of(ARG1, ARG2).iterator(), REQUIRED);
+        final String expected = "+" + FIELD1 + ":" + "(+" + ARG1 + " +" + ARG2 + ")";
+        assertEquals(expected, query);
+    }
+    
+    /**
+     * Tests that {@link LuceneQuery#addFieldAsIterator(String, Iterator, QueryModifier)}
+     * with an iterator that fails midway adds nothing, so that the following fields are not affected.
+     */
+    @Test
+    public void addFieldFailing() {
+        final LuceneQuery query = unit();
+        query.addField(FIELD1, ARG1, REQUIRED);
+        try {
+            query.addFieldAsIterator(FIELD2, failing(ARG2), REQUIRED);
+            Assert.fail("the failing iterator must throw");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(CURSOR_CLOSED, e.getMessage());
+        }
+        query.addField(FIELD1, ARG3, REQUIRED);
+        final String expected = "+" + FIELD1 + ":" + ARG1 + " +" + FIELD1 + ":" + ARG3;
+        assertEquals(expected, query);
+    }
+    
+    /**
+     * Tests {@link LuceneQuery#addFieldAsIterable(String, Iterable, QueryModifier)}
+     * with an iterable that contains nulls and empty Strings.
+     */
+    @Test
+    public void addFieldIterableContainsInvalid() {
+        final LuceneQuery query = unit();
+        query.addFieldAsIterable(FIELD1, iterable(ARG1, "", null, ARG3, null, "   "), REQUIRED);
+        final String expected = "+" + FIELD1 + ":" + "(" + ARG1 + " AND " + ARG3 + ")";
+        assertEquals(expected, query);
+    }
+    
+}